@@ -0,0 +1,334 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.audit;
+
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Aggregates instances of one Study stored or retrieved by one association in memory, and writes them once to the
+ * Audit Spool File, if no further instance was added within the Audit Aggregate Duration or if the configured
+ * maximal number of instances is reached. Aggregated instances are recorded with the time they were added in a
+ * write-ahead journal in sub-directory {@code .journal} of the Audit Spool Directory, which is forced to disk on each
+ * record and replayed by the first run of the {@link AuditScheduler} after a restart. Aggregates remain journaled
+ * until they were written to the Audit Spool File.
+ *
+ * @since Apr 2018
+ */
+@ApplicationScoped
+class AuditAggregator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditAggregator.class);
+    private static final String JOURNAL_DIR = ".journal";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final char MAIN = 'M';
+    private static final char INSTANCE = 'I';
+    private static final char FLUSHED = 'F';
+
+    @Inject
+    private Device device;
+
+    private final ConcurrentHashMap<Path, Aggregate> aggregates = new ConcurrentHashMap<>();
+
+    private Journal journal;
+
+    boolean add(Path file, AuditInfoBuilder patStudyInfo, AuditInfoBuilder instanceInfo) {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        int maxInstances = arcDev.getAuditAggregateMaxInstances();
+        if (maxInstances == 0 || aggregates.size() >= arcDev.getAuditMaxAggregates() && !aggregates.containsKey(file))
+            return false;
+
+        Journal journal;
+        try {
+            journal = journal(arcDev);
+        } catch (IOException e) {
+            LOG.warn("Failed to open Audit Journal - aggregate in Audit Spool Directory:\n", e);
+            return false;
+        }
+        boolean[] added = { true };
+        aggregates.compute(file, (path, aggregate) -> {
+            try {
+                long now = System.currentTimeMillis();
+                if (aggregate == null) {
+                    String mainInfo = SpoolFileWriter.toLine(new AuditInfo(patStudyInfo));
+                    aggregate = new Aggregate(journal.append(MAIN, now, path, mainInfo), mainInfo, now);
+                }
+                String line = SpoolFileWriter.toLine(new AuditInfo(instanceInfo));
+                journal.append(INSTANCE, now, path, line);
+                aggregate.add(line, now);
+            } catch (IOException e) {
+                LOG.warn("Failed to write to Audit Journal - aggregate in Audit Spool Directory:\n", e);
+                added[0] = false;
+                return aggregate;
+            }
+            return aggregate.lines.size() > maxInstances ? flush(journal, path, aggregate) : aggregate;
+        });
+        return added[0];
+    }
+
+    void flush(long maxLastModifiedTime) {
+        Journal journal;
+        try {
+            journal = journal(device.getDeviceExtension(ArchiveDeviceExtension.class));
+        } catch (IOException e) {
+            LOG.warn("Failed to open Audit Journal:\n", e);
+            return;
+        }
+        for (Path file : aggregates.keySet())
+            aggregates.computeIfPresent(file, (path, aggregate) ->
+                    aggregate.lastModified <= maxLastModifiedTime ? flush(journal, path, aggregate) : aggregate);
+
+        try {
+            int minSeq = journal.roll() - 1;
+            for (Aggregate aggregate : aggregates.values())
+                minSeq = Math.min(minSeq, aggregate.seq);
+            journal.deleteSegmentsBefore(minSeq);
+        } catch (IOException e) {
+            LOG.warn("Failed to roll Audit Journal {}:\n", journal.dir, e);
+        }
+    }
+
+    private Aggregate flush(Journal journal, Path file, Aggregate aggregate) {
+        try {
+            writeSpoolFile(file, aggregate.lines, aggregate.lastModified);
+        } catch (IOException e) {
+            LOG.warn("Failed to write to Audit Spool File - {} - retry on next flush:\n", file, e);
+            return aggregate;
+        }
+        try {
+            journal.append(FLUSHED, System.currentTimeMillis(), file, "");
+        } catch (IOException e) {
+            LOG.warn("Failed to write to Audit Journal:\n", e);
+        }
+        return null;
+    }
+
+    private synchronized Journal journal(ArchiveDeviceExtension arcDev) throws IOException {
+        Path dir = Paths.get(StringUtils.replaceSystemProperties(arcDev.getAuditSpoolDirectory()), JOURNAL_DIR);
+        if (journal == null || !journal.dir.equals(dir)) {
+            if (journal != null)
+                journal.close();
+            journal = recover(dir);
+        }
+        return journal;
+    }
+
+    /**
+     * Opens a new segment of the journal in {@code dir}, into which aggregates pending in previous segments are
+     * journaled again with their original times, before the previous segments are deleted. Recovered aggregates are
+     * written to the Audit Spool File by the next flush, dated by the time their last instance was added.
+     */
+    private Journal recover(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        List<Path> segments = Journal.segments(dir);
+        if (segments.isEmpty())
+            return new Journal(dir, 0);
+
+        Map<Path, List<String[]>> pending = new LinkedHashMap<>();
+        for (Path segment : segments) {
+            try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] record = line.split("\t", 4);
+                    if (record.length < 4 || record[0].length() != 1)
+                        continue;
+
+                    Path file = Paths.get(record[2]);
+                    switch (record[0].charAt(0)) {
+                        case MAIN:
+                            List<String[]> records = new ArrayList<>();
+                            records.add(record);
+                            pending.put(file, records);
+                            break;
+                        case INSTANCE:
+                            List<String[]> lines = pending.get(file);
+                            if (lines != null)
+                                lines.add(record);
+                            break;
+                        case FLUSHED:
+                            pending.remove(file);
+                            break;
+                    }
+                }
+            }
+        }
+        Journal journal = new Journal(dir, Journal.seqOf(segments.get(segments.size() - 1)) + 1);
+        try {
+            for (Map.Entry<Path, List<String[]>> entry : pending.entrySet()) {
+                Path file = entry.getKey();
+                List<String[]> records = entry.getValue();
+                String[] main = records.get(0);
+                long time = Long.parseLong(main[1]);
+                Aggregate aggregate = new Aggregate(journal.append(MAIN, time, file, main[3]), main[3], time);
+                for (String[] record : records.subList(1, records.size())) {
+                    time = Long.parseLong(record[1]);
+                    journal.append(INSTANCE, time, file, record[3]);
+                    aggregate.add(record[3], time);
+                }
+                aggregates.merge(file, aggregate, Aggregate::merge);
+            }
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        LOG.info("Recovered {} aggregated Audit Messages from Audit Journal {}", pending.size(), dir);
+        for (Path segment : segments)
+            Files.delete(segment);
+        return journal;
+    }
+
+    private static void writeSpoolFile(Path file, List<String> lines, long lastModified) throws IOException {
+        boolean append = Files.exists(file);
+        if (!append)
+            Files.createDirectories(file.getParent());
+        try (SpoolFileWriter writer = new SpoolFileWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.CREATE_NEW))) {
+            for (String line : append ? lines.subList(1, lines.size()) : lines)
+                writer.writeLine(line);
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+    }
+
+    private static class Aggregate {
+        final int seq;
+        final List<String> lines = new ArrayList<>();
+        long lastModified;
+
+        Aggregate(int seq, String mainInfo, long lastModified) {
+            this.seq = seq;
+            this.lastModified = lastModified;
+            lines.add(mainInfo);
+        }
+
+        void add(String line, long time) {
+            lines.add(line);
+            lastModified = Math.max(lastModified, time);
+        }
+
+        static Aggregate merge(Aggregate prev, Aggregate recovered) {
+            recovered.lines.addAll(prev.lines.subList(1, prev.lines.size()));
+            recovered.lastModified = Math.max(recovered.lastModified, prev.lastModified);
+            return recovered;
+        }
+    }
+
+    private static class Journal {
+        final Path dir;
+        private int seq;
+        private FileChannel channel;
+
+        Journal(Path dir, int seq) throws IOException {
+            this.dir = dir;
+            this.seq = seq;
+            this.channel = open();
+        }
+
+        static List<Path> segments(Path dir) throws IOException {
+            List<Path> segments = new ArrayList<>();
+            try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir, "*" + JOURNAL_SUFFIX)) {
+                for (Path path : dirStream)
+                    segments.add(path);
+            }
+            segments.sort(Comparator.comparingInt(Journal::seqOf));
+            return segments;
+        }
+
+        static int seqOf(Path segment) {
+            String name = segment.getFileName().toString();
+            return Integer.parseInt(name.substring(0, name.length() - JOURNAL_SUFFIX.length()));
+        }
+
+        private FileChannel open() throws IOException {
+            return FileChannel.open(dir.resolve(seq + JOURNAL_SUFFIX),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        /**
+         * Appends the line and forces it to disk. Returns the sequence number of the segment, to which the line was
+         * appended.
+         */
+        synchronized int append(char type, long time, Path file, String line) throws IOException {
+            ByteBuffer record = ByteBuffer.wrap((type + "\t" + time + '\t' + file + '\t' + line + '\n')
+                    .getBytes(StandardCharsets.UTF_8));
+            while (record.hasRemaining())
+                channel.write(record);
+            channel.force(false);
+            return seq;
+        }
+
+        synchronized int roll() throws IOException {
+            channel.close();
+            seq++;
+            channel = open();
+            return seq;
+        }
+
+        void deleteSegmentsBefore(int minSeq) throws IOException {
+            for (Path segment : segments(dir))
+                if (seqOf(segment) < minSeq)
+                    Files.delete(segment);
+        }
+
+        synchronized void close() {
+            SafeClose.close(channel);
+        }
+    }
+}
@@ -75,6 +75,9 @@ public class AuditScheduler extends Scheduler {
     @Inject
     private AuditService service;
 
+    @Inject
+    private AuditAggregator aggregator;
+
     protected AuditScheduler() {
         super(Mode.scheduleWithFixedDelay);
     }
@@ -100,6 +103,9 @@ public class AuditScheduler extends Scheduler {
         if (auditSpoolDir == null || duration == null)
             return;
 
+        final long maxLastModifiedTime = System.currentTimeMillis() - duration.getSeconds() * 1000L;
+        aggregator.flush(maxLastModifiedTime);
+
         for (AuditLogger logger : ext.getAuditLoggers()) {
             if (!logger.isInstalled())
                 continue;
@@ -109,7 +115,6 @@ public class AuditScheduler extends Scheduler {
             if (!Files.isDirectory(dir))
                 continue;
 
-            final long maxLastModifiedTime = System.currentTimeMillis() - duration.getSeconds() * 1000L;
             ArrayList<Path> pathList = new ArrayList<>();
             try {
                 try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir, file ->
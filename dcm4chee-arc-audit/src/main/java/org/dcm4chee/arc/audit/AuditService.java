@@ -113,6 +113,9 @@ public class AuditService {
     @Inject
     private IHL7ApplicationCache hl7AppCache;
 
+    @Inject
+    private AuditAggregator aggregator;
+
     private void aggregateAuditMessage(AuditLogger auditLogger, Path path) throws Exception {
         AuditServiceUtils.EventType eventType = AuditServiceUtils.EventType.fromFile(path);
         if (path.toFile().length() == 0) {
@@ -1852,6 +1855,9 @@ public class AuditService {
             if (auditLogger.isInstalled()) {
                 Path dir = toDirPath(auditLogger);
                 Path file = dir.resolve(fileName);
+                if (auditAggregate && aggregator.add(file, patStudyInfo, instanceInfo))
+                    continue;
+
                 boolean append = Files.exists(file);
                 try {
                     if (!append)
@@ -56,8 +56,12 @@ class SpoolFileWriter implements Closeable {
         this.writer = writer;
     }
 
+    static String toLine(Object o) {
+        return o.toString().replace('\r', '.').replace('\n', '.');
+    }
+
     void writeLine(Object o) throws IOException {
-        writer.write(o.toString().replace('\r', '.').replace('\n', '.'));
+        writer.write(toLine(o));
         writer.newLine();
     }
 
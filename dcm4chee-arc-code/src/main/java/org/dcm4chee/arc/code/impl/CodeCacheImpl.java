@@ -41,15 +41,19 @@
 package org.dcm4chee.arc.code.impl;
 
 import org.dcm4che3.data.Code;
+import org.dcm4chee.arc.CodeEntityCache;
 import org.dcm4chee.arc.code.CodeCache;
 import org.dcm4chee.arc.code.CodeService;
 import org.dcm4chee.arc.entity.CodeEntity;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Looks up Code entities in the bounded {@link CodeEntityCache}. Concurrent lookups of the same uncached Code wait
+ * for the result of one invocation of {@link CodeService#findOrCreate}, so concurrent stores do not race to insert
+ * the same Code.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  * @since Aug 2015
  */
@@ -58,16 +62,13 @@ public class CodeCacheImpl implements CodeCache {
 
     @Inject
     private CodeService service;
-    private ConcurrentHashMap<Code.Key,CodeEntity> cache = new ConcurrentHashMap<>();
+
+    @Inject
+    private CodeEntityCache cache;
 
     @Override
     public CodeEntity findOrCreate(Code code) {
-        CodeEntity entry = cache.get(code.key());
-        if (entry == null) {
-            entry = service.findOrCreate(code);
-            cache.put(code.key(), entry);
-        }
-        return entry;
+        return cache.get(code.key(), key -> service.findOrCreate(code));
     }
 
     @Override
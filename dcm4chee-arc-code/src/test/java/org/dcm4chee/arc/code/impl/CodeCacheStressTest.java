@@ -0,0 +1,201 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.code.impl;
+
+import org.dcm4che3.data.Code;
+import org.dcm4chee.arc.CodeEntityCache;
+import org.dcm4chee.arc.code.CodeService;
+import org.dcm4chee.arc.entity.CodeEntity;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hammers {@link CodeCacheImpl} with concurrent lookups of new and evicted Codes, which are found or created in an
+ * embedded H2 database by {@link CodeServiceEJB}, each invocation in its own transaction.
+ *
+ * @since Apr 2018
+ */
+public class CodeCacheStressTest {
+
+    private static final int THREADS = 32;
+    private static final int LOOKUPS_PER_THREAD = 2000;
+    private static final int CODES = 200;
+    private static final int CACHE_SIZE = 50;
+
+    private static EntityManagerFactory emf;
+
+    private final AtomicInteger invocations = new AtomicInteger();
+    private CodeCacheImpl codeCache;
+    private CodeEntityCache cache;
+    private String designator;
+
+    @BeforeClass
+    public static void setUpClass() {
+        emf = Persistence.createEntityManagerFactory("dcm4chee-arc-code-test");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        emf.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CodeEntityCache();
+        cache.setMaxSize(CACHE_SIZE);
+        codeCache = new CodeCacheImpl();
+        inject(codeCache, "service", (CodeService) this::findOrCreate);
+        inject(codeCache, "cache", cache);
+        designator = "STRESS-" + System.nanoTime();
+    }
+
+    @Test
+    public void testConcurrentLookupsOfSameCode() throws Exception {
+        Code code = new Code("1", designator, null, "Code 1");
+        List<Future<CodeEntity>> results = runConcurrently(1, random -> codeCache.findOrCreate(code));
+        long pk = results.get(0).get().getPk();
+        for (Future<CodeEntity> result : results)
+            assertEquals(pk, result.get().getPk());
+        assertEquals(1, invocations.get());
+        assertEquals(1L, countCodes());
+    }
+
+    @Test
+    public void testConcurrentLookupsWithEvictions() throws Exception {
+        Code[] codes = new Code[CODES];
+        for (int i = 0; i < CODES; i++)
+            codes[i] = new Code(Integer.toString(i), designator, null, "Code " + i);
+        List<Future<CodeEntity>> results = runConcurrently(LOOKUPS_PER_THREAD, random -> {
+            Code code = codes[random.nextInt(CODES)];
+            CodeEntity entity = codeCache.findOrCreate(code);
+            assertEquals(code.getCodeValue(), entity.getCodeValue());
+            return entity;
+        });
+        for (Future<CodeEntity> result : results)
+            result.get();
+        assertEquals(CODES, countCodes());
+        assertTrue("cache size=" + cache.size(), cache.size() <= CACHE_SIZE);
+        assertTrue("loads=" + cache.getLoads(), cache.getLoads() > CODES);
+    }
+
+    private interface Lookup {
+        CodeEntity lookup(Random random);
+    }
+
+    private List<Future<CodeEntity>> runConcurrently(int lookupsPerThread, Lookup lookup) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(THREADS);
+            List<Future<CodeEntity>> results = new ArrayList<>(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                Random random = new Random(i);
+                results.add(executor.submit(() -> {
+                    barrier.await();
+                    CodeEntity entity = null;
+                    for (int j = 0; j < lookupsPerThread; j++)
+                        entity = lookup.lookup(random);
+                    return entity;
+                }));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CodeEntity findOrCreate(Code code) {
+        invocations.incrementAndGet();
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            CodeServiceEJB ejb = new CodeServiceEJB();
+            inject(ejb, "em", em);
+            tx.begin();
+            CodeEntity entity = ejb.findOrCreate(code);
+            tx.commit();
+            return entity;
+        } finally {
+            if (tx.isActive())
+                tx.rollback();
+            em.close();
+        }
+    }
+
+    private long countCodes() {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return em.createQuery(
+                    "select count(entity) from CodeEntity entity where entity.codingSchemeDesignator = ?1",
+                    Long.class)
+                    .setParameter(1, designator)
+                    .getSingleResult();
+        } finally {
+            em.close();
+        }
+    }
+
+    private static void inject(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -230,6 +230,36 @@ public class JsonArchiveConfiguration extends JsonConfigurationExtension {
         writer.writeNotNullOrDef("dcmRejectionNoteStorageAET", arcDev.getRejectionNoteStorageAET(), null);
         writer.writeNotEmpty("dcmXRoadProperty", descriptorProperties(arcDev.getXRoadProperties()));
         writer.writeNotNullOrDef("dcmUIConfigurationDeviceName", arcDev.getUiConfigurationDeviceName(), null);
+        writer.writeNotDef("dcmRetrieveLookAheadWindow", arcDev.getRetrieveLookAheadWindow(), 0);
+        writer.writeNotNullOrDef("dcmCalculateQueryAttributesPollingInterval", arcDev.getCalculateQueryAttributesPollingInterval(), null);
+        writer.writeNotDef("dcmCalculateQueryAttributesFetchSize", arcDev.getCalculateQueryAttributesFetchSize(), 100);
+        writer.writeNotDef("dcmCalculateQueryAttributesThreads", arcDev.getCalculateQueryAttributesThreads(), 1);
+        writer.writeNotDef("dcmRetrieveAssociations", arcDev.getRetrieveAssociations(), 1);
+        writer.writeNotDef("dcmRetrievePrefetchSize", arcDev.getRetrievePrefetchSize(), 0);
+        writer.writeNotDef("dcmPurgeStorageThreads", arcDev.getPurgeStorageThreads(), 1);
+        writer.writeNotDef("dcmSeriesMetadataThreads", arcDev.getSeriesMetadataThreads(), 1);
+        writer.writeNotNullOrDef("dcmSeriesMetadataLeaseDuration", arcDev.getSeriesMetadataLeaseDuration(), null);
+        writer.writeNotDef("dcmAuditAggregateMaxInstances", arcDev.getAuditAggregateMaxInstances(), 1000);
+        writer.writeNotDef("dcmAuditMaxAggregates", arcDev.getAuditMaxAggregates(), 1000);
+        writer.writeNotNullOrDef("dcmQueueTransitionBatchInterval", arcDev.getQueueTransitionBatchInterval(), null);
+        writer.writeNotDef("dcmQueueTransitionBatchSize", arcDev.getQueueTransitionBatchSize(), 100);
+        writer.writeNotNullOrDef("dcmExportTriggerCoalescingInterval", arcDev.getExportTriggerCoalescingInterval(), null);
+        writer.writeNotDef("dcmStorePermissionServiceMaxConnections", arcDev.getStorePermissionServiceMaxConnections(), 10);
+        writer.writeNotDef("dcmStorePermissionServicePrefetch", arcDev.isStorePermissionServicePrefetch(), false);
+        writer.writeNotNullOrDef("dcmWadoRenderedCacheDirectory", arcDev.getWadoRenderedCacheDirectory(), null);
+        writer.writeNotNullOrDef("dcmWadoRenderedCacheSize", arcDev.getWadoRenderedCacheSize(), null);
+        writer.writeNotNullOrDef("dcmWadoFrameIndexDirectory", arcDev.getWadoFrameIndexDirectory(), null);
+        writer.writeNotDef("dcmWadoMetadataPrefetchWindow", arcDev.getWadoMetadataPrefetchWindow(), 0);
+        writer.writeNotDef("dcmSpanningCFindSCPConcurrent", arcDev.isSpanningCFindSCPConcurrent(), false);
+        writer.writeNotNullOrDef("dcmSpanningCFindSCPTimeout", arcDev.getSpanningCFindSCPTimeout(), null);
+        writer.writeNotDef("dcmSpanningCFindSCPFailOnTimeout", arcDev.isSpanningCFindSCPFailOnTimeout(), false);
+        writer.writeNotDef("dcmStowMaxConcurrentStores", arcDev.getStowMaxConcurrentStores(), 1);
+        writer.writeNotDef("dcmIssuerCacheSize", arcDev.getIssuerCacheSize(), 1000);
+        writer.writeNotNullOrDef("dcmIssuerCacheStaleTimeout", arcDev.getIssuerCacheStaleTimeout(), null);
+        writer.writeNotDef("dcmPatientIDCacheSize", arcDev.getPatientIDCacheSize(), 0);
+        writer.writeNotNullOrDef("dcmPatientIDCacheStaleTimeout", arcDev.getPatientIDCacheStaleTimeout(), null);
+        writer.writeNotDef("dcmCodeCacheSize", arcDev.getCodeCacheSize(), 10000);
+        writer.writeNotDef("dcmIndexedAttributesBlob", arcDev.isIndexedAttributesBlob(), false);
         writeAttributeFilters(writer, arcDev);
         writeStorageDescriptor(writer, arcDev.getStorageDescriptors());
         writeQueryRetrieveView(writer, arcDev.getQueryRetrieveViews());
@@ -588,6 +618,9 @@ public class JsonArchiveConfiguration extends JsonConfigurationExtension {
         writer.writeNotNullOrDef("dcmSpanningCFindSCP", arcAE.getSpanningCFindSCP(), null);
         writer.writeNotEmpty("dcmSpanningCFindSCPRetrieveAET", arcAE.getSpanningCFindSCPRetrieveAETitles());
         writer.writeNotNullOrDef("dcmSpanningCFindSCPPolicy", arcAE.getSpanningCFindSCPPolicy(), null);
+        writer.writeNotNull("dcmSpanningCFindSCPConcurrent", arcAE.getSpanningCFindSCPConcurrent());
+        writer.writeNotNullOrDef("dcmSpanningCFindSCPTimeout", arcAE.getSpanningCFindSCPTimeout(), null);
+        writer.writeNotNull("dcmSpanningCFindSCPFailOnTimeout", arcAE.getSpanningCFindSCPFailOnTimeout());
         writer.writeNotNullOrDef("dcmFallbackCMoveSCP", arcAE.getFallbackCMoveSCP(), null);
         writer.writeNotNullOrDef("dcmFallbackCMoveSCPDestination", arcAE.getFallbackCMoveSCPDestination(), null);
         writer.writeNotNull("dcmFallbackCMoveSCPRetries", arcAE.getFallbackCMoveSCPRetries());
@@ -1020,6 +1053,96 @@ public class JsonArchiveConfiguration extends JsonConfigurationExtension {
                 case "dcmUIConfigurationDeviceName":
                     arcDev.setUiConfigurationDeviceName(reader.stringValue());
                     break;
+                case "dcmRetrieveLookAheadWindow":
+                    arcDev.setRetrieveLookAheadWindow(reader.intValue());
+                    break;
+                case "dcmCalculateQueryAttributesPollingInterval":
+                    arcDev.setCalculateQueryAttributesPollingInterval(Duration.parse(reader.stringValue()));
+                    break;
+                case "dcmCalculateQueryAttributesFetchSize":
+                    arcDev.setCalculateQueryAttributesFetchSize(reader.intValue());
+                    break;
+                case "dcmCalculateQueryAttributesThreads":
+                    arcDev.setCalculateQueryAttributesThreads(reader.intValue());
+                    break;
+                case "dcmRetrieveAssociations":
+                    arcDev.setRetrieveAssociations(reader.intValue());
+                    break;
+                case "dcmRetrievePrefetchSize":
+                    arcDev.setRetrievePrefetchSize(reader.intValue());
+                    break;
+                case "dcmPurgeStorageThreads":
+                    arcDev.setPurgeStorageThreads(reader.intValue());
+                    break;
+                case "dcmSeriesMetadataThreads":
+                    arcDev.setSeriesMetadataThreads(reader.intValue());
+                    break;
+                case "dcmSeriesMetadataLeaseDuration":
+                    arcDev.setSeriesMetadataLeaseDuration(Duration.parse(reader.stringValue()));
+                    break;
+                case "dcmAuditAggregateMaxInstances":
+                    arcDev.setAuditAggregateMaxInstances(reader.intValue());
+                    break;
+                case "dcmAuditMaxAggregates":
+                    arcDev.setAuditMaxAggregates(reader.intValue());
+                    break;
+                case "dcmQueueTransitionBatchInterval":
+                    arcDev.setQueueTransitionBatchInterval(Duration.parse(reader.stringValue()));
+                    break;
+                case "dcmQueueTransitionBatchSize":
+                    arcDev.setQueueTransitionBatchSize(reader.intValue());
+                    break;
+                case "dcmExportTriggerCoalescingInterval":
+                    arcDev.setExportTriggerCoalescingInterval(Duration.parse(reader.stringValue()));
+                    break;
+                case "dcmStorePermissionServiceMaxConnections":
+                    arcDev.setStorePermissionServiceMaxConnections(reader.intValue());
+                    break;
+                case "dcmStorePermissionServicePrefetch":
+                    arcDev.setStorePermissionServicePrefetch(reader.booleanValue());
+                    break;
+                case "dcmWadoRenderedCacheDirectory":
+                    arcDev.setWadoRenderedCacheDirectory(reader.stringValue());
+                    break;
+                case "dcmWadoRenderedCacheSize":
+                    arcDev.setWadoRenderedCacheSize(reader.stringValue());
+                    break;
+                case "dcmWadoFrameIndexDirectory":
+                    arcDev.setWadoFrameIndexDirectory(reader.stringValue());
+                    break;
+                case "dcmWadoMetadataPrefetchWindow":
+                    arcDev.setWadoMetadataPrefetchWindow(reader.intValue());
+                    break;
+                case "dcmSpanningCFindSCPConcurrent":
+                    arcDev.setSpanningCFindSCPConcurrent(reader.booleanValue());
+                    break;
+                case "dcmSpanningCFindSCPTimeout":
+                    arcDev.setSpanningCFindSCPTimeout(Duration.parse(reader.stringValue()));
+                    break;
+                case "dcmSpanningCFindSCPFailOnTimeout":
+                    arcDev.setSpanningCFindSCPFailOnTimeout(reader.booleanValue());
+                    break;
+                case "dcmStowMaxConcurrentStores":
+                    arcDev.setStowMaxConcurrentStores(reader.intValue());
+                    break;
+                case "dcmIssuerCacheSize":
+                    arcDev.setIssuerCacheSize(reader.intValue());
+                    break;
+                case "dcmIssuerCacheStaleTimeout":
+                    arcDev.setIssuerCacheStaleTimeout(Duration.parse(reader.stringValue()));
+                    break;
+                case "dcmPatientIDCacheSize":
+                    arcDev.setPatientIDCacheSize(reader.intValue());
+                    break;
+                case "dcmPatientIDCacheStaleTimeout":
+                    arcDev.setPatientIDCacheStaleTimeout(Duration.parse(reader.stringValue()));
+                    break;
+                case "dcmCodeCacheSize":
+                    arcDev.setCodeCacheSize(reader.intValue());
+                    break;
+                case "dcmIndexedAttributesBlob":
+                    arcDev.setIndexedAttributesBlob(reader.booleanValue());
+                    break;
                 case "dcmAttributeFilter":
                     loadAttributeFilterListFrom(arcDev, reader);
                     break;
@@ -1865,6 +1988,15 @@ public class JsonArchiveConfiguration extends JsonConfigurationExtension {
                 case "dcmSpanningCFindSCPPolicy":
                     arcAE.setSpanningCFindSCPPolicy(SpanningCFindSCPPolicy.valueOf(reader.stringValue()));
                     break;
+                case "dcmSpanningCFindSCPConcurrent":
+                    arcAE.setSpanningCFindSCPConcurrent(reader.booleanValue());
+                    break;
+                case "dcmSpanningCFindSCPTimeout":
+                    arcAE.setSpanningCFindSCPTimeout(Duration.parse(reader.stringValue()));
+                    break;
+                case "dcmSpanningCFindSCPFailOnTimeout":
+                    arcAE.setSpanningCFindSCPFailOnTimeout(reader.booleanValue());
+                    break;
                 case "dcmFallbackCMoveSCP":
                     arcAE.setFallbackCMoveSCP(reader.stringValue());
                     break;
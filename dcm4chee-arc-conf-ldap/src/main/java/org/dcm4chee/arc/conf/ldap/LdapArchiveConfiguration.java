@@ -231,6 +231,36 @@ class LdapArchiveConfiguration extends LdapDicomConfigurationExtension {
         LdapUtils.storeNotEmpty(ldapObj, attrs, "dcmXRoadProperty", toStrings(ext.getXRoadProperties()));
         LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmUIConfigurationDeviceName",
                 ext.getUiConfigurationDeviceName(), null);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmRetrieveLookAheadWindow", ext.getRetrieveLookAheadWindow(), 0);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmCalculateQueryAttributesPollingInterval", ext.getCalculateQueryAttributesPollingInterval(), null);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmCalculateQueryAttributesFetchSize", ext.getCalculateQueryAttributesFetchSize(), 100);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmCalculateQueryAttributesThreads", ext.getCalculateQueryAttributesThreads(), 1);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmRetrieveAssociations", ext.getRetrieveAssociations(), 1);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmRetrievePrefetchSize", ext.getRetrievePrefetchSize(), 0);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmPurgeStorageThreads", ext.getPurgeStorageThreads(), 1);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmSeriesMetadataThreads", ext.getSeriesMetadataThreads(), 1);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmSeriesMetadataLeaseDuration", ext.getSeriesMetadataLeaseDuration(), null);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmAuditAggregateMaxInstances", ext.getAuditAggregateMaxInstances(), 1000);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmAuditMaxAggregates", ext.getAuditMaxAggregates(), 1000);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmQueueTransitionBatchInterval", ext.getQueueTransitionBatchInterval(), null);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmQueueTransitionBatchSize", ext.getQueueTransitionBatchSize(), 100);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmExportTriggerCoalescingInterval", ext.getExportTriggerCoalescingInterval(), null);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmStorePermissionServiceMaxConnections", ext.getStorePermissionServiceMaxConnections(), 10);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmStorePermissionServicePrefetch", ext.isStorePermissionServicePrefetch(), false);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmWadoRenderedCacheDirectory", ext.getWadoRenderedCacheDirectory(), null);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmWadoRenderedCacheSize", ext.getWadoRenderedCacheSize(), null);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmWadoFrameIndexDirectory", ext.getWadoFrameIndexDirectory(), null);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmWadoMetadataPrefetchWindow", ext.getWadoMetadataPrefetchWindow(), 0);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmSpanningCFindSCPConcurrent", ext.isSpanningCFindSCPConcurrent(), false);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmSpanningCFindSCPTimeout", ext.getSpanningCFindSCPTimeout(), null);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmSpanningCFindSCPFailOnTimeout", ext.isSpanningCFindSCPFailOnTimeout(), false);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmStowMaxConcurrentStores", ext.getStowMaxConcurrentStores(), 1);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmIssuerCacheSize", ext.getIssuerCacheSize(), 1000);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmIssuerCacheStaleTimeout", ext.getIssuerCacheStaleTimeout(), null);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmPatientIDCacheSize", ext.getPatientIDCacheSize(), 0);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmPatientIDCacheStaleTimeout", ext.getPatientIDCacheStaleTimeout(), null);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmCodeCacheSize", ext.getCodeCacheSize(), 10000);
+        LdapUtils.storeNotDef(ldapObj, attrs, "dcmIndexedAttributesBlob", ext.isIndexedAttributesBlob(), false);
     }
 
     @Override
@@ -387,6 +417,36 @@ class LdapArchiveConfiguration extends LdapDicomConfigurationExtension {
         ext.setXRoadProperties(LdapUtils.stringArray(attrs.get("dcmXRoadProperty")));
         ext.setUiConfigurationDeviceName(LdapUtils.stringValue(
                 attrs.get("dcmUIConfigurationDeviceName"), null));
+        ext.setRetrieveLookAheadWindow(LdapUtils.intValue(attrs.get("dcmRetrieveLookAheadWindow"), 0));
+        ext.setCalculateQueryAttributesPollingInterval(toDuration(attrs.get("dcmCalculateQueryAttributesPollingInterval"), null));
+        ext.setCalculateQueryAttributesFetchSize(LdapUtils.intValue(attrs.get("dcmCalculateQueryAttributesFetchSize"), 100));
+        ext.setCalculateQueryAttributesThreads(LdapUtils.intValue(attrs.get("dcmCalculateQueryAttributesThreads"), 1));
+        ext.setRetrieveAssociations(LdapUtils.intValue(attrs.get("dcmRetrieveAssociations"), 1));
+        ext.setRetrievePrefetchSize(LdapUtils.intValue(attrs.get("dcmRetrievePrefetchSize"), 0));
+        ext.setPurgeStorageThreads(LdapUtils.intValue(attrs.get("dcmPurgeStorageThreads"), 1));
+        ext.setSeriesMetadataThreads(LdapUtils.intValue(attrs.get("dcmSeriesMetadataThreads"), 1));
+        ext.setSeriesMetadataLeaseDuration(toDuration(attrs.get("dcmSeriesMetadataLeaseDuration"), null));
+        ext.setAuditAggregateMaxInstances(LdapUtils.intValue(attrs.get("dcmAuditAggregateMaxInstances"), 1000));
+        ext.setAuditMaxAggregates(LdapUtils.intValue(attrs.get("dcmAuditMaxAggregates"), 1000));
+        ext.setQueueTransitionBatchInterval(toDuration(attrs.get("dcmQueueTransitionBatchInterval"), null));
+        ext.setQueueTransitionBatchSize(LdapUtils.intValue(attrs.get("dcmQueueTransitionBatchSize"), 100));
+        ext.setExportTriggerCoalescingInterval(toDuration(attrs.get("dcmExportTriggerCoalescingInterval"), null));
+        ext.setStorePermissionServiceMaxConnections(LdapUtils.intValue(attrs.get("dcmStorePermissionServiceMaxConnections"), 10));
+        ext.setStorePermissionServicePrefetch(LdapUtils.booleanValue(attrs.get("dcmStorePermissionServicePrefetch"), false));
+        ext.setWadoRenderedCacheDirectory(LdapUtils.stringValue(attrs.get("dcmWadoRenderedCacheDirectory"), null));
+        ext.setWadoRenderedCacheSize(LdapUtils.stringValue(attrs.get("dcmWadoRenderedCacheSize"), null));
+        ext.setWadoFrameIndexDirectory(LdapUtils.stringValue(attrs.get("dcmWadoFrameIndexDirectory"), null));
+        ext.setWadoMetadataPrefetchWindow(LdapUtils.intValue(attrs.get("dcmWadoMetadataPrefetchWindow"), 0));
+        ext.setSpanningCFindSCPConcurrent(LdapUtils.booleanValue(attrs.get("dcmSpanningCFindSCPConcurrent"), false));
+        ext.setSpanningCFindSCPTimeout(toDuration(attrs.get("dcmSpanningCFindSCPTimeout"), null));
+        ext.setSpanningCFindSCPFailOnTimeout(LdapUtils.booleanValue(attrs.get("dcmSpanningCFindSCPFailOnTimeout"), false));
+        ext.setStowMaxConcurrentStores(LdapUtils.intValue(attrs.get("dcmStowMaxConcurrentStores"), 1));
+        ext.setIssuerCacheSize(LdapUtils.intValue(attrs.get("dcmIssuerCacheSize"), 1000));
+        ext.setIssuerCacheStaleTimeout(toDuration(attrs.get("dcmIssuerCacheStaleTimeout"), null));
+        ext.setPatientIDCacheSize(LdapUtils.intValue(attrs.get("dcmPatientIDCacheSize"), 0));
+        ext.setPatientIDCacheStaleTimeout(toDuration(attrs.get("dcmPatientIDCacheStaleTimeout"), null));
+        ext.setCodeCacheSize(LdapUtils.intValue(attrs.get("dcmCodeCacheSize"), 10000));
+        ext.setIndexedAttributesBlob(LdapUtils.booleanValue(attrs.get("dcmIndexedAttributesBlob"), false));
     }
 
     @Override
@@ -655,6 +715,66 @@ class LdapArchiveConfiguration extends LdapDicomConfigurationExtension {
         LdapUtils.storeDiffObject(ldapObj, mods, "dcmUIConfigurationDeviceName",
                 aa.getUiConfigurationDeviceName(), bb.getUiConfigurationDeviceName(),
                 null);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmRetrieveLookAheadWindow",
+                aa.getRetrieveLookAheadWindow(), bb.getRetrieveLookAheadWindow(), 0);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmCalculateQueryAttributesPollingInterval",
+                aa.getCalculateQueryAttributesPollingInterval(), bb.getCalculateQueryAttributesPollingInterval(), null);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmCalculateQueryAttributesFetchSize",
+                aa.getCalculateQueryAttributesFetchSize(), bb.getCalculateQueryAttributesFetchSize(), 100);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmCalculateQueryAttributesThreads",
+                aa.getCalculateQueryAttributesThreads(), bb.getCalculateQueryAttributesThreads(), 1);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmRetrieveAssociations",
+                aa.getRetrieveAssociations(), bb.getRetrieveAssociations(), 1);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmRetrievePrefetchSize",
+                aa.getRetrievePrefetchSize(), bb.getRetrievePrefetchSize(), 0);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmPurgeStorageThreads",
+                aa.getPurgeStorageThreads(), bb.getPurgeStorageThreads(), 1);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmSeriesMetadataThreads",
+                aa.getSeriesMetadataThreads(), bb.getSeriesMetadataThreads(), 1);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmSeriesMetadataLeaseDuration",
+                aa.getSeriesMetadataLeaseDuration(), bb.getSeriesMetadataLeaseDuration(), null);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmAuditAggregateMaxInstances",
+                aa.getAuditAggregateMaxInstances(), bb.getAuditAggregateMaxInstances(), 1000);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmAuditMaxAggregates",
+                aa.getAuditMaxAggregates(), bb.getAuditMaxAggregates(), 1000);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmQueueTransitionBatchInterval",
+                aa.getQueueTransitionBatchInterval(), bb.getQueueTransitionBatchInterval(), null);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmQueueTransitionBatchSize",
+                aa.getQueueTransitionBatchSize(), bb.getQueueTransitionBatchSize(), 100);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmExportTriggerCoalescingInterval",
+                aa.getExportTriggerCoalescingInterval(), bb.getExportTriggerCoalescingInterval(), null);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmStorePermissionServiceMaxConnections",
+                aa.getStorePermissionServiceMaxConnections(), bb.getStorePermissionServiceMaxConnections(), 10);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmStorePermissionServicePrefetch",
+                aa.isStorePermissionServicePrefetch(), bb.isStorePermissionServicePrefetch(), false);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmWadoRenderedCacheDirectory",
+                aa.getWadoRenderedCacheDirectory(), bb.getWadoRenderedCacheDirectory(), null);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmWadoRenderedCacheSize",
+                aa.getWadoRenderedCacheSize(), bb.getWadoRenderedCacheSize(), null);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmWadoFrameIndexDirectory",
+                aa.getWadoFrameIndexDirectory(), bb.getWadoFrameIndexDirectory(), null);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmWadoMetadataPrefetchWindow",
+                aa.getWadoMetadataPrefetchWindow(), bb.getWadoMetadataPrefetchWindow(), 0);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmSpanningCFindSCPConcurrent",
+                aa.isSpanningCFindSCPConcurrent(), bb.isSpanningCFindSCPConcurrent(), false);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmSpanningCFindSCPTimeout",
+                aa.getSpanningCFindSCPTimeout(), bb.getSpanningCFindSCPTimeout(), null);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmSpanningCFindSCPFailOnTimeout",
+                aa.isSpanningCFindSCPFailOnTimeout(), bb.isSpanningCFindSCPFailOnTimeout(), false);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmStowMaxConcurrentStores",
+                aa.getStowMaxConcurrentStores(), bb.getStowMaxConcurrentStores(), 1);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmIssuerCacheSize",
+                aa.getIssuerCacheSize(), bb.getIssuerCacheSize(), 1000);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmIssuerCacheStaleTimeout",
+                aa.getIssuerCacheStaleTimeout(), bb.getIssuerCacheStaleTimeout(), null);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmPatientIDCacheSize",
+                aa.getPatientIDCacheSize(), bb.getPatientIDCacheSize(), 0);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmPatientIDCacheStaleTimeout",
+                aa.getPatientIDCacheStaleTimeout(), bb.getPatientIDCacheStaleTimeout(), null);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmCodeCacheSize",
+                aa.getCodeCacheSize(), bb.getCodeCacheSize(), 10000);
+        LdapUtils.storeDiff(ldapObj, mods, "dcmIndexedAttributesBlob",
+                aa.isIndexedAttributesBlob(), bb.isIndexedAttributesBlob(), false);
         if (remove)
             mods.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE,
                     LdapUtils.attr("objectClass", "dcmArchiveDevice")));
@@ -771,6 +891,11 @@ class LdapArchiveConfiguration extends LdapDicomConfigurationExtension {
         LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmSpanningCFindSCP", ext.getSpanningCFindSCP(), null);
         LdapUtils.storeNotEmpty(ldapObj, attrs, "dcmSpanningCFindSCPRetrieveAET", ext.getSpanningCFindSCPRetrieveAETitles());
         LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmSpanningCFindSCPPolicy", ext.getSpanningCFindSCPPolicy(), null);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmSpanningCFindSCPConcurrent",
+                ext.getSpanningCFindSCPConcurrent(), null);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmSpanningCFindSCPTimeout", ext.getSpanningCFindSCPTimeout(), null);
+        LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmSpanningCFindSCPFailOnTimeout",
+                ext.getSpanningCFindSCPFailOnTimeout(), null);
         LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmFallbackCMoveSCP", ext.getFallbackCMoveSCP(), null);
         LdapUtils.storeNotNullOrDef(ldapObj, attrs, "dcmFallbackCMoveSCPDestination", ext.getFallbackCMoveSCPDestination(), null);
         LdapUtils.storeNotNull(ldapObj, attrs, "dcmFallbackCMoveSCPRetries", ext.getFallbackCMoveSCPRetries());
@@ -840,6 +965,10 @@ class LdapArchiveConfiguration extends LdapDicomConfigurationExtension {
         ext.setSpanningCFindSCPRetrieveAETitles(LdapUtils.stringArray(attrs.get("dcmSpanningCFindSCPRetrieveAET")));
         ext.setSpanningCFindSCPPolicy(LdapUtils.enumValue(
                 SpanningCFindSCPPolicy.class, attrs.get("dcmSpanningCFindSCPPolicy"), null));
+        ext.setSpanningCFindSCPConcurrent(LdapUtils.booleanValue(attrs.get("dcmSpanningCFindSCPConcurrent"), null));
+        ext.setSpanningCFindSCPTimeout(toDuration(attrs.get("dcmSpanningCFindSCPTimeout"), null));
+        ext.setSpanningCFindSCPFailOnTimeout(
+                LdapUtils.booleanValue(attrs.get("dcmSpanningCFindSCPFailOnTimeout"), null));
         ext.setFallbackCMoveSCP(LdapUtils.stringValue(attrs.get("dcmFallbackCMoveSCP"), null));
         ext.setFallbackCMoveSCPDestination(LdapUtils.stringValue(attrs.get("dcmFallbackCMoveSCPDestination"), null));
         ext.setFallbackCMoveSCPRetries(LdapUtils.intValue(attrs.get("dcmFallbackCMoveSCPRetries"), null));
@@ -930,6 +1059,12 @@ class LdapArchiveConfiguration extends LdapDicomConfigurationExtension {
                 aa.getSpanningCFindSCPRetrieveAETitles(), bb.getSpanningCFindSCPRetrieveAETitles());
         LdapUtils.storeDiffObject(ldapObj, mods, "dcmSpanningCFindSCPPolicy",
                 aa.getSpanningCFindSCPPolicy(), bb.getSpanningCFindSCPPolicy(), null);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmSpanningCFindSCPConcurrent",
+                aa.getSpanningCFindSCPConcurrent(), bb.getSpanningCFindSCPConcurrent(), null);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmSpanningCFindSCPTimeout",
+                aa.getSpanningCFindSCPTimeout(), bb.getSpanningCFindSCPTimeout(), null);
+        LdapUtils.storeDiffObject(ldapObj, mods, "dcmSpanningCFindSCPFailOnTimeout",
+                aa.getSpanningCFindSCPFailOnTimeout(), bb.getSpanningCFindSCPFailOnTimeout(), null);
         LdapUtils.storeDiffObject(ldapObj, mods, "dcmFallbackCMoveSCP", aa.getFallbackCMoveSCP(), bb.getFallbackCMoveSCP(), null);
         LdapUtils.storeDiffObject(ldapObj, mods, "dcmFallbackCMoveSCPDestination",
                 aa.getFallbackCMoveSCPDestination(), bb.getFallbackCMoveSCPDestination(), null);
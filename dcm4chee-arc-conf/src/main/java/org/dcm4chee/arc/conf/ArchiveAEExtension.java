@@ -81,6 +81,9 @@ public class ArchiveAEExtension extends AEExtension {
     private String spanningCFindSCP;
     private String[] spanningCFindSCPRetrieveAETitles = {};
     private SpanningCFindSCPPolicy spanningCFindSCPPolicy;
+    private Boolean spanningCFindSCPConcurrent;
+    private Duration spanningCFindSCPTimeout;
+    private Boolean spanningCFindSCPFailOnTimeout;
     private Integer fallbackCMoveSCPRetries;
     private String fallbackCMoveSCP;
     private String fallbackCMoveSCPDestination;
@@ -119,6 +122,10 @@ public class ArchiveAEExtension extends AEExtension {
     private final ArrayList<ArchiveAttributeCoercion> attributeCoercions = new ArrayList<>();
     private final ArrayList<StudyRetentionPolicy> studyRetentionPolicies = new ArrayList<>();
     private final ArrayList<StoreAccessControlIDRule> storeAccessControlIDRules = new ArrayList<>();
+    private transient volatile RuleIndex<ExportRule> exportRuleIndex;
+    private transient volatile RuleIndex<ArchiveCompressionRule> compressionRuleIndex;
+    private transient volatile RuleIndex<StudyRetentionPolicy> studyRetentionPolicyIndex;
+    private transient volatile RuleIndex<StoreAccessControlIDRule> storeAccessControlIDRuleIndex;
 
     public String getDefaultCharacterSet() {
         return defaultCharacterSet;
@@ -458,6 +465,48 @@ public class ArchiveAEExtension extends AEExtension {
                 : getArchiveDeviceExtension().getSpanningCFindSCPPolicy();
     }
 
+    public Boolean getSpanningCFindSCPConcurrent() {
+        return spanningCFindSCPConcurrent;
+    }
+
+    public void setSpanningCFindSCPConcurrent(Boolean spanningCFindSCPConcurrent) {
+        this.spanningCFindSCPConcurrent = spanningCFindSCPConcurrent;
+    }
+
+    public boolean spanningCFindSCPConcurrent() {
+        return spanningCFindSCPConcurrent != null
+                ? spanningCFindSCPConcurrent
+                : getArchiveDeviceExtension().isSpanningCFindSCPConcurrent();
+    }
+
+    public Duration getSpanningCFindSCPTimeout() {
+        return spanningCFindSCPTimeout;
+    }
+
+    public void setSpanningCFindSCPTimeout(Duration spanningCFindSCPTimeout) {
+        this.spanningCFindSCPTimeout = spanningCFindSCPTimeout;
+    }
+
+    public Duration spanningCFindSCPTimeout() {
+        return spanningCFindSCPTimeout != null
+                ? spanningCFindSCPTimeout
+                : getArchiveDeviceExtension().getSpanningCFindSCPTimeout();
+    }
+
+    public Boolean getSpanningCFindSCPFailOnTimeout() {
+        return spanningCFindSCPFailOnTimeout;
+    }
+
+    public void setSpanningCFindSCPFailOnTimeout(Boolean spanningCFindSCPFailOnTimeout) {
+        this.spanningCFindSCPFailOnTimeout = spanningCFindSCPFailOnTimeout;
+    }
+
+    public boolean spanningCFindSCPFailOnTimeout() {
+        return spanningCFindSCPFailOnTimeout != null
+                ? spanningCFindSCPFailOnTimeout
+                : getArchiveDeviceExtension().isSpanningCFindSCPFailOnTimeout();
+    }
+
     public String getFallbackCMoveSCP() {
         return fallbackCMoveSCP;
     }
@@ -724,14 +773,17 @@ public class ArchiveAEExtension extends AEExtension {
 
     public void removeExportRule(ExportRule rule) {
         exportRules.remove(rule);
+        exportRuleIndex = null;
     }
 
     public void clearExportRules() {
         exportRules.clear();
+        exportRuleIndex = null;
     }
 
     public void addExportRule(ExportRule rule) {
         exportRules.add(rule);
+        exportRuleIndex = null;
     }
 
     public Collection<ExportRule> getExportRules() {
@@ -756,14 +808,17 @@ public class ArchiveAEExtension extends AEExtension {
 
     public void removeCompressionRule(ArchiveCompressionRule rule) {
         compressionRules.remove(rule);
+        compressionRuleIndex = null;
     }
 
     public void clearCompressionRules() {
         compressionRules.clear();
+        compressionRuleIndex = null;
     }
 
     public void addCompressionRule(ArchiveCompressionRule rule) {
         compressionRules.add(rule);
+        compressionRuleIndex = null;
     }
 
     public Collection<ArchiveCompressionRule> getCompressionRules() {
@@ -772,14 +827,17 @@ public class ArchiveAEExtension extends AEExtension {
 
     public void removeStudyRetentionPolicies(StudyRetentionPolicy policy) {
         studyRetentionPolicies.remove(policy);
+        studyRetentionPolicyIndex = null;
     }
 
     public void clearStudyRetentionPolicy() {
         studyRetentionPolicies.clear();
+        studyRetentionPolicyIndex = null;
     }
 
     public void addStudyRetentionPolicy(StudyRetentionPolicy policy) {
         studyRetentionPolicies.add(policy);
+        studyRetentionPolicyIndex = null;
     }
 
     public Collection<StudyRetentionPolicy> getStudyRetentionPolicies() {
@@ -804,20 +862,51 @@ public class ArchiveAEExtension extends AEExtension {
 
     public void removeStoreAccessControlIDRule(StoreAccessControlIDRule storeAccessControlIDRule) {
         storeAccessControlIDRules.remove(storeAccessControlIDRule);
+        storeAccessControlIDRuleIndex = null;
     }
 
     public void clearStoreAccessControlIDRules() {
         storeAccessControlIDRules.clear();
+        storeAccessControlIDRuleIndex = null;
     }
 
     public void addStoreAccessControlIDRule(StoreAccessControlIDRule storeAccessControlIDRule) {
         storeAccessControlIDRules.add(storeAccessControlIDRule);
+        storeAccessControlIDRuleIndex = null;
     }
 
     public ArrayList<StoreAccessControlIDRule> getStoreAccessControlIDRules() {
         return storeAccessControlIDRules;
     }
 
+    RuleIndex<ExportRule> exportRuleIndex() {
+        RuleIndex<ExportRule> index = exportRuleIndex;
+        if (index == null || !index.isValidFor(exportRules))
+            exportRuleIndex = index = new RuleIndex<>(exportRules, ExportRule::getConditions);
+        return index;
+    }
+
+    RuleIndex<ArchiveCompressionRule> compressionRuleIndex() {
+        RuleIndex<ArchiveCompressionRule> index = compressionRuleIndex;
+        if (index == null || !index.isValidFor(compressionRules))
+            compressionRuleIndex = index = new RuleIndex<>(compressionRules, ArchiveCompressionRule::getConditions);
+        return index;
+    }
+
+    RuleIndex<StudyRetentionPolicy> studyRetentionPolicyIndex() {
+        RuleIndex<StudyRetentionPolicy> index = studyRetentionPolicyIndex;
+        if (index == null || !index.isValidFor(studyRetentionPolicies))
+            studyRetentionPolicyIndex = index = new RuleIndex<>(studyRetentionPolicies, StudyRetentionPolicy::getConditions);
+        return index;
+    }
+
+    RuleIndex<StoreAccessControlIDRule> storeAccessControlIDRuleIndex() {
+        RuleIndex<StoreAccessControlIDRule> index = storeAccessControlIDRuleIndex;
+        if (index == null || !index.isValidFor(storeAccessControlIDRules))
+            storeAccessControlIDRuleIndex = index = new RuleIndex<>(storeAccessControlIDRules, StoreAccessControlIDRule::getConditions);
+        return index;
+    }
+
     public AllowDeleteStudyPermanently getAllowDeleteStudyPermanently() {
         return allowDeleteStudyPermanently;
     }
@@ -1036,6 +1125,9 @@ public class ArchiveAEExtension extends AEExtension {
         spanningCFindSCP = aeExt.spanningCFindSCP;
         spanningCFindSCPRetrieveAETitles = aeExt.spanningCFindSCPRetrieveAETitles;
         spanningCFindSCPPolicy = aeExt.spanningCFindSCPPolicy;
+        spanningCFindSCPConcurrent = aeExt.spanningCFindSCPConcurrent;
+        spanningCFindSCPTimeout = aeExt.spanningCFindSCPTimeout;
+        spanningCFindSCPFailOnTimeout = aeExt.spanningCFindSCPFailOnTimeout;
         fallbackCMoveSCP = aeExt.fallbackCMoveSCP;
         fallbackCMoveSCPDestination = aeExt.fallbackCMoveSCPDestination;
         fallbackCMoveSCPLeadingCFindSCP = aeExt.fallbackCMoveSCPLeadingCFindSCP;
@@ -1081,6 +1173,10 @@ public class ArchiveAEExtension extends AEExtension {
         attributeCoercions.addAll(aeExt.attributeCoercions);
         storeAccessControlIDRules.clear();
         storeAccessControlIDRules.addAll(aeExt.storeAccessControlIDRules);
+        exportRuleIndex = null;
+        compressionRuleIndex = null;
+        studyRetentionPolicyIndex = null;
+        storeAccessControlIDRuleIndex = null;
     }
 
     public ArchiveDeviceExtension getArchiveDeviceExtension() {
@@ -1090,8 +1186,9 @@ public class ArchiveAEExtension extends AEExtension {
     public Map<String, ExportRule> findExportRules(
             String hostName, String sendingAET, String receivingAET, Attributes attrs, Calendar cal) {
         HashMap<String, ExportRule> result = new HashMap<>();
-        for (Collection<ExportRule> rules
-                : new Collection[]{exportRules, getArchiveDeviceExtension().getExportRules() })
+        for (Collection<ExportRule> rules : new Collection[]{
+                exportRuleIndex().candidates(sendingAET, attrs),
+                getArchiveDeviceExtension().exportRuleIndex().candidates(sendingAET, attrs) })
             for (ExportRule rule : rules)
                 if (rule.match(hostName, sendingAET, receivingAET, attrs, cal))
                     for (String exporterID : rule.getExporterIDs()) {
@@ -1115,8 +1212,9 @@ public class ArchiveAEExtension extends AEExtension {
     public ArchiveCompressionRule findCompressionRule(
             String hostName, String sendingAET, String receivingAET, Attributes attrs) {
         ArchiveCompressionRule rule1 = null;
-        for (Collection<ArchiveCompressionRule> rules
-                : new Collection[]{ compressionRules, getArchiveDeviceExtension().getCompressionRules() })
+        for (Collection<ArchiveCompressionRule> rules : new Collection[]{
+                compressionRuleIndex().candidates(sendingAET, attrs),
+                getArchiveDeviceExtension().compressionRuleIndex().candidates(sendingAET, attrs) })
             for (ArchiveCompressionRule rule : rules)
                 if (rule.match(hostName, sendingAET, receivingAET, attrs))
                     if (rule1 == null || rule1.getPriority() < rule.getPriority())
@@ -1139,8 +1237,9 @@ public class ArchiveAEExtension extends AEExtension {
     public StudyRetentionPolicy findStudyRetentionPolicy(
             String hostName, String sendingAET, String receivingAET, Attributes attrs) {
         StudyRetentionPolicy policy1 = null;
-        for (Collection<StudyRetentionPolicy> policies
-                : new Collection[]{ studyRetentionPolicies, getArchiveDeviceExtension().getStudyRetentionPolicies() })
+        for (Collection<StudyRetentionPolicy> policies : new Collection[]{
+                studyRetentionPolicyIndex().candidates(sendingAET, attrs),
+                getArchiveDeviceExtension().studyRetentionPolicyIndex().candidates(sendingAET, attrs) })
             for (StudyRetentionPolicy policy : policies)
                 if (policy.match(hostName, sendingAET, receivingAET, attrs))
                     if (policy1 == null || policy1.getPriority() < policy.getPriority())
@@ -1151,8 +1250,8 @@ public class ArchiveAEExtension extends AEExtension {
     public String storeAccessControlID(String hostName, String sendingAET, String receivingAET, Attributes attrs) {
         StoreAccessControlIDRule rule1 = null;
         for (Collection<StoreAccessControlIDRule> rules : new Collection[]{
-                storeAccessControlIDRules,
-                    getArchiveDeviceExtension().getStoreAccessControlIDRules()
+                storeAccessControlIDRuleIndex().candidates(sendingAET, attrs),
+                    getArchiveDeviceExtension().storeAccessControlIDRuleIndex().candidates(sendingAET, attrs)
         }) {
             for (StoreAccessControlIDRule rule : rules)
                 if (rule.match(hostName, sendingAET, receivingAET, attrs))
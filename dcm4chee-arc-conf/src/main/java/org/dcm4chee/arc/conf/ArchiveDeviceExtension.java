@@ -186,6 +186,36 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     private String auditUnknownPatientID = AUDIT_UNKNOWN_PATIENT_ID;
     private String rejectionNoteStorageAET;
     private String uiConfigurationDeviceName;
+    private int retrieveLookAheadWindow;
+    private Duration calculateQueryAttributesPollingInterval;
+    private int calculateQueryAttributesFetchSize = 100;
+    private int calculateQueryAttributesThreads = 1;
+    private int retrieveAssociations = 1;
+    private int retrievePrefetchSize;
+    private int purgeStorageThreads = 1;
+    private int seriesMetadataThreads = 1;
+    private Duration seriesMetadataLeaseDuration;
+    private int auditAggregateMaxInstances = 1000;
+    private int auditMaxAggregates = 1000;
+    private Duration queueTransitionBatchInterval;
+    private int queueTransitionBatchSize = 100;
+    private Duration exportTriggerCoalescingInterval;
+    private int storePermissionServiceMaxConnections = 10;
+    private boolean storePermissionServicePrefetch;
+    private String wadoRenderedCacheDirectory;
+    private String wadoRenderedCacheSize;
+    private String wadoFrameIndexDirectory;
+    private int wadoMetadataPrefetchWindow;
+    private boolean spanningCFindSCPConcurrent;
+    private Duration spanningCFindSCPTimeout;
+    private boolean spanningCFindSCPFailOnTimeout;
+    private int stowMaxConcurrentStores = 1;
+    private int issuerCacheSize = 1000;
+    private Duration issuerCacheStaleTimeout;
+    private int patientIDCacheSize;
+    private Duration patientIDCacheStaleTimeout;
+    private int codeCacheSize = 10000;
+    private boolean indexedAttributesBlob;
 
     private final HashSet<String> wadoSupportedSRClasses = new HashSet<>();
     private final EnumMap<Entity,AttributeFilter> attributeFilters = new EnumMap<>(Entity.class);
@@ -209,6 +239,10 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     private final Map<String,String> xRoadProperties = new HashMap<>();
 
     private transient FuzzyStr fuzzyStr;
+    private transient volatile RuleIndex<ExportRule> exportRuleIndex;
+    private transient volatile RuleIndex<ArchiveCompressionRule> compressionRuleIndex;
+    private transient volatile RuleIndex<StudyRetentionPolicy> studyRetentionPolicyIndex;
+    private transient volatile RuleIndex<StoreAccessControlIDRule> storeAccessControlIDRuleIndex;
 
     public String getDefaultCharacterSet() {
         return defaultCharacterSet;
@@ -1313,14 +1347,17 @@ public class ArchiveDeviceExtension extends DeviceExtension {
 
     public void removeExportRule(ExportRule rule) {
         exportRules.remove(rule);
+        exportRuleIndex = null;
     }
 
     public void clearExportRules() {
         exportRules.clear();
+        exportRuleIndex = null;
     }
 
     public void addExportRule(ExportRule rule) {
         exportRules.add(rule);
+        exportRuleIndex = null;
     }
 
     public Collection<ExportRule> getExportRules() {
@@ -1393,14 +1430,17 @@ public class ArchiveDeviceExtension extends DeviceExtension {
 
     public void removeCompressionRule(ArchiveCompressionRule rule) {
         compressionRules.remove(rule);
+        compressionRuleIndex = null;
     }
 
     public void clearCompressionRules() {
         compressionRules.clear();
+        compressionRuleIndex = null;
     }
 
     public void addCompressionRule(ArchiveCompressionRule rule) {
         compressionRules.add(rule);
+        compressionRuleIndex = null;
     }
 
     public Collection<ArchiveCompressionRule> getCompressionRules() {
@@ -1409,14 +1449,17 @@ public class ArchiveDeviceExtension extends DeviceExtension {
 
     public void removeStudyRetentionPolicy(StudyRetentionPolicy policy) {
         studyRetentionPolicies.remove(policy);
+        studyRetentionPolicyIndex = null;
     }
 
     public void clearStudyRetentionPolicies() {
         studyRetentionPolicies.clear();
+        studyRetentionPolicyIndex = null;
     }
 
     public void addStudyRetentionPolicy(StudyRetentionPolicy policy) {
         studyRetentionPolicies.add(policy);
+        studyRetentionPolicyIndex = null;
     }
 
     public Collection<StudyRetentionPolicy> getStudyRetentionPolicies() {
@@ -1441,20 +1484,51 @@ public class ArchiveDeviceExtension extends DeviceExtension {
 
     public void removeStoreAccessControlIDRule(StoreAccessControlIDRule storeAccessControlIDRule) {
         storeAccessControlIDRules.remove(storeAccessControlIDRule);
+        storeAccessControlIDRuleIndex = null;
     }
 
     public void clearStoreAccessControlIDRules() {
         storeAccessControlIDRules.clear();
+        storeAccessControlIDRuleIndex = null;
     }
 
     public void addStoreAccessControlIDRule(StoreAccessControlIDRule storeAccessControlIDRule) {
         storeAccessControlIDRules.add(storeAccessControlIDRule);
+        storeAccessControlIDRuleIndex = null;
     }
 
     public ArrayList<StoreAccessControlIDRule> getStoreAccessControlIDRules() {
         return storeAccessControlIDRules;
     }
 
+    RuleIndex<ExportRule> exportRuleIndex() {
+        RuleIndex<ExportRule> index = exportRuleIndex;
+        if (index == null || !index.isValidFor(exportRules))
+            exportRuleIndex = index = new RuleIndex<>(exportRules, ExportRule::getConditions);
+        return index;
+    }
+
+    RuleIndex<ArchiveCompressionRule> compressionRuleIndex() {
+        RuleIndex<ArchiveCompressionRule> index = compressionRuleIndex;
+        if (index == null || !index.isValidFor(compressionRules))
+            compressionRuleIndex = index = new RuleIndex<>(compressionRules, ArchiveCompressionRule::getConditions);
+        return index;
+    }
+
+    RuleIndex<StudyRetentionPolicy> studyRetentionPolicyIndex() {
+        RuleIndex<StudyRetentionPolicy> index = studyRetentionPolicyIndex;
+        if (index == null || !index.isValidFor(studyRetentionPolicies))
+            studyRetentionPolicyIndex = index = new RuleIndex<>(studyRetentionPolicies, StudyRetentionPolicy::getConditions);
+        return index;
+    }
+
+    RuleIndex<StoreAccessControlIDRule> storeAccessControlIDRuleIndex() {
+        RuleIndex<StoreAccessControlIDRule> index = storeAccessControlIDRuleIndex;
+        if (index == null || !index.isValidFor(storeAccessControlIDRules))
+            storeAccessControlIDRuleIndex = index = new RuleIndex<>(storeAccessControlIDRules, StoreAccessControlIDRule::getConditions);
+        return index;
+    }
+
     public RejectionNote getRejectionNote(String rjNoteID) {
         return rejectionNoteMap.get(rjNoteID);
     }
@@ -1680,6 +1754,254 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.uiConfigurationDeviceName = uiConfigurationDeviceName;
     }
 
+    public int getRetrieveLookAheadWindow() {
+        return retrieveLookAheadWindow;
+    }
+
+    public void setRetrieveLookAheadWindow(int retrieveLookAheadWindow) {
+        this.retrieveLookAheadWindow = greaterOrEqualsZero(retrieveLookAheadWindow, "retrieveLookAheadWindow");
+    }
+
+    public Duration getCalculateQueryAttributesPollingInterval() {
+        return calculateQueryAttributesPollingInterval;
+    }
+
+    public void setCalculateQueryAttributesPollingInterval(Duration calculateQueryAttributesPollingInterval) {
+        this.calculateQueryAttributesPollingInterval = calculateQueryAttributesPollingInterval;
+    }
+
+    public int getCalculateQueryAttributesFetchSize() {
+        return calculateQueryAttributesFetchSize;
+    }
+
+    public void setCalculateQueryAttributesFetchSize(int calculateQueryAttributesFetchSize) {
+        this.calculateQueryAttributesFetchSize = greaterZero(calculateQueryAttributesFetchSize, "calculateQueryAttributesFetchSize");
+    }
+
+    public int getCalculateQueryAttributesThreads() {
+        return calculateQueryAttributesThreads;
+    }
+
+    public void setCalculateQueryAttributesThreads(int calculateQueryAttributesThreads) {
+        this.calculateQueryAttributesThreads = greaterZero(calculateQueryAttributesThreads, "calculateQueryAttributesThreads");
+    }
+
+    public int getRetrieveAssociations() {
+        return retrieveAssociations;
+    }
+
+    public void setRetrieveAssociations(int retrieveAssociations) {
+        this.retrieveAssociations = greaterZero(retrieveAssociations, "retrieveAssociations");
+    }
+
+    public int getRetrievePrefetchSize() {
+        return retrievePrefetchSize;
+    }
+
+    public void setRetrievePrefetchSize(int retrievePrefetchSize) {
+        this.retrievePrefetchSize = greaterOrEqualsZero(retrievePrefetchSize, "retrievePrefetchSize");
+    }
+
+    public int getPurgeStorageThreads() {
+        return purgeStorageThreads;
+    }
+
+    public void setPurgeStorageThreads(int purgeStorageThreads) {
+        this.purgeStorageThreads = greaterZero(purgeStorageThreads, "purgeStorageThreads");
+    }
+
+    public int getSeriesMetadataThreads() {
+        return seriesMetadataThreads;
+    }
+
+    public void setSeriesMetadataThreads(int seriesMetadataThreads) {
+        this.seriesMetadataThreads = greaterZero(seriesMetadataThreads, "seriesMetadataThreads");
+    }
+
+    public Duration getSeriesMetadataLeaseDuration() {
+        return seriesMetadataLeaseDuration;
+    }
+
+    public void setSeriesMetadataLeaseDuration(Duration seriesMetadataLeaseDuration) {
+        this.seriesMetadataLeaseDuration = seriesMetadataLeaseDuration;
+    }
+
+    public int getAuditAggregateMaxInstances() {
+        return auditAggregateMaxInstances;
+    }
+
+    public void setAuditAggregateMaxInstances(int auditAggregateMaxInstances) {
+        this.auditAggregateMaxInstances = greaterOrEqualsZero(auditAggregateMaxInstances, "auditAggregateMaxInstances");
+    }
+
+    public int getAuditMaxAggregates() {
+        return auditMaxAggregates;
+    }
+
+    public void setAuditMaxAggregates(int auditMaxAggregates) {
+        this.auditMaxAggregates = greaterOrEqualsZero(auditMaxAggregates, "auditMaxAggregates");
+    }
+
+    public Duration getQueueTransitionBatchInterval() {
+        return queueTransitionBatchInterval;
+    }
+
+    public void setQueueTransitionBatchInterval(Duration queueTransitionBatchInterval) {
+        this.queueTransitionBatchInterval = queueTransitionBatchInterval;
+    }
+
+    public int getQueueTransitionBatchSize() {
+        return queueTransitionBatchSize;
+    }
+
+    public void setQueueTransitionBatchSize(int queueTransitionBatchSize) {
+        this.queueTransitionBatchSize = greaterZero(queueTransitionBatchSize, "queueTransitionBatchSize");
+    }
+
+    public Duration getExportTriggerCoalescingInterval() {
+        return exportTriggerCoalescingInterval;
+    }
+
+    public void setExportTriggerCoalescingInterval(Duration exportTriggerCoalescingInterval) {
+        this.exportTriggerCoalescingInterval = exportTriggerCoalescingInterval;
+    }
+
+    public int getStorePermissionServiceMaxConnections() {
+        return storePermissionServiceMaxConnections;
+    }
+
+    public void setStorePermissionServiceMaxConnections(int storePermissionServiceMaxConnections) {
+        this.storePermissionServiceMaxConnections = greaterZero(storePermissionServiceMaxConnections, "storePermissionServiceMaxConnections");
+    }
+
+    public boolean isStorePermissionServicePrefetch() {
+        return storePermissionServicePrefetch;
+    }
+
+    public void setStorePermissionServicePrefetch(boolean storePermissionServicePrefetch) {
+        this.storePermissionServicePrefetch = storePermissionServicePrefetch;
+    }
+
+    public String getWadoRenderedCacheDirectory() {
+        return wadoRenderedCacheDirectory;
+    }
+
+    public void setWadoRenderedCacheDirectory(String wadoRenderedCacheDirectory) {
+        this.wadoRenderedCacheDirectory = wadoRenderedCacheDirectory;
+    }
+
+    public String getWadoRenderedCacheSize() {
+        return wadoRenderedCacheSize;
+    }
+
+    public void setWadoRenderedCacheSize(String wadoRenderedCacheSize) {
+        this.wadoRenderedCacheSize = wadoRenderedCacheSize;
+    }
+
+    public String getWadoFrameIndexDirectory() {
+        return wadoFrameIndexDirectory;
+    }
+
+    public void setWadoFrameIndexDirectory(String wadoFrameIndexDirectory) {
+        this.wadoFrameIndexDirectory = wadoFrameIndexDirectory;
+    }
+
+    public int getWadoMetadataPrefetchWindow() {
+        return wadoMetadataPrefetchWindow;
+    }
+
+    public void setWadoMetadataPrefetchWindow(int wadoMetadataPrefetchWindow) {
+        this.wadoMetadataPrefetchWindow = greaterOrEqualsZero(wadoMetadataPrefetchWindow, "wadoMetadataPrefetchWindow");
+    }
+
+    public boolean isSpanningCFindSCPConcurrent() {
+        return spanningCFindSCPConcurrent;
+    }
+
+    public void setSpanningCFindSCPConcurrent(boolean spanningCFindSCPConcurrent) {
+        this.spanningCFindSCPConcurrent = spanningCFindSCPConcurrent;
+    }
+
+    public Duration getSpanningCFindSCPTimeout() {
+        return spanningCFindSCPTimeout;
+    }
+
+    public void setSpanningCFindSCPTimeout(Duration spanningCFindSCPTimeout) {
+        this.spanningCFindSCPTimeout = spanningCFindSCPTimeout;
+    }
+
+    public boolean isSpanningCFindSCPFailOnTimeout() {
+        return spanningCFindSCPFailOnTimeout;
+    }
+
+    public void setSpanningCFindSCPFailOnTimeout(boolean spanningCFindSCPFailOnTimeout) {
+        this.spanningCFindSCPFailOnTimeout = spanningCFindSCPFailOnTimeout;
+    }
+
+    public int getStowMaxConcurrentStores() {
+        return stowMaxConcurrentStores;
+    }
+
+    public void setStowMaxConcurrentStores(int stowMaxConcurrentStores) {
+        this.stowMaxConcurrentStores = greaterZero(stowMaxConcurrentStores, "stowMaxConcurrentStores");
+    }
+
+    public int getIssuerCacheSize() {
+        return issuerCacheSize;
+    }
+
+    public void setIssuerCacheSize(int issuerCacheSize) {
+        this.issuerCacheSize = greaterOrEqualsZero(issuerCacheSize, "issuerCacheSize");
+    }
+
+    public Duration getIssuerCacheStaleTimeout() {
+        return issuerCacheStaleTimeout;
+    }
+
+    public void setIssuerCacheStaleTimeout(Duration issuerCacheStaleTimeout) {
+        this.issuerCacheStaleTimeout = issuerCacheStaleTimeout;
+    }
+
+    public int getIssuerCacheStaleTimeoutSeconds() {
+        return toSeconds(issuerCacheStaleTimeout);
+    }
+
+    public int getPatientIDCacheSize() {
+        return patientIDCacheSize;
+    }
+
+    public void setPatientIDCacheSize(int patientIDCacheSize) {
+        this.patientIDCacheSize = greaterOrEqualsZero(patientIDCacheSize, "patientIDCacheSize");
+    }
+
+    public Duration getPatientIDCacheStaleTimeout() {
+        return patientIDCacheStaleTimeout;
+    }
+
+    public void setPatientIDCacheStaleTimeout(Duration patientIDCacheStaleTimeout) {
+        this.patientIDCacheStaleTimeout = patientIDCacheStaleTimeout;
+    }
+
+    public int getPatientIDCacheStaleTimeoutSeconds() {
+        return toSeconds(patientIDCacheStaleTimeout);
+    }
+
+    public int getCodeCacheSize() {
+        return codeCacheSize;
+    }
+
+    public void setCodeCacheSize(int codeCacheSize) {
+        this.codeCacheSize = greaterZero(codeCacheSize, "codeCacheSize");
+    }
+
+    public boolean isIndexedAttributesBlob() {
+        return indexedAttributesBlob;
+    }
+
+    public void setIndexedAttributesBlob(boolean indexedAttributesBlob) {
+        this.indexedAttributesBlob = indexedAttributesBlob;
+    }
+
     @Override
     public void reconfigure(DeviceExtension from) {
         ArchiveDeviceExtension arcdev = (ArchiveDeviceExtension) from;
@@ -1807,6 +2129,36 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         queueTasksFetchSize = arcdev.queueTasksFetchSize;
         rejectionNoteStorageAET = arcdev.rejectionNoteStorageAET;
         uiConfigurationDeviceName = arcdev.uiConfigurationDeviceName;
+        retrieveLookAheadWindow = arcdev.retrieveLookAheadWindow;
+        calculateQueryAttributesPollingInterval = arcdev.calculateQueryAttributesPollingInterval;
+        calculateQueryAttributesFetchSize = arcdev.calculateQueryAttributesFetchSize;
+        calculateQueryAttributesThreads = arcdev.calculateQueryAttributesThreads;
+        retrieveAssociations = arcdev.retrieveAssociations;
+        retrievePrefetchSize = arcdev.retrievePrefetchSize;
+        purgeStorageThreads = arcdev.purgeStorageThreads;
+        seriesMetadataThreads = arcdev.seriesMetadataThreads;
+        seriesMetadataLeaseDuration = arcdev.seriesMetadataLeaseDuration;
+        auditAggregateMaxInstances = arcdev.auditAggregateMaxInstances;
+        auditMaxAggregates = arcdev.auditMaxAggregates;
+        queueTransitionBatchInterval = arcdev.queueTransitionBatchInterval;
+        queueTransitionBatchSize = arcdev.queueTransitionBatchSize;
+        exportTriggerCoalescingInterval = arcdev.exportTriggerCoalescingInterval;
+        storePermissionServiceMaxConnections = arcdev.storePermissionServiceMaxConnections;
+        storePermissionServicePrefetch = arcdev.storePermissionServicePrefetch;
+        wadoRenderedCacheDirectory = arcdev.wadoRenderedCacheDirectory;
+        wadoRenderedCacheSize = arcdev.wadoRenderedCacheSize;
+        wadoFrameIndexDirectory = arcdev.wadoFrameIndexDirectory;
+        wadoMetadataPrefetchWindow = arcdev.wadoMetadataPrefetchWindow;
+        spanningCFindSCPConcurrent = arcdev.spanningCFindSCPConcurrent;
+        spanningCFindSCPTimeout = arcdev.spanningCFindSCPTimeout;
+        spanningCFindSCPFailOnTimeout = arcdev.spanningCFindSCPFailOnTimeout;
+        stowMaxConcurrentStores = arcdev.stowMaxConcurrentStores;
+        issuerCacheSize = arcdev.issuerCacheSize;
+        issuerCacheStaleTimeout = arcdev.issuerCacheStaleTimeout;
+        patientIDCacheSize = arcdev.patientIDCacheSize;
+        patientIDCacheStaleTimeout = arcdev.patientIDCacheStaleTimeout;
+        codeCacheSize = arcdev.codeCacheSize;
+        indexedAttributesBlob = arcdev.indexedAttributesBlob;
         attributeFilters.clear();
         attributeFilters.putAll(arcdev.attributeFilters);
         attributeSet.clear();
@@ -1839,6 +2191,10 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         attributeCoercions.addAll(arcdev.attributeCoercions);
         storeAccessControlIDRules.clear();
         storeAccessControlIDRules.addAll(arcdev.storeAccessControlIDRules);
+        exportRuleIndex = null;
+        compressionRuleIndex = null;
+        studyRetentionPolicyIndex = null;
+        storeAccessControlIDRuleIndex = null;
         rejectionNoteMap.clear();
         rejectionNoteMap.putAll(arcdev.rejectionNoteMap);
         xRoadProperties.clear();
@@ -2,6 +2,8 @@ package org.dcm4chee.arc.conf;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.util.StringUtils;
 import org.dcm4che3.util.TagUtils;
 
 import java.util.Map;
@@ -18,7 +20,10 @@ public class Conditions {
     public static final String SENDING_APPLICATION_ENTITY_TITLE = "SendingApplicationEntityTitle";
     public static final String SENDING_HOSTNAME = "SendingHostname";
 
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
     private final Map<String, Pattern> map = new TreeMap<>();
+    private volatile Condition[] compiled;
 
     public Conditions(String... props) {
          for (String s : props) {
@@ -56,6 +61,7 @@ public class Conditions {
     public void setCondition(String tagPath, String value) {
         Pattern pattern = Pattern.compile(value);
         map.put(tagPath, pattern);
+        compiled = null;
     }
 
     public Map<String,Pattern> getMap() {
@@ -63,61 +69,141 @@ public class Conditions {
     }
 
     public boolean match(String hostName, String sendingAET, String receivingAET, Attributes attrs) {
-        for (Map.Entry<String, Pattern> entry : map.entrySet()) {
-            String tagPath = entry.getKey();
-            Pattern pattern = entry.getValue();
-            boolean ne = tagPath.endsWith("!");
-            if (ne)
-                tagPath = tagPath.substring(0, tagPath.length()-1);
+        for (Condition condition : compiled())
+            if (!condition.match(hostName, sendingAET, receivingAET, attrs))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the literal values one of which the Sending AE Title has to equal to fulfill these conditions,
+     * or {@code null} if the conditions do not restrict the Sending AE Title to a set of literal values.
+     */
+    String[] sendingAETitles() {
+        for (Condition condition : compiled())
+            if (condition.kind == Condition.SENDING_AET && condition.alternatives != null)
+                return condition.alternatives;
+        return null;
+    }
+
+    /**
+     * Returns the literal values one of which the Modality of the matched attributes has to equal to fulfill
+     * these conditions, or {@code null} if the conditions do not restrict the Modality to a set of literal values.
+     */
+    String[] modalities() {
+        for (Condition condition : compiled())
+            if (condition.kind == Condition.ATTRIBUTE && condition.alternatives != null
+                    && condition.tagPath.length == 1 && condition.tagPath[0] == Tag.Modality)
+                return condition.alternatives;
+        return null;
+    }
+
+    private Condition[] compiled() {
+        Condition[] conditions = compiled;
+        if (conditions == null) {
+            conditions = new Condition[map.size()];
+            int i = 0;
+            for (Map.Entry<String, Pattern> entry : map.entrySet())
+                conditions[i++] = new Condition(entry.getKey(), entry.getValue());
+            compiled = conditions;
+        }
+        return conditions;
+    }
+
+    private static boolean isLiteral(String regex) {
+        for (int i = 0; i < regex.length(); i++)
+            if (REGEX_META_CHARS.indexOf(regex.charAt(i)) >= 0)
+                return false;
+        return true;
+    }
+
+    private static String[] literalAlternatives(String regex) {
+        String[] ss = StringUtils.split(regex, '|');
+        for (String s : ss)
+            if (s.isEmpty() || !isLiteral(s))
+                return null;
+        return ss;
+    }
+
+    private static final class Condition {
+        static final int RECEIVING_AET = 0;
+        static final int SENDING_AET = 1;
+        static final int SENDING_HOSTNAME = 2;
+        static final int ATTRIBUTE = 3;
+
+        final int kind;
+        final boolean ne;
+        final int[] tagPath;
+        final Pattern pattern;
+        final String literal;
+        final String[] alternatives;
+
+        Condition(String key, Pattern pattern) {
+            this.ne = key.endsWith("!");
+            String tagPath = ne ? key.substring(0, key.length()-1) : key;
             switch (tagPath) {
                 case RECEIVING_APPLICATION_ENTITY_TITLE:
-                    if (ne ? (receivingAET != null && pattern.matcher(receivingAET).matches())
-                           : (receivingAET == null || !pattern.matcher(receivingAET).matches()))
-                        return false;
+                    this.kind = RECEIVING_AET;
+                    this.tagPath = null;
                     break;
                 case SENDING_APPLICATION_ENTITY_TITLE:
-                    if (ne ? (sendingAET != null && pattern.matcher(sendingAET).matches())
-                           : (sendingAET == null || !pattern.matcher(sendingAET).matches()))
-                        return false;
+                    this.kind = SENDING_AET;
+                    this.tagPath = null;
                     break;
-                case SENDING_HOSTNAME:
-                    if (ne ? (hostName != null && pattern.matcher(hostName).matches())
-                           : (hostName == null || !pattern.matcher(hostName).matches()))
-                        return false;
+                case Conditions.SENDING_HOSTNAME:
+                    this.kind = SENDING_HOSTNAME;
+                    this.tagPath = null;
                     break;
                 default:
-                    if (!match(attrs, TagUtils.parseTagPath(tagPath), pattern, 0, ne))
-                        return false;
+                    this.kind = ATTRIBUTE;
+                    this.tagPath = TagUtils.parseTagPath(tagPath);
             }
+            String regex = pattern.pattern();
+            this.pattern = pattern;
+            this.literal = pattern.flags() == 0 && isLiteral(regex) ? regex : null;
+            this.alternatives = !ne && pattern.flags() == 0 ? literalAlternatives(regex) : null;
         }
-        return true;
-    }
 
-    private boolean match(Attributes attrs, int[] tagPath, Pattern pattern, int level, boolean ne) {
-        if (level < tagPath.length-1) {
-            Sequence seq = attrs.getSequence(tagPath[level]);
-            if (seq != null)
-                for (Attributes item : seq)
-                    if (match(item, tagPath, pattern, level+1, false))
-                        return true;
-        } else {
-            String[] ss = attrs.getStrings(tagPath[level]);
-            if (ss != null)
+        boolean matches(String s) {
+            return literal != null ? literal.equals(s) : pattern.matcher(s).matches();
+        }
+
+        boolean match(String hostName, String sendingAET, String receivingAET, Attributes attrs) {
+            switch (kind) {
+                case RECEIVING_AET:
+                    return matchValue(receivingAET);
+                case SENDING_AET:
+                    return matchValue(sendingAET);
+                case SENDING_HOSTNAME:
+                    return matchValue(hostName);
+            }
+            return match(attrs, 0, ne);
+        }
+
+        private boolean matchValue(String value) {
+            return ne ? (value == null || !matches(value)) : (value != null && matches(value));
+        }
+
+        private boolean match(Attributes attrs, int level, boolean ne) {
+            if (level < tagPath.length-1) {
+                Sequence seq = attrs.getSequence(tagPath[level]);
+                if (seq != null)
+                    for (Attributes item : seq)
+                        if (match(item, level+1, false))
+                            return true;
+            } else {
+                String[] ss = attrs.getStrings(tagPath[level]);
+                if (ss == null)
+                    return ne;
+
                 for (String s : ss)
-                    if (pattern != null && s != null && pattern.matcher(s).matches() && !ne)
-                        return true;
-                    else if (pattern == null || s == null)
+                    if (s == null)
                         return false;
-                    else if (ne && !pattern.matcher(s).matches())
+                    else if (matches(s) != ne)
                         return true;
-//            if (pattern.matcher(s).matches())
-//                        return true;
-            if (ss == null && ne)
-                return true;
-            if (ss == null && !ne)
-                return false;
+            }
+            return false;
         }
-        return false;
     }
 
     @Override
@@ -0,0 +1,167 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.conf;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Index of rules by the literal Sending AE Title or Modality values required by their {@link Conditions},
+ * returning the candidate rules for a given Sending AE Title and Modality in their configured order.
+ *
+ * @since Apr 2018
+ */
+final class RuleIndex<T> {
+
+    private static final int[] EMPTY = {};
+
+    private final Collection<T> source;
+    private final int size;
+    private final List<T> rules;
+    private final int[] wildcards;
+    private final Map<String, int[]> bySendingAET;
+    private final Map<String, int[]> byModality;
+
+    RuleIndex(Collection<T> source, Function<T, Conditions> conditionsOf) {
+        this.source = source;
+        this.size = source.size();
+        this.rules = new ArrayList<>(source);
+        Map<String, List<Integer>> bySendingAET = new HashMap<>();
+        Map<String, List<Integer>> byModality = new HashMap<>();
+        List<Integer> wildcards = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            Conditions conditions = conditionsOf.apply(rules.get(i));
+            String[] values;
+            if ((values = conditions.sendingAETitles()) != null)
+                add(bySendingAET, values, i);
+            else if ((values = conditions.modalities()) != null)
+                add(byModality, values, i);
+            else
+                wildcards.add(i);
+        }
+        this.wildcards = toArray(wildcards);
+        this.bySendingAET = toArrays(bySendingAET);
+        this.byModality = toArrays(byModality);
+    }
+
+    boolean isValidFor(Collection<T> source) {
+        return this.source == source && size == source.size();
+    }
+
+    List<T> candidates(String sendingAET, Attributes attrs) {
+        int[] aetBucket = sendingAET != null ? bySendingAET.getOrDefault(sendingAET, EMPTY) : EMPTY;
+        int[] modalityBucket = byModality.isEmpty() ? EMPTY : modalityBucket(attrs);
+        if (aetBucket.length == 0 && modalityBucket.length == 0)
+            return select(wildcards);
+
+        int[] merged = merge(merge(wildcards, aetBucket), modalityBucket);
+        return select(merged);
+    }
+
+    private int[] modalityBucket(Attributes attrs) {
+        String[] modalities = attrs != null ? attrs.getStrings(Tag.Modality) : null;
+        if (modalities == null)
+            return EMPTY;
+
+        int[] result = EMPTY;
+        for (String modality : modalities)
+            if (modality != null)
+                result = merge(result, byModality.getOrDefault(modality, EMPTY));
+        return result;
+    }
+
+    private List<T> select(int[] indices) {
+        List<T> result = new ArrayList<>(indices.length);
+        for (int i : indices)
+            result.add(rules.get(i));
+        return result;
+    }
+
+    private static int[] merge(int[] a, int[] b) {
+        if (b.length == 0)
+            return a;
+        if (a.length == 0)
+            return b;
+
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j])
+                result[n++] = a[i++];
+            else if (a[i] > b[j])
+                result[n++] = b[j++];
+            else {
+                result[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length)
+            result[n++] = a[i++];
+        while (j < b.length)
+            result[n++] = b[j++];
+        return n < result.length ? Arrays.copyOf(result, n) : result;
+    }
+
+    private static void add(Map<String, List<Integer>> map, String[] keys, int index) {
+        for (String key : keys) {
+            List<Integer> list = map.computeIfAbsent(key, k -> new ArrayList<>());
+            if (list.isEmpty() || list.get(list.size() - 1) != index)
+                list.add(index);
+        }
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, List<Integer>> map) {
+        Map<String, int[]> result = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<Integer>> entry : map.entrySet())
+            result.put(entry.getKey(), toArray(entry.getValue()));
+        return result;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] a = new int[list.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = list.get(i);
+        return a;
+    }
+}
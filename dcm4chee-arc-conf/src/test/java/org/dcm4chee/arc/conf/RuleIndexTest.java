@@ -0,0 +1,133 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.conf;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class RuleIndexTest {
+
+    private static final Conditions ANY = new Conditions();
+    private static final Conditions AET_A = new Conditions("SendingApplicationEntityTitle=A");
+    private static final Conditions AET_A_OR_B = new Conditions("SendingApplicationEntityTitle=A|B");
+    private static final Conditions AET_REGEX = new Conditions("SendingApplicationEntityTitle=A.*");
+    private static final Conditions NOT_AET_A = new Conditions("SendingApplicationEntityTitle!=A");
+    private static final Conditions CT = new Conditions("Modality=CT");
+    private static final Conditions CT_OR_MR = new Conditions("Modality=CT|MR");
+    private static final Conditions AET_B_AND_MR =
+            new Conditions("SendingApplicationEntityTitle=B", "Modality=MR");
+
+    @Test
+    public void testCandidatesInConfiguredOrder() {
+        List<Conditions> rules = Arrays.asList(CT, AET_A, ANY, CT_OR_MR, AET_A_OR_B, AET_REGEX, NOT_AET_A);
+        RuleIndex<Conditions> index = new RuleIndex<>(rules, Function.identity());
+        assertEquals(Arrays.asList(CT, AET_A, ANY, CT_OR_MR, AET_A_OR_B, AET_REGEX, NOT_AET_A),
+                index.candidates("A", modality("CT")));
+        assertEquals(Arrays.asList(ANY, CT_OR_MR, AET_A_OR_B, AET_REGEX, NOT_AET_A),
+                index.candidates("B", modality("MR")));
+        assertEquals(Arrays.asList(ANY, AET_REGEX, NOT_AET_A),
+                index.candidates("C", modality("US")));
+        assertEquals(Arrays.asList(ANY, AET_REGEX, NOT_AET_A),
+                index.candidates(null, null));
+    }
+
+    @Test
+    public void testMultiValuedModality() {
+        List<Conditions> rules = Arrays.asList(CT, ANY, CT_OR_MR);
+        RuleIndex<Conditions> index = new RuleIndex<>(rules, Function.identity());
+        assertEquals(rules, index.candidates(null, modality("MR", "CT")));
+        assertEquals(Arrays.asList(ANY, CT_OR_MR), index.candidates(null, modality("MR")));
+    }
+
+    @Test
+    public void testIndexedBySendingAETBeforeModality() {
+        List<Conditions> rules = Arrays.asList(AET_B_AND_MR, CT_OR_MR);
+        RuleIndex<Conditions> index = new RuleIndex<>(rules, Function.identity());
+        assertEquals(Collections.singletonList(CT_OR_MR), index.candidates("A", modality("MR")));
+        assertEquals(rules, index.candidates("B", modality("MR")));
+    }
+
+    @Test
+    public void testCandidatesIncludeAllMatchingRules() {
+        List<Conditions> rules = Arrays.asList(
+                CT, AET_A, ANY, CT_OR_MR, AET_A_OR_B, AET_REGEX, NOT_AET_A, AET_B_AND_MR);
+        RuleIndex<Conditions> index = new RuleIndex<>(rules, Function.identity());
+        for (String aet : new String[]{ null, "A", "AB", "B", "C" })
+            for (Attributes attrs : new Attributes[]{ null, new Attributes(), modality("CT"), modality("MR"),
+                    modality("US"), modality("MR", "CT") }) {
+                List<Conditions> candidates = index.candidates(aet, attrs);
+                List<Conditions> matching = new ArrayList<>();
+                for (Conditions rule : rules)
+                    if (rule.match(null, aet, null, attrs != null ? attrs : new Attributes()))
+                        matching.add(rule);
+                assertTrue(aet + ", " + attrs, candidates.containsAll(matching));
+            }
+    }
+
+    @Test
+    public void testIsValidFor() {
+        List<Conditions> rules = new ArrayList<>(Arrays.asList(CT, AET_A));
+        RuleIndex<Conditions> index = new RuleIndex<>(rules, Function.identity());
+        assertTrue(index.isValidFor(rules));
+        assertFalse(index.isValidFor(new ArrayList<>(rules)));
+        rules.add(ANY);
+        assertFalse(index.isValidFor(rules));
+    }
+
+    private static Attributes modality(String... modalities) {
+        Attributes attrs = new Attributes(1);
+        attrs.setString(Tag.Modality, VR.CS, modalities);
+        return attrs;
+    }
+}
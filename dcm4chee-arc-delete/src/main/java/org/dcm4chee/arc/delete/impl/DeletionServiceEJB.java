@@ -119,22 +119,30 @@ public class DeletionServiceEJB {
                 .getResultList();
     }
 
-    public void failedToDelete(Location location) {
-        location.setStatus(Location.Status.FAILED_TO_DELETE);
-        em.merge(location);
+    public int removeLocations(Collection<Long> pks) {
+        return em.createNamedQuery(Location.DELETE_BY_PKS)
+                .setParameter(1, pks)
+                .executeUpdate();
     }
 
-    public void failedToDelete(Metadata metadata) {
-        metadata.setStatus(Metadata.Status.FAILED_TO_DELETE);
-        em.merge(metadata);
+    public int failedToDeleteLocations(Collection<Long> pks) {
+        return em.createNamedQuery(Location.UPDATE_STATUS_BY_PKS)
+                .setParameter(1, pks)
+                .setParameter(2, Location.Status.FAILED_TO_DELETE)
+                .executeUpdate();
     }
 
-    public void removeLocation(Location location) {
-        em.remove(em.merge(location));
+    public int removeMetadata(Collection<Long> pks) {
+        return em.createNamedQuery(Metadata.DELETE_BY_PKS)
+                .setParameter(1, pks)
+                .executeUpdate();
     }
 
-    public void removeMetadata(Metadata metadata) {
-        em.remove(em.merge(metadata));
+    public int failedToDeleteMetadata(Collection<Long> pks) {
+        return em.createNamedQuery(Metadata.UPDATE_STATUS_BY_PKS)
+                .setParameter(1, pks)
+                .setParameter(2, Metadata.Status.FAILED_TO_DELETE)
+                .executeUpdate();
     }
 
     public Study deleteStudy(StudyDeleteContext ctx) {
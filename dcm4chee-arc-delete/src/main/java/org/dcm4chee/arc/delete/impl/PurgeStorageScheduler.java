@@ -41,6 +41,7 @@
 package org.dcm4chee.arc.delete.impl;
 
 import org.dcm4che3.net.Device;
+import org.dcm4che3.util.StringUtils;
 import org.dcm4chee.arc.Scheduler;
 import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
 import org.dcm4chee.arc.conf.BinaryPrefix;
@@ -50,19 +51,30 @@ import org.dcm4chee.arc.delete.StudyDeleteContext;
 import org.dcm4chee.arc.entity.Location;
 import org.dcm4chee.arc.entity.Metadata;
 import org.dcm4chee.arc.entity.Study;
+import org.dcm4chee.arc.metrics.Counter;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 import org.dcm4chee.arc.storage.Storage;
 import org.dcm4chee.arc.storage.StorageFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import java.io.IOException;
-import java.util.Calendar;
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -89,6 +101,9 @@ public class PurgeStorageScheduler extends Scheduler {
     @Inject
     private Event<StudyDeleteContext> studyDeletedEvent;
 
+    @Resource
+    private ManagedExecutorService executor;
+
     protected PurgeStorageScheduler() {
         super(Mode.scheduleWithFixedDelay);
     }
@@ -109,11 +124,14 @@ public class PurgeStorageScheduler extends Scheduler {
         ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
         int fetchSize = arcDev.getPurgeStorageFetchSize();
         int deleteStudyBatchSize = arcDev.getDeleteStudyBatchSize();
+        int threads = arcDev.getPurgeStorageThreads();
         boolean deletePatient = arcDev.isDeletePatientOnDeleteLastStudy();
         for (StorageDescriptor desc : arcDev.getStorageDescriptors()) {
             if (desc.isReadOnly())
                 continue;
 
+            Progress progress = new Progress(desc.getStorageID());
+
             long minUsableSpace = desc.hasDeleterThresholds() ? desc.getDeleterThresholdMinUsableSpace(Calendar.getInstance()) : -1L;
             long deleteSize = deleteSize(desc, minUsableSpace);
             if (deleteSize > 0L) {
@@ -127,12 +145,13 @@ public class PurgeStorageScheduler extends Scheduler {
                             : deleteObjectsOfStudies(desc, deleteStudyBatchSize)) == 0)
                         deleteSize = 0L;
                 }
-                while (deleteNextObjectsFromStorage(desc, fetchSize)) ;
+                while (deleteNextObjectsFromStorage(desc, fetchSize, threads, progress)) ;
                 if (deleteSize > 0L) {
                     deleteSize = deleteSize(desc, minUsableSpace);
                 }
             } while (deleteSize > 0L);
-            while (deleteSeriesMetadata(desc, fetchSize));
+            while (deleteSeriesMetadata(desc, fetchSize, threads, progress));
+            progress.log(desc);
         }
     }
 
@@ -210,48 +229,155 @@ public class PurgeStorageScheduler extends Scheduler {
         return removed;
     }
 
-    private boolean deleteSeriesMetadata(StorageDescriptor desc, int fetchSize) {
+    private boolean deleteSeriesMetadata(StorageDescriptor desc, int fetchSize, int threads, Progress progress) {
         List<Metadata> metadata = ejb.findMetadataToDelete(desc.getStorageID(), fetchSize);
         if (metadata.isEmpty())
             return false;
 
-        try (Storage storage = storageFactory.getStorage(desc)) {
-            for (Metadata m : metadata) {
-                try {
-                    storage.deleteObject(m.getStoragePath());
-                    ejb.removeMetadata(m);
-                    LOG.debug("Successfully delete {} from {}", m, desc);
-                } catch (Exception e) {
-                    ejb.failedToDelete(m);
-                    LOG.warn("Failed to delete {} from {}", m, desc, e);
-                }
-            }
-        } catch (Exception e) {
-            LOG.warn("Failed to access {}", desc, e);
-        }
-        return metadata.size() == fetchSize;
+        return deleteObjects(desc, metadata, threads, progress,
+                Metadata::getPk, Metadata::getStoragePath, Metadata::getSize,
+                ejb::removeMetadata, ejb::failedToDeleteMetadata)
+                && metadata.size() == fetchSize;
     }
 
-    private boolean deleteNextObjectsFromStorage(StorageDescriptor desc, int fetchSize) {
+    private boolean deleteNextObjectsFromStorage(StorageDescriptor desc, int fetchSize, int threads,
+                                                 Progress progress) {
         List<Location> locations = ejb.findLocationsToDelete(desc.getStorageID(), fetchSize);
         if (locations.isEmpty())
             return false;
 
+        return deleteObjects(desc, locations, threads, progress,
+                Location::getPk, Location::getStoragePath, Location::getSize,
+                pks -> {
+                    ejb.removeLocations(pks);
+                    deleteFrameIndexes(desc.getStorageID(), pks);
+                },
+                ejb::failedToDeleteLocations)
+                && locations.size() == fetchSize;
+    }
+
+    /**
+     * Deletes frame indexes of deleted objects persisted by WADO-RS as {@code <dir>/<storageID>/<locationPk>}.
+     */
+    private void deleteFrameIndexes(String storageID, List<Long> locationPks) {
+        String dirPath = device.getDeviceExtension(ArchiveDeviceExtension.class).getWadoFrameIndexDirectory();
+        if (dirPath == null)
+            return;
+
+        Path dir = Paths.get(StringUtils.replaceSystemProperties(dirPath), storageID);
+        for (Long locationPk : locationPks) {
+            Path path = dir.resolve(locationPk.toString());
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.info("Failed to delete frame index {}:\n", path, e);
+            }
+        }
+    }
+
+    /**
+     * @return {@code false}, if the storage could not be accessed or the outcome could not be recorded in the DB
+     */
+    private <T> boolean deleteObjects(StorageDescriptor desc, List<T> entities, int threads, Progress progress,
+                                   ToLongFunction<T> pk, Function<T, String> storagePath, ToLongFunction<T> size,
+                                   Consumer<List<Long>> remove, Consumer<List<Long>> failedToDelete) {
         try (Storage storage = storageFactory.getStorage(desc)) {
-            for (Location location : locations) {
-                try {
-                    storage.deleteObject(location.getStoragePath());
-                    ejb.removeLocation(location);
-                    LOG.debug("Successfully delete {} from {}", location, desc);
-                } catch (Exception e) {
-                    ejb.failedToDelete(location);
-                    LOG.warn("Failed to delete {} from {}", location, desc, e);
+            Set<String> storagePaths = new LinkedHashSet<>();
+            for (T entity : entities)
+                storagePaths.add(storagePath.apply(entity));
+            Map<String, Exception> failures = deleteObjects(storage, new ArrayList<>(storagePaths), threads);
+            List<Long> removed = new ArrayList<>(entities.size());
+            List<Long> failed = new ArrayList<>(failures.size());
+            for (T entity : entities) {
+                Exception e = failures.get(storagePath.apply(entity));
+                if (e == null) {
+                    removed.add(pk.applyAsLong(entity));
+                    progress.add(size.applyAsLong(entity));
+                    LOG.debug("Successfully delete {} from {}", entity, desc);
+                } else {
+                    failed.add(pk.applyAsLong(entity));
+                    LOG.warn("Failed to delete {} from {}", entity, desc, e);
                 }
             }
+            if (!removed.isEmpty())
+                remove.accept(removed);
+            if (!failed.isEmpty())
+                failedToDelete.accept(failed);
+            return true;
         } catch (Exception e) {
             LOG.warn("Failed to access {}", desc, e);
+            return false;
+        }
+    }
+
+    private Map<String, Exception> deleteObjects(Storage storage, List<String> storagePaths, int threads) {
+        if (threads <= 1 || storagePaths.size() <= 1)
+            return storage.deleteObjects(storagePaths);
+
+        int batchSize = (storagePaths.size() + threads - 1) / threads;
+        List<List<String>> batches = new ArrayList<>(threads);
+        List<Future<Map<String, Exception>>> futures = new ArrayList<>(threads);
+        for (int fromIndex = 0; fromIndex < storagePaths.size(); fromIndex += batchSize) {
+            List<String> batch = storagePaths.subList(fromIndex, Math.min(fromIndex + batchSize, storagePaths.size()));
+            batches.add(batch);
+            futures.add(executor.submit(() -> storage.deleteObjects(batch)));
+        }
+        Map<String, Exception> failures = new HashMap<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                failures.putAll(futures.get(i).get());
+            } catch (InterruptedException | ExecutionException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                Exception failure = cause instanceof Exception ? (Exception) cause : e;
+                for (String storagePath : batches.get(i))
+                    failures.put(storagePath, failure);
+            }
+        }
+        return failures;
+    }
+
+    private static class Progress {
+        private final long startTime = System.currentTimeMillis();
+        private final String storageID;
+        private final Counter deletedObjects;
+        private final Counter deletedBytes;
+        private int objects;
+        private long bytes;
+
+        Progress(String storageID) {
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            this.storageID = storageID;
+            this.deletedObjects = metrics.counter("dcm4chee_arc_purge_storage_objects_total",
+                    "Number of objects deleted from storage", "storage", storageID);
+            this.deletedBytes = metrics.counter("dcm4chee_arc_purge_storage_bytes_total",
+                    "Number of bytes deleted from storage", "storage", storageID);
+        }
+
+        void add(long size) {
+            objects++;
+            bytes += size;
+            deletedObjects.inc();
+            deletedBytes.add(size);
+        }
+
+        void log(StorageDescriptor desc) {
+            if (objects == 0)
+                return;
+
+            long ms = Math.max(1L, System.currentTimeMillis() - startTime);
+            double objectsPerSecond = objects * 1000.0 / ms;
+            double bytesPerSecond = bytes * 1000.0 / ms;
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            metrics.gauge("dcm4chee_arc_purge_storage_objects_per_second",
+                    "Objects deleted per second by the last run of the purge storage scheduler",
+                    () -> objectsPerSecond, "storage", storageID);
+            metrics.gauge("dcm4chee_arc_purge_storage_bytes_per_second",
+                    "Bytes deleted per second by the last run of the purge storage scheduler",
+                    () -> bytesPerSecond, "storage", storageID);
+            LOG.info("Deleted {} objects ({}) from {} in {} ms - {} objects/s, {}/s", objects,
+                    BinaryPrefix.formatDecimal(bytes), desc, ms,
+                    (long) objectsPerSecond, BinaryPrefix.formatDecimal((long) bytesPerSecond));
         }
-        return locations.size() == fetchSize;
     }
 
 }
@@ -41,14 +41,19 @@
 package org.dcm4chee.arc.entity;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomEncodingOptions;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 
 import javax.persistence.*;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * @author Umberto Cappellini <umberto.cappellini@agfa.com>
@@ -101,11 +106,67 @@ public class AttributesBlob {
         return encodedAttributes;
     }
 
+    /**
+     * System property to enable deflate compression of encoded attributes in versioned format exceeding
+     * {@link #COMPRESSION_THRESHOLD} bytes.
+     */
+    public static final String COMPRESS_PROPERTY = "org.dcm4chee.arc.entity.AttributesBlob.compress";
+
+    static final int COMPRESSION_THRESHOLD = 256;
+
+    /**
+     * Leading bytes of versioned encoded attributes. The first two bytes correspond to group 0xFFFE in Little
+     * Endian, which never occurs on the top level of a legacy encoded Data Set.
+     */
+    private static final byte[] MAGIC = { (byte) 0xFE, (byte) 0xFF, 'A', 'B' };
+    private static final int VERSION = 1;
+    private static final int DEFLATED = 1;
+    private static final int[] NO_INDEX = {};
+    private static final DicomEncodingOptions ENCODING_OPTIONS =
+            new DicomEncodingOptions(false, false, false, false, false);
+
+    private static final boolean compress = Boolean.getBoolean(COMPRESS_PROPERTY);
+
+    private static volatile boolean indexed;
+
+    public static boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Enables encoding of attributes in versioned format, which supports selective decoding by
+     * {@link #decodeAttributes(byte[], Attributes, int[])}. Attributes are decoded from either format, independent
+     * of this setting.
+     */
+    public static void setIndexed(boolean indexed) {
+        AttributesBlob.indexed = indexed;
+    }
+
     public static byte[] encodeAttributes(Attributes attrs) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
-        try {
-            DicomOutputStream dos = new DicomOutputStream(out, UID.ExplicitVRLittleEndian);
-            dos.writeDataset(null, attrs);
+        return indexed ? encodeAttributes(attrs, compress) : encodeDataset(attrs, null);
+    }
+
+    /**
+     * Encodes attributes in versioned format, consisting of a header with an index of the offsets of top level
+     * elements, followed by the Explicit VR Little Endian encoded Data Set, which is optionally deflated.
+     */
+    public static byte[] encodeAttributes(Attributes attrs, boolean compress) {
+        byte[] dataset = encodeDataset(attrs, ENCODING_OPTIONS);
+        int[] index = indexOf(dataset);
+        byte[] payload = compress && dataset.length > COMPRESSION_THRESHOLD ? deflate(dataset) : null;
+        boolean deflated = payload != null && payload.length < dataset.length;
+        if (!deflated)
+            payload = dataset;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(14 + index.length * 4 + payload.length);
+        try (DataOutputStream dout = new DataOutputStream(out)) {
+            dout.write(MAGIC);
+            dout.writeByte(VERSION);
+            dout.writeByte(deflated ? DEFLATED : 0);
+            dout.writeInt(index.length / 2);
+            for (int i : index)
+                dout.writeInt(i);
+            dout.writeInt(dataset.length);
+            dout.write(payload);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -113,19 +174,166 @@ public class AttributesBlob {
     }
 
     public static Attributes decodeAttributes(byte[] b, Attributes result) {
+        return decodeAttributes(b, result, null);
+    }
+
+    /**
+     * Decodes encoded attributes. If {@code selection} is not {@code null}, only top level attributes with tags
+     * contained in the sorted array - and Specific Character Set - are decoded from encoded attributes in versioned
+     * format. Encoded attributes in legacy format are always decoded completely.
+     */
+    public static Attributes decodeAttributes(byte[] b, Attributes result, int[] selection) {
         if (b == null || b.length == 0)
             return result != null ? result : new Attributes(0);
 
         if (result == null)
             result = new Attributes();
-        ByteArrayInputStream is = new ByteArrayInputStream(b);
         try {
-            DicomInputStream dis = new DicomInputStream(is);
-            dis.readFileMetaInformation();
-            dis.readAttributes(result, -1, -1);
+            if (isVersioned(b))
+                decodeVersioned(b, result, selection);
+            else
+                decodeLegacy(b, result);
             return result;
         } catch (IOException e) {
             throw new BlobCorruptedException(e);
         }
     }
+
+    private static byte[] encodeDataset(Attributes attrs, DicomEncodingOptions encOpts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try {
+            DicomOutputStream dos = new DicomOutputStream(out, UID.ExplicitVRLittleEndian);
+            if (encOpts != null)
+                dos.setEncodingOptions(encOpts);
+            dos.writeDataset(null, attrs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static int[] indexOf(byte[] dataset) {
+        int[] index = new int[32];
+        int n = 0;
+        int off = 0;
+        while (off < dataset.length) {
+            if (off + 8 > dataset.length)
+                return NO_INDEX;
+            int tag = (readUShortLE(dataset, off) << 16) | readUShortLE(dataset, off + 2);
+            int headerLength = VR.valueOf(readUShortBE(dataset, off + 4)).headerLength();
+            if (off + headerLength > dataset.length)
+                return NO_INDEX;
+            long valueLength = headerLength == 8
+                    ? readUShortLE(dataset, off + 6)
+                    : readIntLE(dataset, off + 8) & 0xffffffffL;
+            if (valueLength == 0xffffffffL)
+                return NO_INDEX;
+            if (n == index.length)
+                index = Arrays.copyOf(index, n << 1);
+            index[n++] = tag;
+            index[n++] = off;
+            off += headerLength + valueLength;
+        }
+        return Arrays.copyOf(index, n);
+    }
+
+    private static boolean isVersioned(byte[] b) {
+        if (b.length < MAGIC.length)
+            return false;
+        for (int i = 0; i < MAGIC.length; i++)
+            if (b[i] != MAGIC[i])
+                return false;
+        return true;
+    }
+
+    private static void decodeLegacy(byte[] b, Attributes result) throws IOException {
+        DicomInputStream dis = new DicomInputStream(new ByteArrayInputStream(b));
+        dis.readFileMetaInformation();
+        dis.readAttributes(result, -1, -1);
+    }
+
+    private static void decodeVersioned(byte[] b, Attributes result, int[] selection) throws IOException {
+        DataInputStream din = new DataInputStream(new ByteArrayInputStream(b, MAGIC.length, b.length));
+        int version = din.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported version of encoded attributes: " + version);
+        boolean deflated = (din.readUnsignedByte() & DEFLATED) != 0;
+        int n = din.readInt();
+        int[] tags = new int[n];
+        int[] offsets = new int[n];
+        for (int i = 0; i < n; i++) {
+            tags[i] = din.readInt();
+            offsets[i] = din.readInt();
+        }
+        int length = din.readInt();
+        int payloadOffset = MAGIC.length + 10 + n * 8;
+        byte[] dataset = b;
+        int datasetOffset = payloadOffset;
+        if (deflated) {
+            dataset = inflate(b, payloadOffset, length);
+            datasetOffset = 0;
+        }
+        if (selection == null || n == 0) {
+            readDataset(dataset, datasetOffset, length, result);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            if (tags[i] == Tag.SpecificCharacterSet || Arrays.binarySearch(selection, tags[i]) >= 0) {
+                int end = i + 1 < n ? offsets[i + 1] : length;
+                readDataset(dataset, datasetOffset + offsets[i], end - offsets[i], result);
+            }
+        }
+    }
+
+    private static void readDataset(byte[] b, int off, int len, Attributes result) throws IOException {
+        DicomInputStream dis = new DicomInputStream(new ByteArrayInputStream(b, off, len), UID.ExplicitVRLittleEndian);
+        dis.readAttributes(result, -1, -1);
+    }
+
+    private static byte[] deflate(byte[] b) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(b);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(b.length >> 1);
+            byte[] buf = new byte[Math.min(b.length, 8192)];
+            while (!deflater.finished())
+                out.write(buf, 0, deflater.deflate(buf));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] b, int off, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(b, off, b.length - off);
+            byte[] result = new byte[length];
+            int n = 0;
+            while (n < length) {
+                int read = inflater.inflate(result, n, length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new EOFException();
+                n += read;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int readUShortLE(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    private static int readUShortBE(byte[] b, int off) {
+        return ((b[off] & 0xff) << 8) | (b[off + 1] & 0xff);
+    }
+
+    private static int readIntLE(byte[] b, int off) {
+        return readUShortLE(b, off) | (readUShortLE(b, off + 2) << 16);
+    }
 }
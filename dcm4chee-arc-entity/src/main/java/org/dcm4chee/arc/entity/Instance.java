@@ -136,6 +136,10 @@ import java.util.*;
     name=Instance.COUNT_NOT_REJECTED_INSTANCES_OF_SERIES,
     query="select count(i) from Instance i " +
             "where i.series = ?1 and i.rejectionNoteCode is null"),
+@NamedQuery(
+    name=Instance.COUNT_INSTANCES_OF_SERIES_UPDATED_AFTER,
+    query="select count(i) from Instance i " +
+            "where i.series.pk = ?1 and i.updatedTime > ?2"),
 @NamedQuery(
     name=Instance.COUNT_INSTANCES_OF_SERIES,
     query="select count(i) from Instance i " +
@@ -176,6 +180,7 @@ public class Instance {
     public static final String FIND_BY_SERIES_AND_SOP_IUID = "Instance.findBySeriesAndSopIUID";
     public static final String FIND_BY_STUDY_SERIES_SOP_IUID_EAGER = "Instance.findByStudySeriesSopIUIDEager";
     public static final String COUNT_INSTANCES_OF_SERIES = "Instance.countInstancesOfSeries";
+    public static final String COUNT_INSTANCES_OF_SERIES_UPDATED_AFTER = "Instance.countInstancesOfSeriesUpdatedAfter";
     public static final String COUNT_REJECTED_INSTANCES_OF_SERIES = "Instance.countRejectedInstancesOfSeries";
     public static final String COUNT_NOT_REJECTED_INSTANCES_OF_SERIES = "Instance.countNotRejectedInstancesOfSeries";
     public static final String FIND_BY_STUDY_IUID = "Instance.findByStudyIUID";
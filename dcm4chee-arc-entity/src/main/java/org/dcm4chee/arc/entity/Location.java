@@ -59,6 +59,10 @@ import java.util.Date;
 @NamedQueries({
         @NamedQuery(name = Location.FIND_BY_STORAGE_ID_AND_STATUS,
                 query = "select l from Location l where l.storageID=?1 and l.status=?2"),
+        @NamedQuery(name = Location.DELETE_BY_PKS,
+                query = "delete from Location l where l.pk in ?1"),
+        @NamedQuery(name = Location.UPDATE_STATUS_BY_PKS,
+                query = "update Location l set l.status=?2 where l.pk in ?1"),
         @NamedQuery(name = Location.FIND_BY_STUDY_PK,
                 query = "select l from Location l where l.instance.series.study.pk=?1"),
         @NamedQuery(name = Location.FIND_BY_SERIES_PK,
@@ -82,16 +86,28 @@ import java.util.Date;
         @NamedQuery(name = Location.COUNT_BY_UIDMAP,
                 query = "select count(l) from Location l where l.uidMap=?1")
 })
+@NamedNativeQueries({
 @NamedNativeQuery(name = Location.SIZE_OF_SERIES,
         query = "SELECT sum(x.max_object_size) " +
                 "FROM (SELECT max(object_size) max_object_size " +
                 "FROM location " +
                 "JOIN instance ON location.instance_fk = instance.pk " +
                 "WHERE series_fk = ?1 AND location.object_type = ?2 " +
-                "GROUP BY instance_fk) x")
+                "GROUP BY instance_fk) x"),
+@NamedNativeQuery(name = Location.SIZE_OF_MULTIPLE_SERIES,
+        query = "SELECT x.series_fk, sum(x.max_object_size) " +
+                "FROM (SELECT series_fk, max(object_size) max_object_size " +
+                "FROM location " +
+                "JOIN instance ON location.instance_fk = instance.pk " +
+                "WHERE series_fk IN (?1) AND location.object_type = ?2 " +
+                "GROUP BY series_fk, instance_fk) x " +
+                "GROUP BY x.series_fk")
+})
 public class Location {
 
     public static final String FIND_BY_STORAGE_ID_AND_STATUS = "Location.FindByStorageIDAndStatus";
+    public static final String DELETE_BY_PKS = "Location.DeleteByPks";
+    public static final String UPDATE_STATUS_BY_PKS = "Location.UpdateStatusByPks";
     public static final String FIND_BY_STUDY_PK = "Location.FindByStudyPk";
     public static final String FIND_BY_SERIES_PK = "Location.FindBySeriesPk";
     public static final String FIND_BY_STUDY_PK_AND_STORAGE_ID = "Location.FindByStudyPkAndStorageID";
@@ -102,6 +118,7 @@ public class Location {
     public static final String COUNT_BY_MULTI_REF = "Location.CountByMultiRef";
     public static final String COUNT_BY_UIDMAP = "Location.CountByUIDMap";
     public static final String SIZE_OF_SERIES = "Location.SizeOfSeries";
+    public static final String SIZE_OF_MULTIPLE_SERIES = "Location.SizeOfMultipleSeries";
 
     public enum Status { OK, TO_DELETE, FAILED_TO_DELETE }
 
@@ -54,12 +54,18 @@ import javax.persistence.*;
 
 @NamedQueries({
         @NamedQuery(name = Metadata.FIND_BY_STORAGE_ID_AND_STATUS,
-                query = "select m from Metadata m where m.storageID=?1 and m.status=?2")
+                query = "select m from Metadata m where m.storageID=?1 and m.status=?2"),
+        @NamedQuery(name = Metadata.DELETE_BY_PKS,
+                query = "delete from Metadata m where m.pk in ?1"),
+        @NamedQuery(name = Metadata.UPDATE_STATUS_BY_PKS,
+                query = "update Metadata m set m.status=?2 where m.pk in ?1")
 })
 
 public class Metadata {
 
     public static final String FIND_BY_STORAGE_ID_AND_STATUS = "Metadata.FindByStorageIDAndStatus";
+    public static final String DELETE_BY_PKS = "Metadata.DeleteByPks";
+    public static final String UPDATE_STATUS_BY_PKS = "Metadata.UpdateStatusByPks";
 
     public enum Status { OK, TO_DELETE, FAILED_TO_DELETE }
 
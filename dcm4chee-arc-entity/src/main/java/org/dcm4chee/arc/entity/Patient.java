@@ -59,6 +59,10 @@ import java.util.*;
     name=Patient.FIND_BY_PATIENT_ID,
     query="select p from Patient p " +
             "where p.patientID.id = ?1"),
+@NamedQuery(
+    name=Patient.COUNT_BY_PATIENT_ID,
+    query="select count(p) from Patient p " +
+            "where p.patientID.id = ?1"),
 @NamedQuery(
     name=Patient.FIND_BY_PATIENT_ID_EAGER,
     query="select p from Patient p " +
@@ -98,6 +102,7 @@ import java.util.*;
 public class Patient {
 
     public static final String FIND_BY_PATIENT_ID = "Patient.findByPatientID";
+    public static final String COUNT_BY_PATIENT_ID = "Patient.countByPatientID";
     public static final String FIND_BY_PATIENT_ID_EAGER = "Patient.findByPatientIDEager";
     public static final String FIND_BY_PATIENT_FAMILY_NAME = "Patient.findByPatientFamilyName";
     public static final String FIND_BY_PATIENT_FAMILY_NAME_EAGER = "Patient.findByPatientFamilyNameEager";
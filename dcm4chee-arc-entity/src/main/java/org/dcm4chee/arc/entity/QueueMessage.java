@@ -73,12 +73,15 @@ import java.util.*;
 @NamedQueries({
         @NamedQuery(name = QueueMessage.FIND_BY_MSG_ID,
                 query = "select o from QueueMessage o where o.messageID=?1"),
+        @NamedQuery(name = QueueMessage.FIND_BY_MSG_IDS,
+                query = "select o from QueueMessage o where o.messageID in ?1"),
         @NamedQuery(name = QueueMessage.COUNT_BY_QUEUE_NAME_AND_STATUS,
                 query = "select count(o) from QueueMessage o where o.queueName=?1 and o.status=?2")
 })
 public class QueueMessage {
 
     public static final String FIND_BY_MSG_ID = "QueueMessage.FindByMsgId";
+    public static final String FIND_BY_MSG_IDS = "QueueMessage.FindByMsgIds";
     public static final String COUNT_BY_QUEUE_NAME_AND_STATUS = "QueueMessage.CountByQueueNameAndStatus";
 
     public enum Status {
@@ -92,9 +92,21 @@ import java.util.Date;
     name = Series.SERIES_PKS_OF_STUDY_WITH_UNKNOWN_SIZE,
     query = "select se.pk from Series se " +
             "where se.study.pk = ?1 and se.size = -1"),
+@NamedQuery(
+    name = Series.SERIES_PKS_WITH_UNKNOWN_SIZE,
+    query = "select se.pk from Series se " +
+            "where se.size = -1"),
+@NamedQuery(
+    name = Series.SERIES_PKS_OF_STUDIES_WITH_UNKNOWN_SIZE,
+    query = "select se.pk from Series se " +
+            "where se.study.pk in ?1 and se.size = -1"),
 @NamedQuery(name = Series.SIZE_OF_STUDY,
     query = "select sum(se.size) from Series se " +
             "where se.study.pk = ?1"),
+@NamedQuery(name = Series.SIZE_OF_STUDIES,
+    query = "select se.study.pk, sum(se.size) from Series se " +
+            "where se.study.pk in ?1 " +
+            "group by se.study.pk"),
 @NamedQuery(
     name=Series.SET_SERIES_SIZE,
     query="update Series se set se.size = ?2 where se.pk = ?1"),
@@ -152,6 +164,13 @@ import java.util.Date;
                 "left join se.metadata metadata " +
                 "where se.metadataScheduledUpdateTime < current_timestamp " +
                 "order by se.metadataScheduledUpdateTime"),
+@NamedQuery(
+        name = Series.CURRENT_TIMESTAMP,
+        query = "select current_timestamp from Series se where se.pk = ?1"),
+@NamedQuery(
+        name = Series.COUNT_SCHEDULED_METADATA_UPDATE,
+        query = "select count(se) from Series se " +
+                "where se.metadataScheduledUpdateTime < current_timestamp"),
 @NamedQuery(
         name = Series.SCHEDULED_PURGE_INSTANCES,
         query = "select new org.dcm4chee.arc.entity.Series$MetadataUpdate(se.pk, se.instancePurgeState, metadata.storageID, metadata.storagePath) from Series se " +
@@ -164,13 +183,15 @@ import java.util.Date;
         query = "update Series se set se.metadataScheduledUpdateTime = current_timestamp " +
                 "where se.study in (select st from Study st where st.patient = ?1) " +
                 "and se.metadata is not null " +
-                "and se.metadataScheduledUpdateTime is null"),
+                "and (se.metadataScheduledUpdateTime is null " +
+                "or se.metadataScheduledUpdateTime > current_timestamp)"),
 @NamedQuery(
         name=Series.SCHEDULE_METADATA_UPDATE_FOR_STUDY,
         query = "update Series se set se.metadataScheduledUpdateTime = current_timestamp " +
                 "where se.study = ?1 " +
                 "and se.metadata is not null " +
-                "and se.metadataScheduledUpdateTime is null"),
+                "and (se.metadataScheduledUpdateTime is null " +
+                "or se.metadataScheduledUpdateTime > current_timestamp)"),
 @NamedQuery(
         name=Series.SCHEDULE_METADATA_UPDATE_FOR_SERIES,
         query = "update Series se set se.metadataScheduledUpdateTime = current_timestamp " +
@@ -217,7 +238,10 @@ public class Series {
     public static final String FIND_BY_SERIES_IUID_EAGER = "Series.findBySeriesIUIDEager";
     public static final String COUNT_SERIES_OF_STUDY = "Series.countSeriesOfStudy";
     public static final String SERIES_PKS_OF_STUDY_WITH_UNKNOWN_SIZE = "Series.seriesPKsOfStudyWithUnknownSize";
+    public static final String SERIES_PKS_WITH_UNKNOWN_SIZE = "Series.seriesPKsWithUnknownSize";
+    public static final String SERIES_PKS_OF_STUDIES_WITH_UNKNOWN_SIZE = "Series.seriesPKsOfStudiesWithUnknownSize";
     public static final String SIZE_OF_STUDY="Series.sizeOfStudy";
+    public static final String SIZE_OF_STUDIES = "Series.sizeOfStudies";
     public static final String SET_SERIES_SIZE = "Series.UpdateStudySize";
     public static final String SET_COMPLETENESS = "Series.SetCompleteness";
     public static final String SET_COMPLETENESS_OF_STUDY = "Series.SetCompletenessOfStudy";
@@ -229,6 +253,8 @@ public class Series {
     public static final String COUNT_SERIES_OF_STUDY_WITH_OTHER_REJECTION_STATE = "Series.countSeriesOfStudyWithOtherRejectionState";
     public static final String SERIES_IUIDS_OF_STUDY = "Series.seriesIUIDsOfStudy";
     public static final String SCHEDULED_METADATA_UPDATE = "Series.scheduledMetadataUpdate";
+    public static final String COUNT_SCHEDULED_METADATA_UPDATE = "Series.countScheduledMetadataUpdate";
+    public static final String CURRENT_TIMESTAMP = "Series.currentTimestamp";
     public static final String SCHEDULED_PURGE_INSTANCES = "Series.scheduledPurgeInstances";
     public static final String SCHEDULE_METADATA_UPDATE_FOR_PATIENT = "Series.scheduleMetadataUpdateForPatient";
     public static final String SCHEDULE_METADATA_UPDATE_FOR_STUDY = "Series.scheduleMetadataUpdateForStudy";
@@ -440,6 +466,10 @@ public class Series {
         return pk;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public Date getCreatedTime() {
         return createdTime;
     }
@@ -91,6 +91,10 @@ import java.util.*;
         @NamedQuery(
                 name=Study.UPDATE_ACCESS_TIME,
                 query="update Study st set st.accessTime = CURRENT_TIMESTAMP where st.pk = ?1"),
+        @NamedQuery(
+                name=Study.STUDY_PKS_WITH_UNKNOWN_SIZE,
+                query="select st.pk from Study st " +
+                        "where st.size = -1"),
         @NamedQuery(
                 name=Study.SET_STUDY_SIZE,
                 query="update Study st set st.size = ?2 where st.pk = ?1"),
@@ -156,6 +160,7 @@ public class Study {
     public static final String FIND_PK_BY_STORAGE_ID_ORDER_BY_ACCESS_TIME = "Study.findPkByStorageIDOrderByAccessTime";
     public static final String FIND_PK_BY_STORAGE_ID_AND_EXT_RETR_AET = "Study.findPkByStorageIDAndExtRetrAET";
     public static final String UPDATE_ACCESS_TIME = "Study.UpdateAccessTime";
+    public static final String STUDY_PKS_WITH_UNKNOWN_SIZE = "Study.studyPKsWithUnknownSize";
     public static final String SET_STUDY_SIZE = "Study.UpdateStudySize";
     public static final String SET_COMPLETENESS = "Study.SetCompleteness";
     public static final String INCREMENT_FAILED_RETRIEVES = "Study.IncrementFailedRetrieves";
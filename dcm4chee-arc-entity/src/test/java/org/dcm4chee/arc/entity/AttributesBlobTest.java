@@ -0,0 +1,147 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.entity;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class AttributesBlobTest {
+
+    private static final int[] SELECTION = { Tag.PatientID, Tag.StudyInstanceUID };
+
+    @After
+    public void tearDown() {
+        AttributesBlob.setIndexed(false);
+    }
+
+    @Test
+    public void testLegacyFormat() {
+        Attributes attrs = createAttributes();
+        byte[] b = AttributesBlob.encodeAttributes(attrs);
+        assertFalse(isVersioned(b));
+        assertAttributes(attrs, AttributesBlob.decodeAttributes(b, null));
+        assertAttributes(attrs, AttributesBlob.decodeAttributes(b, null, SELECTION));
+    }
+
+    @Test
+    public void testIndexedFormat() {
+        AttributesBlob.setIndexed(true);
+        Attributes attrs = createAttributes();
+        byte[] b = AttributesBlob.encodeAttributes(attrs);
+        assertTrue(isVersioned(b));
+        assertAttributes(attrs, AttributesBlob.decodeAttributes(b, null));
+    }
+
+    @Test
+    public void testDeflatedIndexedFormat() {
+        Attributes attrs = createAttributes();
+        byte[] b = AttributesBlob.encodeAttributes(attrs, true);
+        assertTrue(isVersioned(b));
+        assertTrue(b.length < AttributesBlob.encodeAttributes(attrs, false).length);
+        assertAttributes(attrs, AttributesBlob.decodeAttributes(b, null));
+    }
+
+    @Test
+    public void testSelectiveDecode() {
+        Attributes attrs = createAttributes();
+        for (boolean compress : new boolean[]{ false, true }) {
+            Attributes selected = AttributesBlob.decodeAttributes(
+                    AttributesBlob.encodeAttributes(attrs, compress), null, SELECTION);
+            assertArrayEquals(new int[]{ Tag.SpecificCharacterSet, Tag.PatientID, Tag.StudyInstanceUID },
+                    selected.tags());
+            assertEquals(attrs.getString(Tag.SpecificCharacterSet), selected.getString(Tag.SpecificCharacterSet));
+            assertEquals(attrs.getString(Tag.PatientID), selected.getString(Tag.PatientID));
+            assertEquals(attrs.getString(Tag.StudyInstanceUID), selected.getString(Tag.StudyInstanceUID));
+        }
+    }
+
+    private static boolean isVersioned(byte[] b) {
+        return Arrays.equals(Arrays.copyOf(b, 4), new byte[]{ (byte) 0xFE, (byte) 0xFF, 'A', 'B' });
+    }
+
+    private static Attributes createAttributes() {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 192");
+        attrs.setString(Tag.StudyDescription, VR.LT, repeat("Study Description ", 20));
+        attrs.setString(Tag.PatientName, VR.PN, "B\u00FChler^Hans");
+        attrs.setString(Tag.PatientID, VR.LO, "PID-1");
+        Sequence seq = attrs.newSequence(Tag.IssuerOfPatientIDQualifiersSequence, 1);
+        Attributes item = new Attributes();
+        item.setString(Tag.UniversalEntityID, VR.UT, "1.2.40.0.13.1.1");
+        item.setString(Tag.UniversalEntityIDType, VR.CS, "ISO");
+        seq.add(item);
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3.4");
+        attrs.setInt(Tag.NumberOfStudyRelatedInstances, VR.IS, 42);
+        return attrs;
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder(s.length() * n);
+        for (int i = 0; i < n; i++)
+            sb.append(s);
+        return sb.toString();
+    }
+
+    private static void assertAttributes(Attributes expected, Attributes actual) {
+        assertArrayEquals(expected.tags(), actual.tags());
+        assertEquals(expected.getString(Tag.StudyDescription), actual.getString(Tag.StudyDescription));
+        assertEquals(expected.getString(Tag.PatientName), actual.getString(Tag.PatientName));
+        assertEquals(expected.getString(Tag.PatientID), actual.getString(Tag.PatientID));
+        assertEquals(expected.getString(Tag.StudyInstanceUID), actual.getString(Tag.StudyInstanceUID));
+        assertEquals(expected.getInt(Tag.NumberOfStudyRelatedInstances, 0),
+                actual.getInt(Tag.NumberOfStudyRelatedInstances, 0));
+        Attributes item = actual.getNestedDataset(Tag.IssuerOfPatientIDQualifiersSequence);
+        assertNotNull(item);
+        assertEquals("1.2.40.0.13.1.1", item.getString(Tag.UniversalEntityID));
+        assertEquals("ISO", item.getString(Tag.UniversalEntityIDType));
+    }
+}
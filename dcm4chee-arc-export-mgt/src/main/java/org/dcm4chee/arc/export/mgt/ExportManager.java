@@ -60,6 +60,8 @@ import java.util.List;
 public interface ExportManager {
     void onStore(@Observes StoreContext ctx);
 
+    void createOrUpdateExportTask(String exporterID, String studyIUID, String seriesIUID, Date scheduledTime);
+
     int scheduleExportTasks(int fetchSize);
 
     void scheduleExportTask(String studyUID, String seriesUID, String objectUID, ExporterDescriptor exporter,
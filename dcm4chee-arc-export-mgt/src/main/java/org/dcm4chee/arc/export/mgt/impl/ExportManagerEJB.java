@@ -47,6 +47,7 @@ import com.querydsl.core.types.Predicate;
 import com.querydsl.jpa.hibernate.HibernateDeleteClause;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import org.dcm4che3.data.*;
+import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4chee.arc.conf.*;
@@ -100,6 +101,9 @@ public class ExportManagerEJB implements ExportManager {
     @Inject
     private QueueManager queueManager;
 
+    @Inject
+    private ExportTriggerCoalescer coalescer;
+
     private static final Expression<?>[] SELECT = {
             QQueueMessage.queueMessage.processingStartTime.min(),
             QQueueMessage.queueMessage.processingStartTime.max(),
@@ -126,6 +130,7 @@ public class ExportManagerEJB implements ExportManager {
         Calendar now = Calendar.getInstance();
         ArchiveAEExtension arcAE = session.getArchiveAEExtension();
         ArchiveDeviceExtension arcDev = arcAE.getArchiveDeviceExtension();
+        Association as = session.getAssociation();
         for (Map.Entry<String, ExportRule> entry
                 : arcAE.findExportRules(hostname, sendingAET, receivingAET, ctx.getAttributes(), now).entrySet()) {
             String exporterID = entry.getKey();
@@ -134,16 +139,17 @@ public class ExportManagerEJB implements ExportManager {
             Date scheduledTime = scheduledTime(now, rule.getExportDelay(), desc.getSchedules());
             switch (rule.getEntity()) {
                 case Study:
-                    createOrUpdateStudyExportTask(exporterID, ctx.getStudyInstanceUID(), scheduledTime);
+                    createOrUpdateExportTask(as, exporterID, ctx.getStudyInstanceUID(), "*", scheduledTime);
                     if (rule.isExportPreviousEntity() && ctx.isPreviousDifferentStudy())
-                        createOrUpdateStudyExportTask(exporterID,
-                                ctx.getPreviousInstance().getSeries().getStudy().getStudyInstanceUID(), scheduledTime);
+                        createOrUpdateExportTask(as, exporterID,
+                                ctx.getPreviousInstance().getSeries().getStudy().getStudyInstanceUID(), "*",
+                                scheduledTime);
                     break;
                 case Series:
-                    createOrUpdateSeriesExportTask(exporterID, ctx.getStudyInstanceUID(), ctx.getSeriesInstanceUID(),
+                    createOrUpdateExportTask(as, exporterID, ctx.getStudyInstanceUID(), ctx.getSeriesInstanceUID(),
                             scheduledTime);
                     if (rule.isExportPreviousEntity() && ctx.isPreviousDifferentSeries())
-                        createOrUpdateSeriesExportTask(exporterID,
+                        createOrUpdateExportTask(as, exporterID,
                                 ctx.getPreviousInstance().getSeries().getStudy().getStudyInstanceUID(),
                                 ctx.getPreviousInstance().getSeries().getSeriesInstanceUID(),
                                 scheduledTime);
@@ -156,6 +162,20 @@ public class ExportManagerEJB implements ExportManager {
         }
     }
 
+    private void createOrUpdateExportTask(
+            Association as, String exporterID, String studyIUID, String seriesIUID, Date scheduledTime) {
+        if (!coalescer.add(as, exporterID, studyIUID, seriesIUID, scheduledTime))
+            createOrUpdateExportTask(exporterID, studyIUID, seriesIUID, scheduledTime);
+    }
+
+    @Override
+    public void createOrUpdateExportTask(String exporterID, String studyIUID, String seriesIUID, Date scheduledTime) {
+        if (seriesIUID.equals("*"))
+            createOrUpdateStudyExportTask(exporterID, studyIUID, scheduledTime);
+        else
+            createOrUpdateSeriesExportTask(exporterID, studyIUID, seriesIUID, scheduledTime);
+    }
+
     private void createOrUpdateStudyExportTask(String exporterID, String studyIUID, Date scheduledTime) {
         try {
             ExportTask task = em.createNamedQuery(ExportTask.FIND_BY_EXPORTER_ID_AND_STUDY_IUID, ExportTask.class)
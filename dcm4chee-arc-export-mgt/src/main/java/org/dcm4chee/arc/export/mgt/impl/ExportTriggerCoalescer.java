@@ -0,0 +1,217 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.export.mgt.impl;
+
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.AssociationListener;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.arc.Scheduler;
+import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.dcm4chee.arc.conf.Duration;
+import org.dcm4chee.arc.export.mgt.ExportManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces repeated triggers of Study or Series level Export Rules by received objects, if an Export Trigger
+ * Coalescing Interval is configured. The Export Task of a pending trigger is created or updated once on release of the
+ * association, which received the triggering objects, after expiration of the interval or on stop of the Scheduler.
+ *
+ * @since Apr 2018
+ */
+@ApplicationScoped
+public class ExportTriggerCoalescer extends Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExportTriggerCoalescer.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private ExportManager ejb;
+
+    private final ConcurrentHashMap<Key, Trigger> pending = new ConcurrentHashMap<>();
+
+    protected ExportTriggerCoalescer() {
+        super(Mode.scheduleWithFixedDelay);
+    }
+
+    @Override
+    protected Logger log() {
+        return LOG;
+    }
+
+    @Override
+    protected Duration getPollingInterval() {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        return arcDev != null ? arcDev.getExportTriggerCoalescingInterval() : null;
+    }
+
+    @Override
+    protected void execute() {
+        Duration interval = getPollingInterval();
+        if (interval == null)
+            return;
+
+        long maxTriggerTime = System.currentTimeMillis() - interval.getSeconds() * 1000L;
+        for (Trigger trigger : pending.values())
+            if (trigger.firstTriggerTime <= maxTriggerTime)
+                flush(trigger.key);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        flush(pending.keySet());
+    }
+
+    boolean add(Association as, String exporterID, String studyIUID, String seriesIUID, Date scheduledTime) {
+        if (getPollingInterval() == null)
+            return false;
+
+        Key key = new Key(exporterID, studyIUID, seriesIUID);
+        pending.merge(key, new Trigger(key, scheduledTime), Trigger::merge);
+        if (as != null)
+            triggersOf(as).keys.add(key);
+        return true;
+    }
+
+    private AssociationTriggers triggersOf(Association as) {
+        synchronized (as) {
+            AssociationTriggers triggers = as.getProperty(AssociationTriggers.class);
+            if (triggers == null) {
+                triggers = new AssociationTriggers();
+                as.setProperty(AssociationTriggers.class, triggers);
+                as.addAssociationListener(triggers);
+            }
+            return triggers;
+        }
+    }
+
+    private void flush(Collection<Key> keys) {
+        for (Key key : keys)
+            flush(key);
+    }
+
+    private void flush(Key key) {
+        Trigger trigger = pending.remove(key);
+        if (trigger == null)
+            return;
+
+        try {
+            ejb.createOrUpdateExportTask(key.exporterID, key.studyIUID, key.seriesIUID, trigger.scheduledTime);
+        } catch (Exception e) {
+            LOG.warn("Failed to create or update Export Task for {}:\n", key, e);
+        }
+    }
+
+    private class AssociationTriggers implements AssociationListener {
+        final Set<Key> keys = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void onClose(Association as) {
+            flush(keys);
+        }
+    }
+
+    private static final class Key {
+        final String exporterID;
+        final String studyIUID;
+        final String seriesIUID;
+
+        Key(String exporterID, String studyIUID, String seriesIUID) {
+            this.exporterID = exporterID;
+            this.studyIUID = studyIUID;
+            this.seriesIUID = seriesIUID;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+            return exporterID.equals(key.exporterID)
+                    && studyIUID.equals(key.studyIUID)
+                    && seriesIUID.equals(key.seriesIUID);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(exporterID, studyIUID, seriesIUID);
+        }
+
+        @Override
+        public String toString() {
+            return "Exporter[id=" + exporterID + "] of Study[uid=" + studyIUID + "] Series[uid=" + seriesIUID + "]";
+        }
+    }
+
+    private static final class Trigger {
+        final Key key;
+        final Date scheduledTime;
+        final long firstTriggerTime;
+
+        Trigger(Key key, Date scheduledTime) {
+            this(key, scheduledTime, System.currentTimeMillis());
+        }
+
+        private Trigger(Key key, Date scheduledTime, long firstTriggerTime) {
+            this.key = key;
+            this.scheduledTime = scheduledTime;
+            this.firstTriggerTime = firstTriggerTime;
+        }
+
+        Trigger merge(Trigger other) {
+            return new Trigger(key,
+                    scheduledTime.after(other.scheduledTime) ? scheduledTime : other.scheduledTime,
+                    Math.min(firstTriggerTime, other.firstTriggerTime));
+        }
+    }
+}
@@ -41,14 +41,20 @@
 package org.dcm4chee.arc.issuer.impl;
 
 import org.dcm4che3.data.Issuer;
+import org.dcm4chee.arc.IssuerCache;
 import org.dcm4chee.arc.entity.IssuerEntity;
 import org.dcm4chee.arc.issuer.IssuerService;
 
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -60,6 +66,12 @@ public class IssuerServiceEJB implements IssuerService {
     @PersistenceContext(unitName="dcm4chee-arc")
     private EntityManager em;
 
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+
+    @Inject
+    private IssuerCache issuerCache;
+
     @Override
     public IssuerEntity updateOrCreate(Issuer issuer) {
         try {
@@ -85,10 +97,48 @@ public class IssuerServiceEJB implements IssuerService {
     private IssuerEntity create(Issuer issuer) {
         IssuerEntity entity = new IssuerEntity(issuer);
         em.persist(entity);
+        cacheAfterCommit(issuer, entity);
         return entity;
     }
 
     private IssuerEntity find(Issuer issuer) {
+        if (issuerCache.getMaxSize() > 0) {
+            Long pk = issuerCache.get(issuer);
+            if (pk != null) {
+                IssuerEntity entity = em.find(IssuerEntity.class, pk);
+                if (entity != null && entity.getIssuer().matches(issuer))
+                    return entity;
+
+                issuerCache.remove(issuer);
+            }
+        }
+        IssuerEntity entity = query(issuer).getSingleResult();
+        cacheAfterCommit(issuer, entity);
+        return entity;
+    }
+
+    /**
+     * Defers caching of the primary key to the commit of the current transaction, so a rolled back creation of
+     * the Issuer entity never becomes visible to other transactions.
+     */
+    private void cacheAfterCommit(Issuer issuer, IssuerEntity entity) {
+        if (issuerCache.getMaxSize() <= 0)
+            return;
+
+        txRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED)
+                    issuerCache.put(issuer, entity.getPk());
+            }
+        });
+    }
+
+    private TypedQuery<IssuerEntity> query(Issuer issuer) {
         String entityID = issuer.getLocalNamespaceEntityID();
         String entityUID = issuer.getUniversalEntityID();
         String entityUIDType = issuer.getUniversalEntityIDType();
@@ -106,6 +156,6 @@ public class IssuerServiceEJB implements IssuerService {
                     .setParameter(2, entityUID)
                     .setParameter(3, entityUIDType);
         }
-        return query.getSingleResult();
+        return query;
     }
 }
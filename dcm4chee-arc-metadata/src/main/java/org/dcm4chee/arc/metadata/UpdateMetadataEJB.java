@@ -40,12 +40,15 @@
 
 package org.dcm4chee.arc.metadata;
 
+import org.dcm4chee.arc.conf.Duration;
+import org.dcm4chee.arc.entity.Instance;
 import org.dcm4chee.arc.entity.Metadata;
 import org.dcm4chee.arc.entity.Series;
 
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -55,6 +58,8 @@ import java.util.List;
 @Stateless
 public class UpdateMetadataEJB {
 
+    private static final long CLAIMED_WITHOUT_LEASE = 253402214400000L; // 9999-12-31
+
     @PersistenceContext(unitName="dcm4chee-arc")
     private EntityManager em;
 
@@ -64,21 +69,63 @@ public class UpdateMetadataEJB {
                 .getResultList();
     }
 
-    public boolean claim(Long seriesPk) {
+    public long countSeriesForScheduledMetadataUpdate() {
+        return em.createNamedQuery(Series.COUNT_SCHEDULED_METADATA_UPDATE, Long.class).getSingleResult();
+    }
+
+    public Lease claim(Long seriesPk, Duration leaseDuration) {
         Series series = em.find(Series.class, seriesPk);
-        if (series.getMetadataScheduledUpdateTime() == null)
-            return false;
+        // use the clock of the DB, against which SCHEDULED_METADATA_UPDATE compares the scheduled update time
+        Date now = em.createNamedQuery(Series.CURRENT_TIMESTAMP, Date.class)
+                .setParameter(1, seriesPk)
+                .getSingleResult();
+        Date scheduledTime = series.getMetadataScheduledUpdateTime();
+        if (scheduledTime == null || scheduledTime.after(now))
+            return null;
 
-        series.setMetadataScheduledUpdateTime(null);
-        return true;
+        Date expiration = new Date(leaseDuration != null
+                ? now.getTime() + leaseDuration.getSeconds() * 1000L
+                : CLAIMED_WITHOUT_LEASE);
+        series.setMetadataScheduledUpdateTime(expiration);
+        em.flush();
+        return new Lease(new Date(), expiration, series.getVersion());
     }
 
-    public void commit(Long seriesPk, Metadata metadata) {
+    public void commit(Long seriesPk, Metadata metadata, Lease lease) {
         Series series = em.find(Series.class, seriesPk);
         em.persist(metadata);
         Metadata prev = series.getMetadata();
         if (prev != null)
             prev.setStatus(Metadata.Status.TO_DELETE);
         series.setMetadata(metadata);
+        if (lease.expiration.equals(series.getMetadataScheduledUpdateTime()))
+            series.setMetadataScheduledUpdateTime(isModifiedSince(series, lease) ? new Date() : null);
+    }
+
+    private boolean isModifiedSince(Series series, Lease lease) {
+        return series.getVersion() != lease.version
+                || em.createNamedQuery(Instance.COUNT_INSTANCES_OF_SERIES_UPDATED_AFTER, Long.class)
+                .setParameter(1, series.getPk())
+                .setParameter(2, lease.claimed)
+                .getSingleResult() > 0;
+    }
+
+    /**
+     * Claimed Series metadata update. On claim, the scheduled update time of the Series is set to the expiration of
+     * the lease, calculated by the clock of the DB, so the update becomes due again if it was not committed in time.
+     * The claim time is taken from the clock of the archive, which also sets the update time of Instances. Without configured lease duration,
+     * it is set to a time in the far future, which is only reset by a further modification of the Series. In both
+     * cases, the previous Metadata ZIP is not considered as current until the update is committed.
+     */
+    static final class Lease {
+        final Date claimed;
+        final Date expiration;
+        final long version;
+
+        Lease(Date claimed, Date expiration, long version) {
+            this.claimed = claimed;
+            this.expiration = expiration;
+            this.version = version;
+        }
     }
 }
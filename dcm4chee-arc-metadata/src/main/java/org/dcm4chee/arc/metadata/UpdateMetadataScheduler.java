@@ -47,10 +47,13 @@ import org.dcm4che3.json.JSONWriter;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.arc.Scheduler;
 import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.dcm4chee.arc.conf.BinaryPrefix;
 import org.dcm4chee.arc.conf.Duration;
 import org.dcm4chee.arc.conf.StorageDescriptor;
 import org.dcm4chee.arc.entity.Metadata;
 import org.dcm4chee.arc.entity.Series;
+import org.dcm4chee.arc.metrics.Counter;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 import org.dcm4chee.arc.retrieve.InstanceLocations;
 import org.dcm4chee.arc.retrieve.RetrieveContext;
 import org.dcm4chee.arc.retrieve.RetrieveService;
@@ -60,13 +63,20 @@ import org.dcm4chee.arc.storage.WriteContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.json.Json;
 import javax.json.stream.JsonGenerator;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -79,6 +89,17 @@ public class UpdateMetadataScheduler extends Scheduler {
 
     private static final Logger LOG = LoggerFactory.getLogger(UpdateMetadataScheduler.class);
 
+    private static final AtomicLong backlog = new AtomicLong();
+    private static final Counter updatedSeries = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_series_metadata_updated_total", "Number of Series with created or updated Metadata");
+    private static final Counter updatedBytes = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_series_metadata_updated_bytes_total", "Size of created or updated Series Metadata");
+
+    static {
+        MetricsRegistry.getDefault().gauge("dcm4chee_arc_series_metadata_backlog",
+                "Number of Series scheduled for Metadata update at the start of the last run", backlog::get);
+    }
+
     @Inject
     private DicomConfiguration conf;
 
@@ -94,6 +115,9 @@ public class UpdateMetadataScheduler extends Scheduler {
     @Inject
     private StorageFactory storageFactory;
 
+    @Resource
+    private ManagedExecutorService executor;
+
     protected UpdateMetadataScheduler() {
         super(Mode.scheduleWithFixedDelay);
     }
@@ -126,23 +150,28 @@ public class UpdateMetadataScheduler extends Scheduler {
 
         List<StorageDescriptor> descriptors = arcDev.getStorageDescriptors(storageIDs);
         int fetchSize = arcDev.getSeriesMetadataFetchSize();
+        int threads = arcDev.getSeriesMetadataThreads();
+        Duration leaseDuration = arcDev.getSeriesMetadataLeaseDuration();
+        long backlog = ejb.countSeriesForScheduledMetadataUpdate();
+        UpdateMetadataScheduler.backlog.set(backlog);
+        if (backlog > 0)
+            LOG.info("{} Series scheduled for Metadata update", backlog);
+        Progress progress = new Progress();
         List<Series.MetadataUpdate> metadataUpdates;
         do {
             metadataUpdates = ejb.findSeriesForScheduledMetadataUpdate(fetchSize);
             if (!metadataUpdates.isEmpty())
                 try (Storage storage = storageFactory.getUsableStorage(descriptors)) {
-                    for (Series.MetadataUpdate metadataUpdate : metadataUpdates) {
-                        try (RetrieveContext ctx = retrieveService.newRetrieveContextSeriesMetadata(metadataUpdate)) {
-                            updateMetadata(ctx, storage);
-                        } catch (Exception e) {
-                            LOG.error("{} failed:\n", metadataUpdate, e);
-                        }
-                    }
+                    if (threads <= 1 || metadataUpdates.size() <= 1)
+                        updateMetadata(metadataUpdates, storage, leaseDuration, progress);
+                    else
+                        updateMetadata(metadataUpdates, storage, leaseDuration, progress, threads);
                 } catch (IOException e) {
                     LOG.error("Failed to access Storage:\n", e);
                 }
         }
         while (metadataUpdates.size() == fetchSize);
+        progress.log();
         if (descriptors.size() < storageIDs.length) {
             arcDev.setSeriesMetadataStorageIDs(StorageDescriptor.storageIDsOf(descriptors));
             updateDeviceConfiguration();
@@ -160,9 +189,39 @@ public class UpdateMetadataScheduler extends Scheduler {
         }
     }
 
-    private void updateMetadata(RetrieveContext ctx, Storage storage) throws IOException {
-        if (!claim(ctx, storage) || !retrieveService.calculateMatches(ctx))
-            return;
+    private void updateMetadata(List<Series.MetadataUpdate> metadataUpdates, Storage storage,
+            Duration leaseDuration, Progress progress, int threads) {
+        int batchSize = (metadataUpdates.size() + threads - 1) / threads;
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for (int fromIndex = 0; fromIndex < metadataUpdates.size(); fromIndex += batchSize) {
+            List<Series.MetadataUpdate> batch = metadataUpdates.subList(fromIndex,
+                    Math.min(fromIndex + batchSize, metadataUpdates.size()));
+            futures.add(executor.submit(() -> updateMetadata(batch, storage, leaseDuration, progress)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                LOG.error("Failed to create/update Metadata on {}:\n", storage.getStorageDescriptor(), e);
+            }
+        }
+    }
+
+    private void updateMetadata(List<Series.MetadataUpdate> metadataUpdates, Storage storage,
+            Duration leaseDuration, Progress progress) {
+        for (Series.MetadataUpdate metadataUpdate : metadataUpdates) {
+            try (RetrieveContext ctx = retrieveService.newRetrieveContextSeriesMetadata(metadataUpdate)) {
+                progress.add(updateMetadata(ctx, storage, leaseDuration));
+            } catch (Exception e) {
+                LOG.error("{} failed:\n", metadataUpdate, e);
+            }
+        }
+    }
+
+    private long updateMetadata(RetrieveContext ctx, Storage storage, Duration leaseDuration) throws IOException {
+        UpdateMetadataEJB.Lease lease = claim(ctx, storage, leaseDuration);
+        if (lease == null || !retrieveService.calculateMatches(ctx))
+            return -1L;
 
         LOG.info("Creating/Updating Metadata for Series[pk={}] on {}",
                 ctx.getSeriesMetadataUpdate().seriesPk,
@@ -180,7 +239,7 @@ public class UpdateMetadataScheduler extends Scheduler {
                 out.finish();
             }
             storage.commitStorage(writeCtx);
-            ejb.commit(ctx.getSeriesMetadataUpdate().seriesPk, createMetadata(writeCtx));
+            ejb.commit(ctx.getSeriesMetadataUpdate().seriesPk, createMetadata(writeCtx), lease);
         } catch (Exception e) {
             LOG.warn("Failed to create/update Metadata for Series[pk={}] on {}:\n",
                     ctx.getSeriesMetadataUpdate().seriesPk,
@@ -196,17 +255,18 @@ public class UpdateMetadataScheduler extends Scheduler {
         LOG.info("Created/Updated Metadata for Series[pk={}] on {}",
                 ctx.getSeriesMetadataUpdate().seriesPk,
                 storage.getStorageDescriptor());
+        return writeCtx.getSize();
     }
 
-    private boolean claim(RetrieveContext ctx, Storage storage) {
+    private UpdateMetadataEJB.Lease claim(RetrieveContext ctx, Storage storage, Duration leaseDuration) {
         try {
-            return ejb.claim(ctx.getSeriesMetadataUpdate().seriesPk);
+            return ejb.claim(ctx.getSeriesMetadataUpdate().seriesPk, leaseDuration);
         } catch (Exception e) {
             LOG.info("Failed to claim create/update Metadata for Series[pk={}] on {}]:\n",
                     ctx.getSeriesMetadataUpdate().seriesPk,
                     storage.getStorageDescriptor(),
                     e);
-            return false;
+            return null;
         }
     }
 
@@ -230,4 +290,40 @@ public class UpdateMetadataScheduler extends Scheduler {
         return writeCtx;
     }
 
+    private static class Progress {
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicInteger series = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+
+        void add(long size) {
+            if (size < 0)
+                return;
+
+            series.incrementAndGet();
+            bytes.addAndGet(size);
+            updatedSeries.inc();
+            updatedBytes.add(size);
+        }
+
+        void log() {
+            int series = this.series.get();
+            if (series == 0)
+                return;
+
+            long bytes = this.bytes.get();
+            long ms = Math.max(1L, System.currentTimeMillis() - startTime);
+            double seriesPerSecond = series * 1000.0 / ms;
+            double bytesPerSecond = bytes * 1000.0 / ms;
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            metrics.gauge("dcm4chee_arc_series_metadata_series_per_second",
+                    "Series per second with created or updated Metadata by the last run",
+                    () -> seriesPerSecond);
+            metrics.gauge("dcm4chee_arc_series_metadata_bytes_per_second",
+                    "Bytes per second of created or updated Series Metadata by the last run",
+                    () -> bytesPerSecond);
+            LOG.info("Created/Updated Metadata ({}) of {} Series in {} ms - {} series/s, {}/s",
+                    BinaryPrefix.formatDecimal(bytes), series, ms,
+                    (long) seriesPerSecond, BinaryPrefix.formatDecimal((long) bytesPerSecond));
+        }
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of recorded non-negative values in log-linear buckets, like a HDR Histogram: values less than
+ * {@value #SUB_BUCKETS} are counted exactly, greater values with a relative error of less than 1/{@value #HALF}.
+ * Recorded values are multiplied with the configured scale on access, e.g. to provide durations recorded in
+ * nanoseconds in seconds.
+ *
+ * @since Apr 2018
+ */
+public class Histogram extends Metric {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS >> 1;
+
+    private final double scale;
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    Histogram(String name, String help, double scale, String... labels) {
+        super(name, help, labels);
+        this.scale = scale;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.summary;
+    }
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the nanoseconds elapsed since {@code startNanos}, obtained by {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSum() {
+        return sum.sum() * scale;
+    }
+
+    public double getMax() {
+        return max.get() * scale;
+    }
+
+    /**
+     * Returns the value below which the specified fraction of recorded values fall.
+     *
+     * @param quantile fraction between 0 and 1
+     * @return highest value equivalent to the bucket containing the quantile, not exceeding the maximal value
+     */
+    public double getQuantile(double quantile) {
+        long total = 0;
+        int n = counts.length();
+        long[] snapshot = new long[n];
+        for (int i = 0; i < n; i++)
+            total += snapshot[i] = counts.get(i);
+        if (total == 0)
+            return 0.;
+
+        long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+        long acc = 0;
+        for (int i = 0; i < n; i++) {
+            if ((acc += snapshot[i]) >= rank)
+                return Math.min(highestEquivalentValue(i), max.get()) * scale;
+        }
+        return getMax();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int i = index - SUB_BUCKETS;
+        int shift = i / HALF + 1;
+        long subBucket = i % HALF + HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
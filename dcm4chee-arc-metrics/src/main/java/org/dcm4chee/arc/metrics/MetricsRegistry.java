@@ -0,0 +1,109 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * In-process registry of archive metrics. Metrics are created on first access by name and labels and are kept for
+ * the lifetime of the application. The default registry is shared by all modules of the archive, including classes
+ * which are not managed by CDI, like {@code Storage} implementations. Callers on hot paths should keep references to
+ * the metrics they update, instead of looking them up on each update.
+ *
+ * @since Apr 2018
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+    private static final double SECONDS_PER_NANO = 1e-9;
+
+    private final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        return get(Counter.class, name, labels, () -> new Counter(name, help, labels));
+    }
+
+    public Histogram histogram(String name, String help, double scale, String... labels) {
+        return get(Histogram.class, name, labels, () -> new Histogram(name, help, scale, labels));
+    }
+
+    /**
+     * Returns a histogram of durations recorded in nanoseconds and provided in seconds.
+     */
+    public Histogram timer(String name, String help, String... labels) {
+        return histogram(name, help, SECONDS_PER_NANO, labels);
+    }
+
+    /**
+     * Registers a gauge, replacing a gauge previously registered with the same name and labels.
+     */
+    public Gauge gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        Gauge gauge = new Gauge(name, help, supplier, labels);
+        metrics.put(Metric.keyOf(name, labels), gauge);
+        return gauge;
+    }
+
+    /**
+     * Returns all registered metrics, sorted by name.
+     */
+    public List<Metric> getMetrics() {
+        List<Metric> list = new ArrayList<>(metrics.values());
+        list.sort(Comparator.comparing(Metric::getName).thenComparing(Metric::toString));
+        return list;
+    }
+
+    private <T extends Metric> T get(Class<T> type, String name, String[] labels, Supplier<T> factory) {
+        Metric metric = metrics.computeIfAbsent(Metric.keyOf(name, labels), key -> factory.get());
+        if (!type.isInstance(metric))
+            throw new IllegalArgumentException(metric + " is not a " + type.getSimpleName());
+
+        return type.cast(metric);
+    }
+}
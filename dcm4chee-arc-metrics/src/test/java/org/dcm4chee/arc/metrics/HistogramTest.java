@@ -0,0 +1,113 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class HistogramTest {
+
+    @Test
+    public void testIndexOf() {
+        assertEquals(0, Histogram.indexOf(0L));
+        assertEquals(127, Histogram.indexOf(127L));
+        assertEquals(128, Histogram.indexOf(128L));
+        assertEquals(128, Histogram.indexOf(129L));
+        assertEquals(129, Histogram.indexOf(130L));
+        assertEquals(191, Histogram.indexOf(255L));
+        assertEquals(192, Histogram.indexOf(256L));
+        assertEquals(3711, Histogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testHighestEquivalentValue() {
+        assertEquals(127L, Histogram.highestEquivalentValue(127));
+        assertEquals(129L, Histogram.highestEquivalentValue(128));
+        assertEquals(255L, Histogram.highestEquivalentValue(191));
+        assertEquals(259L, Histogram.highestEquivalentValue(192));
+        assertEquals(Long.MAX_VALUE, Histogram.highestEquivalentValue(3711));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = i < 10000 ? i : (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int index = Histogram.indexOf(value);
+            long highest = Histogram.highestEquivalentValue(index);
+            assertTrue(value <= highest);
+            assertTrue(index == 0 || Histogram.highestEquivalentValue(index - 1) < value);
+            assertTrue((highest - value) * 64 < Math.max(value, 1L));
+        }
+    }
+
+    @Test
+    public void testGetQuantile() {
+        Histogram histogram = new Histogram("test", "test", 1.);
+        assertEquals(0., histogram.getQuantile(.5), 0.);
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i);
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050., histogram.getSum(), 0.);
+        assertEquals(1., histogram.getQuantile(0.), 0.);
+        assertEquals(50., histogram.getQuantile(.5), 0.);
+        assertEquals(99., histogram.getQuantile(.99), 0.);
+        assertEquals(100., histogram.getQuantile(1.), 0.);
+    }
+
+    @Test
+    public void testGetQuantileOfApproximatedValues() {
+        Histogram histogram = new Histogram("test", "test", 1e-9);
+        histogram.record(1000L);
+        histogram.record(-1L);
+        histogram.record(2000000000L);
+        assertEquals(0., histogram.getQuantile(.3), 0.);
+        assertEquals(1007e-9, histogram.getQuantile(.5), 1e-15);
+        assertEquals(2., histogram.getQuantile(1.), 0.);
+        assertEquals(2., histogram.getMax(), 0.);
+    }
+}
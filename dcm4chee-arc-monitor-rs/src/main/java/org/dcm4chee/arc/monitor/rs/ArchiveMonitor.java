@@ -48,6 +48,11 @@ package org.dcm4chee.arc.monitor.rs;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.net.Dimse;
+import org.dcm4chee.arc.metrics.Counter;
+import org.dcm4chee.arc.metrics.Gauge;
+import org.dcm4chee.arc.metrics.Histogram;
+import org.dcm4chee.arc.metrics.Metric;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 import org.jboss.resteasy.annotations.cache.NoCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -70,6 +75,7 @@ import java.util.Date;
 @RequestScoped
 public class ArchiveMonitor {
     private static final Logger LOG = LoggerFactory.getLogger(ArchiveMonitor.class);
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
 
     @Inject
     private Device device;
@@ -136,6 +142,165 @@ public class ArchiveMonitor {
                 + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date()) + "\"}";
     }
 
+    @GET
+    @NoCache
+    @Path("metrics")
+    @Produces("application/json")
+    public StreamingOutput listMetricsAsJSON() {
+        logRequest();
+        return out -> {
+                Writer w = new OutputStreamWriter(out, "UTF-8");
+                int count = 0;
+                w.write('[');
+                for (Metric metric : MetricsRegistry.getDefault().getMetrics()) {
+                    if (count++ > 0)
+                        w.write(',');
+                    w.write("{\"name\":\"");
+                    w.write(metric.getName());
+                    w.write("\",\"type\":\"");
+                    w.write(metric.getType().name());
+                    w.write("\",\"labels\":{");
+                    String[] labels = metric.getLabels();
+                    for (int i = 0; i < labels.length; i += 2) {
+                        if (i > 0)
+                            w.write(',');
+                        w.write('\"');
+                        w.write(labels[i]);
+                        w.write("\":\"");
+                        w.write(escape(labels[i + 1]));
+                        w.write('\"');
+                    }
+                    w.write('}');
+                    writeJSONValues(w, metric);
+                    w.write('}');
+                }
+                w.write(']');
+                w.flush();
+        };
+    }
+
+    @GET
+    @NoCache
+    @Path("metrics")
+    @Produces("text/plain; version=0.0.4")
+    public StreamingOutput listMetricsAsPrometheusText() {
+        logRequest();
+        return out -> {
+                Writer w = new OutputStreamWriter(out, "UTF-8");
+                String prevName = null;
+                for (Metric metric : MetricsRegistry.getDefault().getMetrics()) {
+                    String name = metric.getName();
+                    if (!name.equals(prevName)) {
+                        w.write("# HELP ");
+                        w.write(name);
+                        w.write(' ');
+                        w.write(metric.getHelp());
+                        w.write("\n# TYPE ");
+                        w.write(name);
+                        w.write(' ');
+                        w.write(metric.getType().name());
+                        w.write('\n');
+                        prevName = name;
+                    }
+                    writePrometheusSamples(w, metric);
+                }
+                w.flush();
+        };
+    }
+
+    private static void writeJSONValues(Writer w, Metric metric) throws IOException {
+        switch (metric.getType()) {
+            case counter:
+                w.write(",\"value\":");
+                w.write(String.valueOf(((Counter) metric).get()));
+                break;
+            case gauge:
+                w.write(",\"value\":");
+                w.write(jsonNumber(((Gauge) metric).get()));
+                break;
+            case summary:
+                Histogram histogram = (Histogram) metric;
+                w.write(",\"count\":");
+                w.write(String.valueOf(histogram.getCount()));
+                w.write(",\"sum\":");
+                w.write(jsonNumber(histogram.getSum()));
+                w.write(",\"max\":");
+                w.write(jsonNumber(histogram.getMax()));
+                w.write(",\"quantiles\":{");
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    if (i > 0)
+                        w.write(',');
+                    w.write('\"');
+                    w.write(String.valueOf(QUANTILES[i]));
+                    w.write("\":");
+                    w.write(jsonNumber(histogram.getQuantile(QUANTILES[i])));
+                }
+                w.write('}');
+                break;
+        }
+    }
+
+    private static void writePrometheusSamples(Writer w, Metric metric) throws IOException {
+        String name = metric.getName();
+        String[] labels = metric.getLabels();
+        switch (metric.getType()) {
+            case counter:
+                writeSample(w, name, labels, null, String.valueOf(((Counter) metric).get()));
+                break;
+            case gauge:
+                writeSample(w, name, labels, null, prometheusNumber(((Gauge) metric).get()));
+                break;
+            case summary:
+                Histogram histogram = (Histogram) metric;
+                for (double quantile : QUANTILES)
+                    writeSample(w, name, labels, String.valueOf(quantile),
+                            prometheusNumber(histogram.getQuantile(quantile)));
+                writeSample(w, name + "_sum", labels, null, prometheusNumber(histogram.getSum()));
+                writeSample(w, name + "_count", labels, null, String.valueOf(histogram.getCount()));
+                break;
+        }
+    }
+
+    private static void writeSample(Writer w, String name, String[] labels, String quantile, String value)
+            throws IOException {
+        w.write(name);
+        if (labels.length > 0 || quantile != null) {
+            char delim = '{';
+            for (int i = 0; i < labels.length; i += 2) {
+                w.write(delim);
+                w.write(labels[i]);
+                w.write("=\"");
+                w.write(escape(labels[i + 1]));
+                w.write('\"');
+                delim = ',';
+            }
+            if (quantile != null) {
+                w.write(delim);
+                w.write("quantile=\"");
+                w.write(quantile);
+                w.write('\"');
+            }
+            w.write('}');
+        }
+        w.write(' ');
+        w.write(value);
+        w.write('\n');
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String jsonNumber(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+    }
+
+    private static String prometheusNumber(double value) {
+        return Double.isNaN(value) ? "NaN"
+                : Double.isInfinite(value) ? (value > 0 ? "+Inf" : "-Inf")
+                : String.valueOf(value);
+    }
+
     private void writeOtherProperties(Writer w, Association as) throws IOException {
         for (String key : as.getPropertyNames()) {
             Object value = as.getProperty(key);
@@ -42,6 +42,7 @@ package org.dcm4chee.arc.patient.impl;
 
 import org.dcm4che3.audit.AuditMessages;
 import org.dcm4che3.data.*;
+import org.dcm4chee.arc.PatientIDCache;
 import org.dcm4chee.arc.conf.AttributeFilter;
 import org.dcm4chee.arc.entity.*;
 import org.dcm4chee.arc.issuer.IssuerService;
@@ -49,10 +50,14 @@ import org.dcm4chee.arc.patient.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import java.util.*;
 
 /**
@@ -71,10 +76,14 @@ public class PatientServiceEJB {
     @Inject
     private IssuerService issuerService;
 
+    @Inject
+    private PatientIDCache patientIDCache;
+
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+
     public List<Patient> findPatients(IDWithIssuer pid) {
-        List<Patient> list = em.createNamedQuery(Patient.FIND_BY_PATIENT_ID_EAGER, Patient.class)
-                .setParameter(1, pid.getID())
-                .getResultList();
+        List<Patient> list = findPatientsWithID(pid.getID());
         Issuer issuer = pid.getIssuer();
         removeNonMatchingIssuer(list, issuer);
         if (list.size() > 1) {
@@ -85,6 +94,128 @@ public class PatientServiceEJB {
         return list;
     }
 
+    private List<Patient> findPatientsWithID(String id) {
+        boolean useCache = patientIDCache.getMaxSize() > 0;
+        long version = 0L;
+        if (useCache) {
+            long[] pks = patientIDCache.get(id);
+            if (pks != null) {
+                List<Patient> list = findPatientsWithPks(id, pks);
+                if (list != null)
+                    return list;
+
+                patientIDCache.evict(id);
+            }
+            version = patientIDCache.version(id);
+        }
+        List<Patient> list = em.createNamedQuery(Patient.FIND_BY_PATIENT_ID_EAGER, Patient.class)
+                .setParameter(1, id)
+                .getResultList();
+        if (!list.isEmpty() && useCache)
+            pendingCacheUpdates().put(id, list, version);
+        return list;
+    }
+
+    /**
+     * Returns the Patients with the specified primary keys or {@code null}, if any of them was deleted or got
+     * another Patient ID assigned since they were cached, or if the database contains another Patient with that
+     * Patient ID, e.g. created by another archive instance of the cluster.
+     */
+    private List<Patient> findPatientsWithPks(String id, long[] pks) {
+        long count = em.createNamedQuery(Patient.COUNT_BY_PATIENT_ID, Long.class)
+                .setParameter(1, id)
+                .getSingleResult();
+        if (count != pks.length)
+            return null;
+
+        List<Patient> list = new ArrayList<>(pks.length);
+        for (long pk : pks) {
+            Patient patient = em.find(Patient.class, pk);
+            if (patient == null || patient.getPatientID() == null || !id.equals(patient.getPatientID().getID()))
+                return null;
+
+            list.add(patient);
+        }
+        return list;
+    }
+
+    private void evictPatientID(IDWithIssuer pid) {
+        if (pid != null)
+            evictPatientID(pid.getID());
+    }
+
+    private void evictPatientID(Patient patient) {
+        PatientID patientID = patient.getPatientID();
+        if (patientID != null)
+            evictPatientID(patientID.getID());
+    }
+
+    private void evictPatientID(String id) {
+        patientIDCache.evict(id);
+        if (patientIDCache.getMaxSize() > 0)
+            pendingCacheUpdates().evict(id);
+    }
+
+    private PendingCacheUpdates pendingCacheUpdates() {
+        PendingCacheUpdates pending = (PendingCacheUpdates) txRegistry.getResource(PendingCacheUpdates.class);
+        if (pending == null) {
+            pending = new PendingCacheUpdates();
+            txRegistry.putResource(PendingCacheUpdates.class, pending);
+            txRegistry.registerInterposedSynchronization(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Collects the Patient IDs resolved and modified within one transaction and applies them to the cache after
+     * its commit, so Patients created or modified by a rolled back transaction never become visible to other
+     * transactions. Evicted Patient IDs are evicted again after completion, which also prevents concurrent
+     * transactions, which resolved the Patient ID before the modification, from caching their outdated result.
+     */
+    private class PendingCacheUpdates implements Synchronization {
+        final HashMap<String,Resolved> resolved = new HashMap<>();
+        final HashSet<String> evicted = new HashSet<>();
+
+        void put(String id, List<Patient> patients, long version) {
+            if (!evicted.contains(id))
+                resolved.put(id, new Resolved(new ArrayList<>(patients), version));
+        }
+
+        void evict(String id) {
+            resolved.remove(id);
+            evicted.add(id);
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            for (String id : evicted)
+                patientIDCache.evict(id);
+            if (status == Status.STATUS_COMMITTED)
+                resolved.forEach((id, r) -> patientIDCache.putIfNotEvictedSince(id, pksOf(r.patients), r.version));
+        }
+    }
+
+    private static class Resolved {
+        final List<Patient> patients;
+        final long version;
+
+        Resolved(List<Patient> patients, long version) {
+            this.patients = patients;
+            this.version = version;
+        }
+    }
+
+    private static long[] pksOf(List<Patient> patients) {
+        long[] pks = new long[patients.size()];
+        for (int i = 0; i < pks.length; i++)
+            pks[i] = patients.get(i).getPk();
+        return pks;
+    }
+
     private void removeWithoutIssuer(List<Patient> list) {
         for (Iterator<Patient> it = list.iterator(); it.hasNext();) {
             IssuerEntity ie = it.next().getPatientID().getIssuer();
@@ -114,6 +245,7 @@ public class PatientServiceEJB {
         patient.setAttributes(attributes, ctx.getAttributeFilter(), ctx.getFuzzyStr());
         patient.setPatientID(createPatientID(patientID));
         em.persist(patient);
+        evictPatientID(patientID);
         LOG.info("{}: Create {}", ctx, patient);
         return patient;
     }
@@ -178,6 +310,8 @@ public class PatientServiceEJB {
         ctx.setEventActionCode(AuditMessages.EventActionCode.Update);
         Patient pat = findPatient(ctx.getPatientID());
         Patient prev = findPatient(ctx.getPreviousPatientID());
+        evictPatientID(ctx.getPatientID());
+        evictPatientID(ctx.getPreviousPatientID());
         if (pat == null && prev == null && ctx.isNoPatientCreate()) {
             logSuppressPatientCreate(ctx);
             return null;
@@ -222,6 +356,8 @@ public class PatientServiceEJB {
 
         IDWithIssuer patientID = ctx.getPatientID();
         Patient pat2 = findPatient(patientID);
+        evictPatientID(patientID);
+        evictPatientID(ctx.getPreviousPatientID());
         if (pat2 == null)
             pat.setPatientID(createPatientID(patientID));
         else if (pat2 == pat)
@@ -340,6 +476,7 @@ public class PatientServiceEJB {
     }
 
     private void removeMPPSAndPatient(Patient patient) {
+        evictPatientID(patient);
         List<MPPS> mppsList = em.createNamedQuery(MPPS.FIND_BY_PATIENT, MPPS.class)
                 .setParameter(1, patient)
                 .getResultList();
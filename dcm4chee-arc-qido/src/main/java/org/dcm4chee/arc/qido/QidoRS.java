@@ -46,7 +46,6 @@ import org.dcm4che3.io.SAXTransformer;
 import org.dcm4che3.json.JSONWriter;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Device;
-import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.net.service.QueryRetrieveLevel2;
 import org.dcm4che3.ws.rs.MediaTypes;
 import org.dcm4chee.arc.conf.ArchiveAEExtension;
@@ -60,7 +59,6 @@ import org.dcm4chee.arc.query.util.QueryAttributes;
 import org.dcm4chee.arc.validation.constraints.ValidUriInfo;
 import org.hibernate.Transaction;
 import org.jboss.resteasy.annotations.cache.NoCache;
-import org.jboss.resteasy.plugins.providers.multipart.MultipartRelatedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,8 +76,9 @@ import javax.ws.rs.core.UriInfo;
 import javax.xml.transform.stream.StreamResult;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.UUID;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -128,6 +127,10 @@ public class QidoRS {
     @Pattern(regexp = "[1-9]\\d{0,4}")
     private String limit;
 
+    @QueryParam("pagetoken")
+    @Pattern(regexp = "[A-Za-z0-9_-]+")
+    private String pagetoken;
+
     @QueryParam("withoutstudies")
     @Pattern(regexp = "true|false")
     private String withoutstudies;
@@ -413,53 +416,68 @@ public class QidoRS {
         QueryContext ctx = newQueryContext(method, queryAttrs, studyInstanceUID, seriesInstanceUID, model);
         ctx.setReturnKeys(queryAttrs.getReturnKeys(qido.includetags));
         ArchiveAEExtension arcAE = ctx.getArchiveAEExtension();
-        try (Query query = model.createQuery(service, ctx)) {
+        Query query = model.createQuery(service, ctx);
+        Transaction transaction = null;
+        try {
             query.initQuery();
             int maxResults = arcAE.qidoMaxNumberOfResults();
             int offsetInt = parseInt(offset);
             int limitInt = parseInt(limit);
+            boolean limitToMaxResults = maxResults > 0 && (limitInt == 0 || limitInt > maxResults)
+                    && !ctx.isConsiderPurgedInstances();
+            int pageSize = limitToMaxResults ? maxResults : limitInt;
+            boolean seek = (pageSize > 0 || pagetoken != null) && !ctx.isConsiderPurgedInstances();
+            if (seek)
+                query.seek(pagetoken);
+
+            String nextPageToken = seek && pageSize > 0 ? query.continuationToken(offsetInt + pageSize) : null;
             int remaining = 0;
-            if (maxResults > 0 && (limitInt == 0 || limitInt > maxResults) && !ctx.isConsiderPurgedInstances()) {
-                int numResults = (int) (query.fetchCount() - offsetInt);
-                if (numResults <= 0)
-                    return Response.noContent().build();
+            if (limitToMaxResults && nextPageToken != null && pagetoken == null)
+                remaining = (int) (query.fetchCount() - offsetInt - maxResults);
 
-                remaining = numResults - maxResults;
-            }
             if (offsetInt > 0)
                 query.offset(offsetInt);
 
-            if (remaining > 0)
+            if (limitToMaxResults)
                 query.limit(maxResults);
             else if (limitInt > 0)
                 query.limit(limitInt);
 
-            Transaction transaction = query.beginTransaction();
-            try {
-                query.setFetchSize(arcAE.getArchiveDeviceExtension().getQueryFetchSize());
-                query.executeQuery();
-                if (!query.hasMoreMatches())
-                    return Response.noContent().build();
-
-                Response.ResponseBuilder builder = Response.ok();
-                if (remaining > 0)
-                    builder.header("Warning", warning(remaining));
-
-                return builder.entity(
-                        output.entity(this, method, query, model, model.getAttributesCoercion(service, ctx)))
-                        .build();
-            } finally {
-                try {
-                    transaction.commit();
-                } catch (Exception e) {
-                    LOG.warn("Failed to commit transaction:\n{}", e);
-                }
+            transaction = query.beginTransaction();
+            query.setFetchSize(arcAE.getArchiveDeviceExtension().getQueryFetchSize());
+            query.executeQuery();
+            if (!query.hasMoreMatches()) {
+                close(query, transaction);
+                return Response.noContent().build();
             }
+
+            Response.ResponseBuilder builder = Response.ok();
+            if (remaining > 0)
+                builder.header("Warning", warning(remaining));
+            if (nextPageToken != null)
+                builder.header("Link", nextPageLink(nextPageToken));
+
+            output.entity(builder, this, method, query, transaction, model, model.getAttributesCoercion(service, ctx));
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            close(query, transaction);
+            throw new WebApplicationException(e.getMessage(), Response.Status.BAD_REQUEST);
         } catch (Exception e) {
+            close(query, transaction);
             throw new WebApplicationException(errResponseAsTextPlain(e));
         }
     }
 
+    private static void close(Query query, Transaction transaction) {
+        if (transaction != null)
+            try {
+                transaction.commit();
+            } catch (Exception e) {
+                LOG.warn("Failed to commit transaction:\n{}", e);
+            }
+        query.close();
+    }
+
     private void logRequest() {
         LOG.info("Process GET {} from {}@{}", request.getRequestURI(), request.getRemoteUser(), request.getRemoteHost());
     }
@@ -469,6 +487,13 @@ public class QidoRS {
                 + " \"There are " + remaining + " additional results that can be requested\"";
     }
 
+    private String nextPageLink(String nextPageToken) {
+        return "<" + uriInfo.getRequestUriBuilder()
+                .replaceQueryParam("offset")
+                .replaceQueryParam("pagetoken", nextPageToken)
+                .build() + ">; rel=\"next\"";
+    }
+
     private QueryContext newQueryContext(String method, QueryAttributes queryAttrs, String studyInstanceUID,
                                          String seriesInstanceUID, Model model) {
         ApplicationEntity ae = getApplicationEntity();
@@ -608,68 +633,80 @@ public class QidoRS {
     private enum Output {
         DICOM_XML {
             @Override
-            Object entity(QidoRS service, String method, Query query, Model model, AttributesCoercion coercion)
-                    throws DicomServiceException {
-                return service.writeXML(method, query, model, coercion);
+            void entity(Response.ResponseBuilder builder, QidoRS service, String method, Query query,
+                        Transaction transaction, Model model, AttributesCoercion coercion) {
+                String boundary = UUID.randomUUID().toString();
+                builder.type(MediaTypes.MULTIPART_RELATED + ";type=\"" + MediaTypes.APPLICATION_DICOM_XML
+                        + "\";boundary=" + boundary);
+                builder.entity(service.writeXML(method, query, transaction, model, coercion, boundary));
             }
         },
         JSON {
             @Override
-            Object entity(QidoRS service, String method, Query query, Model model, AttributesCoercion coercion)
-                    throws DicomServiceException {
-                return service.writeJSON(method, query, model, coercion);
+            void entity(Response.ResponseBuilder builder, QidoRS service, String method, Query query,
+                        Transaction transaction, Model model, AttributesCoercion coercion) {
+                builder.entity(service.writeJSON(method, query, transaction, model, coercion));
             }
         };
 
-        abstract Object entity(QidoRS service, String method, Query query, Model model, AttributesCoercion coercion)
-                throws DicomServiceException;
-    }
-
-    private Object writeXML(String method, Query query, Model model, AttributesCoercion coercion)
-            throws DicomServiceException {
-        MultipartRelatedOutput output = new MultipartRelatedOutput();
-        int count = 0;
-        while (query.hasMoreMatches()) {
-            Attributes tmp = query.nextMatch();
-            if (tmp == null)
-                continue;
-
-            final Attributes match = adjust(tmp, model, query, coercion);
-            LOG.debug("{}: Match #{}:\n{}", method, ++count, match);
-            output.addPart((StreamingOutput) out -> {
-                            try {
-                                SAXTransformer.getSAXWriter(new StreamResult(out)).write(match);
-                            } catch (Exception e) {
-                                throw new WebApplicationException(e);
-                            }
-                    },
-                    MediaTypes.APPLICATION_DICOM_XML_TYPE);
-        }
-        LOG.info("{}: {} Matches", method, count);
-        return output;
-    }
-
-    private Object writeJSON(String method, Query query, Model model, AttributesCoercion coercion)
-            throws DicomServiceException {
-        final ArrayList<Attributes> matches = new ArrayList<>();
-        int count = 0;
-        while (query.hasMoreMatches()) {
-            Attributes tmp = query.nextMatch();
-            if (tmp == null)
-                continue;
-            Attributes match = adjust(tmp, model, query, coercion);
-            LOG.debug("{}: Match #{}:\n{}", method, ++count, match);
-            matches.add(match);
-        }
-        LOG.info("{}: {} Matches", method, count);
-        return (StreamingOutput) out -> {
+        abstract void entity(Response.ResponseBuilder builder, QidoRS service, String method, Query query,
+                             Transaction transaction, Model model, AttributesCoercion coercion);
+    }
+
+    private StreamingOutput writeXML(String method, Query query, Transaction transaction, Model model,
+                                     AttributesCoercion coercion, String boundary) {
+        return out -> {
+            try {
+                byte[] delimiter = ("\r\n--" + boundary + "\r\n").getBytes(StandardCharsets.US_ASCII);
+                byte[] partHeader = ("Content-Type: " + MediaTypes.APPLICATION_DICOM_XML + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                int count = 0;
+                while (query.hasMoreMatches()) {
+                    Attributes tmp = query.nextMatch();
+                    if (tmp == null)
+                        continue;
+
+                    Attributes match = adjust(tmp, model, query, coercion);
+                    LOG.debug("{}: Match #{}:\n{}", method, ++count, match);
+                    out.write(delimiter, count > 1 ? 0 : 2, count > 1 ? delimiter.length : delimiter.length - 2);
+                    out.write(partHeader);
+                    try {
+                        SAXTransformer.getSAXWriter(new StreamResult(out)).write(match);
+                    } catch (Exception e) {
+                        throw new WebApplicationException(e);
+                    }
+                }
+                out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+                LOG.info("{}: {} Matches", method, count);
+            } finally {
+                close(query, transaction);
+            }
+        };
+    }
+
+    private StreamingOutput writeJSON(String method, Query query, Transaction transaction, Model model,
+                                      AttributesCoercion coercion) {
+        return out -> {
+            try {
                 JsonGenerator gen = Json.createGenerator(out);
                 JSONWriter writer = new JSONWriter(gen);
                 gen.writeStartArray();
-                for (Attributes match : matches)
+                int count = 0;
+                while (query.hasMoreMatches()) {
+                    Attributes tmp = query.nextMatch();
+                    if (tmp == null)
+                        continue;
+
+                    Attributes match = adjust(tmp, model, query, coercion);
+                    LOG.debug("{}: Match #{}:\n{}", method, ++count, match);
                     writer.write(match);
+                }
                 gen.writeEnd();
                 gen.flush();
+                LOG.info("{}: {} Matches", method, count);
+            } finally {
+                close(query, transaction);
+            }
         };
     }
 
@@ -42,7 +42,6 @@ package org.dcm4chee.arc.qmgt.rs;
 
 import com.querydsl.core.types.Predicate;
 import org.dcm4che3.net.Device;
-import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
 import org.dcm4chee.arc.entity.QueueMessage;
 import org.dcm4chee.arc.event.BulkQueueMessageEvent;
 import org.dcm4chee.arc.event.QueueMessageEvent;
@@ -230,18 +229,10 @@ public class QueueManagerRS {
 
         BulkQueueMessageEvent queueEvent = new BulkQueueMessageEvent(request, QueueMessageOperation.RescheduleTasks);
         try {
+            LOG.info("Reschedule Tasks with Status {} at Queue {}", this.status, queueName);
             Predicate matchQueueMessage = MatchTask.matchQueueMessage(
                     queueName, deviceName, status, batchID, jmsMessageID, createdTime, updatedTime, new Date());
-            ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
-            int fetchSize = arcDev.getQueueTasksFetchSize();
-            int count = 0;
-            List<String> queueMsgIDs;
-            do {
-                queueMsgIDs = mgr.getQueueMsgIDs(matchQueueMessage, fetchSize);
-                for (String msgID : queueMsgIDs)
-                    mgr.rescheduleTask(msgID, queueName, null);
-                count += queueMsgIDs.size();
-            } while (queueMsgIDs.size() >= fetchSize);
+            int count = mgr.rescheduleTasks(matchQueueMessage, queueName);
             queueEvent.setCount(count);
             return count(count);
         } catch (IllegalTaskStateException|DifferentDeviceException e) {
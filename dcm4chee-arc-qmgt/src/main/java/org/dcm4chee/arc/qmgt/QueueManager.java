@@ -79,6 +79,9 @@ public interface QueueManager {
     boolean rescheduleTask(String msgId, String queueName, QueueMessageEvent queueEvent)
             throws IllegalTaskStateException, DifferentDeviceException;
 
+    int rescheduleTasks(Predicate matchQueueMessage, String queueName)
+            throws IllegalTaskStateException, DifferentDeviceException;
+
     boolean deleteTask(String msgId, QueueMessageEvent queueEvent);
 
     boolean rescheduleTask(QueueMessage task, String queueName, QueueMessageEvent queueEvent)
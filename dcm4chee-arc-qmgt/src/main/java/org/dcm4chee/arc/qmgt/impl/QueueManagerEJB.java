@@ -40,19 +40,22 @@
 
 package org.dcm4chee.arc.qmgt.impl;
 
-import com.mysema.commons.lang.CloseableIterator;
 import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Predicate;
+import com.querydsl.jpa.hibernate.HibernateDeleteClause;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import com.querydsl.jpa.hibernate.HibernateUpdateClause;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
 import org.dcm4chee.arc.conf.QueueDescriptor;
+import org.dcm4chee.arc.entity.DiffTask;
+import org.dcm4chee.arc.entity.QDiffTask;
 import org.dcm4chee.arc.entity.QExportTask;
 import org.dcm4chee.arc.entity.QQueueMessage;
 import org.dcm4chee.arc.entity.QRetrieveTask;
 import org.dcm4chee.arc.entity.QueueMessage;
 import org.dcm4chee.arc.event.QueueMessageEvent;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 import org.dcm4chee.arc.qmgt.DifferentDeviceException;
 import org.dcm4chee.arc.qmgt.IllegalTaskStateException;
 import org.dcm4chee.arc.qmgt.Outcome;
@@ -74,8 +77,14 @@ import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -87,6 +96,8 @@ public class QueueManagerEJB {
 
     private static final Logger LOG = LoggerFactory.getLogger(QueueManagerEJB.class);
 
+    private static final ConcurrentHashMap<String, Queue> queues = new ConcurrentHashMap<>();
+
     @PersistenceContext(unitName="dcm4chee-arc")
     private EntityManager em;
 
@@ -96,6 +107,9 @@ public class QueueManagerEJB {
     @Inject
     private Device device;
 
+    @Inject
+    private QueueSizeCounter queueSizes;
+
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public ObjectMessage createObjectMessage(Serializable object) {
         return jmsCtx.createObjectMessage(object);
@@ -105,13 +119,17 @@ public class QueueManagerEJB {
             throws QueueSizeLimitExceededException {
         QueueDescriptor queueDescriptor = descriptorOf(queueName);
         int maxQueueSize = queueDescriptor.getMaxQueueSize();
-        if (maxQueueSize > 0 && maxQueueSize < countByQueueNameAndStatus(queueName))
+        if (maxQueueSize > 0
+                && maxQueueSize < queueSizes.get(queueName, () -> countByQueueNameAndStatus(queueName))
+                && maxQueueSize < queueSizes.sync(queueName, () -> countByQueueNameAndStatus(queueName)))
             throw new QueueSizeLimitExceededException(queueDescriptor);
 
         sendMessage(queueDescriptor, msg, 0L, priority);
         QueueMessage entity = new QueueMessage(deviceName, queueName, msg);
         entity.setBatchID(batchID);
         em.persist(entity);
+        queueSizes.increment(queueName);
+        countTasks("dcm4chee_arc_queue_scheduled_total", "Number of scheduled tasks", queueName);
         LOG.info("Schedule Task[id={}] at Queue {}", entity.getMessageID(), entity.getQueueName());
         return entity;
     }
@@ -124,6 +142,18 @@ public class QueueManagerEJB {
 
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public QueueMessage onProcessingStart(String msgId) {
+        QueueMessage entity = findQueueMessageToProcess(msgId);
+        if (entity != null) {
+            if (entity.getStatus() == QueueMessage.Status.SCHEDULED)
+                queueSizes.decrement(entity.getQueueName());
+            entity.setProcessingStartTime(new Date());
+            entity.setStatus(QueueMessage.Status.IN_PROCESS);
+        }
+        return entity;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public QueueMessage findQueueMessageToProcess(String msgId) {
         QueueMessage entity = findQueueMessage(msgId);
         if (entity == null) {
             LOG.info("Suppress processing of already deleted Task[id={}]", msgId);
@@ -132,8 +162,6 @@ public class QueueManagerEJB {
             case SCHEDULED:
                 LOG.info("Start processing Task[id={}] from Queue {} with Status: {}",
                         entity.getMessageID(), entity.getQueueName(), entity.getStatus());
-                entity.setProcessingStartTime(new Date());
-                entity.setStatus(QueueMessage.Status.IN_PROCESS);
                 return entity;
             default:
                 LOG.info("Suppress processing of Task[id={}] from Queue {} with Status: {}",
@@ -154,9 +182,11 @@ public class QueueManagerEJB {
         entity.setProcessingEndTime(new Date());
         entity.setOutcomeMessage(outcome.getDescription());
         entity.setStatus(status);
+        recordProcessingTime(entity);
         if (status == QueueMessage.Status.COMPLETED
                 || status == QueueMessage.Status.WARNING && !descriptorOf(queueName).isRetryOnWarning()) {
             LOG.info("Finished processing of Task[id={}] at Queue {} with Status {}", msgId, queueName, status);
+            countTasks("dcm4chee_arc_queue_completed_total", "Number of successfully processed tasks", queueName);
             return entity;
         }
         QueueDescriptor descriptor = descriptorOf(queueName);
@@ -164,11 +194,13 @@ public class QueueManagerEJB {
         if (delay >= 0) {
             LOG.info("Failed processing of Task[id={}] at Queue {} with Status {} - retry",
                     msgId, queueName, status);
+            countTasks("dcm4chee_arc_queue_retried_total", "Number of failed tasks scheduled for retry", queueName);
             entity.setStatus(QueueMessage.Status.SCHEDULED);
             rescheduleTask(entity, descriptor, delay * 1000L);
             return entity;
         }
         LOG.warn("Failed processing of Task[id={}] at Queue {} with Status {}", msgId, queueName, status);
+        countTasks("dcm4chee_arc_queue_failed_total", "Number of finally failed tasks", queueName);
         entity.setStatus(status);
         return entity;
     }
@@ -183,18 +215,66 @@ public class QueueManagerEJB {
 
         entity.setErrorMessage(e.getMessage());
         entity.setProcessingEndTime(new Date());
+        recordProcessingTime(entity);
         QueueDescriptor descriptor = descriptorOf(entity.getQueueName());
         long delay = descriptor.getRetryDelayInSeconds(entity.incrementNumberOfFailures());
         if (delay < 0) {
             LOG.warn("Failed processing of Task[id={}] at Queue {}:\n", msgId, entity.getQueueName(), e);
+            countTasks("dcm4chee_arc_queue_failed_total", "Number of finally failed tasks", entity.getQueueName());
             entity.setStatus(QueueMessage.Status.FAILED);
         } else {
             LOG.info("Failed processing of Task[id={}] at Queue {} - retry:\n", msgId, entity.getQueueName(), e);
+            countTasks("dcm4chee_arc_queue_retried_total", "Number of failed tasks scheduled for retry",
+                    entity.getQueueName());
             rescheduleTask(entity, descriptor, delay * 1000L);
         }
         return entity;
     }
 
+    private static void countTasks(String name, String help, String queueName) {
+        MetricsRegistry.getDefault().counter(name, help, "queue", queueName).inc();
+    }
+
+    /**
+     * Records metrics of Tasks finished by {@link #applyTransitions}, after its transaction committed.
+     */
+    static void recordCompleted(List<QueueMessage> entities) {
+        for (QueueMessage entity : entities) {
+            recordProcessingTime(entity);
+            countTasks("dcm4chee_arc_queue_completed_total", "Number of successfully processed tasks",
+                    entity.getQueueName());
+        }
+    }
+
+    private static void recordProcessingTime(QueueMessage entity) {
+        Date start = entity.getProcessingStartTime();
+        if (start != null)
+            MetricsRegistry.getDefault().timer("dcm4chee_arc_queue_processing_seconds",
+                    "Duration of processing tasks", "queue", entity.getQueueName())
+                    .record(TimeUnit.MILLISECONDS.toNanos(
+                            entity.getProcessingEndTime().getTime() - start.getTime()));
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<QueueMessage> applyTransitions(Collection<QueueTransition> transitions) {
+        List<QueueMessage> completed = new ArrayList<>();
+        Map<String, QueueTransition> transitionByMsgId = new HashMap<>();
+        for (QueueTransition transition : transitions)
+            transitionByMsgId.put(transition.getMessageID(), transition);
+
+        for (QueueMessage entity : em.createNamedQuery(QueueMessage.FIND_BY_MSG_IDS, QueueMessage.class)
+                .setParameter(1, transitionByMsgId.keySet())
+                .getResultList()) {
+            QueueTransition transition = transitionByMsgId.get(entity.getMessageID());
+            if (!transition.applyTo(entity))
+                LOG.info("Suppress update of Task[id={}] at Queue {} with Status: {} to {}",
+                        entity.getMessageID(), entity.getQueueName(), entity.getStatus(), transition);
+            else if (entity.getStatus() != QueueMessage.Status.IN_PROCESS)
+                completed.add(entity);
+        }
+        return completed;
+    }
+
     public boolean cancelTask(String msgId, QueueMessageEvent queueEvent) throws IllegalTaskStateException {
         QueueMessage entity = findQueueMessage(msgId);
         if (entity == null)
@@ -212,6 +292,8 @@ public class QueueManagerEJB {
                         "Cannot cancel Task[id=" + msgId + "] with Status: " + entity.getStatus());
         }
 
+        if (entity.getStatus() == QueueMessage.Status.SCHEDULED)
+            queueSizes.decrement(entity.getQueueName());
         entity.setStatus(QueueMessage.Status.CANCELED);
         if (entity.getExportTask() != null)
             entity.getExportTask().setUpdatedTime();
@@ -223,49 +305,57 @@ public class QueueManagerEJB {
         return true;
     }
 
-    public long cancelTasks(Predicate matchQueueMessage) {
-        Date now = new Date();
-        HibernateQuery<Long> queueMessageQuery = new HibernateQuery<Long>(em.unwrap(Session.class))
+    public int cancelTasks(Predicate matchQueueMessage, int fetchSize) {
+        return cancelTasks(new HibernateQuery<Long>(em.unwrap(Session.class))
                 .select(QQueueMessage.queueMessage.pk)
                 .from(QQueueMessage.queueMessage)
-                .where(matchQueueMessage);
-        updateExportTaskUpdatedTime(queueMessageQuery, now);
-        updateRetrieveTaskUpdatedTime(queueMessageQuery, now);
-        return updateStatus(queueMessageQuery, QueueMessage.Status.CANCELED, now);
+                .where(matchQueueMessage, QQueueMessage.queueMessage.status.ne(QueueMessage.Status.CANCELED))
+                .limit(fetchSize)
+                .fetch());
     }
 
-    private void updateExportTaskUpdatedTime(HibernateQuery<Long> queueMessageQuery, Date now) {
+    private int cancelTasks(List<Long> queueMessagePks) {
+        if (queueMessagePks.isEmpty())
+            return 0;
+
+        Date now = new Date();
+        updateExportTaskUpdatedTime(queueMessagePks, now);
+        updateRetrieveTaskUpdatedTime(queueMessagePks, now);
+        return updateStatus(queueMessagePks, QueueMessage.Status.CANCELED, now);
+    }
+
+    private void updateExportTaskUpdatedTime(List<Long> queueMessagePks, Date now) {
         new HibernateUpdateClause(em.unwrap(Session.class), QExportTask.exportTask)
                 .set(QExportTask.exportTask.updatedTime, now)
-                .where(QExportTask.exportTask.queueMessage.pk.in(queueMessageQuery))
+                .where(QExportTask.exportTask.queueMessage.pk.in(queueMessagePks))
                 .execute();
     }
 
-    private void updateRetrieveTaskUpdatedTime(HibernateQuery<Long> queueMessageQuery, Date now) {
+    private void updateRetrieveTaskUpdatedTime(List<Long> queueMessagePks, Date now) {
         new HibernateUpdateClause(em.unwrap(Session.class), QRetrieveTask.retrieveTask)
                 .set(QRetrieveTask.retrieveTask.updatedTime, now)
-                .where(QRetrieveTask.retrieveTask.queueMessage.pk.in(queueMessageQuery))
+                .where(QRetrieveTask.retrieveTask.queueMessage.pk.in(queueMessagePks))
                 .execute();
     }
 
-    private long updateStatus(HibernateQuery<Long> queueMessageQuery, QueueMessage.Status status, Date now) {
-        return new HibernateUpdateClause(em.unwrap(Session.class), QQueueMessage.queueMessage)
+    private int updateStatus(List<Long> queueMessagePks, QueueMessage.Status status, Date now) {
+        queueSizes.invalidate();
+        return (int) new HibernateUpdateClause(em.unwrap(Session.class), QQueueMessage.queueMessage)
                 .set(QQueueMessage.queueMessage.status, status)
                 .set(QQueueMessage.queueMessage.updatedTime, now)
-                .where(QQueueMessage.queueMessage.pk.in(queueMessageQuery))
+                .where(QQueueMessage.queueMessage.pk.in(queueMessagePks))
                 .execute();
     }
 
-    public long cancelExportTasks(Predicate matchQueueMessage, Predicate matchExportTask) {
-        Date now = new Date();
-        HibernateQuery<Long> queueMessageQuery = new HibernateQuery<Long>(em.unwrap(Session.class))
+    public int cancelExportTasks(Predicate matchQueueMessage, Predicate matchExportTask, int fetchSize) {
+        return cancelTasks(new HibernateQuery<Long>(em.unwrap(Session.class))
                 .select(QExportTask.exportTask.queueMessage.pk)
                 .from(QExportTask.exportTask)
                 .join(QExportTask.exportTask.queueMessage, QQueueMessage.queueMessage)
                 .on(matchQueueMessage)
-                .where(matchExportTask);
-        updateExportTaskUpdatedTime(queueMessageQuery, now);
-        return updateStatus(queueMessageQuery, QueueMessage.Status.CANCELED, now);
+                .where(matchExportTask, QQueueMessage.queueMessage.status.ne(QueueMessage.Status.CANCELED))
+                .limit(fetchSize)
+                .fetch());
     }
 
     public List<String> getExportTasksReferencedQueueMsgIDs(Predicate matchQueueMessage, Predicate matchExportTask) {
@@ -278,16 +368,15 @@ public class QueueManagerEJB {
                 .fetch();
     }
 
-    public long cancelRetrieveTasks(Predicate matchQueueMessage, Predicate matchRetrieveTask) {
-        Date now = new Date();
-        HibernateQuery<Long> queueMessageQuery = new HibernateQuery<Long>(em.unwrap(Session.class))
+    public int cancelRetrieveTasks(Predicate matchQueueMessage, Predicate matchRetrieveTask, int fetchSize) {
+        return cancelTasks(new HibernateQuery<Long>(em.unwrap(Session.class))
                 .select(QRetrieveTask.retrieveTask.queueMessage.pk)
                 .from(QRetrieveTask.retrieveTask)
                 .join(QRetrieveTask.retrieveTask.queueMessage, QQueueMessage.queueMessage)
                 .on(matchQueueMessage)
-                .where(matchRetrieveTask);
-        updateRetrieveTaskUpdatedTime(queueMessageQuery, now);
-        return updateStatus(queueMessageQuery, QueueMessage.Status.CANCELED, now);
+                .where(matchRetrieveTask, QQueueMessage.queueMessage.status.ne(QueueMessage.Status.CANCELED))
+                .limit(fetchSize)
+                .fetch());
     }
 
     public List<String> getRetrieveTasksReferencedQueueMsgIDs(Predicate matchQueueMessage, Predicate matchRetrieveTask) {
@@ -335,10 +424,19 @@ public class QueueManagerEJB {
         return true;
     }
 
+    public int rescheduleTasks(Predicate matchQueueMessage, String queueName, int fetchSize)
+            throws IllegalTaskStateException, DifferentDeviceException {
+        List<QueueMessage> entities = createQuery(matchQueueMessage).limit(fetchSize).fetch();
+        for (QueueMessage entity : entities)
+            rescheduleTask(entity, queueName, null);
+        return entities.size();
+    }
+
     private void rescheduleTask(QueueMessage entity, QueueDescriptor descriptor, long delay) {
         ObjectMessage msg = entity.initProperties(createObjectMessage(entity.getMessageBody()));
         sendMessage(descriptor, msg, delay, entity.getPriority());
         entity.reschedule(msg, new Date(System.currentTimeMillis() + delay));
+        queueSizes.increment(entity.getQueueName());
         if (entity.getExportTask() != null)
             entity.getExportTask().setUpdatedTime();
         if (entity.getRetrieveTask() != null)
@@ -359,6 +457,8 @@ public class QueueManagerEJB {
     }
 
     private void deleteTask(QueueMessage entity) {
+        if (entity.getStatus() == QueueMessage.Status.SCHEDULED)
+            queueSizes.decrement(entity.getQueueName());
         if (entity.getExportTask() != null)
             em.remove(entity.getExportTask());
         else if (entity.getRetrieveTask() != null)
@@ -370,15 +470,32 @@ public class QueueManagerEJB {
         LOG.info("Delete Task[id={}] from Queue {}", entity.getMessageID(), entity.getQueueName());
     }
 
-    public int deleteTasks(Predicate matchQueueMessage) {
-        int n = 0;
-        try (CloseableIterator<QueueMessage> iterate = new HibernateQuery<QueueMessage>(em.unwrap(Session.class))
-                .from(QQueueMessage.queueMessage)
-                .where(matchQueueMessage).iterate()) {
-            iterate.forEachRemaining(this::deleteTask);
-            n++;
-        }
-        return n;
+    public int deleteTasks(Predicate matchQueueMessage, int fetchSize) {
+        List<Long> queueMessagePks = createQuery(matchQueueMessage)
+                .select(QQueueMessage.queueMessage.pk)
+                .limit(fetchSize)
+                .fetch();
+        if (queueMessagePks.isEmpty())
+            return 0;
+
+        List<DiffTask> diffTasks = new HibernateQuery<DiffTask>(em.unwrap(Session.class))
+                .from(QDiffTask.diffTask)
+                .where(QDiffTask.diffTask.queueMessage.pk.in(queueMessagePks))
+                .fetch();
+        for (DiffTask diffTask : diffTasks)
+            em.remove(diffTask);
+        em.flush();
+        new HibernateDeleteClause(em.unwrap(Session.class), QExportTask.exportTask)
+                .where(QExportTask.exportTask.queueMessage.pk.in(queueMessagePks))
+                .execute();
+        new HibernateDeleteClause(em.unwrap(Session.class), QRetrieveTask.retrieveTask)
+                .where(QRetrieveTask.retrieveTask.queueMessage.pk.in(queueMessagePks))
+                .execute();
+        int count = diffTasks.size() + (int) new HibernateDeleteClause(em.unwrap(Session.class), QQueueMessage.queueMessage)
+                .where(QQueueMessage.queueMessage.pk.in(queueMessagePks))
+                .execute();
+        queueSizes.invalidate();
+        return count;
     }
 
     public List<QueueMessage> search(Predicate matchQueueMessage, OrderSpecifier<Date> order, int offset, int limit) {
@@ -414,11 +531,16 @@ public class QueueManagerEJB {
     }
 
     private Queue lookup(String jndiName) {
-        try {
-            return InitialContext.doLookup(jndiName);
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
+        Queue queue = queues.get(jndiName);
+        if (queue == null) {
+            try {
+                queue = InitialContext.doLookup(jndiName);
+            } catch (NamingException e) {
+                throw new RuntimeException(e);
+            }
+            queues.put(jndiName, queue);
         }
+        return queue;
     }
 
     private QueueDescriptor descriptorOf(String queueName) {
@@ -41,6 +41,7 @@ package org.dcm4chee.arc.qmgt.impl;
 import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Predicate;
 import org.dcm4che3.net.Device;
+import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
 import org.dcm4chee.arc.entity.QueueMessage;
 import org.dcm4chee.arc.event.QueueMessageEvent;
 import org.dcm4chee.arc.qmgt.*;
@@ -66,6 +67,9 @@ public class QueueManagerImpl implements QueueManager {
     @Inject
     private QueueManagerEJB ejb;
 
+    @Inject
+    private QueueTransitionScheduler transitionScheduler;
+
     @Inject
     private Event<MessageCanceled> messageCanceledEvent;
 
@@ -83,7 +87,9 @@ public class QueueManagerImpl implements QueueManager {
     @Override
     public QueueMessage onProcessingStart(String msgId) {
         try {
-            return ejb.onProcessingStart(msgId);
+            return transitionScheduler.isEnabled()
+                    ? transitionScheduler.onProcessingStart(msgId)
+                    : ejb.onProcessingStart(msgId);
         } catch (Throwable e) {
             logDBUpdateFailed("onProcessingStart", msgId, e);
             return null;
@@ -93,7 +99,9 @@ public class QueueManagerImpl implements QueueManager {
     @Override
     public QueueMessage onProcessingSuccessful(String msgId, Outcome outcome) {
         try {
-            return ejb.onProcessingSuccessful(msgId, outcome);
+            return transitionScheduler.isEnabled() && transitionScheduler.onProcessingSuccessful(msgId, outcome)
+                    ? null
+                    : ejb.onProcessingSuccessful(msgId, outcome);
         } catch (Throwable e) {
             logDBUpdateFailed("onProcessingSuccessful", msgId, e);
             return null;
@@ -103,6 +111,7 @@ public class QueueManagerImpl implements QueueManager {
     @Override
     public QueueMessage onProcessingFailed(String msgId, Throwable e) {
         try {
+            transitionScheduler.flush(msgId);
             return ejb.onProcessingFailed(msgId, e);
         } catch (Throwable e1) {
             logDBUpdateFailed("onProcessingFailed", msgId, e1);
@@ -132,7 +141,14 @@ public class QueueManagerImpl implements QueueManager {
                 cancelTask(msgID, null);
             return msgIDs.size();
         }
-        return ejb.cancelTasks(matchQueueMessage);
+        int fetchSize = queueTasksFetchSize();
+        long count = 0;
+        int canceled;
+        do {
+            count += canceled = ejb.cancelTasks(matchQueueMessage, fetchSize);
+            logProgress("Canceled", count);
+        } while (canceled >= fetchSize);
+        return count;
     }
 
     @Override
@@ -144,7 +160,14 @@ public class QueueManagerImpl implements QueueManager {
                 cancelTask(msgID, null);
             return msgIDs.size();
         }
-        return ejb.cancelExportTasks(matchQueueMessage, matchExportTask);
+        int fetchSize = queueTasksFetchSize();
+        long count = 0;
+        int canceled;
+        do {
+            count += canceled = ejb.cancelExportTasks(matchQueueMessage, matchExportTask, fetchSize);
+            logProgress("Canceled", count);
+        } while (canceled >= fetchSize);
+        return count;
     }
 
     @Override
@@ -156,7 +179,14 @@ public class QueueManagerImpl implements QueueManager {
                 cancelTask(msgID, null);
             return msgIDs.size();
         }
-        return ejb.cancelRetrieveTasks(matchQueueMessage, matchRetrieveTask);
+        int fetchSize = queueTasksFetchSize();
+        long count = 0;
+        int canceled;
+        do {
+            count += canceled = ejb.cancelRetrieveTasks(matchQueueMessage, matchRetrieveTask, fetchSize);
+            logProgress("Canceled", count);
+        } while (canceled >= fetchSize);
+        return count;
     }
 
     @Override
@@ -171,6 +201,19 @@ public class QueueManagerImpl implements QueueManager {
         return ejb.rescheduleTask(task, queueName, queueEvent);
     }
 
+    @Override
+    public int rescheduleTasks(Predicate matchQueueMessage, String queueName)
+            throws IllegalTaskStateException, DifferentDeviceException {
+        int fetchSize = queueTasksFetchSize();
+        int count = 0;
+        int rescheduled;
+        do {
+            count += rescheduled = ejb.rescheduleTasks(matchQueueMessage, queueName, fetchSize);
+            logProgress("Rescheduled", count);
+        } while (rescheduled >= fetchSize);
+        return count;
+    }
+
     @Override
     public boolean deleteTask(String msgId, QueueMessageEvent queueEvent) {
         return ejb.deleteTask(msgId, queueEvent);
@@ -178,7 +221,23 @@ public class QueueManagerImpl implements QueueManager {
 
     @Override
     public int deleteTasks(String queueName, Predicate matchQueueMessage) {
-        return ejb.deleteTasks(matchQueueMessage);
+        int fetchSize = queueTasksFetchSize();
+        int count = 0;
+        int deleted;
+        do {
+            count += deleted = ejb.deleteTasks(matchQueueMessage, fetchSize);
+            logProgress("Deleted", count);
+        } while (deleted >= fetchSize);
+        return count;
+    }
+
+    private int queueTasksFetchSize() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class).getQueueTasksFetchSize();
+    }
+
+    private static void logProgress(String operation, long count) {
+        if (count > 0)
+            LOG.info("{} {} Tasks", operation, count);
     }
 
     @Override
@@ -0,0 +1,114 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.qmgt.impl;
+
+import org.dcm4chee.arc.metrics.MetricsRegistry;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Maintains the number of scheduled Tasks per Queue incrementally, so the Maximal Queue Size can be checked without
+ * counting the scheduled Tasks for each scheduled message. The number is re-synchronized with the database
+ * periodically, after bulk operations and before a message is rejected because of an exceeded Maximal Queue Size.
+ *
+ * @since Apr 2018
+ */
+@ApplicationScoped
+public class QueueSizeCounter {
+
+    private static final long RESYNC_INTERVAL = 60000L;
+
+    private final ConcurrentHashMap<String, Size> sizes = new ConcurrentHashMap<>();
+
+    public long get(String queueName, LongSupplier count) {
+        Size size = sizes.computeIfAbsent(queueName, this::newSize);
+        return size.isExpired() ? size.sync(count.getAsLong()) : size.value.get();
+    }
+
+    public long sync(String queueName, LongSupplier count) {
+        return sizes.computeIfAbsent(queueName, this::newSize).sync(count.getAsLong());
+    }
+
+    private Size newSize(String queueName) {
+        MetricsRegistry.getDefault().gauge("dcm4chee_arc_queue_scheduled",
+                "Number of scheduled tasks in queues with Maximal Queue Size",
+                () -> {
+                    Size size = sizes.get(queueName);
+                    return size != null ? size.value.get() : Double.NaN;
+                },
+                "queue", queueName);
+        return new Size();
+    }
+
+    public void increment(String queueName) {
+        Size size = sizes.get(queueName);
+        if (size != null)
+            size.value.incrementAndGet();
+    }
+
+    public void decrement(String queueName) {
+        Size size = sizes.get(queueName);
+        if (size != null)
+            size.value.decrementAndGet();
+    }
+
+    public void invalidate() {
+        sizes.clear();
+    }
+
+    private static class Size {
+        final AtomicLong value = new AtomicLong();
+        volatile long syncTime;
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - syncTime > RESYNC_INTERVAL;
+        }
+
+        long sync(long count) {
+            value.set(count);
+            syncTime = System.currentTimeMillis();
+            return count;
+        }
+    }
+}
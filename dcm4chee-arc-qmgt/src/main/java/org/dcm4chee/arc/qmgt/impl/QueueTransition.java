@@ -0,0 +1,107 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.qmgt.impl;
+
+import org.dcm4chee.arc.entity.QueueMessage;
+
+import java.util.Date;
+
+/**
+ * Pending state transition of a Task, written to the database by {@link QueueTransitionScheduler}.
+ *
+ * @since Apr 2018
+ */
+public class QueueTransition {
+
+    private final String messageID;
+    private final String queueName;
+    private final Date processingStartTime;
+    private Date processingEndTime;
+    private QueueMessage.Status status = QueueMessage.Status.IN_PROCESS;
+    private String outcomeMessage;
+
+    QueueTransition(String messageID, String queueName, Date processingStartTime) {
+        this.messageID = messageID;
+        this.queueName = queueName;
+        this.processingStartTime = processingStartTime;
+    }
+
+    public String getMessageID() {
+        return messageID;
+    }
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    QueueTransition finish(QueueMessage.Status status, String outcomeMessage, Date processingEndTime) {
+        this.status = status;
+        this.outcomeMessage = outcomeMessage;
+        this.processingEndTime = processingEndTime;
+        return this;
+    }
+
+    boolean applyTo(QueueMessage entity) {
+        switch (entity.getStatus()) {
+            case SCHEDULED:
+            case IN_PROCESS:
+                break;
+            default:
+                return false;
+        }
+        if (entity.getScheduledTime().after(processingStartTime != null ? processingStartTime : processingEndTime))
+            return false;
+
+        if (processingStartTime != null)
+            entity.setProcessingStartTime(processingStartTime);
+        if (processingEndTime != null) {
+            entity.setProcessingEndTime(processingEndTime);
+            entity.setOutcomeMessage(outcomeMessage);
+        }
+        entity.setStatus(status);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Task[id=" + messageID + "] " + status;
+    }
+}
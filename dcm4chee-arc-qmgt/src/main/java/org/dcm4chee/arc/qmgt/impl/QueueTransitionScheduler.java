@@ -0,0 +1,185 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.qmgt.impl;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.arc.Scheduler;
+import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.dcm4chee.arc.conf.Duration;
+import org.dcm4chee.arc.entity.QueueMessage;
+import org.dcm4chee.arc.qmgt.Outcome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the start and the successful completion of Task processing, if a Queue Transition Batch Interval is
+ * configured, and writes them to the database in one transaction, on expiration of the interval or when the Queue
+ * Transition Batch Size is reached. A start immediately followed by the completion of the same Task only results in
+ * one update of the Task.
+ *
+ * @since Apr 2018
+ */
+@ApplicationScoped
+public class QueueTransitionScheduler extends Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueueTransitionScheduler.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private QueueManagerEJB ejb;
+
+    @Inject
+    private QueueSizeCounter queueSizes;
+
+    private final ConcurrentHashMap<String, QueueTransition> pending = new ConcurrentHashMap<>();
+
+    protected QueueTransitionScheduler() {
+        super(Mode.scheduleWithFixedDelay);
+    }
+
+    @Override
+    protected Logger log() {
+        return LOG;
+    }
+
+    @Override
+    protected Duration getPollingInterval() {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        return arcDev != null ? arcDev.getQueueTransitionBatchInterval() : null;
+    }
+
+    @Override
+    protected void execute() {
+        flush();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        flush();
+    }
+
+    boolean isEnabled() {
+        return getPollingInterval() != null;
+    }
+
+    QueueMessage onProcessingStart(String msgId) {
+        QueueMessage entity = ejb.findQueueMessageToProcess(msgId);
+        if (entity == null)
+            return null;
+
+        if (entity.getStatus() == QueueMessage.Status.SCHEDULED)
+            queueSizes.decrement(entity.getQueueName());
+        Date now = new Date();
+        entity.setProcessingStartTime(now);
+        entity.setStatus(QueueMessage.Status.IN_PROCESS);
+        pending.put(msgId, new QueueTransition(msgId, entity.getQueueName(), now));
+        flushIfFull();
+        return entity;
+    }
+
+    boolean onProcessingSuccessful(String msgId, Outcome outcome) {
+        QueueMessage.Status status = outcome.getStatus();
+        QueueTransition transition = pending.get(msgId);
+        if (status != QueueMessage.Status.COMPLETED
+                && (status != QueueMessage.Status.WARNING || transition == null
+                    || device.getDeviceExtension(ArchiveDeviceExtension.class)
+                        .getQueueDescriptorNotNull(transition.getQueueName()).isRetryOnWarning())) {
+            flush(msgId);
+            return false;
+        }
+        Date now = new Date();
+        pending.compute(msgId, (k, prev) -> (prev != null ? prev : new QueueTransition(msgId, null, null))
+                .finish(status, outcome.getDescription(), now));
+        LOG.info("Finished processing of Task[id={}] with Status {}", msgId, status);
+        flushIfFull();
+        return true;
+    }
+
+    void flush(String msgId) {
+        QueueTransition transition = pending.remove(msgId);
+        if (transition != null)
+            apply(transition);
+    }
+
+    private void flushIfFull() {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        if (pending.size() >= arcDev.getQueueTransitionBatchSize())
+            flush();
+    }
+
+    private synchronized void flush() {
+        List<QueueTransition> batch = new ArrayList<>(pending.size());
+        for (String msgId : pending.keySet()) {
+            QueueTransition transition = pending.remove(msgId);
+            if (transition != null)
+                batch.add(transition);
+        }
+        if (batch.isEmpty())
+            return;
+
+        try {
+            QueueManagerEJB.recordCompleted(ejb.applyTransitions(batch));
+        } catch (Exception e) {
+            LOG.info("Failed to update status of {} Tasks in DB - update each Task separately:\n", batch.size(), e);
+            for (QueueTransition transition : batch)
+                apply(transition);
+        }
+    }
+
+    private void apply(QueueTransition transition) {
+        try {
+            QueueManagerEJB.recordCompleted(ejb.applyTransitions(Collections.singletonList(transition)));
+        } catch (Exception e) {
+            LOG.error("Failed to update status of {} in DB:\n", transition, e);
+        }
+    }
+}
@@ -52,6 +52,7 @@ import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.BasicQueryTask;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4chee.arc.conf.ArchiveAEExtension;
+import org.dcm4chee.arc.conf.Duration;
 import org.dcm4chee.arc.conf.SpanningCFindSCPPolicy;
 import org.dcm4chee.arc.query.Query;
 import org.dcm4chee.arc.query.QueryContext;
@@ -80,8 +81,12 @@ public class ArchiveQueryTask extends BasicQueryTask {
     private final SpanningCFindSCPPolicy spanningPolicy;
     private final int queryMaxNumberOfResults;
     private final int queryFetchSize;
+    private final boolean spanningConcurrent;
+    private final long spanningTimeout;
+    private final boolean spanningFailOnTimeout;
     private Association spanningAssoc;
     private DimseRSP spanningCFindRSP;
+    private ConcurrentSpanningCFind concurrentSpanning;
     private Attributes spanningMatch;
     private Query query;
     private Transaction transaction;
@@ -101,6 +106,10 @@ public class ArchiveQueryTask extends BasicQueryTask {
         spanningPolicy = arcAE.spanningCFindSCPPolicy();
         queryMaxNumberOfResults = arcAE.queryMaxNumberOfResults();
         queryFetchSize = arcAE.getArchiveDeviceExtension().getQueryFetchSize();
+        spanningConcurrent = arcAE.spanningCFindSCPConcurrent();
+        Duration timeout = arcAE.spanningCFindSCPTimeout();
+        spanningTimeout = timeout != null ? timeout.getSeconds() * 1000L : 0L;
+        spanningFailOnTimeout = arcAE.spanningCFindSCPFailOnTimeout();
     }
 
     @Override
@@ -123,6 +132,10 @@ public class ArchiveQueryTask extends BasicQueryTask {
     }
 
     private void releaseSpanningAssociation() {
+        if (concurrentSpanning != null) {
+            concurrentSpanning.cancel();
+            concurrentSpanning = null;
+        }
         if (spanningAssoc != null) {
             try {
                 spanningAssoc.release();
@@ -159,6 +172,11 @@ public class ArchiveQueryTask extends BasicQueryTask {
     }
 
     private void initQuery() throws DicomServiceException {
+        prepareQuery();
+        executeQuery();
+    }
+
+    private void prepareQuery() throws DicomServiceException {
         this.query = ctx.getQueryService().createQuery(ctx);
         setOptionalKeysNotSupported(query.isOptionalKeysNotSupported());
         query.initQuery();
@@ -166,12 +184,19 @@ public class ArchiveQueryTask extends BasicQueryTask {
                 && query.fetchCount() > queryMaxNumberOfResults) {
             throw new DicomServiceException(Status.UnableToProcess, "Request entity too large");
         }
+    }
+
+    private void executeQuery() {
         transaction = query.beginTransaction();
         query.setFetchSize(queryFetchSize);
         query.executeQuery();
     }
 
     private void initSpanning() throws Exception {
+        if (concurrentSpanning != null) {
+            nextSpanningMatch();
+            return;
+        }
         CFindSCU cfindscu = ctx.getQueryService().cfindSCU();
         spanningAssoc = cfindscu.openAssociation(
                 as.getApplicationEntity(),
@@ -183,6 +208,18 @@ public class ArchiveQueryTask extends BasicQueryTask {
         nextSpanningMatch();
     }
 
+    private void startConcurrentSpanning() {
+        concurrentSpanning = new ConcurrentSpanningCFind(
+                ctx.getQueryService().cfindSCU(),
+                as.getApplicationEntity(),
+                spanningCFindSCP,
+                ctx.getSOPClassUID(),
+                as.getQueryOptionsFor(ctx.getSOPClassUID()),
+                spanningQueryKeys(),
+                spanningTimeout);
+        as.getApplicationEntity().getDevice().execute(concurrentSpanning);
+    }
+
     private Attributes spanningQueryKeys() {
         Attributes queryKeys = ctx.getQueryKeys();
         if (!queryKeys.containsValue(uniqueKey)) {
@@ -290,11 +327,25 @@ public class ArchiveQueryTask extends BasicQueryTask {
 
     private Attributes nextSpanningMatch() throws Exception {
         Attributes match = spanningMatch;
-        spanningMatch = spanningCFindRSP.getDataset();
-        spanningCFindRSP.next();
+        if (concurrentSpanning != null) {
+            spanningMatch = concurrentSpanning.nextMatch();
+            if (concurrentSpanning.isTimedOut())
+                onSpanningTimeout();
+        } else {
+            spanningMatch = spanningCFindRSP.getDataset();
+            spanningCFindRSP.next();
+        }
         return match;
     }
 
+    private void onSpanningTimeout() throws DicomServiceException {
+        if (spanningFailOnTimeout)
+            throw new DicomServiceException(Status.UnableToProcess,
+                    "Timeout on receiving matches from " + spanningCFindSCP);
+
+        LOG.warn("{}: timeout on receiving matches from {} - return partial results", as, spanningCFindSCP);
+    }
+
 
     private boolean hasMoreQueryMatches() throws DicomServiceException {
         return query.hasMoreMatches();
@@ -334,7 +385,18 @@ public class ArchiveQueryTask extends BasicQueryTask {
     }
 
     private State initState() throws Exception {
-        if (spanningCFindSCP == null || spanningPolicy == SpanningCFindSCPPolicy.SUPPLEMENT) {
+        if (spanningCFindSCP != null && spanningConcurrent && spanningPolicy != SpanningCFindSCPPolicy.REPLACE) {
+            startConcurrentSpanning();
+            if (spanningPolicy == SpanningCFindSCPPolicy.SUPPLEMENT) {
+                initQuery();
+                state = State.QUERY_BEFORE_SPANNING;
+            } else {
+                // do not keep the transaction and the cursor open while returning the spanning matches
+                prepareQuery();
+                initSpanning();
+                state = State.SPANNING_BEFORE_QUERY;
+            }
+        } else if (spanningCFindSCP == null || spanningPolicy == SpanningCFindSCPPolicy.SUPPLEMENT) {
             initQuery();
             state = spanningCFindSCP == null ? State.QUERY : State.QUERY_BEFORE_SPANNING;
         } else {
@@ -352,7 +414,9 @@ public class ArchiveQueryTask extends BasicQueryTask {
 
     private State initQueryAfterSpanning() throws Exception {
         releaseSpanningAssociation();
-        initQuery();
+        if (query == null)
+            prepareQuery();
+        executeQuery();
         return state = State.QUERY;
     }
 }
@@ -0,0 +1,197 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.query.scp;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.DimseRSP;
+import org.dcm4che3.net.Priority;
+import org.dcm4che3.net.QueryOption;
+import org.dcm4chee.arc.query.scu.CFindSCU;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries the Spanning C-FIND SCP in a separate thread, buffering up to {@value #MAX_BUFFERED_MATCHES} received
+ * matches until they are consumed by the query task, so the remote query proceeds concurrently to the query of the
+ * local database.
+ *
+ * @since Apr 2018
+ */
+class ConcurrentSpanningCFind implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentSpanningCFind.class);
+
+    private static final Attributes END = new Attributes(0);
+    private static final int MAX_BUFFERED_MATCHES = 1000;
+    private static final long POLL_INTERVAL = 1000L;
+
+    private final CFindSCU cfindscu;
+    private final ApplicationEntity localAE;
+    private final String calledAET;
+    private final String cuid;
+    private final EnumSet<QueryOption> queryOptions;
+    private final Attributes keys;
+    private final long deadline;
+    private final BlockingQueue<Attributes> queue = new LinkedBlockingQueue<>(MAX_BUFFERED_MATCHES);
+    private volatile Association as;
+    private volatile boolean canceled;
+    private volatile Exception exception;
+    private boolean timedOut;
+
+    ConcurrentSpanningCFind(CFindSCU cfindscu, ApplicationEntity localAE, String calledAET, String cuid,
+            EnumSet<QueryOption> queryOptions, Attributes keys, long timeout) {
+        this.cfindscu = cfindscu;
+        this.localAE = localAE;
+        this.calledAET = calledAET;
+        this.cuid = cuid;
+        this.queryOptions = queryOptions;
+        this.keys = keys;
+        this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0L;
+    }
+
+    @Override
+    public void run() {
+        try {
+            as = cfindscu.openAssociation(localAE, calledAET, cuid, queryOptions);
+            if (!canceled) {
+                DimseRSP rsp = cfindscu.query(as, Priority.NORMAL, keys, 0);
+                while (rsp.next() && !canceled) {
+                    Attributes match = rsp.getDataset();
+                    if (match != null && !enqueue(match))
+                        break;
+                }
+            }
+        } catch (Exception e) {
+            if (!canceled)
+                exception = e;
+        } finally {
+            release();
+            end();
+        }
+    }
+
+    /**
+     * Waits until there is space in the buffer for the match, or until the query was canceled.
+     */
+    private boolean enqueue(Attributes match) throws InterruptedException {
+        while (!canceled)
+            if (queue.offer(match, POLL_INTERVAL, TimeUnit.MILLISECONDS))
+                return true;
+        return false;
+    }
+
+    private void end() {
+        try {
+            if (enqueue(END))
+                return;
+        } catch (InterruptedException e) {
+            if (!canceled && exception == null)
+                exception = e;
+        }
+        // buffered matches are not consumed anymore
+        queue.clear();
+        queue.offer(END);
+    }
+
+    /**
+     * Returns the next match received from the Spanning C-FIND SCP or {@code null}, if all matches were received or
+     * the timeout was exceeded.
+     */
+    Attributes nextMatch() throws Exception {
+        if (timedOut)
+            return null;
+
+        Attributes match;
+        while ((match = queue.poll(pollTimeout(), TimeUnit.MILLISECONDS)) == null) {
+            if (canceled)
+                return null;
+
+            if (deadline != 0L && System.currentTimeMillis() >= deadline) {
+                timedOut = true;
+                cancel();
+                return null;
+            }
+        }
+        if (match == END) {
+            queue.add(END);
+            if (exception != null)
+                throw exception;
+            return null;
+        }
+        return match;
+    }
+
+    private long pollTimeout() {
+        return deadline == 0L
+                ? POLL_INTERVAL
+                : Math.max(0L, Math.min(POLL_INTERVAL, deadline - System.currentTimeMillis()));
+    }
+
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    void cancel() {
+        canceled = true;
+        Association as = this.as;
+        if (as != null && as.isReadyForDataTransfer())
+            as.abort();
+    }
+
+    private void release() {
+        Association as = this.as;
+        if (as != null && as.isReadyForDataTransfer()) {
+            try {
+                as.release();
+            } catch (IOException e) {
+                LOG.info("{}: failed to release association", as, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.query.scp;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.DimseRSP;
+import org.dcm4che3.net.QueryOption;
+import org.dcm4chee.arc.query.scu.CFindSCU;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class ConcurrentSpanningCFindTest {
+
+    private final AtomicInteger sent = new AtomicInteger();
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private Thread thread;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        unblock.countDown();
+        if (thread != null)
+            thread.join(5000);
+    }
+
+    @Test
+    public void testAllMatches() throws Exception {
+        ConcurrentSpanningCFind cfind = start(cfindscu(5, false, null), 0L);
+        assertEquals(5, consume(cfind).size());
+        assertFalse(cfind.isTimedOut());
+        assertNull(cfind.nextMatch());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        long start = System.currentTimeMillis();
+        ConcurrentSpanningCFind cfind = start(cfindscu(2, true, null), 300L);
+        assertEquals(2, consume(cfind).size());
+        assertTrue(cfind.isTimedOut());
+        assertTrue(System.currentTimeMillis() - start >= 300L);
+        assertNull(cfind.nextMatch());
+        unblock.countDown();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void testBackPressure() throws Exception {
+        ConcurrentSpanningCFind cfind = start(cfindscu(1500, false, null), 0L);
+        awaitSent(1001);
+        Thread.sleep(200);
+        assertEquals("buffered matches + match waiting for space in buffer", 1001, sent.get());
+        List<Attributes> matches = consume(cfind);
+        assertEquals(1500, matches.size());
+        for (int i = 0; i < matches.size(); i++)
+            assertEquals(Integer.toString(i), matches.get(i).getString(Tag.PatientID));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        ConcurrentSpanningCFind cfind = start(cfindscu(1500, false, null), 0L);
+        awaitSent(1001);
+        cfind.cancel();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertEquals(1001, sent.get());
+        assertNull(cfind.nextMatch());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        IOException failure = new IOException("Association rejected");
+        ConcurrentSpanningCFind cfind = start(cfindscu(0, false, failure), 0L);
+        try {
+            cfind.nextMatch();
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    private ConcurrentSpanningCFind start(CFindSCU cfindscu, long timeout) {
+        ConcurrentSpanningCFind cfind = new ConcurrentSpanningCFind(cfindscu, null, "SPANNING",
+                UID.StudyRootQueryRetrieveInformationModelFIND, EnumSet.noneOf(QueryOption.class),
+                new Attributes(), timeout);
+        thread = new Thread(cfind);
+        thread.start();
+        return cfind;
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (sent.get() < count && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        assertEquals(count, sent.get());
+    }
+
+    private static List<Attributes> consume(ConcurrentSpanningCFind cfind) throws Exception {
+        List<Attributes> matches = new ArrayList<>();
+        Attributes match;
+        while ((match = cfind.nextMatch()) != null)
+            matches.add(match);
+        return matches;
+    }
+
+    /**
+     * Returns C-FIND SCU, which returns the specified number of matches, before it blocks until the end of the
+     * test or returns the final response.
+     */
+    private CFindSCU cfindscu(int numMatches, boolean block, Exception failure) {
+        return (CFindSCU) Proxy.newProxyInstance(CFindSCU.class.getClassLoader(),
+                new Class<?>[]{ CFindSCU.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "openAssociation":
+                            return null;
+                        case "query":
+                            if (failure != null)
+                                throw failure;
+                            return dimseRSP(numMatches, block);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private DimseRSP dimseRSP(int numMatches, boolean block) {
+        int[] index = { -1 };
+        return (DimseRSP) Proxy.newProxyInstance(DimseRSP.class.getClassLoader(),
+                new Class<?>[]{ DimseRSP.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            if (index[0] + 1 == numMatches && block)
+                                unblock.await(10, TimeUnit.SECONDS);
+                            if (++index[0] < numMatches)
+                                sent.incrementAndGet();
+                            return index[0] <= numMatches;
+                        case "getDataset":
+                            if (index[0] >= numMatches)
+                                return null;
+                            Attributes match = new Attributes(1);
+                            match.setString(Tag.PatientID, VR.LO, Integer.toString(index[0]));
+                            return match;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -67,6 +67,10 @@ public interface Query extends Closeable {
 
     long fetchCount();
 
+    void seek(String pageToken);
+
+    String continuationToken(long position);
+
     Iterator<Long> withUnknownSize(int fetchSize);
 
     long fetchSize();
@@ -41,20 +41,35 @@
 package org.dcm4chee.arc.query.impl;
 
 import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.Order;
 import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.NumberPath;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.StringUtils;
+import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.arc.conf.ArchiveAEExtension;
+import org.dcm4chee.arc.metrics.Counter;
+import org.dcm4chee.arc.metrics.Histogram;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 import org.dcm4chee.arc.query.Query;
 import org.dcm4chee.arc.query.QueryContext;
 import org.dcm4chee.arc.query.util.OrderByTag;
 import org.dcm4chee.arc.query.util.QueryBuilder;
+import org.hibernate.HibernateException;
 import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionImplementor;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -64,30 +79,101 @@ import java.util.List;
  */
 abstract class AbstractQuery implements Query {
 
+    private static final int[] IDENTIFYING_KEYS = {
+            Tag.PatientID,
+            Tag.IssuerOfPatientID,
+            Tag.IssuerOfPatientIDQualifiersSequence,
+            Tag.StudyInstanceUID,
+            Tag.SeriesInstanceUID
+    };
+
+    private static volatile Boolean nullsSortedHigh;
+
     protected final QueryContext context;
     protected final StatelessSession session;
     protected HibernateQuery<Tuple> query;
     private Iterator<Tuple> results;
+    private final ArrayList<OrderSpecifier<?>> orderSpecifiers = new ArrayList<>();
+    private Predicate seekPredicate;
+    private boolean seek;
     private long offset;
     private long limit;
     private int rejected;
     private int matches;
+    private int[] decodeSelection;
+    private boolean decodeSelectionInitialized;
+    private final Metrics metrics;
 
-    public AbstractQuery(QueryContext context, StatelessSession session) {
+    public AbstractQuery(QueryContext context, StatelessSession session, Metrics metrics) {
         this.context = context;
         this.session = session;
+        this.metrics = metrics;
     }
 
     public void initQuery() {
         query = newHibernateQuery(false);
+        orderSpecifiers.clear();
         List<OrderByTag> orderByTags = context.getOrderByTags();
         if (orderByTags != null) {
-            ArrayList<OrderSpecifier<?>> list = new ArrayList<>(orderByTags.size() + 1);
             for (OrderByTag orderByTag : orderByTags) {
-                addOrderSpecifier(orderByTag.tag, orderByTag.order, list);
+                addOrderSpecifier(orderByTag.tag, orderByTag.order, orderSpecifiers);
+            }
+            query.orderBy(orderSpecifiers.toArray(new OrderSpecifier<?>[orderSpecifiers.size()]));
+        }
+    }
+
+    @Override
+    public void seek(String token) {
+        checkQuery();
+        seek = true;
+        query.orderBy(pk().asc());
+        if (token == null)
+            return;
+
+        PageToken pageToken = PageToken.decode(token, orderSpecifiers.size());
+        seekPredicate = pageToken.predicate(orderSpecifiers, pk(), nullsSortedHigh());
+        query.where(seekPredicate);
+    }
+
+    private boolean nullsSortedHigh() {
+        Boolean value = nullsSortedHigh;
+        if (value == null) {
+            try {
+                nullsSortedHigh = value =
+                        !((SessionImplementor) session).connection().getMetaData().nullsAreSortedLow();
+            } catch (SQLException e) {
+                throw new HibernateException(e);
             }
-            query.orderBy(list.toArray(new OrderSpecifier<?>[list.size()]));
         }
+        return value;
+    }
+
+    @Override
+    public String continuationToken(long position) {
+        checkQuery();
+        if (!seek)
+            throw new IllegalStateException("seek not initalized");
+
+        int n = orderSpecifiers.size();
+        Expression<?>[] keys = new Expression<?>[n + 1];
+        OrderSpecifier<?>[] order = new OrderSpecifier<?>[n + 1];
+        for (int i = 0; i < n; i++) {
+            order[i] = orderSpecifiers.get(i);
+            keys[i] = order[i].getTarget();
+        }
+        keys[n] = pk();
+        order[n] = pk().asc();
+        HibernateQuery<Tuple> q = newHibernateQuery(false).select(keys).orderBy(order);
+        if (seekPredicate != null)
+            q.where(seekPredicate);
+        Tuple next = q.offset(position).limit(1).fetchFirst();
+        if (next == null)
+            return null;
+
+        Object[] values = new Object[n];
+        for (int i = 0; i < n; i++)
+            values[i] = next.get(keys[i]);
+        return new PageToken(values, next.get(pk())).encode();
     }
 
     protected boolean addOrderSpecifier(int tag, Order order, ArrayList<OrderSpecifier<?>> result) {
@@ -111,6 +197,8 @@ abstract class AbstractQuery implements Query {
 
     protected abstract HibernateQuery<Tuple> newHibernateQuery(boolean forCount);
 
+    protected abstract NumberPath<Long> pk();
+
     protected abstract Attributes toAttributes(Tuple results);
 
     private void checkQuery() {
@@ -129,7 +217,12 @@ abstract class AbstractQuery implements Query {
         checkQuery();
         rejected = 0;
         matches = 0;
-        results = offset > 0 ? query.fetch().iterator() : query.iterate();
+        long startTime = System.nanoTime();
+        try {
+            results = offset > 0 ? query.fetch().iterator() : query.iterate();
+        } finally {
+            metrics.executeQueryTime.recordSince(startTime);
+        }
     }
 
     @Override
@@ -154,7 +247,7 @@ abstract class AbstractQuery implements Query {
     @Override
     public boolean hasMoreMatches() throws DicomServiceException {
         boolean hasNext = results.hasNext();
-        if (hasNext || rejected == 0 || limit != matches)
+        if (hasNext || rejected == 0 || limit != matches || seek)
             return hasNext;
 
         offset(offset + matches);
@@ -167,6 +260,7 @@ abstract class AbstractQuery implements Query {
     public Attributes nextMatch() {
         Attributes attrs = toAttributes(results.next());
         matches++;
+        metrics.queryMatches.inc();
         if (attrs == null)
             rejected++;
         return attrs;
@@ -186,6 +280,40 @@ abstract class AbstractQuery implements Query {
         return filtered;
     }
 
+    /**
+     * Returns the sorted tags of the attributes to decode from attribute blobs, or {@code null} if all attributes
+     * have to be decoded, because all attributes are returned, returned private attributes may be stored in other
+     * private blocks, or the matches are subject of an Attribute Coercion.
+     */
+    protected int[] decodeSelection() {
+        if (!decodeSelectionInitialized) {
+            decodeSelection = selectionOf(context.getReturnKeys());
+            decodeSelectionInitialized = true;
+        }
+        return decodeSelection;
+    }
+
+    private int[] selectionOf(Attributes returnKeys) {
+        if (returnKeys == null || hasAttributeCoercion())
+            return null;
+
+        int[] tags = returnKeys.tags();
+        for (int tag : tags)
+            if (TagUtils.isPrivateTag(tag))
+                return null;
+
+        int[] selection = Arrays.copyOf(tags, tags.length + IDENTIFYING_KEYS.length);
+        System.arraycopy(IDENTIFYING_KEYS, 0, selection, tags.length, IDENTIFYING_KEYS.length);
+        Arrays.sort(selection);
+        return selection;
+    }
+
+    private boolean hasAttributeCoercion() {
+        ArchiveAEExtension arcAE = context.getArchiveAEExtension();
+        return arcAE != null && arcAE.findAttributeCoercion(context.getRemoteHostName(), context.getCallingAET(),
+                TransferCapability.Role.SCU, Dimse.C_FIND_RSP, context.getSOPClassUID()) != null;
+    }
+
     @Override
     public void close() {
         session.close();
@@ -202,4 +330,21 @@ abstract class AbstractQuery implements Query {
         }
         return ss;
     }
+
+    /**
+     * Metrics of one query class, which shall be resolved once per class.
+     */
+    static final class Metrics {
+        final Histogram executeQueryTime;
+        final Counter queryMatches;
+
+        Metrics(Class<? extends AbstractQuery> queryClass) {
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            String queryName = queryClass.getSimpleName();
+            this.executeQueryTime = metrics.timer("dcm4chee_arc_query_execute_seconds",
+                    "Duration of executing DB queries", "query", queryName);
+            this.queryMatches = metrics.counter("dcm4chee_arc_query_matches_total",
+                    "Number of records fetched by DB queries", "query", queryName);
+        }
+    }
 }
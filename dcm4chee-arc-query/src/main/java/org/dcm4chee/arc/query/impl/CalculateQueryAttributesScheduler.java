@@ -0,0 +1,171 @@
+/*
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  J4Care.
+ *  Portions created by the Initial Developer are Copyright (C) 2018
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ */
+
+package org.dcm4chee.arc.query.impl;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.arc.Scheduler;
+import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.dcm4chee.arc.conf.Duration;
+import org.dcm4chee.arc.conf.QueryRetrieveView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Calculates missing or invalidated Series and Study Query Attributes and Series and Study Sizes in batches, so
+ * QIDO-RS and C-FIND queries do not have to calculate them on demand.
+ *
+ * @since Apr 2018
+ */
+@ApplicationScoped
+public class CalculateQueryAttributesScheduler extends Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CalculateQueryAttributesScheduler.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private QueryAttributesEJB queryAttributesEJB;
+
+    @Inject
+    private QuerySizeEJB querySizeEJB;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    protected CalculateQueryAttributesScheduler() {
+        super(Mode.scheduleWithFixedDelay);
+    }
+
+    @Override
+    protected Logger log() {
+        return LOG;
+    }
+
+    @Override
+    protected Duration getPollingInterval() {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        return arcDev.getCalculateQueryAttributesPollingInterval();
+    }
+
+    @Override
+    protected void execute() {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        int fetchSize = arcDev.getCalculateQueryAttributesFetchSize();
+        int threads = arcDev.getCalculateQueryAttributesThreads();
+        for (String viewID : arcDev.getQueryRetrieveViewIDs()) {
+            QueryRetrieveView qrView = arcDev.getQueryRetrieveView(viewID);
+            calculate("Series Query Attributes of view " + viewID, fetchSize, threads,
+                    limit -> queryAttributesEJB.findSeriesWithoutQueryAttributes(viewID, limit),
+                    seriesPks -> queryAttributesEJB.calculateSeriesQueryAttributes(seriesPks, qrView));
+            calculate("Study Query Attributes of view " + viewID, fetchSize, threads,
+                    limit -> queryAttributesEJB.findStudiesWithoutQueryAttributes(viewID, limit),
+                    studyPks -> queryAttributesEJB.calculateStudyQueryAttributes(studyPks, qrView));
+        }
+        calculate("Series Sizes", fetchSize, threads,
+                querySizeEJB::findSeriesWithUnknownSize,
+                querySizeEJB::calculateSeriesSizes);
+        calculate("Study Sizes", fetchSize, threads,
+                querySizeEJB::findStudiesWithUnknownSize,
+                querySizeEJB::calculateStudySizes);
+    }
+
+    private void calculate(String what, int fetchSize, int threads,
+                           IntFunction<List<Long>> find, ToIntFunction<List<Long>> calculate) {
+        int limit = fetchSize * threads;
+        int total = 0;
+        int found;
+        int calculated;
+        do {
+            if (getPollingInterval() == null) {
+                LOG.info("Calculation of {} interrupted", what);
+                break;
+            }
+            List<Long> pks = find.apply(limit);
+            found = pks.size();
+            calculated = calculate(what, pks, fetchSize, calculate);
+            total += calculated;
+        } while (found == limit && calculated == found);
+        if (total > 0)
+            LOG.info("Calculated {} for {} entities", what, total);
+    }
+
+    private int calculate(String what, List<Long> pks, int fetchSize, ToIntFunction<List<Long>> calculate) {
+        if (pks.size() <= fetchSize)
+            return calculateBatch(what, pks, calculate);
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int fromIndex = 0; fromIndex < pks.size(); fromIndex += fetchSize) {
+            List<Long> batch = new ArrayList<>(pks.subList(fromIndex, Math.min(fromIndex + fetchSize, pks.size())));
+            futures.add(executor.submit(() -> calculateBatch(what, batch, calculate)));
+        }
+        int calculated = 0;
+        for (Future<Integer> future : futures) {
+            try {
+                calculated += future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted calculation of {}", what);
+            } catch (ExecutionException e) {
+                LOG.warn("Failed to calculate {}:\n", what, e.getCause());
+            }
+        }
+        return calculated;
+    }
+
+    private static int calculateBatch(String what, List<Long> batch, ToIntFunction<List<Long>> calculate) {
+        try {
+            return calculate.applyAsInt(batch);
+        } catch (Exception e) {
+            LOG.warn("Failed to calculate {} for {} entities:\n", what, batch.size(), e);
+            return 0;
+        }
+    }
+}
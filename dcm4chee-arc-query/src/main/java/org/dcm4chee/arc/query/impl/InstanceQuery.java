@@ -43,6 +43,7 @@ package org.dcm4chee.arc.query.impl;
 import com.querydsl.core.BooleanBuilder;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.NumberPath;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import org.dcm4che3.data.*;
 import org.dcm4che3.dict.archive.ArchiveTag;
@@ -75,6 +76,8 @@ import java.util.zip.ZipInputStream;
  */
 class InstanceQuery extends AbstractQuery {
 
+    private static final Metrics METRICS = new Metrics(InstanceQuery.class);
+
     private static final Expression<?>[] SELECT = {
             QSeries.series.pk,
             QInstance.instance.pk,
@@ -118,10 +121,15 @@ class InstanceQuery extends AbstractQuery {
     private Attributes instQueryKeys;
 
     public InstanceQuery(QueryContext context, StatelessSession session, CodeCache codeCache) {
-        super(context, session);
+        super(context, session, METRICS);
         this.codeCache = codeCache;
     }
 
+    @Override
+    protected NumberPath<Long> pk() {
+        return QInstance.instance.pk;
+    }
+
     @Override
     protected HibernateQuery<Tuple> newHibernateQuery(boolean forCount) {
         HibernateQuery<Tuple> q = new HibernateQuery<Void>(session).select(SELECT).from(QInstance.instance);
@@ -45,6 +45,7 @@ import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.Order;
 import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.dsl.NumberPath;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
@@ -62,6 +63,8 @@ import java.util.ArrayList;
  */
 public class MWLQuery extends AbstractQuery {
 
+    private static final Metrics METRICS = new Metrics(MWLQuery.class);
+
     static final Expression<?>[] SELECT = {
             QPatient.patient.numberOfStudies,
             QueryBuilder.mwlAttributesBlob.encodedAttributes,
@@ -69,7 +72,12 @@ public class MWLQuery extends AbstractQuery {
     };
 
     public MWLQuery(QueryContext context, StatelessSession session) {
-        super(context, session);
+        super(context, session, METRICS);
+    }
+
+    @Override
+    protected NumberPath<Long> pk() {
+        return QMWLItem.mWLItem.pk;
     }
 
     @Override
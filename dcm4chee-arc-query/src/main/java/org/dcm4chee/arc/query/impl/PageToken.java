@@ -0,0 +1,163 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.query.impl;
+
+import com.querydsl.core.types.*;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Opaque continuation token for keyset pagination. It references the first match of the next page by its values of
+ * the ordering keys - which may be null - and its primary key.
+ *
+ * @since Apr 2018
+ */
+class PageToken {
+    private static final byte NULL = 'N';
+    private static final byte STRING = 'S';
+    private static final byte INTEGER = 'I';
+
+    final Object[] values;
+    final long pk;
+
+    PageToken(Object[] values, long pk) {
+        this.values = values;
+        this.pk = pk;
+    }
+
+    static PageToken decode(String s, int numValues) {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Base64.getUrlDecoder().decode(s)))) {
+            int n = in.readByte();
+            if (n != numValues)
+                throw new IllegalArgumentException("Page token does not match ordering keys: " + s);
+            Object[] values = new Object[n];
+            for (int i = 0; i < n; i++) {
+                byte type = in.readByte();
+                switch (type) {
+                    case NULL:
+                        break;
+                    case STRING:
+                        values[i] = in.readUTF();
+                        break;
+                    case INTEGER:
+                        values[i] = in.readInt();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Invalid page token: " + s);
+                }
+            }
+            return new PageToken(values, in.readLong());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid page token: " + s);
+        }
+    }
+
+    String encode() {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bout)) {
+            out.writeByte(values.length);
+            for (Object value : values) {
+                if (value == null) {
+                    out.writeByte(NULL);
+                } else if (value instanceof Integer) {
+                    out.writeByte(INTEGER);
+                    out.writeInt((Integer) value);
+                } else {
+                    out.writeByte(STRING);
+                    out.writeUTF(value.toString());
+                }
+            }
+            out.writeLong(pk);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bout.toByteArray());
+    }
+
+    /**
+     * Returns the predicate selecting the referenced match and all matches following it.
+     *
+     * @param orderSpecifiers ordering keys
+     * @param pkPath          primary key, used as last ordering key in ascending order
+     * @param nullsSortedHigh indicates if the database sorts null values higher than any other value - as
+     *                        PostgreSQL, Oracle and DB2 - or lower - as MySQL and SQL Server
+     * @return predicate selecting the referenced match and all matches following it
+     */
+    Predicate predicate(List<OrderSpecifier<?>> orderSpecifiers, NumberPath<Long> pkPath, boolean nullsSortedHigh) {
+        List<Predicate> anyOf = new ArrayList<>(values.length + 1);
+        List<Predicate> equals = new ArrayList<>(values.length + 1);
+        for (int i = 0; i < values.length; i++) {
+            OrderSpecifier<?> orderSpecifier = orderSpecifiers.get(i);
+            Expression<?> target = orderSpecifier.getTarget();
+            Object value = values[i];
+            boolean nullsAfter = orderSpecifier.isAscending() == nullsSortedHigh;
+            Predicate after = after(target, value, orderSpecifier.isAscending(), nullsAfter);
+            if (after != null) {
+                List<Predicate> allOf = new ArrayList<>(equals);
+                allOf.add(after);
+                anyOf.add(ExpressionUtils.allOf(allOf));
+            }
+            equals.add(value != null
+                    ? Expressions.booleanOperation(Ops.EQ, target, ConstantImpl.create(value))
+                    : Expressions.booleanOperation(Ops.IS_NULL, target));
+        }
+        equals.add(pkPath.goe(pk));
+        anyOf.add(ExpressionUtils.allOf(equals));
+        return ExpressionUtils.anyOf(anyOf);
+    }
+
+    private static Predicate after(Expression<?> target, Object value, boolean ascending, boolean nullsAfter) {
+        if (value == null)
+            return nullsAfter ? null : Expressions.booleanOperation(Ops.IS_NOT_NULL, target);
+
+        Predicate after = Expressions.booleanOperation(ascending ? Ops.GT : Ops.LT, target,
+                ConstantImpl.create(value));
+        return nullsAfter
+                ? ExpressionUtils.or(after, Expressions.booleanOperation(Ops.IS_NULL, target))
+                : after;
+    }
+}
@@ -43,6 +43,7 @@ package org.dcm4chee.arc.query.impl;
 import com.querydsl.core.BooleanBuilder;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.NumberPath;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
@@ -60,6 +61,8 @@ import org.hibernate.StatelessSession;
  */
 class PatientQuery extends AbstractQuery {
 
+    private static final Metrics METRICS = new Metrics(PatientQuery.class);
+
     private static final Expression<?>[] SELECT = {
             QPatient.patient.pk,
             QPatient.patient.numberOfStudies,
@@ -69,7 +72,12 @@ class PatientQuery extends AbstractQuery {
     };
 
     public PatientQuery(QueryContext context, StatelessSession session) {
-        super(context, session);
+        super(context, session, METRICS);
+    }
+
+    @Override
+    protected NumberPath<Long> pk() {
+        return QPatient.patient.pk;
     }
 
     @Override
@@ -42,6 +42,8 @@ import com.mysema.commons.lang.CloseableIterator;
 import com.querydsl.core.BooleanBuilder;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.NumberExpression;
+import com.querydsl.jpa.JPAExpressions;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.util.StringUtils;
@@ -59,8 +61,7 @@ import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -80,12 +81,32 @@ public class QueryAttributesEJB {
             QSeriesQueryAttributes.seriesQueryAttributes.availability,
     };
 
+    static final Expression<?>[] CALC_STUDIES_QUERY_ATTRS = {
+            QSeries.series.study.pk,
+            QSeries.series.pk,
+            QSeries.series.modality,
+            QSeriesQueryAttributes.seriesQueryAttributes.numberOfInstances,
+            QSeriesQueryAttributes.seriesQueryAttributes.sopClassesInSeries,
+            QSeriesQueryAttributes.seriesQueryAttributes.retrieveAETs,
+            QSeriesQueryAttributes.seriesQueryAttributes.availability,
+    };
+
     static final Expression<?>[] CALC_SERIES_QUERY_ATTRS = {
             QInstance.instance.sopClassUID,
             QInstance.instance.retrieveAETs,
             QInstance.instance.availability
     };
 
+    static final NumberExpression<Long> NUMBER_OF_INSTANCES = QInstance.instance.count();
+
+    static final Expression<?>[] CALC_MULTIPLE_SERIES_QUERY_ATTRS = {
+            QInstance.instance.series.pk,
+            QInstance.instance.sopClassUID,
+            QInstance.instance.retrieveAETs,
+            QInstance.instance.availability,
+            NUMBER_OF_INSTANCES
+    };
+
     @Inject
     private CodeCache codeCache;
 
@@ -143,6 +164,125 @@ public class QueryAttributesEJB {
         return queryAttrs;
     }
 
+    public List<Long> findSeriesWithoutQueryAttributes(String viewID, int limit) {
+        return new HibernateQuery<Void>(em.unwrap(Session.class))
+                .select(QSeries.series.pk)
+                .from(QSeries.series)
+                .where(JPAExpressions.selectFrom(QSeriesQueryAttributes.seriesQueryAttributes)
+                        .where(QSeriesQueryAttributes.seriesQueryAttributes.series.eq(QSeries.series),
+                                QSeriesQueryAttributes.seriesQueryAttributes.viewID.eq(viewID))
+                        .notExists())
+                .limit(limit)
+                .fetch();
+    }
+
+    public List<Long> findStudiesWithoutQueryAttributes(String viewID, int limit) {
+        return new HibernateQuery<Void>(em.unwrap(Session.class))
+                .select(QStudy.study.pk)
+                .from(QStudy.study)
+                .where(JPAExpressions.selectFrom(QStudyQueryAttributes.studyQueryAttributes)
+                        .where(QStudyQueryAttributes.studyQueryAttributes.study.eq(QStudy.study),
+                                QStudyQueryAttributes.studyQueryAttributes.viewID.eq(viewID))
+                        .notExists())
+                .limit(limit)
+                .fetch();
+    }
+
+    public int calculateSeriesQueryAttributes(List<Long> seriesPks, QueryRetrieveView qrView) {
+        // skip Series whose Query Attributes were calculated meanwhile by a query
+        seriesPks = new ArrayList<>(seriesPks);
+        seriesPks.removeAll(new HibernateQuery<Void>(em.unwrap(Session.class))
+                .select(QSeriesQueryAttributes.seriesQueryAttributes.series.pk)
+                .from(QSeriesQueryAttributes.seriesQueryAttributes)
+                .where(QSeriesQueryAttributes.seriesQueryAttributes.viewID.eq(qrView.getViewID()),
+                        QSeriesQueryAttributes.seriesQueryAttributes.series.pk.in(seriesPks))
+                .fetch());
+        return calculateMultipleSeriesQueryAttributes(seriesPks, qrView).size();
+    }
+
+    public int calculateStudyQueryAttributes(List<Long> studyPks, QueryRetrieveView qrView) {
+        // skip Studies whose Query Attributes were calculated meanwhile by a query
+        studyPks = new ArrayList<>(studyPks);
+        studyPks.removeAll(new HibernateQuery<Void>(em.unwrap(Session.class))
+                .select(QStudyQueryAttributes.studyQueryAttributes.study.pk)
+                .from(QStudyQueryAttributes.studyQueryAttributes)
+                .where(QStudyQueryAttributes.studyQueryAttributes.viewID.eq(qrView.getViewID()),
+                        QStudyQueryAttributes.studyQueryAttributes.study.pk.in(studyPks))
+                .fetch());
+        if (studyPks.isEmpty())
+            return 0;
+
+        Map<Long, StudyQueryAttributesBuilder> builders = new HashMap<>();
+        for (Long studyPk : studyPks)
+            builders.put(studyPk, new StudyQueryAttributesBuilder());
+        List<Tuple> tuples = new HibernateQuery<Void>(em.unwrap(Session.class))
+                .select(CALC_STUDIES_QUERY_ATTRS)
+                .from(QSeries.series)
+                .leftJoin(QSeries.series.queryAttributes, QSeriesQueryAttributes.seriesQueryAttributes)
+                .on(QSeriesQueryAttributes.seriesQueryAttributes.viewID.eq(qrView.getViewID()))
+                .where(QSeries.series.study.pk.in(studyPks))
+                .fetch();
+        List<Long> seriesPks = new ArrayList<>();
+        for (Tuple tuple : tuples) {
+            if (tuple.get(QSeriesQueryAttributes.seriesQueryAttributes.numberOfInstances) == null)
+                seriesPks.add(tuple.get(QSeries.series.pk));
+        }
+        Map<Long, SeriesQueryAttributes> seriesQueryAttributes =
+                calculateMultipleSeriesQueryAttributes(seriesPks, qrView);
+        for (Tuple tuple : tuples) {
+            StudyQueryAttributesBuilder builder = builders.get(tuple.get(QSeries.series.study.pk));
+            SeriesQueryAttributes series = seriesQueryAttributes.get(tuple.get(QSeries.series.pk));
+            if (series != null)
+                builder.add(tuple, series);
+            else
+                builder.add(tuple);
+        }
+        for (Map.Entry<Long, StudyQueryAttributesBuilder> entry : builders.entrySet()) {
+            StudyQueryAttributes queryAttrs = entry.getValue().build();
+            queryAttrs.setViewID(qrView.getViewID());
+            queryAttrs.setStudy(em.getReference(Study.class, entry.getKey()));
+            em.persist(queryAttrs);
+        }
+        return builders.size();
+    }
+
+    private Map<Long, SeriesQueryAttributes> calculateMultipleSeriesQueryAttributes(
+            List<Long> seriesPks, QueryRetrieveView qrView) {
+        if (seriesPks.isEmpty())
+            return Collections.emptyMap();
+
+        Map<Long, SeriesQueryAttributesBuilder> builders = new HashMap<>();
+        for (Long seriesPk : seriesPks)
+            builders.put(seriesPk, new SeriesQueryAttributesBuilder());
+        BooleanBuilder predicate = new BooleanBuilder(QInstance.instance.series.pk.in(seriesPks));
+        predicate.and(QueryBuilder.hideRejectedInstance(
+                codeCache.findOrCreateEntities(qrView.getShowInstancesRejectedByCodes()),
+                qrView.isHideNotRejectedInstances()));
+        predicate.and(QueryBuilder.hideRejectionNote(
+                codeCache.findOrCreateEntities(qrView.getHideRejectionNotesWithCodes())));
+        for (Tuple tuple : new HibernateQuery<Void>(em.unwrap(Session.class))
+                .select(CALC_MULTIPLE_SERIES_QUERY_ATTRS)
+                .from(QInstance.instance)
+                .where(predicate)
+                .groupBy(QInstance.instance.series.pk,
+                        QInstance.instance.sopClassUID,
+                        QInstance.instance.retrieveAETs,
+                        QInstance.instance.availability)
+                .fetch()) {
+            builders.get(tuple.get(QInstance.instance.series.pk))
+                    .addInstances(tuple, tuple.get(NUMBER_OF_INSTANCES).intValue());
+        }
+        Map<Long, SeriesQueryAttributes> result = new HashMap<>();
+        for (Map.Entry<Long, SeriesQueryAttributesBuilder> entry : builders.entrySet()) {
+            SeriesQueryAttributes queryAttrs = entry.getValue().build();
+            queryAttrs.setViewID(qrView.getViewID());
+            queryAttrs.setSeries(em.getReference(Series.class, entry.getKey()));
+            em.persist(queryAttrs);
+            result.put(entry.getKey(), queryAttrs);
+        }
+        return result;
+    }
+
     public void calculateStudyQueryAttributes(String studyUID) {
         Long studyPk = em.createNamedQuery(Study.FIND_PK_BY_STUDY_UID, Long.class)
                 .setParameter(1, studyUID)
@@ -164,9 +304,13 @@ public class QueryAttributesEJB {
         private Set<String> cuids = new HashSet<>();
 
         public void addInstance(Tuple result) {
+            addInstances(result, 1);
+        }
+
+        public void addInstances(Tuple result, int count) {
             String[] retrieveAETs1 = StringUtils.split(result.get(QInstance.instance.retrieveAETs), '\\');
             Availability availability1 = result.get(QInstance.instance.availability);
-            if (numberOfInstances++ == 0) {
+            if (numberOfInstances == 0) {
                 retrieveAETs = retrieveAETs1;
                 availability = availability1;
             } else {
@@ -174,6 +318,7 @@ public class QueryAttributesEJB {
                 if (availability.compareTo(availability1) < 0)
                     availability = availability1;
             }
+            numberOfInstances += count;
             cuids.add(result.get(QInstance.instance.sopClassUID));
         }
 
@@ -59,6 +59,7 @@ import org.dcm4chee.arc.entity.*;
 import org.dcm4chee.arc.query.util.QueryBuilder;
 import org.hibernate.Session;
 
+import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
@@ -182,7 +183,7 @@ public class QueryServiceEJB {
                 result.get(QSeriesQueryAttributes.seriesQueryAttributes.numberOfInstances);
         if (numberOfSeriesRelatedInstances == null) {
             SeriesQueryAttributes seriesQueryAttributes =
-                    queryAttributesEJB.calculateSeriesQueryAttributes(seriesPk, qrView);
+                    calculateSeriesQueryAttributes(seriesPk, qrView);
             numberOfSeriesRelatedInstances = seriesQueryAttributes.getNumberOfInstances();
         }
 
@@ -193,7 +194,7 @@ public class QueryServiceEJB {
                 result.get(QStudyQueryAttributes.studyQueryAttributes.numberOfInstances);
         if (numberOfStudyRelatedInstances == null) {
             StudyQueryAttributes studyQueryAttributes =
-                    queryAttributesEJB.calculateStudyQueryAttributes(result.get(QStudy.study.pk), qrView);
+                    calculateStudyQueryAttributes(result.get(QStudy.study.pk), qrView);
             numberOfStudyRelatedInstances = studyQueryAttributes.getNumberOfInstances();
             numberOfStudyRelatedSeries = studyQueryAttributes.getNumberOfSeries();
             modalitiesInStudy = studyQueryAttributes.getModalitiesInStudy();
@@ -332,7 +333,7 @@ public class QueryServiceEJB {
                 result.get(QStudyQueryAttributes.studyQueryAttributes.numberOfInstances);
         if (numberOfStudyRelatedInstances == null) {
             StudyQueryAttributes studyQueryAttributes =
-                    queryAttributesEJB.calculateStudyQueryAttributes(result.get(QStudy.study.pk), qrView);
+                    calculateStudyQueryAttributes(result.get(QStudy.study.pk), qrView);
             numberOfStudyRelatedInstances = studyQueryAttributes.getNumberOfInstances();
             modalitiesInStudy = studyQueryAttributes.getModalitiesInStudy();
         } else {
@@ -363,7 +364,7 @@ public class QueryServiceEJB {
         if (numberOfSeriesRelatedInstances == null) {
             Long seriesPk = result.get(QSeries.series.pk);
             SeriesQueryAttributes seriesQueryAttributes =
-                    queryAttributesEJB.calculateSeriesQueryAttributes(seriesPk, qrView);
+                    calculateSeriesQueryAttributes(seriesPk, qrView);
             numberOfSeriesRelatedInstances = seriesQueryAttributes.getNumberOfInstances();
         }
         Attributes attrs = new Attributes(2);
@@ -508,6 +509,35 @@ public class QueryServiceEJB {
     }
 
     public SeriesQueryAttributes calculateSeriesQueryAttributesIfNotExists(Long seriesPk, QueryRetrieveView qrView) {
+        SeriesQueryAttributes queryAttrs = findSeriesQueryAttributes(seriesPk, qrView);
+        return queryAttrs != null ? queryAttrs : calculateSeriesQueryAttributes(seriesPk, qrView);
+    }
+
+    public StudyQueryAttributes calculateStudyQueryAttributes(Long studyPk, QueryRetrieveView qrView) {
+        try {
+            return queryAttributesEJB.calculateStudyQueryAttributes(studyPk, qrView);
+        } catch (EJBException e) {
+            // inserted concurrently by CalculateQueryAttributesScheduler or another query
+            StudyQueryAttributes queryAttrs = findStudyQueryAttributes(studyPk, qrView);
+            if (queryAttrs == null)
+                throw e;
+            return queryAttrs;
+        }
+    }
+
+    private SeriesQueryAttributes calculateSeriesQueryAttributes(Long seriesPk, QueryRetrieveView qrView) {
+        try {
+            return queryAttributesEJB.calculateSeriesQueryAttributes(seriesPk, qrView);
+        } catch (EJBException e) {
+            // inserted concurrently by CalculateQueryAttributesScheduler or another query
+            SeriesQueryAttributes queryAttrs = findSeriesQueryAttributes(seriesPk, qrView);
+            if (queryAttrs == null)
+                throw e;
+            return queryAttrs;
+        }
+    }
+
+    private SeriesQueryAttributes findSeriesQueryAttributes(Long seriesPk, QueryRetrieveView qrView) {
         try {
             return em.createNamedQuery(
                     SeriesQueryAttributes.FIND_BY_VIEW_ID_AND_SERIES_PK, SeriesQueryAttributes.class)
@@ -515,7 +545,19 @@ public class QueryServiceEJB {
                     .setParameter(2, seriesPk)
                     .getSingleResult();
         } catch (NoResultException e) {
-            return queryAttributesEJB.calculateSeriesQueryAttributes(seriesPk, qrView);
+            return null;
+        }
+    }
+
+    private StudyQueryAttributes findStudyQueryAttributes(Long studyPk, QueryRetrieveView qrView) {
+        try {
+            return em.createNamedQuery(
+                    StudyQueryAttributes.FIND_BY_VIEW_ID_AND_STUDY_PK, StudyQueryAttributes.class)
+                    .setParameter(1, qrView.getViewID())
+                    .setParameter(2, studyPk)
+                    .getSingleResult();
+        } catch (NoResultException e) {
+            return null;
         }
     }
 
@@ -196,7 +196,7 @@ class QueryServiceImpl implements QueryService {
 
     @Override
     public StudyQueryAttributes calculateStudyQueryAttributes(Long studyPk, QueryRetrieveView qrView) {
-        return queryAttributesEJB.calculateStudyQueryAttributes(studyPk, qrView);
+        return ejb.calculateStudyQueryAttributes(studyPk, qrView);
     }
 
     @Override
@@ -49,6 +49,9 @@ import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -97,6 +100,65 @@ public class QuerySizeEJB {
         return size;
     }
 
+    public List<Long> findSeriesWithUnknownSize(int limit) {
+        return em.createNamedQuery(Series.SERIES_PKS_WITH_UNKNOWN_SIZE, Long.class)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    public List<Long> findStudiesWithUnknownSize(int limit) {
+        return em.createNamedQuery(Study.STUDY_PKS_WITH_UNKNOWN_SIZE, Long.class)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @SuppressWarnings("unchecked")
+    public int calculateSeriesSizes(List<Long> seriesPks) {
+        if (seriesPks.isEmpty())
+            return 0;
+
+        Map<Long, Long> sizes = new HashMap<>();
+        for (Long seriesPk : seriesPks)
+            sizes.put(seriesPk, ZERO);
+        for (Object[] row : (List<Object[]>) em.createNamedQuery(Location.SIZE_OF_MULTIPLE_SERIES)
+                .setParameter(1, seriesPks)
+                .setParameter(2, Location.ObjectType.DICOM_FILE.ordinal())
+                .getResultList()) {
+            sizes.put(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+        }
+        for (Map.Entry<Long, Long> entry : sizes.entrySet()) {
+            em.createNamedQuery(Series.SET_SERIES_SIZE)
+                    .setParameter(1, entry.getKey())
+                    .setParameter(2, entry.getValue())
+                    .executeUpdate();
+        }
+        return sizes.size();
+    }
+
+    public int calculateStudySizes(List<Long> studyPks) {
+        if (studyPks.isEmpty())
+            return 0;
+
+        calculateSeriesSizes(em.createNamedQuery(Series.SERIES_PKS_OF_STUDIES_WITH_UNKNOWN_SIZE, Long.class)
+                .setParameter(1, studyPks)
+                .getResultList());
+        Map<Long, Long> sizes = new HashMap<>();
+        for (Long studyPk : studyPks)
+            sizes.put(studyPk, ZERO);
+        for (Object[] row : em.createNamedQuery(Series.SIZE_OF_STUDIES, Object[].class)
+                .setParameter(1, studyPks)
+                .getResultList()) {
+            sizes.put((Long) row[0], StringUtils.maskNull((Long) row[1], ZERO));
+        }
+        for (Map.Entry<Long, Long> entry : sizes.entrySet()) {
+            em.createNamedQuery(Study.SET_STUDY_SIZE)
+                    .setParameter(1, entry.getKey())
+                    .setParameter(2, entry.getValue())
+                    .executeUpdate();
+        }
+        return sizes.size();
+    }
+
     public long calculateStudySize(String studyUID) {
         return calculateStudySize(
                 em.createNamedQuery(Study.FIND_PK_BY_STUDY_UID, Long.class)
@@ -43,6 +43,7 @@ package org.dcm4chee.arc.query.impl;
 import com.querydsl.core.BooleanBuilder;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.NumberPath;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
@@ -64,6 +65,8 @@ import org.hibernate.StatelessSession;
  */
 class SeriesQuery extends AbstractQuery {
 
+    private static final Metrics METRICS = new Metrics(SeriesQuery.class);
+
     private static final Expression<?>[] SELECT = {
             QStudy.study.pk,
             QSeries.series.pk,
@@ -111,7 +114,12 @@ class SeriesQuery extends AbstractQuery {
     private Attributes studyAttrs;
 
     public SeriesQuery(QueryContext context, StatelessSession session) {
-        super(context, session);
+        super(context, session, METRICS);
+    }
+
+    @Override
+    protected NumberPath<Long> pk() {
+        return QSeries.series.pk;
     }
 
     @Override
@@ -188,7 +196,7 @@ class SeriesQuery extends AbstractQuery {
             this.studyPk = studyPk;
         }
         Attributes seriesAttrs = AttributesBlob.decodeAttributes(
-                results.get(QueryBuilder.seriesAttributesBlob.encodedAttributes), null);
+                results.get(QueryBuilder.seriesAttributesBlob.encodedAttributes), null, decodeSelection());
         Attributes.unifyCharacterSets(studyAttrs, seriesAttrs);
         Attributes attrs = new Attributes(studyAttrs.size() + seriesAttrs.size() + 3);
         attrs.addAll(studyAttrs);
@@ -260,9 +268,9 @@ class SeriesQuery extends AbstractQuery {
         }
 
         Attributes patAttrs = AttributesBlob.decodeAttributes(
-                results.get(QueryBuilder.patientAttributesBlob.encodedAttributes), null);
+                results.get(QueryBuilder.patientAttributesBlob.encodedAttributes), null, decodeSelection());
         Attributes studyAttrs = AttributesBlob.decodeAttributes(
-                results.get(QueryBuilder.studyAttributesBlob.encodedAttributes), null);
+                results.get(QueryBuilder.studyAttributesBlob.encodedAttributes), null, decodeSelection());
         Attributes.unifyCharacterSets(patAttrs, studyAttrs);
         Attributes attrs = new Attributes(patAttrs.size() + studyAttrs.size() + 4);
         attrs.addAll(patAttrs);
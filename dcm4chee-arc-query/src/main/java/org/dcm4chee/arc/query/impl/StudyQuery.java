@@ -44,6 +44,7 @@ import com.mysema.commons.lang.CloseableIterator;
 import com.querydsl.core.BooleanBuilder;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.NumberPath;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
@@ -68,6 +69,8 @@ import java.util.Iterator;
  */
 class StudyQuery extends AbstractQuery {
 
+    private static final Metrics METRICS = new Metrics(StudyQuery.class);
+
     static final Expression<?>[] SELECT = {
             QStudy.study.pk,
             QPatient.patient.numberOfStudies,
@@ -95,7 +98,12 @@ class StudyQuery extends AbstractQuery {
     };
 
     public StudyQuery(QueryContext context, StatelessSession session) {
-        super(context, session);
+        super(context, session, METRICS);
+    }
+
+    @Override
+    protected NumberPath<Long> pk() {
+        return QStudy.study.pk;
     }
 
     @Override
@@ -203,9 +211,9 @@ class StudyQuery extends AbstractQuery {
             availability = studyView.getAvailability();
         }
         Attributes studyAttrs = AttributesBlob.decodeAttributes(
-                results.get(QueryBuilder.studyAttributesBlob.encodedAttributes), null);
+                results.get(QueryBuilder.studyAttributesBlob.encodedAttributes), null, decodeSelection());
         Attributes patAttrs = AttributesBlob.decodeAttributes(
-                results.get(QueryBuilder.patientAttributesBlob.encodedAttributes), null);
+                results.get(QueryBuilder.patientAttributesBlob.encodedAttributes), null, decodeSelection());
         Attributes.unifyCharacterSets(patAttrs, studyAttrs);
         Attributes attrs = new Attributes(patAttrs.size() + studyAttrs.size() + 6);
         attrs.addAll(patAttrs);
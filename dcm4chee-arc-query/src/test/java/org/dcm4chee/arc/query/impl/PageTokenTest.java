@@ -0,0 +1,169 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.query.impl;
+
+import com.querydsl.core.types.*;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.StringPath;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class PageTokenTest {
+
+    private static final StringPath NAME = Expressions.stringPath("name");
+    private static final NumberPath<Integer> NUMBER = Expressions.numberPath(Integer.class, "number");
+    private static final NumberPath<Long> PK = Expressions.numberPath(Long.class, "pk");
+
+    private static final Object[][] ROWS = {
+            { "A", 1, 1L },
+            { "A", null, 2L },
+            { null, 2, 3L },
+            { "B", 1, 4L },
+            { null, null, 5L },
+            { "A", 1, 6L },
+            { "B", null, 7L },
+            { null, 1, 8L },
+    };
+
+    @Test
+    public void testEncodeDecode() {
+        PageToken token = PageToken.decode(new PageToken(new Object[]{ "A", null, 7 }, 42L).encode(), 3);
+        assertArrayEquals(new Object[]{ "A", null, 7 }, token.values);
+        assertEquals(42L, token.pk);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeMismatchingOrderingKeys() {
+        PageToken.decode(new PageToken(new Object[]{ "A" }, 42L).encode(), 2);
+    }
+
+    @Test
+    public void testPredicateNullsSortedHigh() {
+        assertSeek(NAME.asc(), NUMBER.asc(), true);
+        assertSeek(NAME.asc(), NUMBER.desc(), true);
+        assertSeek(NAME.desc(), NUMBER.asc(), true);
+        assertSeek(NAME.desc(), NUMBER.desc(), true);
+    }
+
+    @Test
+    public void testPredicateNullsSortedLow() {
+        assertSeek(NAME.asc(), NUMBER.asc(), false);
+        assertSeek(NAME.asc(), NUMBER.desc(), false);
+        assertSeek(NAME.desc(), NUMBER.asc(), false);
+        assertSeek(NAME.desc(), NUMBER.desc(), false);
+    }
+
+    private static void assertSeek(OrderSpecifier<?> first, OrderSpecifier<?> second, boolean nullsSortedHigh) {
+        List<OrderSpecifier<?>> orderSpecifiers = Arrays.asList(first, second);
+        List<Object[]> sorted = new ArrayList<>(Arrays.asList(ROWS));
+        sorted.sort((a, b) -> {
+            int cmp = compare(a[0], b[0], first.isAscending(), nullsSortedHigh);
+            if (cmp == 0)
+                cmp = compare(a[1], b[1], second.isAscending(), nullsSortedHigh);
+            return cmp != 0 ? cmp : Long.compare((Long) a[2], (Long) b[2]);
+        });
+        for (int i = 0; i < sorted.size(); i++) {
+            Object[] next = sorted.get(i);
+            Predicate predicate = new PageToken(new Object[]{ next[0], next[1] }, (Long) next[2])
+                    .predicate(orderSpecifiers, PK, nullsSortedHigh);
+            for (int j = 0; j < sorted.size(); j++)
+                assertEquals(predicate + " on " + Arrays.toString(sorted.get(j)),
+                        j >= i, matches(predicate, sorted.get(j)));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b, boolean ascending, boolean nullsSortedHigh) {
+        if (a == null)
+            return b == null ? 0 : ascending == nullsSortedHigh ? 1 : -1;
+        if (b == null)
+            return ascending == nullsSortedHigh ? -1 : 1;
+        int cmp = ((Comparable<Object>) a).compareTo(b);
+        return ascending ? cmp : -cmp;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean matches(Expression<?> expr, Object[] row) {
+        Operation<?> op = (Operation<?>) expr;
+        Operator operator = op.getOperator();
+        if (operator == Ops.AND)
+            return matches(op.getArg(0), row) && matches(op.getArg(1), row);
+        if (operator == Ops.OR)
+            return matches(op.getArg(0), row) || matches(op.getArg(1), row);
+        Object value = valueOf(op.getArg(0), row);
+        if (operator == Ops.IS_NULL)
+            return value == null;
+        if (operator == Ops.IS_NOT_NULL)
+            return value != null;
+        Object other = valueOf(op.getArg(1), row);
+        if (value == null || other == null)
+            return false;
+        int cmp = ((Comparable<Object>) value).compareTo(other);
+        if (operator == Ops.EQ)
+            return cmp == 0;
+        if (operator == Ops.GT)
+            return cmp > 0;
+        if (operator == Ops.LT)
+            return cmp < 0;
+        if (operator == Ops.GOE)
+            return cmp >= 0;
+        throw new AssertionError("Unexpected operator: " + operator);
+    }
+
+    private static Object valueOf(Expression<?> expr, Object[] row) {
+        if (expr instanceof Constant)
+            return ((Constant<?>) expr).getConstant();
+        if (expr.equals(NAME))
+            return row[0];
+        if (expr.equals(NUMBER))
+            return row[1];
+        if (expr.equals(PK))
+            return row[2];
+        throw new AssertionError("Unexpected expression: " + expr);
+    }
+}
@@ -49,6 +49,7 @@ import org.dcm4che3.net.service.BasicCGetSCP;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.net.service.QueryRetrieveLevel2;
 import org.dcm4che3.net.service.RetrieveTask;
+import org.dcm4che3.util.SafeClose;
 import org.dcm4chee.arc.conf.ArchiveAEExtension;
 import org.dcm4chee.arc.retrieve.RetrieveContext;
 import org.dcm4chee.arc.retrieve.RetrieveService;
@@ -89,9 +90,14 @@ class CommonCGetSCP extends BasicCGetSCP {
                 keys, qrLevels, queryOpts.contains(QueryOption.RELATIONAL));
         ArchiveAEExtension arcAE = as.getApplicationEntity().getAEExtension(ArchiveAEExtension.class);
         RetrieveContext ctx = retrieveService.newRetrieveContextGET(arcAE, as, rq, qrLevel, keys);
-        if (!retrieveService.calculateMatches(ctx))
+        if (!retrieveService.calculateMatchesStreaming(ctx))
             return null;
 
-        return storeSCU.newRetrieveTaskGET(as, pc, rq, ctx);
+        try {
+            return storeSCU.newRetrieveTaskGET(as, pc, rq, ctx);
+        } catch (Exception e) {
+            SafeClose.close(ctx.getMatchIterator());
+            throw e;
+        }
     }
 }
@@ -52,6 +52,7 @@ import org.dcm4che3.net.service.BasicCMoveSCP;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.net.service.QueryRetrieveLevel2;
 import org.dcm4che3.net.service.RetrieveTask;
+import org.dcm4che3.util.SafeClose;
 import org.dcm4chee.arc.conf.ArchiveAEExtension;
 import org.dcm4chee.arc.entity.Completeness;
 import org.dcm4chee.arc.retrieve.*;
@@ -103,7 +104,8 @@ class CommonCMoveSCP extends BasicCMoveSCP {
         RetrieveContext ctx = newRetrieveContext(arcAE, as, rq, qrLevel, keys);
         String fallbackCMoveSCP = arcAE.fallbackCMoveSCP();
         String fallbackCMoveSCPDestination = arcAE.fallbackCMoveSCPDestination();
-        if (!retrieveService.calculateMatches(ctx)) {
+        boolean streaming = fallbackCMoveSCP == null && arcAE.alternativeCMoveSCP() == null;
+        if (!(streaming ? retrieveService.calculateMatchesStreaming(ctx) : retrieveService.calculateMatches(ctx))) {
             if (fallbackCMoveSCP == null)
                 return null;
 
@@ -156,7 +158,12 @@ class CommonCMoveSCP extends BasicCMoveSCP {
                 moveSCU.forwardMoveRQ(ctx, pc, rq, keys, fallbackCMoveSCP, fallbackCMoveSCPDestination);
             }
         }
-        return storeSCU.newRetrieveTaskMOVE(as, pc, rq, ctx);
+        try {
+            return storeSCU.newRetrieveTaskMOVE(as, pc, rq, ctx);
+        } catch (Exception e) {
+            SafeClose.close(ctx.getMatchIterator());
+            throw e;
+        }
     }
 
     private RetrieveContext newRetrieveContext(ArchiveAEExtension arcAE,
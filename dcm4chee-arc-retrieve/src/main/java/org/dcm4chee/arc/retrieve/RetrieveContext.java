@@ -57,6 +57,7 @@ import javax.servlet.http.HttpServletRequest;
 import java.io.Closeable;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ScheduledFuture;
 
@@ -166,6 +167,12 @@ public interface RetrieveContext extends Closeable {
 
     List<InstanceLocations> getMatches();
 
+    MatchIterator getMatchIterator();
+
+    void setMatchIterator(MatchIterator matchIterator);
+
+    Iterator<InstanceLocations> matches();
+
     List<StudyInfo> getStudyInfos();
 
     List<SeriesInfo> getSeriesInfos();
@@ -98,6 +98,16 @@ public interface RetrieveService {
 
     boolean calculateMatches(RetrieveContext ctx) throws DicomServiceException;
 
+    /**
+     * Calculates the number of matches and provides a {@link MatchIterator} by
+     * {@link RetrieveContext#getMatchIterator()}, which fetches the matching instances lazily from the database,
+     * if a Retrieve Look Ahead Window is configured, the retrieve does not consider instances with purged
+     * instance records and all matching instances are accessable from a configured storage; otherwise behaves like
+     * {@link #calculateMatches(RetrieveContext)}, so not accessable matches can be removed and forwarded by
+     * {@link #removeNotAccessableMatches(RetrieveContext)}.
+     */
+    boolean calculateMatchesStreaming(RetrieveContext ctx) throws DicomServiceException;
+
     InstanceLocations newInstanceLocations(Attributes attrs);
 
     Transcoder openTranscoder(RetrieveContext ctx, InstanceLocations inst, Collection<String> tsuids, boolean fmi)
@@ -112,6 +122,13 @@ public interface RetrieveService {
 
     Attributes loadMetadata(RetrieveContext ctx, InstanceLocations inst) throws IOException;
 
+    /**
+     * Opens the Metadata ZIP of the Series of the specified instance, created by the Update Metadata Scheduler, for
+     * reading the not yet coerced metadata of its instances in one pass. Returns {@code null}, if there is no
+     * Metadata ZIP for the Series or if it is scheduled for update.
+     */
+    SeriesMetadataReader openSeriesMetadata(RetrieveContext ctx, InstanceLocations inst) throws IOException;
+
     Map<String,Collection<InstanceLocations>> removeNotAccessableMatches(RetrieveContext ctx);
 
     AttributesCoercion getAttributesCoercion(RetrieveContext ctx, InstanceLocations inst);
@@ -0,0 +1,206 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.retrieve.impl;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.hibernate.HibernateQuery;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4chee.arc.entity.AttributesBlob;
+import org.dcm4chee.arc.entity.QInstance;
+import org.dcm4chee.arc.entity.QSeries;
+import org.dcm4chee.arc.query.util.QueryBuilder;
+import org.dcm4chee.arc.retrieve.InstanceLocations;
+import org.dcm4chee.arc.retrieve.MatchIterator;
+import org.dcm4chee.arc.retrieve.RetrieveContext;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Fetches matching instances of a streaming retrieve from a database cursor ordered by series and instance,
+ * decoding the patient, study and series attributes only once per series.
+ * <p>
+ * Returned matches are not retained. For auditing, {@link RetrieveContext#getMatches()} is filled with one record
+ * per returned match, providing only the SOP Class and SOP Instance UID of the instance and the patient and study
+ * attributes required for auditing, without locations and other instance attributes.
+ *
+ * @since Apr 2018
+ */
+class MatchIteratorImpl implements MatchIterator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MatchIteratorImpl.class);
+
+    private static final int[] AUDIT_KEYS = {
+            Tag.SpecificCharacterSet,
+            Tag.StudyDate,
+            Tag.AccessionNumber,
+            Tag.PatientName,
+            Tag.PatientID,
+            Tag.IssuerOfPatientID,
+            Tag.IssuerOfPatientIDQualifiersSequence,
+            Tag.StudyInstanceUID,
+            Tag.SeriesInstanceUID
+    };
+
+    private final RetrieveServiceImpl service;
+    private final RetrieveContext ctx;
+    private final StatelessSession session;
+    private final Transaction transaction;
+    private final CloseableIterator<Tuple> tuples;
+    private final Map<String, Set<String>> tsuidsBySOPClass;
+    private final HashSet<Long> studyPks = new HashSet<>();
+    private Long seriesPk;
+    private Attributes seriesAttrs;
+    private Attributes auditAttrs;
+    private Tuple pending;
+    private InstanceLocations next;
+    private boolean closed;
+
+    MatchIteratorImpl(RetrieveServiceImpl service, RetrieveContext ctx, StatelessSession session,
+            HibernateQuery<Tuple> query, Map<String, Set<String>> tsuidsBySOPClass) {
+        this.service = service;
+        this.ctx = ctx;
+        this.session = session;
+        this.tsuidsBySOPClass = tsuidsBySOPClass;
+        this.transaction = session.beginTransaction();
+        this.tuples = query.iterate();
+    }
+
+    @Override
+    public Map<String, Set<String>> getTransferSyntaxesBySOPClass() {
+        return tsuidsBySOPClass;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !closed)
+            next = fetchNext();
+        return next != null;
+    }
+
+    @Override
+    public InstanceLocations next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        InstanceLocations match = next;
+        next = null;
+        addAuditMatch(match);
+        return match;
+    }
+
+    private void addAuditMatch(InstanceLocations match) {
+        Attributes attrs = new Attributes(auditAttrs.size() + 2);
+        attrs.addAll(auditAttrs);
+        attrs.setString(Tag.SOPClassUID, VR.UI, match.getSopClassUID());
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, match.getSopInstanceUID());
+        ctx.getMatches().add(service.newInstanceLocations(attrs));
+    }
+
+    private InstanceLocations fetchNext() {
+        Tuple tuple = pending;
+        pending = null;
+        if (tuple == null) {
+            if (!tuples.hasNext())
+                return null;
+            tuple = tuples.next();
+        }
+        Long instPk = tuple.get(QInstance.instance.pk);
+        InstanceLocations match = service.instanceLocationsFromDB(tuple, instanceAttributes(tuple));
+        service.addLocation(match, tuple);
+        while (tuples.hasNext()) {
+            Tuple next = tuples.next();
+            if (!instPk.equals(next.get(QInstance.instance.pk))) {
+                pending = next;
+                break;
+            }
+            service.addLocation(match, next);
+        }
+        return match;
+    }
+
+    private Attributes instanceAttributes(Tuple tuple) {
+        Long seriesPk = tuple.get(QSeries.series.pk);
+        if (!seriesPk.equals(this.seriesPk)) {
+            RetrieveServiceImpl.SeriesAttributes seriesAttributes = service.getSeriesAttributes(session, seriesPk);
+            if (studyPks.add(seriesAttributes.studyInfo.getStudyPk()))
+                ctx.getStudyInfos().add(seriesAttributes.studyInfo);
+            ctx.getSeriesInfos().add(seriesAttributes.seriesInfo);
+            ctx.setPatientUpdatedTime(seriesAttributes.patientUpdatedTime);
+            this.auditAttrs = new Attributes(seriesAttributes.attrs, AUDIT_KEYS);
+            this.seriesPk = seriesPk;
+            this.seriesAttrs = seriesAttributes.attrs;
+        }
+        Attributes instAttrs = AttributesBlob.decodeAttributes(
+                tuple.get(QueryBuilder.instanceAttributesBlob.encodedAttributes), null);
+        Attributes.unifyCharacterSets(seriesAttrs, instAttrs);
+        instAttrs.addAll(seriesAttrs);
+        return instAttrs;
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+
+        closed = true;
+        next = null;
+        pending = null;
+        SafeClose.close(tuples);
+        try {
+            transaction.commit();
+        } catch (Exception e) {
+            LOG.warn("Failed to commit transaction:\n{}", e);
+        }
+        SafeClose.close(session);
+        service.updateStudyAccessTime(ctx);
+    }
+}
@@ -96,6 +96,7 @@ class RetrieveContextImpl implements RetrieveContext {
     private Location.ObjectType objectType = Location.ObjectType.DICOM_FILE;
     private int numberOfMatches;
     private final List<InstanceLocations> matches = new ArrayList<>();
+    private MatchIterator matchIterator;
     private final List<StudyInfo> studyInfos = new ArrayList<>();
     private final List<SeriesInfo> seriesInfos = new ArrayList<>();
     private final AtomicInteger completed = new AtomicInteger();
@@ -383,6 +384,21 @@ class RetrieveContextImpl implements RetrieveContext {
         return matches;
     }
 
+    @Override
+    public MatchIterator getMatchIterator() {
+        return matchIterator;
+    }
+
+    @Override
+    public void setMatchIterator(MatchIterator matchIterator) {
+        this.matchIterator = matchIterator;
+    }
+
+    @Override
+    public Iterator<InstanceLocations> matches() {
+        return matchIterator != null ? matchIterator : matches.iterator();
+    }
+
     @Override
     public List<StudyInfo> getStudyInfos() {
         return studyInfos;
@@ -569,6 +585,8 @@ class RetrieveContextImpl implements RetrieveContext {
 
     @Override
     public void close() throws IOException {
+        if (matchIterator != null)
+            matchIterator.close();
         for (Storage storage : storageMap.values())
             SafeClose.close(storage);
     }
@@ -43,6 +43,7 @@ package org.dcm4chee.arc.retrieve.impl;
 import com.querydsl.core.BooleanBuilder;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
+import com.querydsl.jpa.JPAExpressions;
 import com.querydsl.jpa.hibernate.HibernateQuery;
 import org.dcm4che3.conf.api.ConfigurationException;
 import org.dcm4che3.conf.api.IApplicationEntityCache;
@@ -63,6 +64,9 @@ import org.dcm4che3.util.StringUtils;
 import org.dcm4chee.arc.LeadingCFindSCPQueryCache;
 import org.dcm4chee.arc.conf.*;
 import org.dcm4chee.arc.entity.*;
+import org.dcm4chee.arc.metrics.Counter;
+import org.dcm4chee.arc.metrics.Histogram;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 import org.dcm4chee.arc.query.scu.CFindSCU;
 import org.dcm4chee.arc.query.scu.CFindSCUAttributeCoercion;
 import org.dcm4chee.arc.retrieve.*;
@@ -105,6 +109,13 @@ public class RetrieveServiceImpl implements RetrieveService {
 
     private static final int MAX_FAILED_IUIDS_LEN = 4000;
 
+    private final Histogram calculateMatchesTime = MetricsRegistry.getDefault().timer(
+            "dcm4chee_arc_retrieve_calculate_matches_seconds", "Duration of calculating matches of retrieve requests");
+    private final Counter retrieveMatches = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_retrieve_matches_total", "Number of instances matching retrieve requests");
+    private final Histogram loadMetadataTime = MetricsRegistry.getDefault().timer(
+            "dcm4chee_arc_retrieve_load_metadata_seconds", "Duration of loading metadata of retrieved instances");
+
     private static final Expression<?>[] SELECT = {
             QLocation.location.pk,
             QLocation.location.storageID,
@@ -345,6 +356,7 @@ public class RetrieveServiceImpl implements RetrieveService {
 
     @Override
     public boolean calculateMatches(RetrieveContext ctx) throws DicomServiceException {
+        long startTime = System.nanoTime();
         StatelessSession session = openStatelessSession();
         Collection<InstanceLocations> matches = ctx.getMatches();
         matches.clear();
@@ -402,15 +414,106 @@ public class RetrieveServiceImpl implements RetrieveService {
             ctx.setNumberOfMatches(matches.size());
             ctx.getStudyInfos().addAll(studyInfoMap.values());
             updateStudyAccessTime(ctx);
+            retrieveMatches.add(matches.size());
             return !matches.isEmpty();
         } catch (IOException e) {
             throw new DicomServiceException(Status.UnableToCalculateNumberOfMatches, e);
+        } finally {
+            session.close();
+            calculateMatchesTime.recordSince(startTime);
+        }
+    }
+
+    @Override
+    public boolean calculateMatchesStreaming(RetrieveContext ctx) throws DicomServiceException {
+        int lookAheadWindow = getArchiveDeviceExtension().getRetrieveLookAheadWindow();
+        if (lookAheadWindow == 0 || ctx.getSeriesMetadataUpdate() != null || ctx.isConsiderPurgedInstances()
+                || !allMatchesAccessable(ctx))
+            return calculateMatches(ctx);
+
+        long startTime = System.nanoTime();
+        StatelessSession session = openStatelessSession();
+        try {
+            ctx.setNumberOfMatches((int) countMatches(ctx, session));
+            retrieveMatches.add(ctx.getNumberOfMatches());
+            if (ctx.getNumberOfMatches() == 0) {
+                session.close();
+                return false;
+            }
+            HibernateQuery<Tuple> query = createQuery(ctx, session)
+                    .orderBy(QSeries.series.pk.asc(), QInstance.instance.pk.asc());
+            query.setFetchSize(lookAheadWindow);
+            ctx.setMatchIterator(new MatchIteratorImpl(this, ctx, session, query,
+                    transferSyntaxesBySOPClass(ctx, session)));
+            return true;
+        } catch (RuntimeException e) {
+            session.close();
+            throw new DicomServiceException(Status.UnableToCalculateNumberOfMatches, e);
+        } finally {
+            calculateMatchesTime.recordSince(startTime);
+        }
+    }
+
+    private Map<String, Set<String>> transferSyntaxesBySOPClass(RetrieveContext ctx, StatelessSession session) {
+        HibernateQuery<Tuple> query = new HibernateQuery<Void>(session)
+                .select(QInstance.instance.sopClassUID, QLocation.location.transferSyntaxUID)
+                .distinct()
+                .from(QInstance.instance)
+                .join(QInstance.instance.series, QSeries.series)
+                .join(QSeries.series.study, QStudy.study)
+                .join(QInstance.instance.locations, QLocation.location);
+        Location.ObjectType objectType = ctx.getObjectType();
+        if (objectType != null)
+            query.on(QLocation.location.objectType.eq(objectType));
+
+        Map<String, Set<String>> tsuidsBySOPClass = new HashMap<>();
+        for (Tuple tuple : matching(ctx, query).fetch())
+            tsuidsBySOPClass.computeIfAbsent(tuple.get(QInstance.instance.sopClassUID), cuid -> new HashSet<>())
+                    .add(tuple.get(QLocation.location.transferSyntaxUID));
+        return tsuidsBySOPClass;
+    }
+
+    private long countMatches(RetrieveContext ctx, StatelessSession session) {
+        HibernateQuery<Void> query = new HibernateQuery<Void>(session)
+                .from(QInstance.instance)
+                .join(QInstance.instance.series, QSeries.series)
+                .join(QSeries.series.study, QStudy.study);
+        return matching(ctx, query).fetchCount();
+    }
+
+    private boolean allMatchesAccessable(RetrieveContext ctx) throws DicomServiceException {
+        StatelessSession session = openStatelessSession();
+        try {
+            return countNotAccessableMatches(ctx, session) == 0;
+        } catch (RuntimeException e) {
+            throw new DicomServiceException(Status.UnableToCalculateNumberOfMatches, e);
         } finally {
             session.close();
         }
     }
 
-    private InstanceLocations instanceLocationsFromDB(Tuple tuple, Attributes instAttrs) {
+    private long countNotAccessableMatches(RetrieveContext ctx, StatelessSession session) {
+        List<String> storageIDs = new ArrayList<>();
+        for (StorageDescriptor desc : getArchiveDeviceExtension().getStorageDescriptors())
+            storageIDs.add(desc.getStorageID());
+        if (storageIDs.isEmpty())
+            return countMatches(ctx, session);
+
+        QLocation location = new QLocation("accessableLocation");
+        BooleanBuilder accessable = new BooleanBuilder(location.instance.eq(QInstance.instance))
+                .and(location.storageID.in(storageIDs));
+        Location.ObjectType objectType = ctx.getObjectType();
+        if (objectType != null)
+            accessable.and(location.objectType.eq(objectType));
+        HibernateQuery<Void> query = new HibernateQuery<Void>(session)
+                .from(QInstance.instance)
+                .join(QInstance.instance.series, QSeries.series)
+                .join(QSeries.series.study, QStudy.study)
+                .where(JPAExpressions.selectFrom(location).where(accessable).notExists());
+        return matching(ctx, query).fetchCount();
+    }
+
+    InstanceLocations instanceLocationsFromDB(Tuple tuple, Attributes instAttrs) {
         InstanceLocationsImpl inst = new InstanceLocationsImpl(instAttrs);
         inst.setInstancePk(tuple.get(QInstance.instance.pk));
         inst.setRetrieveAETs(tuple.get(QInstance.instance.retrieveAETs));
@@ -492,7 +595,7 @@ public class RetrieveServiceImpl implements RetrieveService {
         return item;
     }
 
-    private void addLocation(InstanceLocations match, Tuple tuple) {
+    void addLocation(InstanceLocations match, Tuple tuple) {
         Long pk = tuple.get(QLocation.location.pk);
         if (pk == null)
             return;
@@ -519,7 +622,7 @@ public class RetrieveServiceImpl implements RetrieveService {
         return new InstanceLocationsImpl(attrs);
     }
 
-    private void updateStudyAccessTime(RetrieveContext ctx) {
+    void updateStudyAccessTime(RetrieveContext ctx) {
         if (ctx.isUpdateSeriesMetadata())
             return;
 
@@ -535,7 +638,7 @@ public class RetrieveServiceImpl implements RetrieveService {
         }
     }
 
-    private static class SeriesAttributes {
+    static class SeriesAttributes {
         final Attributes attrs;
         final StudyInfo studyInfo;
         final SeriesInfo seriesInfo;
@@ -550,7 +653,11 @@ public class RetrieveServiceImpl implements RetrieveService {
 
     }
 
-    private SeriesAttributes getSeriesAttributes(StatelessSession session, Long seriesPk) {
+    SeriesAttributes getSeriesAttributes(StatelessSession session, Long seriesPk) {
+        return getSeriesAttributes(session, seriesPk, null);
+    }
+
+    SeriesAttributes getSeriesAttributes(StatelessSession session, Long seriesPk, int[] selection) {
         Tuple tuple = new HibernateQuery<Void>(session).select(PATIENT_STUDY_SERIES_ATTRS)
                 .from(QSeries.series)
                 .join(QSeries.series.attributesBlob, QueryBuilder.seriesAttributesBlob)
@@ -579,18 +686,18 @@ public class RetrieveServiceImpl implements RetrieveService {
                 tuple.get(QSeries.series.sourceAET));
         Date patientUpdatedTime = tuple.get(QPatient.patient.updatedTime);
         Attributes patAttrs = AttributesBlob.decodeAttributes(
-                tuple.get(QueryBuilder.patientAttributesBlob.encodedAttributes), null);
+                tuple.get(QueryBuilder.patientAttributesBlob.encodedAttributes), null, selection);
         Attributes studyAttrs = AttributesBlob.decodeAttributes(
-                tuple.get(QueryBuilder.studyAttributesBlob.encodedAttributes), null);
+                tuple.get(QueryBuilder.studyAttributesBlob.encodedAttributes), null, selection);
         Attributes seriesAttrs = AttributesBlob.decodeAttributes(
-                tuple.get(QueryBuilder.seriesAttributesBlob.encodedAttributes), null);
+                tuple.get(QueryBuilder.seriesAttributesBlob.encodedAttributes), null, selection);
         Attributes.unifyCharacterSets(patAttrs, studyAttrs, seriesAttrs);
         Attributes attrs = new Attributes(patAttrs.size() + studyAttrs.size() + seriesAttrs.size() + 5);
         attrs.addAll(patAttrs);
         attrs.addAll(studyAttrs);
         attrs.addAll(seriesAttrs);
         return new SeriesAttributes(attrs, studyInfo, seriesInfo, patientUpdatedTime);
-}
+    }
 
     private HibernateQuery<Tuple> createQuery(RetrieveContext ctx, StatelessSession session) {
         HibernateQuery<Tuple> query = new HibernateQuery<Void>(session).select(SELECT)
@@ -611,6 +718,10 @@ public class RetrieveServiceImpl implements RetrieveService {
             return query.where(QSeries.series.pk.eq(ctx.getSeriesMetadataUpdate().seriesPk))
                     .orderBy(QInstance.instance.instanceNumber.asc());
 
+        return matching(ctx, query);
+    }
+
+    <T> HibernateQuery<T> matching(RetrieveContext ctx, HibernateQuery<T> query) {
         IDWithIssuer[] pids = ctx.getPatientIDs();
         if (pids.length > 0) {
             query = query.join(QStudy.study.patient, QPatient.patient);
@@ -959,27 +1070,85 @@ public class RetrieveServiceImpl implements RetrieveService {
 
     @Override
     public Storage getStorage(String storageID, RetrieveContext ctx) {
-        Storage storage = ctx.getStorage(storageID);
-        if (storage == null) {
-            ArchiveDeviceExtension arcDev = getArchiveDeviceExtension();
-            storage = storageFactory.getStorage(arcDev.getStorageDescriptorNotNull(storageID));
-            ctx.putStorage(storageID, storage);
+        synchronized (ctx) {
+            Storage storage = ctx.getStorage(storageID);
+            if (storage == null) {
+                ArchiveDeviceExtension arcDev = getArchiveDeviceExtension();
+                storage = storageFactory.getStorage(arcDev.getStorageDescriptorNotNull(storageID));
+                ctx.putStorage(storageID, storage);
+            }
+            return storage;
         }
-        return storage;
     }
 
     @Override
     public Attributes loadMetadata(RetrieveContext ctx, InstanceLocations inst)
             throws IOException {
+        long startTime = System.nanoTime();
         Attributes attrs;
-        attrs = loadMetadataFromJSONFile(ctx, inst);
-        if (attrs == null)
-            attrs = loadMetadataFromDicomFile(ctx, inst);
+        try {
+            attrs = loadMetadataFromJSONFile(ctx, inst);
+            if (attrs == null)
+                attrs = loadMetadataFromDicomFile(ctx, inst);
+        } finally {
+            loadMetadataTime.recordSince(startTime);
+        }
 
         getAttributesCoercion(ctx, inst).coerce(attrs, null);
         return attrs;
     }
 
+    @Override
+    public SeriesMetadataReader openSeriesMetadata(RetrieveContext ctx, InstanceLocations inst)
+            throws IOException {
+        String studyInstanceUID = inst.getAttributes().getString(Tag.StudyInstanceUID);
+        Tuple tuple;
+        StatelessSession session = openStatelessSession();
+        try {
+            tuple = new HibernateQuery<Void>(session).select(METADATA_STORAGE_PATH)
+                    .from(QSeries.series)
+                    .join(QSeries.series.metadata, QMetadata.metadata)
+                    .join(QSeries.series.study, QStudy.study)
+                    .where(QStudy.study.studyInstanceUID.eq(studyInstanceUID),
+                            QSeries.series.seriesInstanceUID.eq(
+                                    inst.getAttributes().getString(Tag.SeriesInstanceUID)),
+                            QSeries.series.metadataScheduledUpdateTime.isNull())
+                    .fetchOne();
+        } finally {
+            session.close();
+        }
+        if (tuple == null)
+            return null;
+
+        Storage storage = getStorage(tuple.get(QMetadata.metadata.storageID), ctx);
+        InputStream in = storage.openInputStream(
+                createReadContext(storage, tuple.get(QMetadata.metadata.storagePath), studyInstanceUID));
+        String[] sopInstanceUIDs = ctx.getSopInstanceUIDs();
+        ZipInputStream zip = new ZipInputStream(in);
+        return new SeriesMetadataReader() {
+            @Override
+            public String nextSOPInstanceUID() throws IOException {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null)
+                    if (isEmptyOrContains(sopInstanceUIDs, entry.getName()))
+                        return entry.getName();
+                return null;
+            }
+
+            @Override
+            public Attributes readMetadata() throws IOException {
+                Attributes metadata = parseJSON(zip, false);
+                metadata.removePrivateAttributes(ArchiveTag.PrivateCreator, 0x7777);
+                return metadata;
+            }
+
+            @Override
+            public void close() throws IOException {
+                zip.close();
+            }
+        };
+    }
+
     private Attributes loadMetadataFromJSONFile(RetrieveContext ctx, InstanceLocations inst) throws IOException {
         String studyInstanceUID = inst.getAttributes().getString(Tag.StudyInstanceUID);
         for (Location location : inst.getLocations()) {
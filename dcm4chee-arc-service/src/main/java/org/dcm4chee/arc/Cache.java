@@ -40,16 +40,33 @@
 
 package org.dcm4chee.arc;
 
+import org.dcm4chee.arc.metrics.MetricsRegistry;
+
+import javax.annotation.PostConstruct;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Thread-safe cache with bounded size and per-entry stale timeout.
+ * <p>
+ * Entries are distributed over lock-striped segments, each keeping its entries in fetch order, so stale entries
+ * are expired lazily from the head of the segment in O(1) per entry, without scanning the whole cache.
+ * {@link #get(Object, Loader)} ensures that concurrent misses for the same key trigger only one invocation of the
+ * loader.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  * @since May 2016
  */
 public class Cache<K,V> {
 
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 8;
+
     public static final class Entry<V> {
         final V value;
         final long fetchTime;
@@ -62,30 +79,35 @@ public class Cache<K,V> {
         }
     }
 
-    private int maxSize;
-    private long staleTimeout;
+    @FunctionalInterface
+    public interface Loader<K,V,E extends Exception> {
+        V load(K key) throws E;
+    }
 
-    private final LinkedHashMap<K,Entry<V>> cache = new LinkedHashMap<K,Entry<V>>(){
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<K, Cache.Entry<V>> eldest) {
-            return maxSize > 0 && size() > maxSize;
-        }
-    };
+    private volatile int maxSize;
+    private volatile long staleTimeout;
+    private final ConcurrentHashMap<K,CompletableFuture<Entry<V>>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile Segment<K,V>[] segments = newSegments(MAX_SEGMENTS, 0, evictions);
 
     public int getMaxSize() {
         return maxSize;
     }
 
-    public void setMaxSize(int maxSize) {
-        if (maxSize > 0) {
-            int remove = cache.size() - maxSize;
-            if (remove > 0) {
-                Iterator<Map.Entry<K, Entry<V>>> iter = cache.entrySet().iterator();
-                do {
-                    iter.next();
-                    iter.remove();
-                } while (--remove > 0);
-            }
+    public synchronized void setMaxSize(int maxSize) {
+        int numSegments = numSegments(maxSize);
+        Segment<K,V>[] prev = segments;
+        if (prev.length == numSegments) {
+            for (int i = 0; i < numSegments; i++)
+                prev[i].setMaxSize(segmentSize(maxSize, numSegments, i));
+        } else {
+            Segment<K,V>[] segments = newSegments(numSegments, maxSize, evictions);
+            for (Segment<K,V> segment : prev)
+                segment.moveTo(segments);
+            this.segments = segments;
         }
         this.maxSize = maxSize;
     }
@@ -99,14 +121,9 @@ public class Cache<K,V> {
     }
 
     public Entry<V> getEntry(K key) {
-        if (staleTimeout <= 0)
-            return cache.get(key);
-
-        long minFetchTime = System.currentTimeMillis() - staleTimeout;
-        for (Iterator<Entry<V>> iter = cache.values().iterator(); iter.hasNext(); iter.remove())
-            if (iter.next().fetchTime > minFetchTime)
-                return cache.get(key);
-        return null;
+        Entry<V> entry = segmentFor(key).get(key, minFetchTime());
+        (entry != null ? hits : misses).increment();
+        return entry;
     }
 
     public V get(K key) {
@@ -114,17 +131,222 @@ public class Cache<K,V> {
         return entry != null ? entry.value : null;
     }
 
+    /**
+     * Returns the cached value for the specified key or invokes the loader on a miss and caches its result.
+     * Concurrent misses for the same key wait for the result of the loader invoked by the first caller. If that
+     * invocation fails, each waiting caller invokes the loader itself.
+     */
+    public <E extends Exception> V get(K key, Loader<K,V,E> loader) throws E {
+        Entry<V> entry = getEntry(key);
+        if (entry != null)
+            return entry.value;
+
+        CompletableFuture<Entry<V>> future = new CompletableFuture<>();
+        CompletableFuture<Entry<V>> pending = loading.putIfAbsent(key, future);
+        if (pending != null) {
+            entry = await(pending);
+            return entry != null ? entry.value : load(key, loader);
+        }
+        try {
+            entry = segmentFor(key).get(key, minFetchTime());
+            V value = entry != null ? entry.value : load(key, loader);
+            future.complete(new Entry<>(value, 0L));
+            return value;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private <E extends Exception> V load(K key, Loader<K,V,E> loader) throws E {
+        loads.increment();
+        V value = loader.load(key);
+        put(key, value);
+        return value;
+    }
+
+    private static <V> Entry<V> await(CompletableFuture<Entry<V>> pending) {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+        }
+        return null;
+    }
+
     public V put(K key, V value) {
-        Entry<V> entry = cache.put(key, new Entry<V>(value, System.currentTimeMillis()));
+        Entry<V> entry = segmentFor(key).put(key, new Entry<>(value, System.currentTimeMillis()), minFetchTime());
         return entry != null ? entry.value : null;
     }
 
     public V remove(K key) {
-        Entry<V> entry = cache.remove(key);
+        Entry<V> entry = segmentFor(key).remove(key);
         return entry != null ? entry.value : null;
     }
 
     public void clear() {
-        cache.clear();
+        for (Segment<K,V> segment : segments)
+            segment.clear();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K,V> segment : segments)
+            size += segment.size();
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        String cacheName = getClass().getSimpleName();
+        metrics.gauge("dcm4chee_arc_cache_size", "Number of cached entries", this::size, "cache", cacheName);
+        metrics.gauge("dcm4chee_arc_cache_hits", "Number of cache hits since last reset of statistics",
+                this::getHits, "cache", cacheName);
+        metrics.gauge("dcm4chee_arc_cache_misses", "Number of cache misses since last reset of statistics",
+                this::getMisses, "cache", cacheName);
+        metrics.gauge("dcm4chee_arc_cache_loads", "Number of cache loads since last reset of statistics",
+                this::getLoads, "cache", cacheName);
+        metrics.gauge("dcm4chee_arc_cache_evictions", "Number of cache evictions since last reset of statistics",
+                this::getEvictions, "cache", cacheName);
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        loads.reset();
+        evictions.reset();
+    }
+
+    private long minFetchTime() {
+        long staleTimeout = this.staleTimeout;
+        return staleTimeout > 0 ? System.currentTimeMillis() - staleTimeout : Long.MIN_VALUE;
+    }
+
+    private Segment<K,V> segmentFor(K key) {
+        Segment<K,V>[] segments = this.segments;
+        return segments[segmentIndex(key, segments.length)];
+    }
+
+    private static int segmentIndex(Object key, int numSegments) {
+        int h = key != null ? key.hashCode() : 0;
+        return (h ^ (h >>> 16)) & (numSegments - 1);
+    }
+
+    private static int numSegments(int maxSize) {
+        if (maxSize <= 0)
+            return MAX_SEGMENTS;
+
+        int numSegments = 1;
+        while (numSegments < MAX_SEGMENTS && numSegments * 2 * MIN_SEGMENT_SIZE <= maxSize)
+            numSegments <<= 1;
+        return numSegments;
+    }
+
+    private static int segmentSize(int maxSize, int numSegments, int index) {
+        return maxSize > 0 ? maxSize / numSegments + (index < maxSize % numSegments ? 1 : 0) : 0;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K,V> Segment<K,V>[] newSegments(int numSegments, int maxSize, LongAdder evictions) {
+        Segment<K,V>[] segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++)
+            segments[i] = new Segment<>(segmentSize(maxSize, numSegments, i), evictions);
+        return segments;
+    }
+
+    private static final class Segment<K,V> {
+        private final LinkedHashMap<K,Entry<V>> map = new LinkedHashMap<>();
+        private final LongAdder evictions;
+        private int maxSize;
+
+        Segment(int maxSize, LongAdder evictions) {
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+        }
+
+        synchronized Entry<V> get(K key, long minFetchTime) {
+            Entry<V> entry = map.get(key);
+            if (entry == null || entry.fetchTime > minFetchTime)
+                return entry;
+
+            expire(minFetchTime);
+            return null;
+        }
+
+        synchronized Entry<V> put(K key, Entry<V> entry, long minFetchTime) {
+            // remove previous entry to keep entries ordered by fetch time
+            Entry<V> prev = map.remove(key);
+            map.put(key, entry);
+            expire(minFetchTime);
+            trim(maxSize);
+            return prev;
+        }
+
+        synchronized Entry<V> remove(K key) {
+            return map.remove(key);
+        }
+
+        synchronized void clear() {
+            map.clear();
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            trim(maxSize);
+        }
+
+        synchronized void moveTo(Segment<K,V>[] segments) {
+            for (Map.Entry<K,Entry<V>> e : map.entrySet()) {
+                Segment<K,V> segment = segments[segmentIndex(e.getKey(), segments.length)];
+                segment.map.put(e.getKey(), e.getValue());
+                segment.trim(segment.maxSize);
+            }
+            map.clear();
+        }
+
+        private void expire(long minFetchTime) {
+            Iterator<Entry<V>> iter = map.values().iterator();
+            while (iter.hasNext() && iter.next().fetchTime <= minFetchTime) {
+                iter.remove();
+                evictions.increment();
+            }
+        }
+
+        private void trim(int maxSize) {
+            int remove = maxSize > 0 ? map.size() - maxSize : 0;
+            if (remove <= 0)
+                return;
+
+            Iterator<Entry<V>> iter = map.values().iterator();
+            for (int i = remove; i > 0; i--) {
+                iter.next();
+                iter.remove();
+            }
+            evictions.add(remove);
+        }
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Caches the primary keys of all Patients with a particular Patient ID, regardless of its Issuer.
+ * <p>
+ * Evictions increment a version maintained per hash stripe of Patient IDs. Results resolved from the database are
+ * only cached if no eviction of a Patient ID of the same stripe occurred since the version was obtained before
+ * the query, so results of concurrent transactions which missed a modification do not replace its eviction.
+ * <p>
+ * Evictions are not propagated to other archive instances sharing the database, so callers have to verify cached
+ * entries against the number of Patients with that Patient ID in the database.
+ *
+ * @since Apr 2018
+ */
+@ApplicationScoped
+public class PatientIDCache extends Cache<String,long[]> {
+
+    private static final int STRIPES = 64;
+
+    private final long[] versions = new long[STRIPES];
+    private final Object[] locks = newLocks();
+
+    public long version(String id) {
+        int stripe = stripe(id);
+        synchronized (lock(stripe)) {
+            return versions[stripe];
+        }
+    }
+
+    public void evict(String id) {
+        int stripe = stripe(id);
+        synchronized (lock(stripe)) {
+            versions[stripe]++;
+            remove(id);
+        }
+    }
+
+    public boolean putIfNotEvictedSince(String id, long[] pks, long version) {
+        int stripe = stripe(id);
+        synchronized (lock(stripe)) {
+            if (versions[stripe] != version)
+                return false;
+
+            put(id, pks);
+            return true;
+        }
+    }
+
+    private Object lock(int stripe) {
+        return locks[stripe];
+    }
+
+    private static Object[] newLocks() {
+        Object[] locks = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new Object();
+        return locks;
+    }
+
+    private static int stripe(String id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
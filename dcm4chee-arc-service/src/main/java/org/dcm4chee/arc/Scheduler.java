@@ -41,6 +41,8 @@
 package org.dcm4chee.arc;
 
 import org.dcm4chee.arc.conf.Duration;
+import org.dcm4chee.arc.metrics.Histogram;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 
 import javax.annotation.Resource;
 import javax.enterprise.concurrent.ManagedScheduledExecutorService;
@@ -59,23 +61,41 @@ public abstract class Scheduler implements Runnable {
     private static final int SECONDS_PER_DAY = 3600 * 24;
 
     private final Mode mode;
+    private final Histogram executionTime;
+    private final Histogram lag;
     volatile private long pollingIntervalInSeconds;
     volatile private LocalTime startTime;
     volatile private ScheduledFuture<?> running;
+    volatile private long expectedStartTime;
 
     @Resource
     private ManagedScheduledExecutorService scheduledExecutor;
 
     protected Scheduler(Mode mode) {
         this.mode = mode;
+        String name = getClass().getSimpleName();
+        int endOfName = name.indexOf('$');
+        if (endOfName > 0)
+            name = name.substring(0, endOfName);
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        this.executionTime = metrics.timer("dcm4chee_arc_scheduler_execution_seconds",
+                "Duration of scheduler executions", "scheduler", name);
+        this.lag = metrics.timer("dcm4chee_arc_scheduler_lag_seconds",
+                "Delay of scheduler executions after their scheduled start", "scheduler", name);
     }
 
     @Override
     public void run() {
+        long start = System.nanoTime();
+        lag.record(start - expectedStartTime);
         try {
             execute();
         } catch (Throwable e) {
             log().warn("execute throws Exception", e);
+        } finally {
+            long end = System.nanoTime();
+            executionTime.record(end - start);
+            expectedStartTime = mode.nextStartTime(expectedStartTime, end, pollingIntervalInSeconds);
         }
     }
 
@@ -84,8 +104,9 @@ public abstract class Scheduler implements Runnable {
         if (pollingInterval != null) {
             pollingIntervalInSeconds = pollingInterval.getSeconds();
             startTime = getStartTime();
-            running = mode.schedule(
-                    this, startTime != null ? until(startTime) : pollingIntervalInSeconds, pollingIntervalInSeconds);
+            long initialDelay = startTime != null ? until(startTime) : pollingIntervalInSeconds;
+            expectedStartTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(initialDelay);
+            running = mode.schedule(this, initialDelay, pollingIntervalInSeconds);
         }
     }
 
@@ -128,6 +149,11 @@ public abstract class Scheduler implements Runnable {
                 return scheduler.scheduledExecutor.scheduleWithFixedDelay(
                         scheduler, initialDelay, periodOrDelay, TimeUnit.SECONDS);
             }
+
+            @Override
+            long nextStartTime(long startTime, long endTime, long periodOrDelay) {
+                return endTime + TimeUnit.SECONDS.toNanos(periodOrDelay);
+            }
         },
         scheduleAtFixedRate {
             @Override
@@ -135,7 +161,14 @@ public abstract class Scheduler implements Runnable {
                 return scheduler.scheduledExecutor.scheduleAtFixedRate(
                         scheduler, initialDelay, periodOrDelay, TimeUnit.SECONDS);
             }
+
+            @Override
+            long nextStartTime(long startTime, long endTime, long periodOrDelay) {
+                return startTime + TimeUnit.SECONDS.toNanos(periodOrDelay);
+            }
         };
         public abstract ScheduledFuture schedule(Scheduler scheduler, long initialDelay, long periodOrDelay);
+
+        abstract long nextStartTime(long startTime, long endTime, long periodOrDelay);
     }
 }
@@ -52,6 +52,7 @@ import org.dcm4che3.net.service.DicomService;
 import org.dcm4che3.net.service.DicomServiceRegistry;
 import org.dcm4chee.arc.*;
 import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.dcm4chee.arc.entity.AttributesBlob;
 import org.dcm4chee.arc.entity.Patient;
 
 import javax.annotation.PostConstruct;
@@ -101,6 +102,15 @@ public class ArchiveServiceImpl implements ArchiveService {
     @Inject
     private StorePermissionCache storePermissionCache;
 
+    @Inject
+    private IssuerCache issuerCache;
+
+    @Inject
+    private PatientIDCache patientIDCache;
+
+    @Inject
+    private CodeEntityCache codeEntityCache;
+
     @Inject
     private Device device;
 
@@ -198,6 +208,8 @@ public class ArchiveServiceImpl implements ArchiveService {
         device.rebindConnections();
         aeCache.clear();
         hl7AppCache.clear();
+        issuerCache.clear();
+        patientIDCache.clear();
         configure();
         archiveServiceEvent.fire(new ArchiveServiceEvent(ArchiveServiceEvent.Type.RELOADED, request));
     }
@@ -215,7 +227,13 @@ public class ArchiveServiceImpl implements ArchiveService {
         storePermissionCache.setStaleTimeout(
                 arcdev.getStorePermissionCacheStaleTimeoutSeconds() * 1000L);
         storePermissionCache.setMaxSize(arcdev.getStorePermissionCacheSize());
+        issuerCache.setStaleTimeout(arcdev.getIssuerCacheStaleTimeoutSeconds() * 1000L);
+        issuerCache.setMaxSize(arcdev.getIssuerCacheSize());
+        patientIDCache.setStaleTimeout(arcdev.getPatientIDCacheStaleTimeoutSeconds() * 1000L);
+        patientIDCache.setMaxSize(arcdev.getPatientIDCacheSize());
+        codeEntityCache.setMaxSize(arcdev.getCodeCacheSize());
         Patient.setShowPatientInfo(arcdev.showPatientInfoInSystemLog());
+        AttributesBlob.setIndexed(arcdev.isIndexedAttributesBlob());
     }
 
 }
@@ -0,0 +1,207 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class CacheTest {
+
+    @Test
+    public void testGetPutRemove() {
+        Cache<String,String> cache = new Cache<>();
+        assertNull(cache.get("a"));
+        assertNull(cache.put("a", "A"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("A", cache.put("a", "B"));
+        assertEquals("B", cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testMaxSizeEvictsEldestEntries() {
+        Cache<Integer,Integer> cache = new Cache<>();
+        cache.setMaxSize(4);
+        for (int i = 0; i < 10; i++)
+            cache.put(i, i);
+        assertEquals(4, cache.size());
+        assertEquals(6, cache.getEvictions());
+        for (int i = 0; i < 6; i++)
+            assertNull(cache.get(i));
+        for (int i = 6; i < 10; i++)
+            assertEquals(Integer.valueOf(i), cache.get(i));
+    }
+
+    @Test
+    public void testMaxSizeOverAllSegments() {
+        Cache<Integer,Integer> cache = new Cache<>();
+        cache.setMaxSize(1000);
+        for (int i = 0; i < 10000; i++)
+            cache.put(i, i);
+        assertEquals(1000, cache.size());
+        assertEquals(9000, cache.getEvictions());
+    }
+
+    @Test
+    public void testSetMaxSizeRedistributesEntries() {
+        Cache<Integer,Integer> cache = new Cache<>();
+        for (int i = 0; i < 100; i++)
+            cache.put(i, i);
+        assertEquals(100, cache.size());
+        cache.setMaxSize(20);
+        assertEquals(20, cache.size());
+        cache.setMaxSize(0);
+        for (int i = 100; i < 200; i++)
+            cache.put(i, i);
+        assertEquals(120, cache.size());
+        for (int i = 100; i < 200; i++)
+            assertEquals(Integer.valueOf(i), cache.get(i));
+    }
+
+    @Test
+    public void testStaleTimeout() throws Exception {
+        Cache<String,String> cache = new Cache<>();
+        cache.setStaleTimeout(100);
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        Thread.sleep(200);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testConcurrentMissesInvokeLoaderOnce() throws Exception {
+        Cache<String,String> cache = new Cache<>();
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+                results.add(executor.submit(() -> cache.get("a", key -> {
+                    invocations.incrementAndGet();
+                    loading.countDown();
+                    release.await();
+                    return key.toUpperCase();
+                })));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<String> result : results)
+                assertEquals("A", result.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, invocations.get());
+        assertEquals(1, cache.getLoads());
+        assertEquals("A", cache.get("a"));
+    }
+
+    @Test
+    public void testLoaderFailureIsNotCached() throws Exception {
+        Cache<String,String> cache = new Cache<>();
+        try {
+            cache.get("a", key -> {
+                throw new Exception("failed");
+            });
+            fail("expected Exception");
+        } catch (Exception e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertNull(cache.get("a"));
+        assertEquals("A", cache.get("a", String::toUpperCase));
+        assertEquals("A", cache.get("a", key -> {
+            throw new AssertionError("loader invoked on hit");
+        }));
+        assertEquals(2, cache.getLoads());
+    }
+
+    @Test
+    public void testWaitingCallerLoadsItselfOnFailure() throws Exception {
+        Cache<String,String> cache = new Cache<>();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> failed = executor.submit(() -> cache.get("a", key -> {
+                loading.countDown();
+                release.await();
+                throw new IllegalStateException("failed");
+            }));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                }
+                release.countDown();
+            }).start();
+            assertEquals("A", cache.get("a", String::toUpperCase));
+            try {
+                failed.get(10, TimeUnit.SECONDS);
+                fail("expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
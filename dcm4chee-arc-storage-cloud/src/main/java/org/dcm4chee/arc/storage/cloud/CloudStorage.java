@@ -44,6 +44,8 @@ import org.dcm4che3.net.Device;
 import org.dcm4che3.util.AttributesFormat;
 import org.dcm4chee.arc.conf.StorageDescriptor;
 import org.dcm4chee.arc.storage.AbstractStorage;
+import org.dcm4chee.arc.storage.MultipartUploader;
+import org.dcm4chee.arc.storage.ObjectPathAllocator;
 import org.dcm4chee.arc.storage.ReadContext;
 import org.dcm4chee.arc.storage.WriteContext;
 import org.jclouds.ContextBuilder;
@@ -85,7 +87,9 @@ public class CloudStorage extends AbstractStorage {
     private final String container;
     private final BlobStoreContext context;
     private final Uploader uploader;
-    private int count;
+    private final ObjectPathAllocator pathAllocator;
+    private final boolean checkExists;
+    private volatile boolean containerExists;
 
     @Override
     public WriteContext createWriteContext() {
@@ -97,7 +101,6 @@ public class CloudStorage extends AbstractStorage {
         this.device = device;
         pathFormat = new AttributesFormat(descriptor.getProperty("pathFormat", DEFAULT_PATH_FORMAT));
         container = descriptor.getProperty("container", DEFAULT_CONTAINER);
-        if (Boolean.parseBoolean(descriptor.getProperty("containerExists", null))) count++;
         String api = descriptor.getStorageURI().getSchemeSpecificPart();
         String endpoint = null;
         int endApi = api.indexOf(':');
@@ -105,7 +108,12 @@ public class CloudStorage extends AbstractStorage {
             endpoint = api.substring(endApi + 1);
             api = api.substring(0, endApi);
         }
-        this.uploader = api.endsWith("s3") ? new S3Uploader() : DEFAULT_UPLOADER;
+        this.uploader = api.endsWith("s3")
+                ? new S3Uploader(MultipartUploader.forStorage(descriptor, device::execute))
+                : DEFAULT_UPLOADER;
+        this.pathAllocator = ObjectPathAllocator.forStorage(descriptor);
+        this.checkExists = ObjectPathAllocator.isCheckExists(descriptor);
+        this.containerExists = ObjectPathAllocator.isContainerExists(descriptor);
         ContextBuilder ctxBuilder = ContextBuilder.newBuilder(api);
         String identity = descriptor.getProperty("identity", null);
         if (identity != null)
@@ -166,9 +174,11 @@ public class CloudStorage extends AbstractStorage {
     private void upload(WriteContext ctx, InputStream in) throws IOException {
         BlobStore blobStore = context.getBlobStore();
         String storagePath = pathFormat.format(ctx.getAttributes());
-        if (count++ == 0 && !blobStore.containerExists(container))
-            blobStore.createContainerInLocation(null, container);
-        else {
+        if (pathAllocator != null)
+            storagePath = pathAllocator.allocate(storagePath);
+        if (!containerExists)
+            createContainerIfNotExists(blobStore);
+        if (checkExists) {
             while (blobStore.blobExists(container, storagePath))
                 storagePath = storagePath.substring(0, storagePath.lastIndexOf('/') + 1)
                         .concat(String.format("%08X", ThreadLocalRandom.current().nextInt()));
@@ -177,6 +187,15 @@ public class CloudStorage extends AbstractStorage {
         ctx.setStoragePath(storagePath);
     }
 
+    private synchronized void createContainerIfNotExists(BlobStore blobStore) {
+        if (containerExists)
+            return;
+
+        if (!blobStore.containerExists(container))
+            blobStore.createContainerInLocation(null, container);
+        containerExists = true;
+    }
+
     @Override
     protected InputStream openInputStreamA(ReadContext ctx) throws IOException {
         BlobStore blobStore = context.getBlobStore();
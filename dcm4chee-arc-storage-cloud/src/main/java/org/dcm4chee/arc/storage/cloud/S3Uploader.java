@@ -40,7 +40,7 @@
 
 package org.dcm4chee.arc.storage.cloud;
 
-import org.dcm4chee.arc.storage.CacheInputStream;
+import org.dcm4chee.arc.storage.MultipartUploader;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
@@ -49,51 +49,70 @@ import org.jclouds.io.payloads.InputStreamPayload;
 import org.jclouds.s3.S3Client;
 import org.jclouds.s3.domain.ObjectMetadataBuilder;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
  * @since Oct 2015
  */
-class S3Uploader extends CacheInputStream implements Uploader {
+class S3Uploader implements Uploader {
+
+    private final MultipartUploader multipartUploader;
+
+    S3Uploader(MultipartUploader multipartUploader) {
+        this.multipartUploader = multipartUploader;
+    }
 
     @Override
     public void upload(BlobStoreContext context, InputStream in, BlobStore blobStore,
                        String container, String storagePath) throws IOException {
-        if (fillBuffers(in))
-            uploadMultipleParts(context, in, container, storagePath);
-        else
-            uploadSinglePart(blobStore, container, storagePath);
-    }
+        multipartUploader.upload(in, new MultipartUploader.Target<String>() {
+            private S3Client client;
+            private String uploadId;
 
-    private void uploadSinglePart(BlobStore blobStore, String container, String storagePath) {
-        Blob blob = blobStore.blobBuilder(storagePath).payload(createPayload()).build();
-        blobStore.putBlob(container, blob);
-    }
+            @Override
+            public void putObject(byte[] b, int len) {
+                Blob blob = blobStore.blobBuilder(storagePath).payload(createPayload(b, len)).build();
+                blobStore.putBlob(container, blob);
+            }
 
-    private Payload createPayload() {
-        Payload payload = new InputStreamPayload(this);
-        payload.getContentMetadata().setContentLength(new Long(available()));
-        return payload;
+            @Override
+            public void initiateMultipartUpload() {
+                client = context.unwrapApi(S3Client.class);
+                uploadId = client.initiateMultipartUpload(container,
+                        ObjectMetadataBuilder.create().key(storagePath).build());
+            }
+
+            @Override
+            public String uploadPart(int partNumber, byte[] b, int len) {
+                return client.uploadPart(container, storagePath, partNumber, uploadId, createPayload(b, len));
+            }
+
+            @Override
+            public void completeMultipartUpload(List<String> eTags) {
+                Map<Integer, String> parts = new HashMap<>();
+                int partNumber = 1;
+                for (String eTag : eTags)
+                    parts.put(partNumber++, eTag);
+                client.completeMultipartUpload(container, storagePath, uploadId, parts);
+            }
+
+            @Override
+            public void abortMultipartUpload() {
+                client.abortMultipartUpload(container, storagePath, uploadId);
+            }
+        });
     }
 
-    private void uploadMultipleParts(BlobStoreContext context, InputStream in, String container, String storagePath)
-            throws IOException {
-        S3Client client = context.unwrapApi(S3Client.class);
-        String uploadId = client.initiateMultipartUpload(container,
-                ObjectMetadataBuilder.create().key(storagePath).build());
-        Map<Integer, String> parts = new HashMap<>();
-        int partNumber = 1;
-        do {
-            parts.put(partNumber, client.uploadPart(container, storagePath, partNumber, uploadId, createPayload()));
-            partNumber++;
-        } while (fillBuffers(in));
-        if (available() > 0)
-            parts.put(partNumber, client.uploadPart(container, storagePath, partNumber, uploadId, createPayload()));
-        client.completeMultipartUpload(container, storagePath, uploadId, parts);
+    private static Payload createPayload(byte[] b, int len) {
+        Payload payload = new InputStreamPayload(new ByteArrayInputStream(b, 0, len));
+        payload.getContentMetadata().setContentLength((long) len);
+        return payload;
     }
 
 }
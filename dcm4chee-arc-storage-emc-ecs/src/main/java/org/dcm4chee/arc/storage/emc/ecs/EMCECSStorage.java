@@ -50,6 +50,8 @@ import org.dcm4che3.net.Device;
 import org.dcm4che3.util.AttributesFormat;
 import org.dcm4chee.arc.conf.StorageDescriptor;
 import org.dcm4chee.arc.storage.AbstractStorage;
+import org.dcm4chee.arc.storage.MultipartUploader;
+import org.dcm4chee.arc.storage.ObjectPathAllocator;
 import org.dcm4chee.arc.storage.ReadContext;
 import org.dcm4chee.arc.storage.WriteContext;
 
@@ -82,14 +84,15 @@ public class EMCECSStorage extends AbstractStorage {
     private final String container;
     private final S3Client s3;
     private final Uploader uploader;
-    private int count;
+    private final ObjectPathAllocator pathAllocator;
+    private final boolean checkExists;
+    private volatile boolean containerExists;
 
     public EMCECSStorage(StorageDescriptor descriptor, Device device) {
         super(descriptor);
         this.device = device;
         pathFormat = new AttributesFormat(descriptor.getProperty("pathFormat", DEFAULT_PATH_FORMAT));
         container = descriptor.getProperty("container", DEFAULT_CONTAINER);
-        if (Boolean.parseBoolean(descriptor.getProperty("containerExists", null))) count++;
         String endpoint = descriptor.getStorageURI().getSchemeSpecificPart();
         S3Config config = new S3Config(URI.create(endpoint));
         String identity = descriptor.getProperty("identity", null);
@@ -97,7 +100,10 @@ public class EMCECSStorage extends AbstractStorage {
             config.withIdentity(identity).withSecretKey(descriptor.getProperty("credential", null));
         this.uploader = Boolean.parseBoolean(descriptor.getProperty(PROPERTY_STREAMING, null))
                 ? STREAMING_UPLOADER
-                : new S3Uploader();
+                : new S3Uploader(MultipartUploader.forStorage(descriptor, device::execute));
+        this.pathAllocator = ObjectPathAllocator.forStorage(descriptor);
+        this.checkExists = ObjectPathAllocator.isCheckExists(descriptor);
+        this.containerExists = ObjectPathAllocator.isContainerExists(descriptor);
         s3 = new S3JerseyClient(config,
                 Boolean.parseBoolean(descriptor.getProperty(PROPERTY_URL_CONNECTION_CLIENT_HANDLER, null))
                         ? new URLConnectionClientHandler()
@@ -138,9 +144,11 @@ public class EMCECSStorage extends AbstractStorage {
 
     private void upload(WriteContext ctx, InputStream in) throws IOException {
         String storagePath = pathFormat.format(ctx.getAttributes());
-        if (count++ == 0 && !s3.bucketExists(container))
-            s3.createBucket(container);
-        else while (exits(storagePath)) {
+        if (pathAllocator != null)
+            storagePath = pathAllocator.allocate(storagePath);
+        if (!containerExists)
+            createBucketIfNotExists();
+        if (checkExists) while (exits(storagePath)) {
             storagePath = storagePath.substring(0, storagePath.lastIndexOf('/') + 1)
                     .concat(String.format("%08X", ThreadLocalRandom.current().nextInt()));
         }
@@ -148,6 +156,15 @@ public class EMCECSStorage extends AbstractStorage {
         ctx.setStoragePath(storagePath);
     }
 
+    private synchronized void createBucketIfNotExists() {
+        if (containerExists)
+            return;
+
+        if (!s3.bucketExists(container))
+            s3.createBucket(container);
+        containerExists = true;
+    }
+
     private boolean exits(String storagePath) {
         try {
             s3.getObjectMetadata(container, storagePath);
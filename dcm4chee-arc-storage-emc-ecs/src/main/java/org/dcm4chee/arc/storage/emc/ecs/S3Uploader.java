@@ -43,53 +43,66 @@ package org.dcm4chee.arc.storage.emc.ecs;
 import com.emc.object.s3.S3Client;
 import com.emc.object.s3.S3ObjectMetadata;
 import com.emc.object.s3.bean.MultipartPartETag;
+import com.emc.object.s3.request.AbortMultipartUploadRequest;
 import com.emc.object.s3.request.CompleteMultipartUploadRequest;
 import com.emc.object.s3.request.InitiateMultipartUploadRequest;
 import com.emc.object.s3.request.PutObjectRequest;
 import com.emc.object.s3.request.UploadPartRequest;
-import org.dcm4chee.arc.storage.CacheInputStream;
+import org.dcm4chee.arc.storage.MultipartUploader;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.*;
+import java.util.List;
+import java.util.TreeSet;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
  * @since Oct 2016
  */
-class S3Uploader extends CacheInputStream implements Uploader {
+class S3Uploader implements Uploader {
+
+    private final MultipartUploader multipartUploader;
+
+    S3Uploader(MultipartUploader multipartUploader) {
+        this.multipartUploader = multipartUploader;
+    }
 
     @Override
     public void upload(S3Client s3, InputStream in, String container, String storagePath) throws IOException {
-        if (fillBuffers(in))
-            uploadMultipleParts(s3, in, container, storagePath);
-        else
-            uploadSinglePart(s3, container, storagePath);
-    }
+        multipartUploader.upload(in, new MultipartUploader.Target<MultipartPartETag>() {
+            private String uploadId;
 
-    private void uploadSinglePart(S3Client s3, String container, String storagePath) {
-        s3.putObject(new PutObjectRequest(container, storagePath, this)
-                .withObjectMetadata(new S3ObjectMetadata().withContentLength(available())));
-    }
+            @Override
+            public void putObject(byte[] b, int len) {
+                s3.putObject(new PutObjectRequest(container, storagePath, new ByteArrayInputStream(b, 0, len))
+                        .withObjectMetadata(new S3ObjectMetadata().withContentLength(len)));
+            }
+
+            @Override
+            public void initiateMultipartUpload() {
+                uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(container, storagePath))
+                        .getUploadId();
+            }
+
+            @Override
+            public MultipartPartETag uploadPart(int partNumber, byte[] b, int len) {
+                return s3.uploadPart(new UploadPartRequest(container, storagePath, uploadId, partNumber,
+                        new ByteArrayInputStream(b, 0, len))
+                        .withContentLength((long) len));
+            }
+
+            @Override
+            public void completeMultipartUpload(List<MultipartPartETag> parts) {
+                s3.completeMultipartUpload(new CompleteMultipartUploadRequest(container, storagePath, uploadId)
+                        .withParts(new TreeSet<>(parts)));
+            }
 
-    private void uploadMultipleParts(S3Client s3, InputStream in, String container, String storagePath)
-            throws IOException {
-        String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(container, storagePath))
-                .getUploadId();
-        SortedSet<MultipartPartETag> parts = new TreeSet<>();
-        int partNumber = 1;
-        do {
-            parts.add(s3.uploadPart(new UploadPartRequest(container,  storagePath, uploadId, partNumber, this)
-                    .withContentLength(new Long(available()))));
-            partNumber++;
-        } while (fillBuffers(in));
-        if (available() > 0) {
-            parts.add(s3.uploadPart(
-                    new UploadPartRequest(container,  storagePath, uploadId, partNumber, this)
-                            .withContentLength(new Long(available()))));
-        }
-        s3.completeMultipartUpload(
-                new CompleteMultipartUploadRequest(container, storagePath, uploadId).withParts(parts));
+            @Override
+            public void abortMultipartUpload() {
+                s3.abortMultipartUpload(new AbortMultipartUploadRequest(container, storagePath, uploadId));
+            }
+        });
     }
 
 }
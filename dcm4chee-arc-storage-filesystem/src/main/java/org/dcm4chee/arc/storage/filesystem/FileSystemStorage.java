@@ -52,6 +52,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -138,6 +140,24 @@ public class FileSystemStorage extends AbstractStorage {
         return Files.newInputStream(path);
     }
 
+    @Override
+    protected InputStream openInputStreamA(ReadContext ctx, long offset) throws IOException {
+        Path path = Paths.get(rootURI.resolve(ctx.getStoragePath()));
+        SeekableByteChannel channel = Files.newByteChannel(path);
+        try {
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return Channels.newInputStream(channel);
+    }
+
+    @Override
+    public boolean isRandomAccess() {
+        return true;
+    }
+
     @Override
     public void deleteObject(String storagePath) throws IOException {
         Path path = Paths.get(rootURI.resolve(storagePath));
@@ -41,6 +41,9 @@
 package org.dcm4chee.arc.storage;
 
 import org.dcm4chee.arc.conf.StorageDescriptor;
+import org.dcm4chee.arc.metrics.Counter;
+import org.dcm4chee.arc.metrics.Histogram;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 
 import java.io.*;
 import java.security.DigestInputStream;
@@ -56,9 +59,23 @@ public abstract class AbstractStorage implements Storage {
             "{now,date,yyyy/MM/dd}/{0020000D,hash}/{0020000E,hash}/{00080018,hash}";
 
     protected final StorageDescriptor descriptor;
+    private final Counter writtenBytes;
+    private final Counter readBytes;
+    private final Histogram writeTime;
+    private final Histogram readTime;
 
     protected AbstractStorage(StorageDescriptor descriptor) {
         this.descriptor = descriptor;
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        String storageID = descriptor.getStorageID();
+        this.writtenBytes = metrics.counter("dcm4chee_arc_storage_written_bytes_total",
+                "Bytes written to storage", "storage", storageID);
+        this.readBytes = metrics.counter("dcm4chee_arc_storage_read_bytes_total",
+                "Bytes read from storage", "storage", storageID);
+        this.writeTime = metrics.timer("dcm4chee_arc_storage_write_seconds",
+                "Duration from opening to closing storage output streams", "storage", storageID);
+        this.readTime = metrics.timer("dcm4chee_arc_storage_read_seconds",
+                "Duration from opening to closing storage input streams", "storage", storageID);
     }
 
     @Override
@@ -93,11 +110,15 @@ public abstract class AbstractStorage implements Storage {
     @Override
     public OutputStream openOutputStream(final WriteContext ctx) throws IOException {
         checkAccessable();
+        final long startTime = System.nanoTime();
+        final long sizeAtOpen = ctx.getSize();
         OutputStream stream = openOutputStreamA(ctx);
         if (ctx.getMessageDigest() != null) {
             stream = new DigestOutputStream(stream, ctx.getMessageDigest());
         }
         return new FilterOutputStream(stream) {
+            private boolean closed;
+
             @Override
             public void write(int b) throws IOException {
                 try {
@@ -120,6 +141,11 @@ public abstract class AbstractStorage implements Storage {
 
             @Override
             public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    writeTime.recordSince(startTime);
+                    writtenBytes.add(ctx.getSize() - sizeAtOpen);
+                }
                 try {
                     beforeOutputStreamClosed(ctx, this);
                 } finally {
@@ -178,11 +204,24 @@ public abstract class AbstractStorage implements Storage {
     @Override
     public InputStream openInputStream(final ReadContext ctx) throws IOException {
         checkAccessable();
-        InputStream stream = openInputStreamA(ctx);
+        return wrap(ctx, openInputStreamA(ctx));
+    }
+
+    @Override
+    public InputStream openInputStream(final ReadContext ctx, long offset) throws IOException {
+        checkAccessable();
+        return wrap(ctx, openInputStreamA(ctx, offset));
+    }
+
+    private InputStream wrap(final ReadContext ctx, InputStream stream) {
+        final long startTime = System.nanoTime();
+        final long sizeAtOpen = ctx.getSize();
         if (ctx.getMessageDigest() != null) {
             stream = new DigestInputStream(stream, ctx.getMessageDigest());
         }
         return new FilterInputStream(stream) {
+            private boolean closed;
+
             @Override
             public int read() throws IOException {
                 int read = 0;
@@ -228,6 +267,11 @@ public abstract class AbstractStorage implements Storage {
 
             @Override
             public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    readTime.recordSince(startTime);
+                    readBytes.add(ctx.getSize() - sizeAtOpen);
+                }
                 try {
                     beforeInputStreamClosed(ctx, this);
                 } finally {
@@ -245,6 +289,10 @@ public abstract class AbstractStorage implements Storage {
 
     protected abstract InputStream openInputStreamA(ReadContext ctx) throws IOException;
 
+    protected InputStream openInputStreamA(ReadContext ctx, long offset) throws IOException {
+        return Storage.skipFully(openInputStreamA(ctx), offset);
+    }
+
     protected void beforeInputStreamClosed(ReadContext ctx, InputStream stream)  throws IOException {}
 
     protected void afterInputStreamClosed(ReadContext ctx)  throws IOException {}
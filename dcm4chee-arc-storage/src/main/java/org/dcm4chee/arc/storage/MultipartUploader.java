@@ -0,0 +1,293 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+package org.dcm4chee.arc.storage;
+
+import org.dcm4chee.arc.conf.StorageDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Uploads objects to S3 like object stores in parts, of which up to {@link #PROPERTY_MAX_PARTS_IN_FLIGHT} are
+ * uploaded concurrently. Part buffers are pooled per storage and limited by {@link #PROPERTY_MAX_MEMORY}.
+ * Objects not larger than {@link #PROPERTY_PART_SIZE} are uploaded by a single request from a buffer sized to the
+ * object, which does not count against that limit. The part size must not be less than the minimal part size of
+ * S3 (5 MiB).
+ * One instance is shared by all {@link Storage} instances opened for the same storage ID.
+ *
+ * @since Apr 2018
+ */
+public class MultipartUploader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultipartUploader.class);
+
+    public static final String PROPERTY_PART_SIZE = "multipartPartSize";
+    public static final String PROPERTY_MAX_PARTS_IN_FLIGHT = "multipartMaxPartsInFlight";
+    public static final String PROPERTY_MAX_MEMORY = "multipartMaxMemory";
+    public static final String PROPERTY_MAX_RETRIES = "multipartMaxRetries";
+
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    private static final int DEFAULT_PART_SIZE = MIN_PART_SIZE;
+    private static final int DEFAULT_MAX_PARTS_IN_FLIGHT = 4;
+    private static final long DEFAULT_MAX_MEMORY = 100L * 1024 * 1024;
+    private static final int DEFAULT_MAX_RETRIES = 2;
+    private static final long RETRY_DELAY = 500L;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final ConcurrentHashMap<String, MultipartUploader> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Executor executor;
+    private final int partSize;
+    private final int maxPartsInFlight;
+    private final int maxRetries;
+    private final String[] config;
+    private final Semaphore availableBuffers;
+    private final ConcurrentLinkedQueue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    public interface Target<P> {
+        void putObject(byte[] b, int len) throws Exception;
+
+        void initiateMultipartUpload() throws Exception;
+
+        P uploadPart(int partNumber, byte[] b, int len) throws Exception;
+
+        void completeMultipartUpload(List<P> parts) throws Exception;
+
+        void abortMultipartUpload() throws Exception;
+    }
+
+    public static MultipartUploader forStorage(StorageDescriptor descriptor, Executor executor) {
+        return INSTANCES.compute(descriptor.getStorageID(),
+                (storageID, prev) -> prev != null && prev.isConfiguredBy(descriptor)
+                        ? prev
+                        : new MultipartUploader(descriptor, executor));
+    }
+
+    private MultipartUploader(StorageDescriptor descriptor, Executor executor) {
+        this.executor = executor;
+        this.config = configOf(descriptor);
+        this.partSize = Integer.parseInt(
+                descriptor.getProperty(PROPERTY_PART_SIZE, Integer.toString(DEFAULT_PART_SIZE)));
+        this.maxPartsInFlight = Integer.parseInt(
+                descriptor.getProperty(PROPERTY_MAX_PARTS_IN_FLIGHT, Integer.toString(DEFAULT_MAX_PARTS_IN_FLIGHT)));
+        this.maxRetries = Integer.parseInt(
+                descriptor.getProperty(PROPERTY_MAX_RETRIES, Integer.toString(DEFAULT_MAX_RETRIES)));
+        long maxMemory = Long.parseLong(
+                descriptor.getProperty(PROPERTY_MAX_MEMORY, Long.toString(DEFAULT_MAX_MEMORY)));
+        if (partSize < MIN_PART_SIZE)
+            throw new IllegalArgumentException(PROPERTY_PART_SIZE + ": " + partSize + " < " + MIN_PART_SIZE);
+        if (maxPartsInFlight <= 0)
+            throw new IllegalArgumentException(PROPERTY_MAX_PARTS_IN_FLIGHT + ": " + maxPartsInFlight);
+        this.availableBuffers = new Semaphore((int) Math.max(1L, Math.min(Integer.MAX_VALUE, maxMemory / partSize)));
+    }
+
+    private boolean isConfiguredBy(StorageDescriptor descriptor) {
+        return Arrays.equals(config, configOf(descriptor));
+    }
+
+    private static String[] configOf(StorageDescriptor descriptor) {
+        return new String[] {
+                descriptor.getProperty(PROPERTY_PART_SIZE, null),
+                descriptor.getProperty(PROPERTY_MAX_PARTS_IN_FLIGHT, null),
+                descriptor.getProperty(PROPERTY_MAX_MEMORY, null),
+                descriptor.getProperty(PROPERTY_MAX_RETRIES, null)
+        };
+    }
+
+    public <P> void upload(InputStream in, Target<P> target) throws IOException {
+        byte[] b = new byte[Math.min(INITIAL_BUFFER_SIZE, partSize)];
+        int len = 0;
+        int r;
+        while ((r = in.read(b, len, b.length - len)) > 0) {
+            len += r;
+            if (len == b.length) {
+                if (len == partSize)
+                    break;
+                b = Arrays.copyOf(b, Math.min(len << 1, partSize));
+            }
+        }
+        int next = len < partSize ? -1 : in.read();
+        if (next < 0) {
+            byte[] object = b;
+            int objectLength = len;
+            invoke(() -> { target.putObject(object, objectLength); return null; }, "upload");
+            return;
+        }
+        PushbackInputStream pin = new PushbackInputStream(in, 1);
+        pin.unread(next);
+        // the filled buffer has the size of a part and is pooled after upload of the first part
+        acquirePermit();
+        try {
+            invoke(() -> { target.initiateMultipartUpload(); return null; }, "initiate multipart upload");
+        } catch (IOException e) {
+            releaseBuffer(b);
+            throw e;
+        }
+        uploadParts(pin, target, b);
+    }
+
+    private <P> void uploadParts(InputStream in, Target<P> target, byte[] first) throws IOException {
+        List<Future<P>> parts = new ArrayList<>();
+        ArrayDeque<Future<P>> inFlight = new ArrayDeque<>(maxPartsInFlight);
+        byte[] b = first;
+        int len = partSize;
+        try {
+            do {
+                byte[] buf = b;
+                b = null;
+                Future<P> part = submitPart(target, parts.size() + 1, buf, len);
+                parts.add(part);
+                inFlight.add(part);
+                if (len < partSize)
+                    break;
+
+                while (inFlight.size() >= maxPartsInFlight)
+                    get(inFlight.remove());
+                b = acquireBuffer();
+                len = fill(in, b);
+            } while (len > 0);
+            if (b != null) {
+                releaseBuffer(b);
+                b = null;
+            }
+            List<P> results = new ArrayList<>(parts.size());
+            for (Future<P> part : parts)
+                results.add(get(part));
+            invoke(() -> { target.completeMultipartUpload(results); return null; }, "complete multipart upload");
+        } catch (IOException | RuntimeException e) {
+            if (b != null)
+                releaseBuffer(b);
+            for (Future<P> part : inFlight)
+                try {
+                    part.get();
+                } catch (Exception ignore) {}
+            try {
+                target.abortMultipartUpload();
+            } catch (Exception e1) {
+                LOG.warn("Failed to abort multipart upload:\n", e1);
+            }
+            throw e;
+        }
+    }
+
+    private <P> Future<P> submitPart(Target<P> target, int partNumber, byte[] b, int len) throws IOException {
+        FutureTask<P> task = new FutureTask<>(() -> {
+            try {
+                return invoke(() -> target.uploadPart(partNumber, b, len), "upload part " + partNumber);
+            } finally {
+                releaseBuffer(b);
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            releaseBuffer(b);
+            throw new IOException(e);
+        }
+        return task;
+    }
+
+    private <T> T invoke(Callable<T> request, String what) throws IOException {
+        for (int retry = 0;; retry++) {
+            try {
+                return request.call();
+            } catch (Exception e) {
+                if (retry >= maxRetries)
+                    throw e instanceof IOException ? (IOException) e : new IOException("Failed to " + what, e);
+                LOG.info("Failed to {} - retry:\n", what, e);
+            }
+            try {
+                Thread.sleep(RETRY_DELAY << retry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private static <P> P get(Future<P> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private static int fill(InputStream in, byte[] b) throws IOException {
+        int off = 0;
+        int r;
+        while (off < b.length && (r = in.read(b, off, b.length - off)) > 0)
+            off += r;
+        return off;
+    }
+
+    private byte[] acquireBuffer() throws InterruptedIOException {
+        acquirePermit();
+        byte[] b = freeBuffers.poll();
+        return b != null ? b : new byte[partSize];
+    }
+
+    private void acquirePermit() throws InterruptedIOException {
+        try {
+            availableBuffers.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void releaseBuffer(byte[] b) {
+        freeBuffers.offer(b);
+        availableBuffers.release();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+package org.dcm4chee.arc.storage;
+
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.arc.conf.StorageDescriptor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Makes object paths unique by appending a node prefix and a sequence number, so object stores need not be probed
+ * for existing objects before each upload. The sequence is reserved in blocks, which are recorded in
+ * {@link #PROPERTY_SEQUENCE_FILE} to survive restarts. The sequence is seeded by the current time, or by the value
+ * recorded in the sequence file if that is greater, so a lost sequence file does not restart it. As all nodes of an archive cluster share the device name, the node prefix has to be configured explicitly by
+ * {@link #PROPERTY_NODE_PREFIX} with a value unique for each node.
+ *
+ * @since Apr 2018
+ */
+public class ObjectPathAllocator {
+
+    public static final String PROPERTY_UNIQUE_PATH = "uniquePath";
+    public static final String PROPERTY_NODE_PREFIX = "uniquePathNodePrefix";
+    public static final String PROPERTY_SEQUENCE_FILE = "uniquePathSequenceFile";
+    public static final String PROPERTY_CHECK_EXISTS = "checkExists";
+    public static final String PROPERTY_CONTAINER_EXISTS = "containerExists";
+
+    private static final int BLOCK_SIZE = 1000;
+
+    private static final ConcurrentHashMap<String, ObjectPathAllocator> INSTANCES = new ConcurrentHashMap<>();
+
+    private final String nodePrefix;
+    private final Path sequenceFile;
+    private final String[] config;
+    private long next = -1L;
+    private long limit;
+
+    private ObjectPathAllocator(StorageDescriptor descriptor, String nodePrefix) {
+        this.config = configOf(descriptor);
+        this.nodePrefix = nodePrefix;
+        String sequenceFile = descriptor.getProperty(PROPERTY_SEQUENCE_FILE, null);
+        this.sequenceFile = sequenceFile != null ? Paths.get(StringUtils.replaceSystemProperties(sequenceFile)) : null;
+    }
+
+    /**
+     * Returns the allocator for the storage, or {@code null} if unique object paths are not configured.
+     *
+     * @throws IllegalArgumentException if unique object paths are configured without {@link #PROPERTY_NODE_PREFIX}
+     */
+    public static ObjectPathAllocator forStorage(StorageDescriptor descriptor) {
+        if (!isUniquePath(descriptor)) {
+            INSTANCES.remove(descriptor.getStorageID());
+            return null;
+        }
+        String nodePrefix = descriptor.getProperty(PROPERTY_NODE_PREFIX, null);
+        if (nodePrefix == null)
+            throw new IllegalArgumentException(PROPERTY_UNIQUE_PATH + " requires " + PROPERTY_NODE_PREFIX);
+        return INSTANCES.compute(descriptor.getStorageID(),
+                (storageID, prev) -> prev != null && Arrays.equals(prev.config, configOf(descriptor))
+                        ? prev
+                        : new ObjectPathAllocator(descriptor, nodePrefix));
+    }
+
+    /**
+     * Returns if object stores shall be probed for an existing object before uploading. Probing can only be
+     * disabled for unique object paths with an explicitly configured {@link #PROPERTY_NODE_PREFIX}, and is disabled
+     * for them by default.
+     */
+    public static boolean isCheckExists(StorageDescriptor descriptor) {
+        return !isUniquePath(descriptor)
+                || descriptor.getProperty(PROPERTY_NODE_PREFIX, null) == null
+                || Boolean.parseBoolean(descriptor.getProperty(PROPERTY_CHECK_EXISTS, null));
+    }
+
+    /**
+     * Returns if the container or bucket of object stores is known to exist, so it need not be probed on the first
+     * upload. Defaults to {@code true} if probing for existing objects is disabled by {@link #isCheckExists}.
+     */
+    public static boolean isContainerExists(StorageDescriptor descriptor) {
+        String containerExists = descriptor.getProperty(PROPERTY_CONTAINER_EXISTS, null);
+        return containerExists != null ? Boolean.parseBoolean(containerExists) : !isCheckExists(descriptor);
+    }
+
+    private static boolean isUniquePath(StorageDescriptor descriptor) {
+        return Boolean.parseBoolean(descriptor.getProperty(PROPERTY_UNIQUE_PATH, null));
+    }
+
+    private static String[] configOf(StorageDescriptor descriptor) {
+        return new String[] {
+                descriptor.getProperty(PROPERTY_NODE_PREFIX, null),
+                descriptor.getProperty(PROPERTY_SEQUENCE_FILE, null)
+        };
+    }
+
+    public String allocate(String storagePath) throws IOException {
+        return storagePath + '-' + nodePrefix + '-' + Long.toHexString(nextSequence()).toUpperCase();
+    }
+
+    private synchronized long nextSequence() throws IOException {
+        if (next < 0L)
+            next = limit = Math.max(System.currentTimeMillis() << 16, sequenceFile != null ? readSequenceFile() : 0L);
+        if (next >= limit && sequenceFile != null)
+            reserve(next + BLOCK_SIZE);
+        return next++;
+    }
+
+    private long readSequenceFile() throws IOException {
+        if (!Files.exists(sequenceFile))
+            return 0L;
+
+        return Long.parseLong(new String(Files.readAllBytes(sequenceFile), StandardCharsets.US_ASCII).trim());
+    }
+
+    private void reserve(long limit) throws IOException {
+        Path dir = sequenceFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, sequenceFile.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, Long.toString(limit).getBytes(StandardCharsets.US_ASCII));
+            Files.move(tmp, sequenceFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        this.limit = limit;
+    }
+}
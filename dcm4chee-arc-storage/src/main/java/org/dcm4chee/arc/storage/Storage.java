@@ -3,9 +3,13 @@ package org.dcm4chee.arc.storage;
 import org.dcm4chee.arc.conf.StorageDescriptor;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -34,5 +38,62 @@ public interface Storage extends Closeable {
 
     void deleteObject(String storagePath) throws IOException;
 
+    /**
+     * Deletes the objects with the specified storage paths. Storage implementations which support bulk deletion
+     * may override the default implementation, which deletes the objects one by one.
+     *
+     * @return storage paths of objects which could not be deleted, mapped to the cause
+     */
+    default Map<String, Exception> deleteObjects(Collection<String> storagePaths) {
+        Map<String, Exception> failures = new HashMap<>();
+        for (String storagePath : storagePaths) {
+            try {
+                deleteObject(storagePath);
+            } catch (Exception e) {
+                failures.put(storagePath, e);
+            }
+        }
+        return failures;
+    }
+
     InputStream openInputStream(ReadContext ctx) throws IOException;
+
+    /**
+     * Opens the object for reading starting at the specified byte offset. Storage implementations which support
+     * ranged reads shall override the default implementation, which skips the leading bytes of the object, and
+     * also {@link #isRandomAccess()}.
+     */
+    default InputStream openInputStream(ReadContext ctx, long offset) throws IOException {
+        return skipFully(openInputStream(ctx), offset);
+    }
+
+    /**
+     * Skips the specified number of bytes of the stream, closing it on failure.
+     */
+    static InputStream skipFully(InputStream in, long offset) throws IOException {
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() < 0)
+                        throw new EOFException();
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    /**
+     * Indicates if {@link #openInputStream(ReadContext, long)} positions the returned stream without reading the
+     * leading bytes of the object.
+     */
+    default boolean isRandomAccess() {
+        return false;
+    }
 }
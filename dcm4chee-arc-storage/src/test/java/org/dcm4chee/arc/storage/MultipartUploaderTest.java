@@ -0,0 +1,235 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.storage;
+
+import org.dcm4chee.arc.conf.StorageDescriptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class MultipartUploaderTest {
+
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+    private static final AtomicInteger STORAGE_IDS = new AtomicInteger();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPartSizeBelowS3Minimum() {
+        uploader(PART_SIZE - 1, 4, 100L * PART_SIZE, 0);
+    }
+
+    @Test
+    public void testSinglePutUpToPartSize() throws IOException {
+        MultipartUploader uploader = uploader(PART_SIZE, 4, 4L * PART_SIZE, 0);
+        FakeTarget target = new FakeTarget();
+        uploader.upload(new ByteArrayInputStream(data(PART_SIZE)), target);
+        assertEquals(1, target.puts.get());
+        assertEquals(PART_SIZE, target.putLength);
+        assertEquals(0, target.initiated.get());
+        assertTrue(target.parts.isEmpty());
+    }
+
+    @Test
+    public void testPartOrder() throws IOException {
+        MultipartUploader uploader = uploader(PART_SIZE, 3, 4L * PART_SIZE, 0);
+        FakeTarget target = new FakeTarget();
+        target.maxDelay = 50;
+        int size = 5 * PART_SIZE + 1;
+        uploader.upload(new ByteArrayInputStream(data(size)), target);
+        assertEquals(0, target.puts.get());
+        assertEquals(1, target.initiated.get());
+        assertEquals(6, target.parts.size());
+        assertEquals(Integer.valueOf(1), target.lengths.get(6));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), target.completed);
+        assertEquals(0, target.aborted.get());
+        assertEquals(0, target.corrupted.get());
+    }
+
+    @Test
+    public void testRetryPart() throws IOException {
+        MultipartUploader uploader = uploader(PART_SIZE, 4, 4L * PART_SIZE, 1);
+        FakeTarget target = new FakeTarget();
+        target.failPart = 2;
+        target.failures.set(1);
+        uploader.upload(new ByteArrayInputStream(data(3 * PART_SIZE)), target);
+        assertEquals(Arrays.asList(1, 2, 3), target.completed);
+        assertEquals(4, target.partRequests.get());
+        assertEquals(0, target.aborted.get());
+    }
+
+    @Test
+    public void testAbortAndReleasePermits() throws Exception {
+        MultipartUploader uploader = uploader(PART_SIZE, 2, 2L * PART_SIZE, 0);
+        FakeTarget target = new FakeTarget();
+        target.failPart = 3;
+        target.failures.set(Integer.MAX_VALUE);
+        try {
+            uploader.upload(new ByteArrayInputStream(data(6 * PART_SIZE)), target);
+            fail("IOException expected");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, target.aborted.get());
+        assertNull(target.completed);
+
+        // would block forever, if part buffers of the aborted upload were not released
+        FakeTarget target2 = new FakeTarget();
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> upload = caller.submit(() -> {
+                uploader.upload(new ByteArrayInputStream(data(6 * PART_SIZE)), target2);
+                return null;
+            });
+            upload.get(30, TimeUnit.SECONDS);
+        } finally {
+            caller.shutdownNow();
+        }
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), target2.completed);
+    }
+
+    private MultipartUploader uploader(int partSize, int maxPartsInFlight, long maxMemory, int maxRetries) {
+        StorageDescriptor descriptor = new StorageDescriptor("test-" + STORAGE_IDS.incrementAndGet());
+        descriptor.setProperty(MultipartUploader.PROPERTY_PART_SIZE, Integer.toString(partSize));
+        descriptor.setProperty(MultipartUploader.PROPERTY_MAX_PARTS_IN_FLIGHT, Integer.toString(maxPartsInFlight));
+        descriptor.setProperty(MultipartUploader.PROPERTY_MAX_MEMORY, Long.toString(maxMemory));
+        descriptor.setProperty(MultipartUploader.PROPERTY_MAX_RETRIES, Integer.toString(maxRetries));
+        return MultipartUploader.forStorage(descriptor, executor);
+    }
+
+    private static byte[] data(int size) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++)
+            b[i] = valueAt(i);
+        return b;
+    }
+
+    private static byte valueAt(long offset) {
+        return (byte) (offset % 251);
+    }
+
+    private static class FakeTarget implements MultipartUploader.Target<Integer> {
+        final AtomicInteger puts = new AtomicInteger();
+        final AtomicInteger initiated = new AtomicInteger();
+        final AtomicInteger aborted = new AtomicInteger();
+        final AtomicInteger partRequests = new AtomicInteger();
+        final AtomicInteger corrupted = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Integer> parts = Collections.synchronizedList(new ArrayList<>());
+        final Map<Integer, Integer> lengths = new ConcurrentHashMap<>();
+        volatile int failPart;
+        volatile int maxDelay;
+        volatile int putLength;
+        volatile List<Integer> completed;
+
+        @Override
+        public void putObject(byte[] b, int len) {
+            puts.incrementAndGet();
+            putLength = len;
+            verify(b, len, 0L);
+        }
+
+        @Override
+        public void initiateMultipartUpload() {
+            initiated.incrementAndGet();
+        }
+
+        @Override
+        public Integer uploadPart(int partNumber, byte[] b, int len) throws Exception {
+            partRequests.incrementAndGet();
+            if (partNumber == failPart && failures.getAndDecrement() > 0)
+                throw new IOException("part " + partNumber + " failed");
+            if (maxDelay > 0)
+                Thread.sleep(ThreadLocalRandom.current().nextInt(maxDelay));
+            verify(b, len, (long) (partNumber - 1) * PART_SIZE);
+            parts.add(partNumber);
+            lengths.put(partNumber, len);
+            return partNumber;
+        }
+
+        @Override
+        public void completeMultipartUpload(List<Integer> parts) {
+            completed = new ArrayList<>(parts);
+        }
+
+        @Override
+        public void abortMultipartUpload() {
+            aborted.incrementAndGet();
+        }
+
+        private void verify(byte[] b, int len, long offset) {
+            for (int i = 0; i < len; i++)
+                if (b[i] != valueAt(offset + i)) {
+                    corrupted.incrementAndGet();
+                    return;
+                }
+        }
+    }
+}
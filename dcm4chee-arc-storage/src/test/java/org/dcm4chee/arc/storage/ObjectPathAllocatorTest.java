@@ -0,0 +1,191 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.storage;
+
+import org.dcm4chee.arc.conf.StorageDescriptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class ObjectPathAllocatorTest {
+
+    private static final AtomicInteger STORAGE_IDS = new AtomicInteger();
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ObjectPathAllocatorTest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testNotConfigured() {
+        StorageDescriptor descriptor = new StorageDescriptor(nextStorageID());
+        assertNull(ObjectPathAllocator.forStorage(descriptor));
+        assertTrue(ObjectPathAllocator.isCheckExists(descriptor));
+        assertFalse(ObjectPathAllocator.isContainerExists(descriptor));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingNodePrefix() {
+        StorageDescriptor descriptor = new StorageDescriptor(nextStorageID());
+        descriptor.setProperty(ObjectPathAllocator.PROPERTY_UNIQUE_PATH, "true");
+        ObjectPathAllocator.forStorage(descriptor);
+    }
+
+    @Test
+    public void testCheckExists() {
+        StorageDescriptor descriptor = descriptor(nextStorageID(), null);
+        assertFalse(ObjectPathAllocator.isCheckExists(descriptor));
+        assertTrue(ObjectPathAllocator.isContainerExists(descriptor));
+        descriptor.setProperty(ObjectPathAllocator.PROPERTY_CONTAINER_EXISTS, "false");
+        assertFalse(ObjectPathAllocator.isContainerExists(descriptor));
+        descriptor.setProperty(ObjectPathAllocator.PROPERTY_CHECK_EXISTS, "true");
+        assertTrue(ObjectPathAllocator.isCheckExists(descriptor));
+    }
+
+    @Test
+    public void testAllocate() throws IOException {
+        ObjectPathAllocator allocator = ObjectPathAllocator.forStorage(descriptor(nextStorageID(), null));
+        long now = System.currentTimeMillis() << 16;
+        String path1 = allocator.allocate("a/b");
+        String path2 = allocator.allocate("a/b");
+        assertTrue(path1, path1.startsWith("a/b-node1-"));
+        assertEquals(sequenceOf(path1) + 1, sequenceOf(path2));
+        assertTrue(sequenceOf(path1) >= now);
+    }
+
+    @Test
+    public void testMissingSequenceFileSeededByTime() throws IOException {
+        Path file = dir.resolve("seq");
+        long now = System.currentTimeMillis() << 16;
+        String path = ObjectPathAllocator.forStorage(descriptor(nextStorageID(), file)).allocate("a");
+        assertTrue(sequenceOf(path) >= now);
+        assertTrue(Files.exists(file));
+        assertTrue(readSequenceFile(file) > sequenceOf(path));
+    }
+
+    @Test
+    public void testRestartContinuesAfterReservedBlock() throws IOException {
+        Path file = dir.resolve("seq");
+        long reserved = (System.currentTimeMillis() << 16) + (1L << 40);
+        Files.write(file, Long.toString(reserved).getBytes(StandardCharsets.US_ASCII));
+        ObjectPathAllocator allocator = ObjectPathAllocator.forStorage(descriptor(nextStorageID(), file));
+        assertEquals(reserved, sequenceOf(allocator.allocate("a")));
+        long limit = readSequenceFile(file);
+        assertTrue(limit > reserved);
+
+        ObjectPathAllocator restarted = ObjectPathAllocator.forStorage(descriptor(nextStorageID(), file));
+        assertEquals(limit, sequenceOf(restarted.allocate("a")));
+    }
+
+    @Test
+    public void testConcurrentAllocate() throws Exception {
+        ObjectPathAllocator allocator =
+                ObjectPathAllocator.forStorage(descriptor(nextStorageID(), dir.resolve("seq")));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                futures.add(executor.submit(() -> {
+                    List<String> paths = new ArrayList<>();
+                    for (int j = 0; j < 2500; j++)
+                        paths.add(allocator.allocate("a"));
+                    return paths;
+                }));
+            Set<String> paths = new HashSet<>();
+            for (Future<List<String>> future : futures)
+                paths.addAll(future.get());
+            assertEquals(20000, paths.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String nextStorageID() {
+        return "test-" + STORAGE_IDS.incrementAndGet();
+    }
+
+    private static StorageDescriptor descriptor(String storageID, Path sequenceFile) {
+        StorageDescriptor descriptor = new StorageDescriptor(storageID);
+        descriptor.setProperty(ObjectPathAllocator.PROPERTY_UNIQUE_PATH, "true");
+        descriptor.setProperty(ObjectPathAllocator.PROPERTY_NODE_PREFIX, "node1");
+        if (sequenceFile != null)
+            descriptor.setProperty(ObjectPathAllocator.PROPERTY_SEQUENCE_FILE, sequenceFile.toString());
+        return descriptor;
+    }
+
+    private static long sequenceOf(String path) {
+        return Long.parseLong(path.substring(path.lastIndexOf('-') + 1), 16);
+    }
+
+    private static long readSequenceFile(Path file) throws IOException {
+        return Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim());
+    }
+}
@@ -50,14 +50,21 @@ import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.net.service.RetrieveTask;
 import org.dcm4chee.arc.entity.Location;
 import org.dcm4chee.arc.retrieve.InstanceLocations;
+import org.dcm4chee.arc.retrieve.MatchIterator;
 import org.dcm4chee.arc.retrieve.RetrieveContext;
 import org.dcm4chee.arc.retrieve.RetrieveEnd;
 import org.dcm4chee.arc.retrieve.RetrieveStart;
 import org.dcm4chee.arc.store.scu.CStoreSCU;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -67,6 +74,8 @@ import java.util.Set;
 @ApplicationScoped
 public class CStoreSCUImpl implements CStoreSCU {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CStoreSCUImpl.class);
+
     @Inject @RetrieveStart
     private Event<RetrieveContext> retrieveStart;
 
@@ -89,41 +98,78 @@ public class CStoreSCUImpl implements CStoreSCU {
         }
     }
 
+    private List<Association> openAssociations(RetrieveContext ctx) throws DicomServiceException {
+        Association storeas = openAssociation(ctx);
+        int maxAssociations = ctx.getArchiveAEExtension().getArchiveDeviceExtension().getRetrieveAssociations();
+        List<Association> storeass = new ArrayList<>(maxAssociations);
+        storeass.add(storeas);
+        if (maxAssociations > 1) {
+            ApplicationEntity localAE = ctx.getLocalApplicationEntity();
+            AAssociateRQ aarq = createAARQ(ctx);
+            for (int i = 1; i < maxAssociations; i++) {
+                try {
+                    storeass.add(localAE.connect(ctx.getDestinationAE(), aarq));
+                } catch (Exception e) {
+                    LOG.info("{}: failed to open additional association to {} - continue with {} association(s)",
+                            storeas, ctx.getDestinationAETitle(), storeass.size(), e);
+                    break;
+                }
+            }
+        }
+        return storeass;
+    }
+
     private AAssociateRQ createAARQ(RetrieveContext ctx) {
         AAssociateRQ aarq = new AAssociateRQ();
         ApplicationEntity localAE = ctx.getLocalApplicationEntity();
         if (!localAE.isMasqueradeCallingAETitle(ctx.getDestinationAETitle()))
             aarq.setCallingAET(ctx.getLocalAETitle());
-        for (InstanceLocations inst : ctx.getMatches()) {
-            String cuid = inst.getSopClassUID();
-            if (!aarq.containsPresentationContextFor(cuid)) {
-                aarq.addPresentationContextFor(cuid, UID.ImplicitVRLittleEndian);
-                aarq.addPresentationContextFor(cuid, UID.ExplicitVRLittleEndian);
+        MatchIterator matchIterator = ctx.getMatchIterator();
+        if (matchIterator != null) {
+            for (Map.Entry<String, Set<String>> entry : matchIterator.getTransferSyntaxesBySOPClass().entrySet()) {
+                String cuid = entry.getKey();
+                addPresentationContextFor(aarq, cuid);
+                for (String tsuid : entry.getValue())
+                    addPresentationContextFor(aarq, cuid, tsuid);
             }
-            for (Location location : inst.getLocations()) {
-                String tsuid = location.getTransferSyntaxUID();
-                if (!tsuid.equals(UID.ImplicitVRLittleEndian) &&
-                        !tsuid.equals(UID.ExplicitVRLittleEndian))
-                    aarq.addPresentationContextFor(cuid, tsuid);
+        } else {
+            for (InstanceLocations inst : ctx.getMatches()) {
+                String cuid = inst.getSopClassUID();
+                addPresentationContextFor(aarq, cuid);
+                for (Location location : inst.getLocations())
+                    addPresentationContextFor(aarq, cuid, location.getTransferSyntaxUID());
             }
         }
         return aarq;
     }
 
+    private static void addPresentationContextFor(AAssociateRQ aarq, String cuid) {
+        if (!aarq.containsPresentationContextFor(cuid)) {
+            aarq.addPresentationContextFor(cuid, UID.ImplicitVRLittleEndian);
+            aarq.addPresentationContextFor(cuid, UID.ExplicitVRLittleEndian);
+        }
+    }
+
+    private static void addPresentationContextFor(AAssociateRQ aarq, String cuid, String tsuid) {
+        if (!tsuid.equals(UID.ImplicitVRLittleEndian) &&
+                !tsuid.equals(UID.ExplicitVRLittleEndian))
+            aarq.addPresentationContextFor(cuid, tsuid);
+    }
+
     @Override
     public RetrieveTask newRetrieveTaskSTORE(RetrieveContext ctx) throws DicomServiceException {
-        Association storeas = openAssociation(ctx);
-        ctx.setStoreAssociation(storeas);
-        return new RetrieveTaskImpl(ctx, storeas, retrieveStart, retrieveEnd);
+        List<Association> storeass = openAssociations(ctx);
+        ctx.setStoreAssociation(storeass.get(0));
+        return new RetrieveTaskImpl(ctx, storeass, retrieveStart, retrieveEnd);
     }
 
     @Override
     public RetrieveTask newRetrieveTaskMOVE(
             Association as, PresentationContext pc, Attributes rq, RetrieveContext ctx)
             throws DicomServiceException {
-        Association storeas = openAssociation(ctx);
-        ctx.setStoreAssociation(storeas);
-        RetrieveTaskImpl retrieveTask = new RetrieveTaskImpl(ctx, storeas, retrieveStart, retrieveEnd);
+        List<Association> storeass = openAssociations(ctx);
+        ctx.setStoreAssociation(storeass.get(0));
+        RetrieveTaskImpl retrieveTask = new RetrieveTaskImpl(ctx, storeass, retrieveStart, retrieveEnd);
         retrieveTask.setRequestAssociation(Dimse.C_MOVE_RQ, as, pc, rq);
         return retrieveTask;
     }
@@ -52,6 +52,10 @@ import org.dcm4che3.util.ReverseDNS;
 import org.dcm4che3.util.SafeClose;
 import org.dcm4chee.arc.conf.ArchiveAEExtension;
 import org.dcm4chee.arc.conf.Duration;
+import org.dcm4chee.arc.entity.Location;
+import org.dcm4chee.arc.metrics.Counter;
+import org.dcm4chee.arc.metrics.Histogram;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 import org.dcm4chee.arc.retrieve.InstanceLocations;
 import org.dcm4chee.arc.retrieve.RetrieveContext;
 import org.dcm4chee.arc.retrieve.RetrieveService;
@@ -59,9 +63,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.enterprise.event.Event;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -71,10 +84,21 @@ final class RetrieveTaskImpl implements RetrieveTask {
 
     static final Logger LOG = LoggerFactory.getLogger(RetrieveTaskImpl.class);
 
+    private static final long MAX_PREFETCH_OBJECT_SIZE = 16 * 1024 * 1024;
+
+    private static final Counter sentObjects = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_retrieve_sent_objects_total", "Number of objects sent by C-MOVE, C-GET or export");
+    private static final Counter sentBytes = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_retrieve_sent_bytes_total", "Number of bytes sent by C-MOVE, C-GET or export");
+    private static final Histogram sendTime = MetricsRegistry.getDefault().timer(
+            "dcm4chee_arc_retrieve_send_seconds", "Duration of sending objects by C-MOVE, C-GET or export");
+
     private final Event<RetrieveContext> retrieveStart;
     private final Event<RetrieveContext> retrieveEnd;
     private final RetrieveContext ctx;
     private final Association storeas;
+    private final List<Pipeline> pipelines;
+    private final int prefetchSize;
     private final ArchiveAEExtension aeExt;
     private final String hostName;
     private Dimse dimserq;
@@ -84,17 +108,25 @@ final class RetrieveTaskImpl implements RetrieveTask {
     private int msgId;
     private boolean pendingRSP;
     private Duration pendingRSPInterval;
-    private final Collection<InstanceLocations> outstandingRSP =
-            Collections.synchronizedCollection(new ArrayList<InstanceLocations>());
+    private final OutstandingRSP outstandingRSP = new OutstandingRSP();
     private volatile boolean canceled;
 
     RetrieveTaskImpl(RetrieveContext ctx, Association storeas,
                      Event<RetrieveContext> retrieveStart, Event<RetrieveContext> retrieveEnd) {
+        this(ctx, Collections.singletonList(storeas), retrieveStart, retrieveEnd);
+    }
+
+    RetrieveTaskImpl(RetrieveContext ctx, List<Association> storeass,
+                     Event<RetrieveContext> retrieveStart, Event<RetrieveContext> retrieveEnd) {
         this.retrieveStart = retrieveStart;
         this.retrieveEnd = retrieveEnd;
         this.ctx = ctx;
-        this.storeas = storeas;
+        this.storeas = storeass.get(0);
+        this.pipelines = new ArrayList<>(storeass.size());
+        for (Association as : storeass)
+            pipelines.add(new Pipeline(as));
         this.aeExt = ctx.getArchiveAEExtension();
+        this.prefetchSize = aeExt.getArchiveDeviceExtension().getRetrievePrefetchSize();
         this.hostName = ReverseDNS.hostNameOf(storeas.getSocket().getInetAddress());
     }
 
@@ -122,14 +154,16 @@ final class RetrieveTaskImpl implements RetrieveTask {
         try {
             if (ctx.getFallbackAssociation() == null)
                 startWritePendingRSP();
-            for (InstanceLocations match : ctx.getMatches()) {
-                if (canceled)
-                    break;
-                store(match);
-            }
+            Iterator<InstanceLocations> matches = ctx.matches();
+            if (pipelines.size() > 1 || prefetchSize > 0)
+                storeParallel(matches);
+            else
+                while (!canceled && matches.hasNext())
+                    store(matches.next());
             waitForOutstandingCStoreRSP();
         } finally {
             releaseStoreAssociation();
+            logThroughput();
             waitForPendingCMoveForward();
             waitForPendingCStoreForward();
             updateCompleteness();
@@ -144,41 +178,107 @@ final class RetrieveTaskImpl implements RetrieveTask {
     }
 
     private void store(InstanceLocations inst) {
-        CStoreRSPHandler rspHandler = new CStoreRSPHandler(inst);
-        String iuid = inst.getSopInstanceUID();
-        String cuid = inst.getSopClassUID();
-        int priority = ctx.getPriority();
-        Set<String> tsuids = storeas.getTransferSyntaxesFor(cuid);
+        Prefetched prefetched;
+        try {
+            prefetched = open(inst, false);
+        } catch (Exception e) {
+            onFailure(inst, e);
+            return;
+        }
+        pipelines.get(0).store(prefetched);
+    }
+
+    private void storeParallel(Iterator<InstanceLocations> matches) {
+        int capacity = Math.max(prefetchSize, pipelines.size());
+        Semaphore permits = new Semaphore(capacity);
+        BlockingQueue<Prefetched> queue = new LinkedBlockingQueue<>();
+        Device device = ctx.getLocalApplicationEntity().getDevice();
+        for (Pipeline pipeline : pipelines)
+            device.execute(() -> pipeline.send(queue, permits));
         try {
-            if (tsuids.isEmpty()) {
-                throw new NoPresentationContextException(cuid);
+            while (!canceled && matches.hasNext()) {
+                permits.acquire();
+                InstanceLocations inst = matches.next();
+                device.execute(() -> prefetch(inst, queue, permits));
             }
-            RetrieveService service = ctx.getRetrieveService();
-            try (Transcoder transcoder = service.openTranscoder(ctx, inst, tsuids, false)) {
-                String tsuid = transcoder.getDestinationTransferSyntax();
-                AttributesCoercion coerce = service.getAttributesCoercion(ctx, inst);
-                if (coerce != null)
-                    iuid = coerce.remapUID(iuid);
-
-                DataWriter data = new TranscoderDataWriter(transcoder, coerce);
-                outstandingRSP.add(inst);
-                if (ctx.getMoveOriginatorAETitle() != null) {
-                    storeas.cstore(cuid, iuid, priority,
-                            ctx.getMoveOriginatorAETitle(), ctx.getMoveOriginatorMessageID(),
-                            data, tsuid, rspHandler);
-                } else {
-                    storeas.cstore(cuid, iuid, priority,
-                            data, tsuid, rspHandler);
-                }
+            permits.acquire(capacity);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("{}: interrupted while sending objects to {}:", rqas != null ? rqas : storeas,
+                    ctx.getDestinationAETitle(), e);
+        } finally {
+            for (int i = pipelines.size(); i > 0; i--)
+                queue.offer(Prefetched.END);
+        }
+    }
+
+    private void prefetch(InstanceLocations inst, BlockingQueue<Prefetched> queue, Semaphore permits) {
+        try {
+            queue.offer(open(inst,
+                    prefetchSize > 0 && !canceled && estimatedSizeOf(inst) <= MAX_PREFETCH_OBJECT_SIZE));
+        } catch (Exception e) {
+            onFailure(inst, e);
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns the maximum of the stored size and the size of the uncompressed pixel data, which is the size of
+     * the object if it has to be decompressed for the negotiated Transfer Syntax.
+     */
+    private static long estimatedSizeOf(InstanceLocations inst) {
+        long size = 0L;
+        for (Location location : inst.getLocations())
+            size = Math.max(size, location.getSize());
+        Attributes attrs = inst.getAttributes();
+        return Math.max(size, (long) attrs.getInt(Tag.Rows, 0)
+                * attrs.getInt(Tag.Columns, 0)
+                * attrs.getInt(Tag.SamplesPerPixel, 1)
+                * ((attrs.getInt(Tag.BitsAllocated, 8) + 7) / 8)
+                * attrs.getInt(Tag.NumberOfFrames, 1));
+    }
+
+    private Prefetched open(InstanceLocations inst, boolean transcodeAhead) throws Exception {
+        String cuid = inst.getSopClassUID();
+        Set<String> tsuids = transferSyntaxesFor(cuid);
+        if (tsuids.isEmpty()) {
+            throw new NoPresentationContextException(cuid);
+        }
+        RetrieveService service = ctx.getRetrieveService();
+        Transcoder transcoder = service.openTranscoder(ctx, inst, tsuids, false);
+        try {
+            AttributesCoercion coerce = service.getAttributesCoercion(ctx, inst);
+            Prefetched prefetched = new Prefetched(inst, coerce.remapUID(inst.getSopInstanceUID()),
+                    transcoder, coerce);
+            if (transcodeAhead && !prefetched.transcode(MAX_PREFETCH_OBJECT_SIZE)) {
+                LOG.debug("{}: {} exceeds {} bytes after transcoding - send it without prefetch",
+                        rqas != null ? rqas : storeas, inst, MAX_PREFETCH_OBJECT_SIZE);
+                return open(inst, false);
             }
+            return prefetched;
         } catch (Exception e) {
-            outstandingRSP.remove(inst);
-            ctx.incrementFailed();
-            ctx.addFailedSOPInstanceUID(iuid);
-            LOG.warn("{}: failed to send {} to {}:", rqas != null ? rqas : storeas, inst, ctx.getDestinationAETitle(), e);
+            SafeClose.close(transcoder);
+            throw e;
         }
     }
 
+    private Set<String> transferSyntaxesFor(String cuid) {
+        Set<String> tsuids = storeas.getTransferSyntaxesFor(cuid);
+        if (pipelines.size() == 1)
+            return tsuids;
+
+        tsuids = new HashSet<>(tsuids);
+        for (Pipeline pipeline : pipelines)
+            tsuids.retainAll(pipeline.as.getTransferSyntaxesFor(cuid));
+        return tsuids;
+    }
+
+    private void onFailure(InstanceLocations inst, Exception e) {
+        ctx.incrementFailed();
+        ctx.addFailedSOPInstanceUID(inst.getSopInstanceUID());
+        LOG.warn("{}: failed to send {} to {}:", rqas != null ? rqas : storeas, inst, ctx.getDestinationAETitle(), e);
+    }
+
     private void writeFinalRSP() {
         ctx.addFailed(ctx.remaining());
         writeRSP(ctx.status(), 0, finalRSPDataset());
@@ -249,13 +349,11 @@ final class RetrieveTaskImpl implements RetrieveTask {
 
     private void waitForOutstandingCStoreRSP() {
         try {
-            synchronized (outstandingRSP) {
-                while (!outstandingRSP.isEmpty())
-                    outstandingRSP.wait();
-            }
+            outstandingRSP.await();
         } catch (InterruptedException e) {
-            LOG.warn("{}: failed to wait for outstanding C-STORE RSP(s) on association to {}",
-                    rqas, storeas.getRemoteAET(), e);
+            Thread.currentThread().interrupt();
+            LOG.warn("{}: failed to wait for {} outstanding C-STORE RSP(s) on association to {}",
+                    rqas, outstandingRSP.get(), storeas.getRemoteAET(), e);
         }
     }
 
@@ -273,28 +371,216 @@ final class RetrieveTaskImpl implements RetrieveTask {
             ctx.getRetrieveService().updateCompleteness(ctx);
     }
 
-    private void removeOutstandingRSP(InstanceLocations inst) {
-        outstandingRSP.remove(inst);
-        synchronized (outstandingRSP) {
-            outstandingRSP.notify();
+    protected void releaseStoreAssociation() {
+        if (dimserq != Dimse.C_GET_RQ)
+            for (Pipeline pipeline : pipelines)
+                try {
+                    pipeline.as.release();
+                } catch (IOException e) {
+                    LOG.warn("{}: failed to release association to {}", rqas, pipeline.as.getRemoteAET(), e);
+                }
+    }
+
+    private void logThroughput() {
+        for (Pipeline pipeline : pipelines)
+            pipeline.logThroughput();
+    }
+
+    private final class Pipeline {
+
+        private final Association as;
+        private final AtomicLong objects = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        Pipeline(Association as) {
+            this.as = as;
+        }
+
+        void send(BlockingQueue<Prefetched> queue, Semaphore permits) {
+            try {
+                Prefetched prefetched;
+                while ((prefetched = queue.take()) != Prefetched.END) {
+                    try {
+                        if (canceled)
+                            SafeClose.close(prefetched);
+                        else
+                            store(prefetched);
+                    } finally {
+                        permits.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("{}: interrupted while sending objects to {}:", as, ctx.getDestinationAETitle(), e);
+            }
+        }
+
+        void store(Prefetched prefetched) {
+            InstanceLocations inst = prefetched.inst;
+            CStoreRSPHandler rspHandler = new CStoreRSPHandler(as, inst);
+            String cuid = inst.getSopClassUID();
+            int priority = ctx.getPriority();
+            long start = System.nanoTime();
+            try {
+                outstandingRSP.increment();
+                if (ctx.getMoveOriginatorAETitle() != null) {
+                    as.cstore(cuid, prefetched.iuid, priority,
+                            ctx.getMoveOriginatorAETitle(), ctx.getMoveOriginatorMessageID(),
+                            prefetched, prefetched.tsuid, rspHandler);
+                } else {
+                    as.cstore(cuid, prefetched.iuid, priority,
+                            prefetched, prefetched.tsuid, rspHandler);
+                }
+                objects.getAndIncrement();
+                bytes.getAndAdd(prefetched.length);
+                sentObjects.inc();
+                sentBytes.add(prefetched.length);
+            } catch (Exception e) {
+                rspHandler.removeOutstandingRSP();
+                ctx.incrementFailed();
+                ctx.addFailedSOPInstanceUID(prefetched.iuid);
+                LOG.warn("{}: failed to send {} to {}:", rqas != null ? rqas : as, inst, ctx.getDestinationAETitle(), e);
+            } finally {
+                SafeClose.close(prefetched);
+                nanos.getAndAdd(System.nanoTime() - start);
+                sendTime.recordSince(start);
+            }
+        }
+
+        void logThroughput() {
+            long n = objects.get();
+            if (n == 0)
+                return;
+
+            long b = bytes.get();
+            long ms = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(nanos.get()));
+            LOG.info("{}: sent {} objects ({} bytes) to {} in {} ms ({} KB/s)",
+                    as, n, b, ctx.getDestinationAETitle(), ms, b / ms);
         }
     }
 
-    protected void releaseStoreAssociation() {
-        if (dimserq != Dimse.C_GET_RQ)
+    private static final class Prefetched implements DataWriter, Closeable {
+
+        static final Prefetched END = new Prefetched(null, null, null, null);
+
+        final InstanceLocations inst;
+        final String iuid;
+        final String tsuid;
+        private final AttributesCoercion coerce;
+        private Transcoder transcoder;
+        private ByteArrayOutputStream transcoded;
+        private long length;
+
+        Prefetched(InstanceLocations inst, String iuid, Transcoder transcoder, AttributesCoercion coerce) {
+            this.inst = inst;
+            this.iuid = iuid;
+            this.transcoder = transcoder;
+            this.coerce = coerce;
+            this.tsuid = transcoder != null ? transcoder.getDestinationTransferSyntax() : null;
+        }
+
+        /**
+         * Transcodes the object into memory. Returns {@code false} and closes the transcoder, if the transcoded
+         * object exceeds {@code maxSize} bytes.
+         */
+        boolean transcode(long maxSize) throws IOException {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
             try {
-                storeas.release();
-            } catch (IOException e) {
-                LOG.warn("{}: failed to release association to {}", rqas, storeas.getRemoteAET(), e);
+                transcoder.transcode((t, dataset) -> {
+                    coerce.coerce(dataset, null);
+                    return new LimitedOutputStream(bout, maxSize);
+                });
+            } catch (LimitExceededException e) {
+                close(transcoder);
+                return false;
+            }
+            transcoded = bout;
+            close(transcoder);
+            return true;
+        }
+
+        @Override
+        public void writeTo(PDVOutputStream out, String tsuid) throws IOException {
+            if (transcoded != null) {
+                transcoded.writeTo(out);
+                length = transcoded.size();
+                return;
             }
+            transcoder.setDestinationTransferSyntax(tsuid);
+            transcoder.transcode((t, dataset) -> {
+                coerce.coerce(dataset, null);
+                return new FilterOutputStream(out) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        length++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        length += len;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            transcoded = null;
+            close(transcoder);
+        }
+
+        private void close(Transcoder transcoder) throws IOException {
+            this.transcoder = null;
+            if (transcoder != null)
+                transcoder.close();
+        }
+    }
+
+    private static final class LimitExceededException extends IOException {
+    }
+
+    private static final class LimitedOutputStream extends FilterOutputStream {
+
+        private long remaining;
+
+        LimitedOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (--remaining < 0)
+                throw new LimitExceededException();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if ((remaining -= len) < 0)
+                throw new LimitExceededException();
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+        }
     }
 
     private final class CStoreRSPHandler extends DimseRSPHandler {
 
         private final InstanceLocations inst;
+        private final AtomicBoolean outstanding = new AtomicBoolean(true);
 
-        public CStoreRSPHandler(InstanceLocations inst) {
-            super(storeas.nextMessageID());
+        public CStoreRSPHandler(Association as, InstanceLocations inst) {
+            super(as.nextMessageID());
             this.inst = inst;
         }
 
@@ -312,15 +598,19 @@ final class RetrieveTaskImpl implements RetrieveTask {
             }
             if (pendingRSP)
                 writePendingRSP();
-            removeOutstandingRSP(inst);
+            removeOutstandingRSP();
         }
 
         @Override
         public void onClose(Association as) {
             super.onClose(as);
-            removeOutstandingRSP(inst);
+            removeOutstandingRSP();
+        }
+
+        void removeOutstandingRSP() {
+            if (outstanding.compareAndSet(true, false))
+                outstandingRSP.decrement();
         }
     }
 
 }
-
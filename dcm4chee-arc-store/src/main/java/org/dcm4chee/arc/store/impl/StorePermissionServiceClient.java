@@ -0,0 +1,309 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.store.impl;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.util.AttributesFormat;
+import org.dcm4chee.arc.StorePermission;
+import org.dcm4chee.arc.StorePermissionCache;
+import org.dcm4chee.arc.conf.ArchiveAEExtension;
+import org.dcm4chee.arc.entity.Patient;
+import org.dcm4chee.arc.metrics.Counter;
+import org.dcm4chee.arc.metrics.Histogram;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
+import org.dcm4chee.arc.store.StoreContext;
+import org.dcm4chee.arc.store.StoreService;
+import org.dcm4chee.arc.store.StoreSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Response;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Queries the Store Permission Service over a pool of reused HTTP clients, keeping their connections alive between
+ * requests. The number of concurrent requests is limited by the Store Permission Service Max Connections. Results
+ * are cached in {@link StorePermissionCache}, which also ensures that concurrent queries for the same URL are
+ * coalesced into one request. Queries for the first object of a Study may be issued asynchronously before the Study
+ * is created in the database, using only the attributes of the received object.
+ *
+ * @since Apr 2018
+ */
+@ApplicationScoped
+public class StorePermissionServiceClient {
+    private static final Logger LOG = LoggerFactory.getLogger(StorePermissionServiceClient.class);
+
+    private static final Counter queries = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_store_permission_queries_total", "Number of queries of the Store Permission Service");
+    private static final Counter failures = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_store_permission_failures_total",
+            "Number of failed queries of the Store Permission Service");
+    private static final Counter prefetches = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_store_permission_prefetches_total",
+            "Number of prefetched queries of the Store Permission Service");
+    private static final Histogram latency = MetricsRegistry.getDefault().timer(
+            "dcm4chee_arc_store_permission_latency_seconds", "Latency of queries of the Store Permission Service");
+
+    @Inject
+    private StorePermissionCache storePermissionCache;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    private final BlockingQueue<Client> idleClients = new LinkedBlockingQueue<>();
+    private final ConcurrentHashMap<String, Boolean> prefetching = new ConcurrentHashMap<>();
+    private Semaphore connections;
+    private int maxConnections;
+
+    @PreDestroy
+    public void close() {
+        Client client;
+        while ((client = idleClients.poll()) != null)
+            client.close();
+    }
+
+    /**
+     * Returns the Store Permission for the object with attributes {@code attrs}, which are supplemented by the
+     * attributes of the Patient {@code pat} in the database, if not {@code null}.
+     */
+    public StorePermission storePermission(StoreSession session, Attributes attrs, Patient pat)
+            throws DicomServiceException {
+        String serviceURL = session.getArchiveAEExtension().storePermissionServiceURL();
+        if (serviceURL == null)
+            return null;
+
+        return storePermissionCache.get(urlspec(serviceURL, attrs, pat), url -> queryStorePermission(session, url));
+    }
+
+    /**
+     * Queries the Store Permission Service asynchronously for the first object of a Study received by the session,
+     * with the URL formatted from the attributes of the object only. The prefetched result is used for the object,
+     * if the URL formatted with the attributes of the Patient in the database does not differ.
+     */
+    public void prefetch(StoreContext ctx) {
+        StoreSession session = ctx.getStoreSession();
+        ArchiveAEExtension arcAE = session.getArchiveAEExtension();
+        String serviceURL = arcAE.storePermissionServiceURL();
+        if (serviceURL == null
+                || !arcAE.getArchiveDeviceExtension().isStorePermissionServicePrefetch()
+                || session.getCachedStudy(ctx.getStudyInstanceUID()) != null)
+            return;
+
+        String urlspec;
+        try {
+            urlspec = urlspec(serviceURL, ctx.getAttributes(), null);
+        } catch (RuntimeException e) {
+            LOG.info("{}: Failed to prefetch result of Query Store Permission Service:\n", session, e);
+            return;
+        }
+        if (prefetching.putIfAbsent(urlspec, Boolean.TRUE) != null)
+            return;
+
+        LOG.debug("{}: Prefetch result of Query Store Permission Service {}", session, urlspec);
+        prefetches.inc();
+        try {
+            executor.execute(() -> {
+                try {
+                    storePermissionCache.get(urlspec, url -> queryStorePermission(session, url));
+                } catch (DicomServiceException e) {
+                    // already logged by queryStorePermission
+                } finally {
+                    prefetching.remove(urlspec);
+                }
+            });
+        } catch (RuntimeException e) {
+            prefetching.remove(urlspec);
+            LOG.info("{}: Failed to prefetch result of Query Store Permission Service {}:\n", session, urlspec, e);
+        }
+    }
+
+    private static String urlspec(String serviceURL, Attributes attrs, Patient pat) {
+        if (pat != null)
+            attrs.addAll(pat.getAttributes());
+        return new AttributesFormat(serviceURL).format(attrs);
+    }
+
+    StorePermission queryStorePermission(StoreSession session, String urlspec) throws DicomServiceException {
+        LOG.info("{}: Query Store Permission Service {}", session, urlspec);
+        LocalDate expirationDate = null;
+        DicomServiceException exception = null;
+        long start = System.nanoTime();
+        queries.inc();
+        Semaphore connections = acquireConnection(session);
+        Client client = borrowClient();
+        try {
+            Response resp = client.target(urlspec).request().get();
+            try {
+                Pattern responsePattern = session.getArchiveAEExtension().storePermissionServiceResponsePattern();
+                switch (resp.getStatus()) {
+                    case 200:
+                        String responseContent = resp.readEntity(String.class);
+                        LOG.debug("{}: Store Permission Service {} response:\n{}", session, urlspec, responseContent);
+                        if (responsePattern == null || responsePattern.matcher(responseContent).find() )
+                            expirationDate = selectExpirationDate(session, urlspec, responseContent);
+                        else
+                            exception = selectErrorCodeComment(session, urlspec, responseContent);
+                        break;
+                    case 204:
+                        if (responsePattern == null)
+                            break;
+                    default:
+                        exception = new DicomServiceException(Status.NotAuthorized, StoreService.NOT_AUTHORIZED);
+                        break;
+                }
+            } finally {
+                resp.close();
+            }
+            returnClient(session, client);
+        } catch (Exception e) {
+            client.close();
+            failures.inc();
+            LOG.warn("{}: Failed to query Store Permission Service {}:\n", session, urlspec, e);
+            throw new DicomServiceException(Status.ProcessingFailure,
+                    StoreService.FAILED_TO_QUERY_STORE_PERMISSION_SERVICE);
+        } finally {
+            connections.release();
+            latency.recordSince(start);
+        }
+        StorePermission result = new StorePermission(expirationDate, exception);
+        LOG.info("{}: Store Permission Service {} returns {} in {} ms",
+                session, urlspec, result, (System.nanoTime() - start) / 1000000);
+        return result;
+    }
+
+    private Semaphore acquireConnection(StoreSession session) throws DicomServiceException {
+        Semaphore connections = connections(session.getArchiveAEExtension().getArchiveDeviceExtension()
+                .getStorePermissionServiceMaxConnections());
+        try {
+            connections.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DicomServiceException(Status.ProcessingFailure,
+                    StoreService.FAILED_TO_QUERY_STORE_PERMISSION_SERVICE);
+        }
+        return connections;
+    }
+
+    private synchronized Semaphore connections(int maxConnections) {
+        if (connections == null || this.maxConnections != maxConnections) {
+            connections = new Semaphore(maxConnections);
+            this.maxConnections = maxConnections;
+        }
+        return connections;
+    }
+
+    private Client borrowClient() {
+        Client client = idleClients.poll();
+        return client != null ? client : ClientBuilder.newBuilder().build();
+    }
+
+    private void returnClient(StoreSession session, Client client) {
+        if (idleClients.size() < session.getArchiveAEExtension().getArchiveDeviceExtension()
+                .getStorePermissionServiceMaxConnections())
+            idleClients.offer(client);
+        else
+            client.close();
+    }
+
+    private static LocalDate selectExpirationDate(StoreSession session, String url, String response) {
+        Pattern pattern = session.getArchiveAEExtension().storePermissionServiceExpirationDatePattern();
+        if (pattern != null) {
+            Matcher matcher = pattern.matcher(response);
+            if (matcher.find()) {
+                String s = matcher.group(1);
+                try {
+                    return LocalDate.parse(s, DateTimeFormatter.BASIC_ISO_DATE);
+                } catch (DateTimeParseException e) {
+                    LOG.warn("{}: Store Permission Service {} returns invalid Expiration Date: {} - ignored",
+                            session, url, s);
+                }
+            } else
+                LOG.info("{}: Store Permission Service {} response does not contains expiration date", session, url);
+        }
+        return null;
+    }
+
+    private static String selectErrorComment(StoreSession session, String url, String response, Pattern pattern) {
+        if (pattern != null) {
+            Matcher matcher = pattern.matcher(response);
+            if (matcher.find())
+                return matcher.group(1);
+            else
+                LOG.info("{}: Store Permission Service {} response does not contain error comment", session, url);
+        }
+        return StoreService.NOT_AUTHORIZED;
+    }
+
+    private static int selectErrorCode(StoreSession session, String url, String response, Pattern pattern) {
+        if (pattern != null) {
+            Matcher matcher = pattern.matcher(response);
+            if (matcher.find())
+                return Integer.parseInt(matcher.group(1), 16);
+            else
+                LOG.info("{}: Store Permission Service {} response does not contain error code ", session, url);
+        }
+        return Status.NotAuthorized;
+    }
+
+    private static DicomServiceException selectErrorCodeComment(StoreSession session, String url, String response) {
+        ArchiveAEExtension arcAE = session.getArchiveAEExtension();
+        return new DicomServiceException(
+                selectErrorCode(session, url, response, arcAE.storePermissionServiceErrorCodePattern()),
+                selectErrorComment(session, url, response, arcAE.storePermissionServiceErrorCommentPattern()));
+    }
+}
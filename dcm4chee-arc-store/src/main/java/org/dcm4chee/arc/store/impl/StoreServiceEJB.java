@@ -47,12 +47,10 @@ import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.soundex.FuzzyStr;
-import org.dcm4che3.util.AttributesFormat;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4che3.util.TagUtils;
 import org.dcm4chee.arc.MergeMWLQueryParam;
 import org.dcm4chee.arc.StorePermission;
-import org.dcm4chee.arc.StorePermissionCache;
 import org.dcm4chee.arc.code.CodeCache;
 import org.dcm4chee.arc.conf.*;
 import org.dcm4chee.arc.entity.*;
@@ -76,18 +74,12 @@ import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
 import javax.servlet.http.HttpServletRequest;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.MessageFormat;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -119,7 +111,7 @@ public class StoreServiceEJB {
     private PatientService patientService;
 
     @Inject
-    private StorePermissionCache storePermissionCache;
+    private StorePermissionServiceClient storePermissionServiceClient;
 
     @Inject
     private IDService idService;
@@ -668,29 +660,31 @@ public class StoreServiceEJB {
         ArchiveDeviceExtension arcDev = arcAE.getArchiveDeviceExtension();
         AttributeFilter filter = arcDev.getAttributeFilter(Entity.Patient);
         Attributes attrs = pat.getAttributes();
-        UpdateInfo updateInfo = new UpdateInfo(attrs);
-        if (!attrs.updateSelected(updatePolicy, ctx.getAttributes(), null, filter.getSelection()))
-            return pat;
-
-        updateInfo.log(session, pat, attrs);
-        pat = em.find(Patient.class, pat.getPk());
-        IDWithIssuer idWithIssuer = IDWithIssuer.pidOf(attrs);
-        if (idWithIssuer != null) {
-            Issuer issuer = idWithIssuer.getIssuer();
-            if (issuer != null) {
-                PatientID patientID = pat.getPatientID();
-                IssuerEntity issuerEntity = patientID.getIssuer();
-                if (issuerEntity == null)
-                    patientID.setIssuer(issuerService.mergeOrCreate(issuer));
-                else
-                    issuerEntity.merge(issuer);
+        synchronized (attrs) {
+            UpdateInfo updateInfo = new UpdateInfo(attrs);
+            if (!attrs.updateSelected(updatePolicy, ctx.getAttributes(), null, filter.getSelection()))
+                return pat;
+
+            updateInfo.log(session, pat, attrs);
+            pat = em.find(Patient.class, pat.getPk());
+            IDWithIssuer idWithIssuer = IDWithIssuer.pidOf(attrs);
+            if (idWithIssuer != null) {
+                Issuer issuer = idWithIssuer.getIssuer();
+                if (issuer != null) {
+                    PatientID patientID = pat.getPatientID();
+                    IssuerEntity issuerEntity = patientID.getIssuer();
+                    if (issuerEntity == null)
+                        patientID.setIssuer(issuerService.mergeOrCreate(issuer));
+                    else
+                        issuerEntity.merge(issuer);
+                }
             }
+            pat.setAttributes(attrs, filter, arcDev.getFuzzyStr());
+            em.createNamedQuery(Series.SCHEDULE_METADATA_UPDATE_FOR_PATIENT)
+                    .setParameter(1, pat)
+                    .executeUpdate();
+            return pat;
         }
-        pat.setAttributes(attrs, filter, arcDev.getFuzzyStr());
-        em.createNamedQuery(Series.SCHEDULE_METADATA_UPDATE_FOR_PATIENT)
-                .setParameter(1, pat)
-                .executeUpdate();
-        return pat;
     }
 
     private Study updateStudy(StoreContext ctx, Study study) {
@@ -703,20 +697,22 @@ public class StoreServiceEJB {
         ArchiveDeviceExtension arcDev = arcAE.getArchiveDeviceExtension();
         AttributeFilter filter = arcDev.getAttributeFilter(Entity.Study);
         Attributes attrs = study.getAttributes();
-        UpdateInfo updateInfo = new UpdateInfo(attrs);
-        if (!attrs.updateSelected(updatePolicy, ctx.getAttributes(), updateInfo.modified,
-                filter.getSelection()))
+        synchronized (attrs) {
+            UpdateInfo updateInfo = new UpdateInfo(attrs);
+            if (!attrs.updateSelected(updatePolicy, ctx.getAttributes(), updateInfo.modified,
+                    filter.getSelection()))
+                return study;
+
+            updateInfo.log(session, study, attrs);
+            study = em.find(Study.class, study.getPk());
+            study.setAttributes(attrs, filter, arcDev.getFuzzyStr());
+            study.setIssuerOfAccessionNumber(findOrCreateIssuer(attrs, Tag.IssuerOfAccessionNumberSequence));
+            setCodes(study.getProcedureCodes(), attrs, Tag.ProcedureCodeSequence);
+            em.createNamedQuery(Series.SCHEDULE_METADATA_UPDATE_FOR_STUDY)
+                    .setParameter(1, study)
+                    .executeUpdate();
             return study;
-
-        updateInfo.log(session, study, attrs);
-        study = em.find(Study.class, study.getPk());
-        study.setAttributes(attrs, filter, arcDev.getFuzzyStr());
-        study.setIssuerOfAccessionNumber(findOrCreateIssuer(attrs, Tag.IssuerOfAccessionNumberSequence));
-        setCodes(study.getProcedureCodes(), attrs, Tag.ProcedureCodeSequence);
-        em.createNamedQuery(Series.SCHEDULE_METADATA_UPDATE_FOR_STUDY)
-                .setParameter(1, study)
-                .executeUpdate();
-        return study;
+        }
     }
 
     private Series updateSeries(StoreContext ctx, Series series) {
@@ -729,17 +725,20 @@ public class StoreServiceEJB {
             return series;
 
         Attributes attrs = series.getAttributes();
-        UpdateInfo updateInfo = new UpdateInfo(attrs);
-        if (!attrs.updateSelected(updatePolicy, ctx.getAttributes(), updateInfo.modified, filter.getSelection()))
+        // cached Series may be shared by concurrent stores of the same Store Session
+        synchronized (attrs) {
+            UpdateInfo updateInfo = new UpdateInfo(attrs);
+            if (!attrs.updateSelected(updatePolicy, ctx.getAttributes(), updateInfo.modified, filter.getSelection()))
+                return series;
+
+            updateInfo.log(session, series, attrs);
+            series = em.find(Series.class, series.getPk());
+            FuzzyStr fuzzyStr = arcDev.getFuzzyStr();
+            series.setAttributes(attrs, arcDev.getAttributeFilter(Entity.Series), fuzzyStr);
+            series.setInstitutionCode(findOrCreateCode(attrs, Tag.InstitutionCodeSequence));
+            setRequestAttributes(series, attrs, fuzzyStr);
             return series;
-
-        updateInfo.log(session, series, attrs);
-        series = em.find(Series.class, series.getPk());
-        FuzzyStr fuzzyStr = arcDev.getFuzzyStr();
-        series.setAttributes(attrs, arcDev.getAttributeFilter(Entity.Series), fuzzyStr);
-        series.setInstitutionCode(findOrCreateCode(attrs, Tag.InstitutionCodeSequence));
-        setRequestAttributes(series, attrs, fuzzyStr);
-        return series;
+        }
     }
 
     public List<Attributes> queryMWL(StoreContext ctx, MergeMWLQueryParam queryParam) {
@@ -937,109 +936,17 @@ public class StoreServiceEJB {
 
     private void checkStorePermission(StoreContext ctx, Patient pat) throws DicomServiceException {
         StoreSession session = ctx.getStoreSession();
-        String serviceURL = session.getArchiveAEExtension().storePermissionServiceURL();
-        if (serviceURL == null)
+        if (session.getArchiveAEExtension().storePermissionServiceURL() == null)
             return;
 
-        Attributes attrs = ctx.getAttributes();
-        if (pat != null)
-            attrs.addAll(pat.getAttributes());
-        String urlspec = new AttributesFormat(serviceURL).format(attrs);
-        StorePermission storePermission = storePermissionCache.get(urlspec);
-        if (storePermission == null) {
-            storePermission = queryStorePermission(session, urlspec);
-            storePermissionCache.put(urlspec, storePermission);
-        } else
-            LOG.debug("{}: Use cached result of Query Store Permission Service {} - {}",
-                    session, urlspec, storePermission);
-
+        StorePermission storePermission =
+                storePermissionServiceClient.storePermission(session, ctx.getAttributes(), pat);
         if (storePermission.exception != null)
             throw storePermission.exception;
 
         ctx.setExpirationDate(storePermission.expirationDate);
     }
 
-    private StorePermission queryStorePermission(StoreSession session, String urlspec) throws DicomServiceException {
-        LOG.info("{}: Query Store Permission Service {}", session, urlspec);
-        LocalDate expirationDate = null;
-        DicomServiceException exception = null;
-        try {
-            WebTarget target = ClientBuilder.newBuilder().build().target(urlspec);
-            Response resp = target.request().get();
-            Pattern responsePattern = session.getArchiveAEExtension().storePermissionServiceResponsePattern();
-            switch (resp.getStatus()) {
-                case 200:
-                    String responseContent = resp.readEntity(String.class);
-                    LOG.debug("{}: Store Permission Service {} response:\n{}", session, urlspec, responseContent);
-                    if (responsePattern == null || responsePattern.matcher(responseContent).find() )
-                        expirationDate = selectExpirationDate(session, urlspec, responseContent);
-                    else
-                        exception = selectErrorCodeComment(session, urlspec, responseContent);
-                    break;
-                case 204:
-                    if (responsePattern == null)
-                        break;
-                default:
-                    exception = new DicomServiceException(Status.NotAuthorized, StoreService.NOT_AUTHORIZED);
-                    break;
-            }
-        } catch (Exception e) {
-            LOG.warn("{}: Failed to query Store Permission Service {}:\n", session, urlspec, e);
-            throw new DicomServiceException(Status.ProcessingFailure,
-                    StoreService.FAILED_TO_QUERY_STORE_PERMISSION_SERVICE);
-        }
-        StorePermission result = new StorePermission(expirationDate, exception);
-        LOG.info("{}: Store Permission Service {} returns {}", session, urlspec, result);
-        return result;
-    }
-
-    private LocalDate selectExpirationDate(StoreSession session, String url, String response) {
-        Pattern pattern = session.getArchiveAEExtension().storePermissionServiceExpirationDatePattern();
-        if (pattern != null) {
-            Matcher matcher = pattern.matcher(response);
-            if (matcher.find()) {
-                String s = matcher.group(1);
-                try {
-                    return LocalDate.parse(s, DateTimeFormatter.BASIC_ISO_DATE);
-                } catch (DateTimeParseException e) {
-                    LOG.warn("{}: Store Permission Service {} returns invalid Expiration Date: {} - ignored",
-                            session, url, s);
-                }
-            } else
-                LOG.info("{}: Store Permission Service {} response does not contains expiration date", session, url);
-        }
-        return null;
-    }
-
-    private String selectErrorComment(StoreSession session, String url, String response, Pattern pattern) {
-        if (pattern != null) {
-            Matcher matcher = pattern.matcher(response);
-            if (matcher.find())
-                return matcher.group(1);
-            else
-                LOG.info("{}: Store Permission Service {} response does not contain error comment", session, url);
-        }
-        return StoreService.NOT_AUTHORIZED;
-    }
-
-    private int selectErrorCode(StoreSession session, String url, String response, Pattern pattern) {
-        if (pattern != null) {
-            Matcher matcher = pattern.matcher(response);
-            if (matcher.find())
-                return Integer.parseInt(matcher.group(1), 16);
-            else
-                LOG.info("{}: Store Permission Service {} response does not contain error code ", session, url);
-        }
-        return Status.NotAuthorized;
-    }
-
-    private DicomServiceException selectErrorCodeComment(StoreSession session, String url, String response) {
-        ArchiveAEExtension arcAE = session.getArchiveAEExtension();
-        return new DicomServiceException(
-                selectErrorCode(session, url, response, arcAE.storePermissionServiceErrorCodePattern()),
-                selectErrorComment(session, url, response, arcAE.storePermissionServiceErrorCommentPattern()));
-    }
-
     private void setStudyAttributes(StoreContext ctx, Study study) {
         ArchiveAEExtension arcAE = ctx.getStoreSession().getArchiveAEExtension();
         ArchiveDeviceExtension arcDev = arcAE.getArchiveDeviceExtension();
@@ -56,12 +56,14 @@ import org.dcm4che3.net.hl7.UnparsedHL7Message;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4che3.util.UIDUtils;
-import org.dcm4chee.arc.Cache;
 import org.dcm4chee.arc.MergeMWLQueryParam;
 import org.dcm4chee.arc.MergeMWLCache;
 import org.dcm4chee.arc.conf.*;
 import org.dcm4chee.arc.entity.*;
 import org.dcm4chee.arc.event.SoftwareConfiguration;
+import org.dcm4chee.arc.metrics.Counter;
+import org.dcm4chee.arc.metrics.Histogram;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
 import org.dcm4chee.arc.mima.SupplementAssigningAuthorities;
 import org.dcm4chee.arc.retrieve.InstanceLocations;
 import org.dcm4chee.arc.retrieve.RetrieveContext;
@@ -104,6 +106,15 @@ class StoreServiceImpl implements StoreService {
     static final Logger LOG = LoggerFactory.getLogger(StoreServiceImpl.class);
     static final int DIFF_STUDY_INSTANCE_UID = 0xC409;
 
+    private final Histogram storeTime = MetricsRegistry.getDefault().timer(
+            "dcm4chee_arc_store_seconds", "Duration of storing objects");
+    private final Histogram updateDBTime = MetricsRegistry.getDefault().timer(
+            "dcm4chee_arc_store_update_db_seconds", "Duration of updating the DB for stored objects, including retries");
+    private final Counter storeFailures = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_store_failures_total", "Number of failed stores of objects");
+    private final Counter updateDBRetries = MetricsRegistry.getDefault().counter(
+            "dcm4chee_arc_store_update_db_retries_total", "Number of retries to update the DB for stored objects");
+
     @Inject
     private DicomConfiguration conf;
 
@@ -125,6 +136,9 @@ class StoreServiceImpl implements StoreService {
     @Inject
     private MergeMWLCache mergeMWLCache;
 
+    @Inject
+    private StorePermissionServiceClient storePermissionServiceClient;
+
     @Override
     public StoreSession newStoreSession(Association as) {
         StoreSessionImpl session = new StoreSessionImpl(this);
@@ -167,6 +181,7 @@ class StoreServiceImpl implements StoreService {
 
     @Override
     public void store(StoreContext ctx, InputStream data) throws IOException {
+        long startTime = System.nanoTime();
         UpdateDBResult result = null;
         List<File> bulkDataFiles = Collections.emptyList();
         try {
@@ -201,6 +216,7 @@ class StoreServiceImpl implements StoreService {
             checkCharacterSet(ctx);
             storeMetadata(ctx);
             coerceAttributes(ctx);
+            storePermissionServiceClient.prefetch(ctx);
             result = updateDB(ctx);
             postUpdateDB(ctx, result);
         } catch (DicomServiceException e) {
@@ -215,35 +231,61 @@ class StoreServiceImpl implements StoreService {
                 tmpFile.delete();
             revokeStorage(ctx, result);
             storeEvent.fire(ctx);
+            recordStore(ctx, startTime);
         }
     }
 
     private UpdateDBResult updateDB(StoreContext ctx) throws DicomServiceException {
+        long startTime = System.nanoTime();
+        try {
+            return updateDBWithRetries(ctx);
+        } finally {
+            updateDBTime.recordSince(startTime);
+        }
+    }
+
+    private UpdateDBResult updateDBWithRetries(StoreContext ctx) throws DicomServiceException {
         StoreSession session = ctx.getStoreSession();
         ArchiveAEExtension arcAE = session.getArchiveAEExtension();
         ArchiveDeviceExtension arcDev = arcAE.getArchiveDeviceExtension();
-        int retries = arcDev.getStoreUpdateDBMaxRetries();
-        for (;;) {
+        int maxRetries = arcDev.getStoreUpdateDBMaxRetries();
+        for (int retry = 0;; retry++) {
             try {
                 UpdateDBResult result = new UpdateDBResult();
                 ejb.updateDB(ctx, result);
                 return result;
             } catch (EJBException e) {
-                if (retries-- > 0) {
-                    LOG.info("{}: Failed to update DB - retry:\n", session, e);
-                } else {
+                if (retry >= maxRetries) {
                     LOG.warn("{}: Failed to update DB:\n", session, e);
                     throw e;
                 }
+                LOG.info("{}: Failed to update DB - retry:\n", session, e);
+                updateDBRetries.inc();
             }
-            try {
-                Thread.sleep(ThreadLocalRandom.current().nextInt(arcDev.getStoreUpdateDBMaxRetryDelay()));
-            } catch (InterruptedException e) {
-                LOG.info("{}: Failed to delay retry to update DB:\n", session, e);
-            }
+            long delay = retryDelay(retry, arcDev.getStoreUpdateDBMaxRetryDelay());
+            if (delay > 0)
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    LOG.info("{}: Failed to delay retry to update DB:\n", session, e);
+                }
         }
     }
 
+    /**
+     * Returns the delay in ms before the next retry to update the DB. The first retry is not delayed: a violated
+     * unique constraint or optimistic lock indicates that the concurrent transaction, which inserted or updated
+     * the same record, has already committed, so the retry will find its result. Further retries back off
+     * exponentially from 50 ms up to {@code maxRetryDelay}, with a random jitter of up to half the delay.
+     */
+    static long retryDelay(int retry, int maxRetryDelay) {
+        if (retry == 0 || maxRetryDelay <= 0)
+            return 0L;
+
+        long delay = Math.min(maxRetryDelay, 50L << Math.min(retry - 1, 20));
+        return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
     private void postUpdateDB(StoreContext ctx, UpdateDBResult result) throws IOException {
         Instance instance = result.getCreatedInstance();
         if (instance != null) {
@@ -288,6 +330,7 @@ class StoreServiceImpl implements StoreService {
 
     @Override
     public void store(StoreContext ctx, Attributes attrs) throws IOException {
+        long startTime = System.nanoTime();
         ctx.setAttributes(attrs);
         List<Location> locations = ctx.getLocations();
         UpdateDBResult result = null;
@@ -314,9 +357,16 @@ class StoreServiceImpl implements StoreService {
         } finally {
             revokeStorage(ctx, result);
             storeEvent.fire(ctx);
+            recordStore(ctx, startTime);
         }
     }
 
+    private void recordStore(StoreContext ctx, long startTime) {
+        storeTime.recordSince(startTime);
+        if (ctx.getException() != null)
+            storeFailures.inc();
+    }
+
     private void adjustPixelDataBulkData(Attributes attrs) {
         Object value = attrs.getValue(Tag.PixelData);
         if (value instanceof Fragments)
@@ -507,15 +557,15 @@ class StoreServiceImpl implements StoreService {
         MergeMWLQueryParam queryParam =
                 MergeMWLQueryParam.valueOf(mergeMWLMatchingKey, ctx.getAttributes());
 
-        Cache.Entry<Attributes> entry = mergeMWLCache.getEntry(queryParam);
-        if (entry != null)
-            return entry.value();
+        return mergeMWLCache.get(queryParam, param -> queryMWL(ctx, rule, tplURI, param));
+    }
 
+    private Attributes queryMWL(StoreContext ctx, ArchiveAttributeCoercion rule, String tplURI,
+            MergeMWLQueryParam queryParam) {
         List<Attributes> mwlItems = ejb.queryMWL(ctx, queryParam);
-        if (mwlItems == null) {
-            mergeMWLCache.put(queryParam, null);
+        if (mwlItems == null)
             return null;
-        }
+
         Attributes result = null;
         Sequence reqAttrsSeq = null;
         try {
@@ -534,7 +584,6 @@ class StoreServiceImpl implements StoreService {
         } catch (SAXException e) {
             LOG.error("{}: Failed to apply XSL: {}", ctx.getStoreSession(), tplURI, e);
         }
-        mergeMWLCache.put(queryParam, result);
         return result;
     }
 
@@ -546,10 +595,16 @@ class StoreServiceImpl implements StoreService {
         Attributes seriesAttrs = series.getAttributes();
         Attributes studyAttrs = study.getAttributes();
         Attributes patAttrs = patient.getAttributes();
-        Attributes.unifyCharacterSets(patAttrs, studyAttrs, seriesAttrs, attrs);
-        attrs.update(Attributes.UpdatePolicy.OVERWRITE, patAttrs, modified);
-        attrs.update(Attributes.UpdatePolicy.OVERWRITE, studyAttrs, modified);
-        attrs.update(Attributes.UpdatePolicy.OVERWRITE, seriesAttrs, modified);
+        synchronized (patAttrs) {
+            synchronized (studyAttrs) {
+                synchronized (seriesAttrs) {
+                    Attributes.unifyCharacterSets(patAttrs, studyAttrs, seriesAttrs, attrs);
+                    attrs.update(Attributes.UpdatePolicy.OVERWRITE, patAttrs, modified);
+                    attrs.update(Attributes.UpdatePolicy.OVERWRITE, studyAttrs, modified);
+                    attrs.update(Attributes.UpdatePolicy.OVERWRITE, seriesAttrs, modified);
+                }
+            }
+        }
     }
 
     private final class TranscoderHandler implements Transcoder.Handler {
@@ -589,9 +644,19 @@ class StoreServiceImpl implements StoreService {
     }
 
     private Storage selectObjectStorage(StoreSession session) throws IOException {
-        if (session.getObjectStorageID() != null)
-            return session.getStorage(session.getObjectStorageID(), storageFactory);
+        String storageID = session.getObjectStorageID();
+        if (storageID == null) {
+            // objects of one session may be stored concurrently, e.g. by STOW-RS
+            synchronized (session) {
+                storageID = session.getObjectStorageID();
+                if (storageID == null)
+                    storageID = selectObjectStorageID(session);
+            }
+        }
+        return session.getStorage(storageID, storageFactory);
+    }
 
+    private String selectObjectStorageID(StoreSession session) throws IOException {
         ArchiveAEExtension arcAE = session.getArchiveAEExtension();
         ArchiveDeviceExtension arcDev = arcAE.getArchiveDeviceExtension();
         String[] storageIDs = arcAE.getObjectStorageIDs();
@@ -609,7 +674,7 @@ class StoreServiceImpl implements StoreService {
             arcAE.setObjectStorageIDs(StorageDescriptor.storageIDsOf(descriptors));
             updateDeviceConfiguration(arcDev);
         }
-        return storage;
+        return storageID;
     }
 
     private void updateDeviceConfiguration(ArchiveDeviceExtension arcDev) {
@@ -629,9 +694,18 @@ class StoreServiceImpl implements StoreService {
     }
 
     private Storage selectMetadataStorage(StoreSession session) throws IOException {
-        if (session.getMetadataStorageID() != null)
-            return session.getStorage(session.getMetadataStorageID(), storageFactory);
+        String storageID = session.getMetadataStorageID();
+        if (storageID == null) {
+            synchronized (session) {
+                storageID = session.getMetadataStorageID();
+                if (storageID == null)
+                    storageID = selectMetadataStorageID(session);
+            }
+        }
+        return session.getStorage(storageID, storageFactory);
+    }
 
+    private String selectMetadataStorageID(StoreSession session) throws IOException {
         ArchiveAEExtension arcAE = session.getArchiveAEExtension();
         ArchiveDeviceExtension arcDev = arcAE.getArchiveDeviceExtension();
         String[] storageIDs = arcAE.getMetadataStorageIDs();
@@ -644,7 +718,7 @@ class StoreServiceImpl implements StoreService {
             arcAE.setMetadataStorageIDs(StorageDescriptor.storageIDsOf(descriptors));
             updateDeviceConfiguration(arcDev);
         }
-        return storage;
+        return storageID;
     }
 
 
@@ -60,6 +60,7 @@ import java.io.IOException;
 import java.net.Socket;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -79,13 +80,13 @@ class StoreSessionImpl implements StoreSession {
     private Socket socket;
     private UnparsedHL7Message msg;
     private final StoreService storeService;
-    private final Map<String, Storage> storageMap = new HashMap<>();
+    private final Map<String, Storage> storageMap = new ConcurrentHashMap<>();
     private Study cachedStudy;
     private final Map<String,Series> seriesCache = new HashMap<>();
-    private final Map<Long,UIDMap> uidMapCache = new HashMap<>();
+    private final Map<Long,UIDMap> uidMapCache = new ConcurrentHashMap<>();
     private Map<String, String> uidMap;
-    private String objectStorageID;
-    private String metadataStorageID;
+    private volatile String objectStorageID;
+    private volatile String metadataStorageID;
     private AcceptMissingPatientID acceptMissingPatientID;
     private AcceptConflictingPatientID acceptConflictingPatientID;
     private Attributes.UpdatePolicy patientUpdatePolicy;
@@ -197,7 +198,8 @@ class StoreSessionImpl implements StoreSession {
 
     @Override
     public void putStorage(String storageID, Storage storage) {
-        storageMap.put(storageID, storage);
+        if (storageMap.putIfAbsent(storageID, storage) != null)
+            SafeClose.close(storage);
     }
 
     @Override
@@ -218,17 +220,17 @@ class StoreSessionImpl implements StoreSession {
     }
 
     @Override
-    public Study getCachedStudy(String studyInstanceUID) {
+    public synchronized Study getCachedStudy(String studyInstanceUID) {
         return isStudyCached(studyInstanceUID) ? cachedStudy : null;
     }
 
     @Override
-    public Series getCachedSeries(String studyInstanceUID, String seriesIUID) {
+    public synchronized Series getCachedSeries(String studyInstanceUID, String seriesIUID) {
         return isStudyCached(studyInstanceUID) ? seriesCache.get(seriesIUID) : null;
     }
 
     @Override
-    public void cacheSeries(Series series) {
+    public synchronized void cacheSeries(Series series) {
         Study study = series.getStudy();
         if (!isStudyCached(study.getStudyInstanceUID())) {
             cachedStudy = study;
@@ -253,9 +255,9 @@ class StoreSessionImpl implements StoreSession {
     }
 
     @Override
-    public Map<String, String> getUIDMap() {
+    public synchronized Map<String, String> getUIDMap() {
         if (uidMap == null)
-            uidMap = new HashMap<>();
+            uidMap = new ConcurrentHashMap<>();
 
         return uidMap;
     }
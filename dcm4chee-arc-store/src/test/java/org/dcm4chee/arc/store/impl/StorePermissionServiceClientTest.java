@@ -0,0 +1,231 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.store.impl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4chee.arc.StorePermission;
+import org.dcm4chee.arc.conf.ArchiveAEExtension;
+import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.dcm4chee.arc.store.StoreService;
+import org.dcm4chee.arc.store.StoreSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class StorePermissionServiceClientTest {
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ArchiveDeviceExtension arcDev;
+    private ArchiveAEExtension arcAE;
+    private StoreSession session;
+    private StorePermissionServiceClient client;
+    private final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/granted", exchange -> respond(exchange, 200, "expires=20180430"));
+        server.createContext("/denied", exchange -> respond(exchange, 200, "denied, code=A770, reason=Unknown"));
+        server.createContext("/nocontent", exchange -> respond(exchange, 204, null));
+        server.createContext("/notfound", exchange -> respond(exchange, 404, null));
+        server.createContext("/slow", exchange -> {
+            int n = inProgress.incrementAndGet();
+            maxInProgress.accumulateAndGet(n, Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inProgress.decrementAndGet();
+            respond(exchange, 200, "ok");
+        });
+        server.start();
+
+        Device device = new Device("test");
+        arcDev = new ArchiveDeviceExtension();
+        device.addDeviceExtension(arcDev);
+        ApplicationEntity ae = new ApplicationEntity("TEST");
+        device.addApplicationEntity(ae);
+        arcAE = new ArchiveAEExtension();
+        ae.addAEExtension(arcAE);
+        arcAE.setStorePermissionServiceExpirationDatePattern(Pattern.compile("expires=(\\d{8})"));
+        session = (StoreSession) Proxy.newProxyInstance(StoreSession.class.getClassLoader(),
+                new Class<?>[]{ StoreSession.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getArchiveAEExtension":
+                            return arcAE;
+                        case "toString":
+                            return "TestStoreSession";
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        client = new StorePermissionServiceClient();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testGranted() throws Exception {
+        StorePermission permission = client.queryStorePermission(session, url("/granted"));
+        assertNull(permission.exception);
+        assertEquals(LocalDate.of(2018, 4, 30), permission.expirationDate);
+    }
+
+    @Test
+    public void testDeniedByResponsePattern() throws Exception {
+        arcAE.setStorePermissionServiceResponsePattern(Pattern.compile("expires="));
+        arcAE.setStorePermissionServiceErrorCodePattern(Pattern.compile("code=(\\p{XDigit}{4})"));
+        arcAE.setStorePermissionServiceErrorCommentPattern(Pattern.compile("reason=(.+)"));
+        StorePermission permission = client.queryStorePermission(session, url("/denied"));
+        assertNotNull(permission.exception);
+        assertEquals(0xA770, permission.exception.getStatus());
+        assertEquals("Unknown", permission.exception.getMessage());
+    }
+
+    @Test
+    public void testNoContent() throws Exception {
+        StorePermission permission = client.queryStorePermission(session, url("/nocontent"));
+        assertNull(permission.exception);
+        assertNull(permission.expirationDate);
+        arcAE.setStorePermissionServiceResponsePattern(Pattern.compile("expires="));
+        permission = client.queryStorePermission(session, url("/nocontent"));
+        assertNotNull(permission.exception);
+        assertEquals(Status.NotAuthorized, permission.exception.getStatus());
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        StorePermission permission = client.queryStorePermission(session, url("/notfound"));
+        assertNotNull(permission.exception);
+        assertEquals(Status.NotAuthorized, permission.exception.getStatus());
+        assertEquals(StoreService.NOT_AUTHORIZED, permission.exception.getMessage());
+    }
+
+    @Test
+    public void testConnectionFailure() throws Exception {
+        String url = url("/granted");
+        server.stop(0);
+        try {
+            client.queryStorePermission(session, url);
+            fail("DicomServiceException expected");
+        } catch (DicomServiceException e) {
+            assertEquals(Status.ProcessingFailure, e.getStatus());
+            assertEquals(StoreService.FAILED_TO_QUERY_STORE_PERMISSION_SERVICE, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        for (int i = 0; i < 5; i++)
+            assertNull(client.queryStorePermission(session, url("/granted")).exception);
+        assertEquals(1, remotePorts.size());
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception {
+        arcDev.setStorePermissionServiceMaxConnections(2);
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<StorePermission>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++)
+                futures.add(executor.submit(() -> client.queryStorePermission(session, url("/slow"))));
+            for (Future<StorePermission> future : futures)
+                assertNull(future.get(10, TimeUnit.SECONDS).exception);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, maxInProgress.get());
+    }
+
+    private String url(String path) {
+        InetSocketAddress addr = server.getAddress();
+        return "http://" + addr.getHostString() + ':' + addr.getPort() + path;
+    }
+
+    private void respond(HttpExchange exchange, int status, String content) throws IOException {
+        remotePorts.add(exchange.getRemoteAddress().getPort());
+        if (content == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            byte[] b = content.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, b.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(b);
+            }
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.stow;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+/**
+ * Runs the stores of one STOW-RS request concurrently and returns their results in submission order.
+ * <p>
+ * The first object of each Series is stored alone: {@link #submit} blocks until it is stored, so the Study and
+ * Series are created and cached by the Store Session before further objects of that Series are submitted.
+ * Otherwise concurrent stores of the first objects of a new Study or Series would fail on the unique constraints
+ * of the Study and Series tables.
+ *
+ * @since Apr 2018
+ */
+class ConcurrentStores<T> {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Predicate<T> stored;
+    private final ArrayDeque<Future<T>> pending = new ArrayDeque<>();
+    private final Set<String> storedSeriesIUIDs = new HashSet<>();
+
+    ConcurrentStores(ExecutorService executor, int maxConcurrentStores, Predicate<T> stored) {
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrentStores);
+        this.stored = stored;
+    }
+
+    void submit(String seriesIUID, Callable<T> task) throws InterruptedIOException {
+        Future<T> future = submit(task);
+        if (seriesIUID != null && storedSeriesIUIDs.contains(seriesIUID))
+            return;
+
+        try {
+            if (stored.test(future.get()) && seriesIUID != null)
+                storedSeriesIUIDs.add(seriesIUID);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            // thrown again by next()
+        }
+    }
+
+    private Future<T> submit(Callable<T> task) throws InterruptedIOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        try {
+            Future<T> future = executor.submit(() -> {
+                try {
+                    return task.call();
+                } finally {
+                    permits.release();
+                }
+            });
+            pending.add(future);
+            return future;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    T next() throws IOException {
+        Future<T> future = pending.poll();
+        if (future == null)
+            return null;
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    void waitForPending() {
+        Future<T> future;
+        while ((future = pending.poll()) != null) {
+            try {
+                future.get();
+            } catch (Exception ignore) {
+            }
+        }
+    }
+}
@@ -43,6 +43,7 @@ package org.dcm4chee.arc.stow;
 import org.dcm4che3.data.*;
 import org.dcm4che3.imageio.codec.jpeg.JPEGHeader;
 import org.dcm4che3.imageio.codec.mpeg.MPEGHeader;
+import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.SAXReader;
 import org.dcm4che3.io.SAXTransformer;
 import org.dcm4che3.json.JSONReader;
@@ -62,6 +63,8 @@ import org.dcm4chee.arc.store.StoreSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.json.Json;
@@ -121,6 +124,9 @@ public class StowRS {
     @Inject
     private Device device;
 
+    @Resource
+    private ManagedExecutorService executor;
+
     @HeaderParam("Content-Type")
     private MediaType contentType;
 
@@ -136,6 +142,7 @@ public class StowRS {
     private Sequence failedSOPSequence;
     private java.nio.file.Path spoolDirectory;
     private Map<String, BulkDataWithMediaType> bulkdataMap = new HashMap<>();
+    private ConcurrentStores<StoreResult> concurrentStores;
 
     @Override
     public String toString() {
@@ -270,6 +277,22 @@ public class StowRS {
         LOG.info("Process POST {} from {}@{}", request.getRequestURI(), request.getRemoteUser(), request.getRemoteHost());
         ar.register((CompletionCallback) throwable -> purgeSpoolDirectory());
         final StoreSession session = service.newStoreSession(request, getApplicationEntity(), null);
+        int maxConcurrentStores = device.getDeviceExtension(ArchiveDeviceExtension.class).getStowMaxConcurrentStores();
+        if (maxConcurrentStores > 1)
+            concurrentStores = new ConcurrentStores<>(executor, maxConcurrentStores, result -> result.exception == null);
+        try {
+            parseAndStore(session, in, input);
+        } finally {
+            if (concurrentStores != null)
+                concurrentStores.waitForPending();
+        }
+
+        response.setString(Tag.RetrieveURL, VR.UR, retrieveURL());
+        Response.ResponseBuilder responseBuilder = Response.status(status());
+        ar.resume(responseBuilder.entity(output.entity(response)).header("Warning", response.getString(Tag.ErrorComment)).build());
+    }
+
+    private void parseAndStore(StoreSession session, InputStream in, Input input) throws IOException {
         new MultipartParser(boundary())
                 .parse(new BufferedInputStream(in), (partNumber, multipartInputStream) -> {
                     Map<String, List<String>> headerParams = multipartInputStream.readHeaderParams();
@@ -295,10 +318,7 @@ public class StowRS {
         int instanceNumber = 0;
         for (Attributes instance : instances) 
             storeDicomObject(session, instance, ++instanceNumber);
-
-        response.setString(Tag.RetrieveURL, VR.UR, retrieveURL());
-        Response.ResponseBuilder responseBuilder = Response.status(status());
-        ar.resume(responseBuilder.entity(output.entity(response)).header("Warning", response.getString(Tag.ErrorComment)).build());
+        addPendingStoreResults(session);
     }
 
     private void purgeSpoolDirectory() {
@@ -379,20 +399,49 @@ public class StowRS {
     }
 
     private void storeDicomObject(StoreSession session, MultipartInputStream in) throws IOException {
+        if (concurrentStores == null) {
+            addStoreResult(session, store(session, in));
+            return;
+        }
+        java.nio.file.Path spoolFile = spool(in);
+        concurrentStores.submit(seriesInstanceUIDOf(spoolFile), () -> {
+            try (InputStream fin = new BufferedInputStream(Files.newInputStream(spoolFile))) {
+                return store(session, fin);
+            } finally {
+                Files.deleteIfExists(spoolFile);
+            }
+        });
+    }
+
+    private void storeDicomObject(StoreSession session, Attributes attrs, int instanceNumber) throws IOException {
+        if (concurrentStores == null)
+            addStoreResult(session, store(session, attrs, instanceNumber));
+        else
+            concurrentStores.submit(attrs.getString(Tag.SeriesInstanceUID),
+                    () -> store(session, attrs, instanceNumber));
+    }
+
+    private static String seriesInstanceUIDOf(java.nio.file.Path spoolFile) {
+        try (DicomInputStream dis = new DicomInputStream(spoolFile.toFile())) {
+            dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.NO);
+            return dis.readDataset(-1, Tag.PixelData).getString(Tag.SeriesInstanceUID);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private StoreResult store(StoreSession session, InputStream in) throws IOException {
         StoreContext ctx = service.newStoreContext(session);
         ctx.setAcceptedStudyInstanceUID(acceptedStudyInstanceUID);
         try {
             service.store(ctx, in);
-            studyInstanceUIDs.add(ctx.getStudyInstanceUID());
-            sopSequence().add(mkSOPRefWithRetrieveURL(ctx));
+            return new StoreResult(ctx, null);
         } catch (DicomServiceException e) {
-            LOG.info("{}: Failed to store {}", session, UID.nameOf(ctx.getSopClassUID()), e);
-            response.setString(Tag.ErrorComment, VR.LO, e.getMessage());
-            failedSOPSequence().add(mkSOPRefWithFailureReason(ctx, e));
+            return new StoreResult(ctx, e);
         }
     }
 
-    private void storeDicomObject(StoreSession session, Attributes attrs, int instanceNumber) throws IOException {
+    private StoreResult store(StoreSession session, Attributes attrs, int instanceNumber) throws IOException {
         StoreContext ctx = service.newStoreContext(session);
         ctx.setAcceptedStudyInstanceUID(acceptedStudyInstanceUID);
         try {
@@ -400,16 +449,35 @@ public class StowRS {
             ctx.setReceiveTransferSyntax(MediaTypes.transferSyntaxOf(bulkdataWithMediaType.mediaType));
             supplementAttrs(session, attrs, instanceNumber, bulkdataWithMediaType);
             service.store(ctx, attrs);
-            studyInstanceUIDs.add(ctx.getStudyInstanceUID());
-            sopSequence().add(mkSOPRefWithRetrieveURL(ctx));
+            return new StoreResult(ctx, null);
         } catch (DicomServiceException e) {
             ctx.setAttributes(attrs);
+            return new StoreResult(ctx, e);
+        }
+    }
+
+    private void addStoreResult(StoreSession session, StoreResult result) {
+        StoreContext ctx = result.ctx;
+        DicomServiceException e = result.exception;
+        if (e == null) {
+            studyInstanceUIDs.add(ctx.getStudyInstanceUID());
+            sopSequence().add(mkSOPRefWithRetrieveURL(ctx));
+        } else {
             LOG.info("{}: Failed to store {}", session, UID.nameOf(ctx.getSopClassUID()), e);
             response.setString(Tag.ErrorComment, VR.LO, e.getMessage());
             failedSOPSequence().add(mkSOPRefWithFailureReason(ctx, e));
         }
     }
 
+    private void addPendingStoreResults(StoreSession session) throws IOException {
+        if (concurrentStores == null)
+            return;
+
+        StoreResult result;
+        while ((result = concurrentStores.next()) != null)
+            addStoreResult(session, result);
+    }
+
     private void supplementAttrs(StoreSession session, Attributes attrs, int instanceNumber,
                                  BulkDataWithMediaType bulkdata) throws DicomServiceException {
         for (int tag : IUIDS_TAGS)
@@ -543,13 +611,7 @@ public class StowRS {
     private boolean spoolBulkdata(MultipartInputStream in, MediaType mediaType,
                                   String contentLocation) {
         try {
-            if (spoolDirectory == null)
-                spoolDirectory = Files.createTempDirectory(spoolDirectoryRoot(), null);
-            java.nio.file.Path spoolFile = Files.createTempFile(spoolDirectory, null, null);
-            try (OutputStream out = Files.newOutputStream(spoolFile)) {
-                StreamUtils.copy(in, out);
-            }
-            bulkdataMap.put(contentLocation, new BulkDataWithMediaType(spoolFile, mediaType));
+            bulkdataMap.put(contentLocation, new BulkDataWithMediaType(spool(in), mediaType));
             return true;
         } catch (IOException e) {
             StringWriter sw = new StringWriter();
@@ -560,6 +622,16 @@ public class StowRS {
         }
     }
 
+    private java.nio.file.Path spool(InputStream in) throws IOException {
+        if (spoolDirectory == null)
+            spoolDirectory = Files.createTempDirectory(spoolDirectoryRoot(), null);
+        java.nio.file.Path spoolFile = Files.createTempFile(spoolDirectory, null, null);
+        try (OutputStream out = Files.newOutputStream(spoolFile)) {
+            StreamUtils.copy(in, out);
+        }
+        return spoolFile;
+    }
+
     private java.nio.file.Path spoolDirectoryRoot() throws IOException {
         return  Files.createDirectories(Paths.get(StringUtils.replaceSystemProperties(
                 device.getDeviceExtensionNotNull(ArchiveDeviceExtension.class).getStowSpoolDirectory())));
@@ -647,6 +719,16 @@ public class StowRS {
         abstract StreamingOutput entity(Attributes response);
     }
 
+    private static class StoreResult {
+        final StoreContext ctx;
+        final DicomServiceException exception;
+
+        StoreResult(StoreContext ctx, DicomServiceException exception) {
+            this.ctx = ctx;
+            this.exception = exception;
+        }
+    }
+
     private static class BulkDataWithMediaType {
         final BulkData bulkData;
         final MediaType mediaType;
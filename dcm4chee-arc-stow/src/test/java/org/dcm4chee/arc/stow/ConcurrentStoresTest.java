@@ -0,0 +1,169 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.stow;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class ConcurrentStoresTest {
+
+    private ExecutorService executor;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final Map<String, AtomicInteger> runningPerSeries = new ConcurrentHashMap<>();
+    private final Set<String> storedSeries = Collections.synchronizedSet(new HashSet<>());
+    private final Set<String> violations = Collections.synchronizedSet(new HashSet<>());
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testResultsInSubmissionOrder() throws Exception {
+        ConcurrentStores<String> stores = new ConcurrentStores<>(executor, 4, result -> true);
+        for (int i = 0; i < 20; i++)
+            stores.submit("1.2", store("1.2", "" + i, 20 - i));
+        for (int i = 0; i < 20; i++)
+            assertEquals("" + i, stores.next());
+        assertNull(stores.next());
+    }
+
+    @Test
+    public void testFirstObjectOfSeriesStoredAlone() throws Exception {
+        ConcurrentStores<String> stores = new ConcurrentStores<>(executor, 4, result -> true);
+        String[] series = { "1.1", "1.1", "1.2", "1.1", "1.2", "1.3", "1.2", "1.1", "1.3", "1.3" };
+        for (String seriesIUID : series)
+            stores.submit(seriesIUID, store(seriesIUID, seriesIUID, 50));
+        for (String seriesIUID : series)
+            assertEquals(seriesIUID, stores.next());
+        assertTrue(violations.toString(), violations.isEmpty());
+        assertTrue("maxRunning=" + maxRunning, maxRunning.get() > 1);
+    }
+
+    @Test
+    public void testMaxConcurrentStores() throws Exception {
+        ConcurrentStores<String> stores = new ConcurrentStores<>(executor, 2, result -> true);
+        for (int i = 0; i < 10; i++)
+            stores.submit("1.2", store("1.2", "" + i, 20));
+        stores.waitForPending();
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void testStoreNextObjectAloneIfFirstFailed() throws Exception {
+        ConcurrentStores<String> stores = new ConcurrentStores<>(executor, 4, "stored"::equals);
+        stores.submit("1.2", () -> "failed");
+        stores.submit("1.2", store("1.2", "stored", 50));
+        stores.submit("1.2", store("1.2", "stored", 50));
+        assertEquals("failed", stores.next());
+        assertEquals("stored", stores.next());
+        assertEquals("stored", stores.next());
+        assertTrue(violations.toString(), violations.isEmpty());
+    }
+
+    @Test
+    public void testSeriesInstanceUIDUnknown() throws Exception {
+        ConcurrentStores<String> stores = new ConcurrentStores<>(executor, 4, result -> true);
+        for (int i = 0; i < 4; i++)
+            stores.submit(null, store(null, "" + i, 20));
+        stores.waitForPending();
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        ConcurrentStores<String> stores = new ConcurrentStores<>(executor, 4, result -> true);
+        stores.submit("1.2", () -> {
+            throw new IOException("Storage not available");
+        });
+        stores.submit("1.2", store("1.2", "stored", 0));
+        try {
+            stores.next();
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("Storage not available", e.getMessage());
+        }
+        assertEquals("stored", stores.next());
+    }
+
+    private Callable<String> store(String seriesIUID, String result, long millis) {
+        return () -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            AtomicInteger runningOfSeries = seriesIUID != null
+                    ? runningPerSeries.computeIfAbsent(seriesIUID, key -> new AtomicInteger())
+                    : new AtomicInteger();
+            if (runningOfSeries.incrementAndGet() > 1 && !storedSeries.contains(seriesIUID))
+                violations.add("first object of Series[" + seriesIUID + "] not stored alone");
+            try {
+                Thread.sleep(millis);
+                if (seriesIUID != null && !result.equals("failed"))
+                    storedSeries.add(seriesIUID);
+                return result;
+            } finally {
+                runningOfSeries.decrementAndGet();
+                running.decrementAndGet();
+            }
+        };
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.stow;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.UIDUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Posts synthetic {@code multipart/related; type="application/dicom"} payloads to the STOW-RS endpoint of a
+ * running archive and reports the throughput, e.g. to compare different values of dcmStowMaxConcurrentStores:
+ * <pre>
+ * java -cp ... org.dcm4chee.arc.stow.StowRSBenchmark http://localhost:8080/dcm4chee-arc/aets/DCM4CHEE/rs/studies \
+ *     [requests [instancesPerRequest [seriesPerRequest [rows [studiesPerRequest [patients]]]]]]
+ * </pre>
+ * Each request stores new Studies with 16 bit 512 x rows Secondary Capture images. The Patient of each Study is
+ * selected randomly from the specified number of Patients. Storing many small Studies of a bounded set of Patients,
+ * e.g. {@code 100 100 1 1 100 1000}, measures the effect of dcmPatientIDCacheSize and dcmIssuerCacheSize, because
+ * the Patient is only looked up for the first object of each Study.
+ *
+ * @since Apr 2018
+ */
+public class StowRSBenchmark {
+
+    private static final String BOUNDARY = "StowRSBenchmark";
+    private static final int COLUMNS = 512;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: StowRSBenchmark <url> "
+                    + "[requests [instancesPerRequest [seriesPerRequest [rows [studiesPerRequest [patients]]]]]]");
+            System.exit(2);
+        }
+        URL url = new URL(args[0]);
+        int requests = intArg(args, 1, 10);
+        int instances = intArg(args, 2, 100);
+        int series = intArg(args, 3, 1);
+        int rows = intArg(args, 4, 512);
+        int studies = intArg(args, 5, 1);
+        int patients = intArg(args, 6, 1);
+        Random random = new Random(0);
+        byte[] pixelData = new byte[rows * COLUMNS * 2];
+        random.nextBytes(pixelData);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            long requestStart = System.nanoTime();
+            int status = post(url, instances, studies, series, rows, pixelData, random, patients);
+            System.out.printf("Request #%d: HTTP %d in %d ms%n",
+                    i + 1, status, (System.nanoTime() - requestStart) / 1000000);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = (long) requests * instances;
+        System.out.printf("Stored %d instances in %.3f s: %.1f instances/s, %.1f MB/s%n",
+                total, seconds, total / seconds, total * pixelData.length / seconds / 1e6);
+    }
+
+    private static int intArg(String[] args, int index, int defVal) {
+        return args.length > index ? Integer.parseInt(args[index]) : defVal;
+    }
+
+    private static int post(URL url, int instances, int studies, int series, int rows, byte[] pixelData,
+            Random random, int patients) throws IOException {
+        String[] patientIDs = new String[studies];
+        String[] studyIUIDs = new String[studies];
+        String[][] seriesIUIDs = new String[studies][series];
+        for (int i = 0; i < studies; i++) {
+            patientIDs[i] = "STOWRS-BENCHMARK-" + random.nextInt(patients);
+            studyIUIDs[i] = UIDUtils.createUID();
+            for (int j = 0; j < series; j++)
+                seriesIUIDs[i][j] = UIDUtils.createUID();
+        }
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setChunkedStreamingMode(8192);
+        conn.setRequestProperty("Content-Type",
+                "multipart/related;type=\"application/dicom\";boundary=" + BOUNDARY);
+        conn.setRequestProperty("Accept", "application/dicom+json");
+        try (OutputStream out = new BufferedOutputStream(conn.getOutputStream(), 65536)) {
+            for (int i = 0; i < instances; i++) {
+                out.write(("\r\n--" + BOUNDARY + "\r\nContent-Type: application/dicom\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                int study = i % studies;
+                int seriesNumber = (i / studies) % series + 1;
+                writeInstance(out, patientIDs[study], studyIUIDs[study], seriesIUIDs[study][seriesNumber - 1],
+                        seriesNumber, i + 1, rows, pixelData);
+            }
+            out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        int status = conn.getResponseCode();
+        try (InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+            if (in != null) {
+                byte[] buf = new byte[8192];
+                while (in.read(buf) != -1);
+            }
+        }
+        return status;
+    }
+
+    private static void writeInstance(OutputStream out, String patientID, String studyIUID, String seriesIUID,
+            int seriesNumber, int instanceNumber, int rows, byte[] pixelData) throws IOException {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, UIDUtils.createUID());
+        attrs.setString(Tag.PatientName, VR.PN, "STOWRS^BENCHMARK");
+        attrs.setString(Tag.PatientID, VR.LO, patientID);
+        attrs.setString(Tag.IssuerOfPatientID, VR.LO, "STOWRS-BENCHMARK");
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, seriesIUID);
+        attrs.setString(Tag.Modality, VR.CS, "OT");
+        attrs.setInt(Tag.SeriesNumber, VR.IS, seriesNumber);
+        attrs.setInt(Tag.InstanceNumber, VR.IS, instanceNumber);
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        attrs.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        attrs.setInt(Tag.Rows, VR.US, rows);
+        attrs.setInt(Tag.Columns, VR.US, COLUMNS);
+        attrs.setInt(Tag.BitsAllocated, VR.US, 16);
+        attrs.setInt(Tag.BitsStored, VR.US, 16);
+        attrs.setInt(Tag.HighBit, VR.US, 15);
+        attrs.setInt(Tag.PixelRepresentation, VR.US, 0);
+        attrs.setBytes(Tag.PixelData, VR.OW, pixelData);
+        DicomOutputStream dos = new DicomOutputStream(out, UID.ExplicitVRLittleEndian);
+        dos.writeDataset(attrs.createFileMetaInformation(UID.ExplicitVRLittleEndian), attrs);
+        dos.flush();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.wado;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.imageio.codec.ImageDescriptor;
+import org.dcm4che3.io.DicomInputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Byte offsets and lengths of the frames of a multi-frame object within the stored object.
+ *
+ * @since Apr 2018
+ */
+class FrameIndex {
+
+    private static final int MAGIC = 0x46494458; // FIDX
+    private static final int VERSION = 1;
+
+    private final long objectSize;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private FrameIndex(long objectSize, long[] offsets, int[] lengths) {
+        this.objectSize = objectSize;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    public int getNumberOfFrames() {
+        return offsets.length;
+    }
+
+    public long getObjectSize() {
+        return objectSize;
+    }
+
+    public long offsetOf(int frame) {
+        return offsets[frame - 1];
+    }
+
+    public int lengthOf(int frame) {
+        return lengths[frame - 1];
+    }
+
+    /**
+     * Returns if frames of objects stored with Transfer Syntax {@code tsuid} can be located by byte offsets, which
+     * is not the case for deflated objects.
+     */
+    public static boolean isIndexable(String tsuid) {
+        switch (tsuid) {
+            case UID.DeflatedExplicitVRLittleEndian:
+            case UID.JPIPReferencedDeflate:
+                return false;
+        }
+        return true;
+    }
+
+    public static FrameIndex scan(DicomInputStream dis, long objectSize, int numFrames) throws IOException {
+        Attributes attrs = dis.readDataset(-1, Tag.PixelData);
+        if (dis.tag() != Tag.PixelData)
+            throw new IOException("Missing pixel data in requested object");
+
+        long[] offsets = new long[numFrames];
+        int[] lengths = new int[numFrames];
+        if (dis.length() != -1) {
+            int frameLength = new ImageDescriptor(attrs).getFrameLength();
+            long pos = dis.getPosition();
+            for (int i = 0; i < numFrames; i++) {
+                offsets[i] = pos + (long) i * frameLength;
+                lengths[i] = frameLength;
+            }
+        } else {
+            if (!dis.readItemHeader())
+                throw new IOException("No or incorrect encapsulated compressed pixel data in requested object");
+
+            dis.skipFully(dis.length());
+            for (int i = 0; i < numFrames; i++) {
+                if (!dis.readItemHeader())
+                    throw new IOException(
+                            "Number of data fragments not sufficient for number of frames in requested object");
+
+                offsets[i] = dis.getPosition();
+                lengths[i] = dis.length();
+                dis.skipFully(dis.length());
+            }
+        }
+        return new FrameIndex(objectSize, offsets, lengths);
+    }
+
+    public static FrameIndex read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Invalid frame index " + path);
+
+            long objectSize = in.readLong();
+            int numFrames = in.readInt();
+            long[] offsets = new long[numFrames];
+            int[] lengths = new int[numFrames];
+            for (int i = 0; i < numFrames; i++) {
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+            }
+            return new FrameIndex(objectSize, offsets, lengths);
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(objectSize);
+            out.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+            }
+        }
+    }
+}
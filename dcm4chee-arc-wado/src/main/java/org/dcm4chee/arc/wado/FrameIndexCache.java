@@ -0,0 +1,147 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.wado;
+
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.dcm4chee.arc.entity.Location;
+import org.dcm4chee.arc.retrieve.InstanceLocations;
+import org.dcm4chee.arc.retrieve.RetrieveContext;
+import org.dcm4chee.arc.storage.ReadContext;
+import org.dcm4chee.arc.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Provides the frame offsets of multi-frame objects on Storage supporting random access, persisted in a local
+ * directory on first retrieval of frames of the object, to read requested frames without parsing and spooling
+ * the object. Frame indexes are stored as {@code <dir>/<storageID>/<locationPk>} and deleted together with the
+ * object by {@code PurgeStorageScheduler}.
+ *
+ * @since Apr 2018
+ */
+@ApplicationScoped
+public class FrameIndexCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FrameIndexCache.class);
+
+    @Inject
+    private Device device;
+
+    public IndexedFramesOutput newIndexedFramesOutput(RetrieveContext ctx, InstanceLocations inst, int[] frameList) {
+        String dirPath = device.getDeviceExtension(ArchiveDeviceExtension.class).getWadoFrameIndexDirectory();
+        if (dirPath == null)
+            return null;
+
+        String studyIUID = inst.getAttributes().getString(Tag.StudyInstanceUID);
+        int numFrames = inst.getAttributes().getInt(Tag.NumberOfFrames, 1);
+        for (Location location : inst.getLocations()) {
+            if (location.getObjectType() != Location.ObjectType.DICOM_FILE
+                    || !FrameIndex.isIndexable(location.getTransferSyntaxUID()))
+                continue;
+
+            Storage storage = ctx.getRetrieveService().getStorage(location.getStorageID(), ctx);
+            if (!storage.isRandomAccess() || !storage.isAccessable())
+                continue;
+
+            Path path = Paths.get(StringUtils.replaceSystemProperties(dirPath),
+                    location.getStorageID(), Long.toString(location.getPk()));
+            try {
+                FrameIndex frameIndex = getFrameIndex(storage, location, studyIUID, numFrames, path);
+                return frameIndex != null
+                        ? new IndexedFramesOutput(storage, location.getStoragePath(), studyIUID, frameIndex, frameList)
+                        : null;
+            } catch (IOException e) {
+                LOG.info("Failed to get frame index of {}:\n", location, e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private FrameIndex getFrameIndex(Storage storage, Location location, String studyIUID, int numFrames, Path path)
+            throws IOException {
+        try {
+            FrameIndex frameIndex = FrameIndex.read(path);
+            if (frameIndex.getObjectSize() == location.getSize() && frameIndex.getNumberOfFrames() == numFrames)
+                return frameIndex;
+
+            LOG.info("Frame index {} does not match {} - rebuild", path, location);
+        } catch (NoSuchFileException e) {
+        } catch (IOException e) {
+            LOG.info("Failed to read frame index {} - rebuild:\n", path, e);
+        }
+        FrameIndex frameIndex;
+        ReadContext readContext = createReadContext(storage, location.getStoragePath(), studyIUID);
+        try (DicomInputStream dis = new DicomInputStream(storage.openInputStream(readContext))) {
+            frameIndex = FrameIndex.scan(dis, location.getSize(), numFrames);
+        }
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            frameIndex.write(tmp);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        LOG.debug("Persisted frame index of {} to {}", location, path);
+        return frameIndex;
+    }
+
+    static ReadContext createReadContext(Storage storage, String storagePath, String studyIUID) {
+        ReadContext readContext = storage.createReadContext();
+        readContext.setStoragePath(storagePath);
+        readContext.setStudyInstanceUID(studyIUID);
+        return readContext;
+    }
+}
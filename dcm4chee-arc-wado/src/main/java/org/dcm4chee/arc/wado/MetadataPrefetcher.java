@@ -0,0 +1,257 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.wado;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4chee.arc.retrieve.InstanceLocations;
+import org.dcm4chee.arc.retrieve.RetrieveContext;
+import org.dcm4chee.arc.retrieve.RetrieveService;
+import org.dcm4chee.arc.retrieve.SeriesMetadataReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+
+/**
+ * Loads the metadata of the next matching instances concurrently, preserving the order of the matches. At most
+ * {@code window} metadata objects are loaded or buffered ahead of the consumer. The metadata of instances of Series
+ * with a current Metadata ZIP is read in one pass from the ZIP. Metadata read from the ZIP ahead of the instance
+ * requested next is buffered, up to {@code window} objects per Series; if the buffer is full, the requested
+ * instance is loaded separately.
+ *
+ * @since Apr 2018
+ */
+class MetadataPrefetcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetadataPrefetcher.class);
+
+    private static final CompletableFuture<SeriesMetadata> NO_SERIES_METADATA =
+            CompletableFuture.completedFuture(null);
+
+    private final RetrieveService service;
+    private final RetrieveContext ctx;
+    private final Iterator<InstanceLocations> insts;
+    private final Executor executor;
+    private final int window;
+    private final BiFunction<InstanceLocations, Attributes, Attributes> postProcess;
+    private final ArrayDeque<Entry> pending;
+    private final Set<String> seriesIUIDs = new HashSet<>();
+    private final List<CompletableFuture<Attributes>> seriesLoads = new ArrayList<>();
+    private String seriesIUID;
+    private CompletableFuture<SeriesMetadata> seriesMetadata = NO_SERIES_METADATA;
+
+    MetadataPrefetcher(RetrieveService service, RetrieveContext ctx, Iterator<InstanceLocations> insts,
+            Executor executor, int window, BiFunction<InstanceLocations, Attributes, Attributes> postProcess) {
+        this.service = service;
+        this.ctx = ctx;
+        this.insts = insts;
+        this.executor = executor;
+        this.window = window;
+        this.postProcess = postProcess;
+        this.pending = new ArrayDeque<>(window);
+        fill();
+    }
+
+    public boolean hasNext() {
+        return !pending.isEmpty();
+    }
+
+    public Attributes next() throws IOException {
+        Entry entry = pending.remove();
+        fill();
+        try {
+            return postProcess.apply(entry.inst, entry.metadata.get());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    public void cancel() {
+        for (Entry entry : pending)
+            entry.metadata.cancel(false);
+        pending.clear();
+        closeSeriesMetadata();
+    }
+
+    private void fill() {
+        while (pending.size() < window && insts.hasNext()) {
+            InstanceLocations inst = insts.next();
+            pending.add(new Entry(inst, load(inst)));
+        }
+    }
+
+    private CompletableFuture<Attributes> load(InstanceLocations inst) {
+        if (inst.isContainsMetadata())
+            return CompletableFuture.completedFuture(inst.getAttributes());
+
+        CompletableFuture<Attributes> load = seriesMetadata(inst).thenApplyAsync(series -> {
+            try {
+                Attributes metadata = series != null ? series.get(inst.getSopInstanceUID()) : null;
+                if (metadata == null)
+                    return service.loadMetadata(ctx, inst);
+
+                service.getAttributesCoercion(ctx, inst).coerce(metadata, null);
+                return metadata;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+        seriesLoads.removeIf(CompletableFuture::isDone);
+        seriesLoads.add(load);
+        return load;
+    }
+
+    private CompletableFuture<SeriesMetadata> seriesMetadata(InstanceLocations inst) {
+        String iuid = inst.getAttributes().getString(Tag.SeriesInstanceUID);
+        if (!iuid.equals(seriesIUID)) {
+            closeSeriesMetadata();
+            seriesIUID = iuid;
+            // matches of a Series not returned contiguously are loaded separately, not by reading the ZIP twice
+            seriesMetadata = seriesIUIDs.add(iuid)
+                    ? CompletableFuture.supplyAsync(() -> openSeriesMetadata(inst), executor)
+                    : NO_SERIES_METADATA;
+        }
+        return seriesMetadata;
+    }
+
+    private SeriesMetadata openSeriesMetadata(InstanceLocations inst) {
+        try {
+            SeriesMetadataReader reader = service.openSeriesMetadata(ctx, inst);
+            return reader != null ? new SeriesMetadata(inst.getAttributes().getString(Tag.SeriesInstanceUID),
+                    reader, window) : null;
+        } catch (IOException e) {
+            LOG.info("Failed to open Metadata ZIP of Series[uid={}] - load metadata of each instance:\n",
+                    inst.getAttributes().getString(Tag.SeriesInstanceUID), e);
+            return null;
+        }
+    }
+
+    private void closeSeriesMetadata() {
+        CompletableFuture<SeriesMetadata> series = seriesMetadata;
+        if (series != NO_SERIES_METADATA)
+            CompletableFuture.allOf(seriesLoads.toArray(new CompletableFuture<?>[0]))
+                    .whenComplete((v, e) -> series.thenAccept(metadata -> {
+                        if (metadata != null)
+                            metadata.close();
+                    }));
+        seriesLoads.clear();
+        seriesMetadata = NO_SERIES_METADATA;
+    }
+
+    private static class Entry {
+        final InstanceLocations inst;
+        final CompletableFuture<Attributes> metadata;
+
+        Entry(InstanceLocations inst, CompletableFuture<Attributes> metadata) {
+            this.inst = inst;
+            this.metadata = metadata;
+        }
+    }
+
+    private static class SeriesMetadata {
+        final String seriesIUID;
+        final SeriesMetadataReader reader;
+        final int maxBuffered;
+        final Map<String, Attributes> buffered = new HashMap<>();
+        final Set<String> loadedSeparately = new HashSet<>();
+        boolean closed;
+
+        SeriesMetadata(String seriesIUID, SeriesMetadataReader reader, int maxBuffered) {
+            this.seriesIUID = seriesIUID;
+            this.reader = reader;
+            this.maxBuffered = maxBuffered;
+        }
+
+        /**
+         * Returns the metadata of the instance with the specified SOP Instance UID from the ZIP, or {@code null},
+         * if it has to be loaded separately.
+         */
+        synchronized Attributes get(String iuid) {
+            Attributes metadata = buffered.remove(iuid);
+            if (metadata != null || closed)
+                return metadata;
+
+            try {
+                String next;
+                while (buffered.size() < maxBuffered) {
+                    if ((next = reader.nextSOPInstanceUID()) == null) {
+                        close();
+                        return null;
+                    }
+                    if (next.equals(iuid))
+                        return reader.readMetadata();
+                    if (!loadedSeparately.remove(next))
+                        buffered.put(next, reader.readMetadata());
+                }
+            } catch (IOException e) {
+                LOG.info("Failed to read Metadata ZIP of Series[uid={}] - load metadata of each instance:\n",
+                        seriesIUID, e);
+                close();
+                return null;
+            }
+            loadedSeparately.add(iuid);
+            return null;
+        }
+
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                SafeClose.close(reader);
+            }
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.wado;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.dcm4chee.arc.conf.BinaryPrefix;
+import org.dcm4chee.arc.entity.Instance;
+import org.dcm4chee.arc.metrics.MetricsRegistry;
+import org.dcm4chee.arc.store.StoreContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Caches rendered images in a local directory, limited in size by evicting the least recently used images.
+ * <p>
+ * Cached images are stored in a sub-directory per SOP Instance UID, named by the digest of the key of the rendered
+ * image. As the key includes the update time of the instance, images rendered before an update of the instance are
+ * not returned anymore. Cached images of instances referenced by a received Rejection Note or replaced by a received
+ * instance are removed immediately. If a cached image is removed after it was looked up, but before it is read, the
+ * image is rendered again.
+ *
+ * @since Apr 2018
+ */
+@ApplicationScoped
+public class RenderedImageCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderedImageCache.class);
+    private static final long DEFAULT_MAX_SIZE = 1000000000L;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    @Inject
+    private Device device;
+
+    private final LinkedHashMap<Path, Long> index = new LinkedHashMap<>(64, 0.75f, true);
+    private final HashMap<Path, Set<Path>> indexByInstance = new HashMap<>();
+    private volatile String directoryConfig;
+    private volatile Path directory;
+    private long size;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public RenderedImageCache() {
+    }
+
+    RenderedImageCache(Device device) {
+        this.device = device;
+    }
+
+    /**
+     * Renders an image not yet cached.
+     */
+    public interface Renderer {
+        StreamingOutput render() throws IOException;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.gauge("dcm4chee_arc_rendered_image_cache_size_bytes", "Size of cached rendered images",
+                this::getSize);
+        metrics.gauge("dcm4chee_arc_rendered_image_cache_hits", "Number of rendered image cache hits",
+                this::getHits);
+        metrics.gauge("dcm4chee_arc_rendered_image_cache_misses", "Number of rendered image cache misses",
+                this::getMisses);
+        metrics.gauge("dcm4chee_arc_rendered_image_cache_evictions", "Number of rendered image cache evictions",
+                this::getEvictions);
+        metrics.gauge("dcm4chee_arc_rendered_image_cache_hit_ratio", "Ratio of rendered image cache hits",
+                this::getHitRatio);
+    }
+
+    public boolean isEnabled() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class).getWadoRenderedCacheDirectory() != null;
+    }
+
+    /**
+     * Returns the cached image with the specified key of the instance with the specified SOP Instance UID, or
+     * the image rendered by {@code renderer}, which is cached on write.
+     */
+    public StreamingOutput get(String iuid, String key, Renderer renderer) throws IOException {
+        Path path = pathOf(iuid, key);
+        if (path == null)
+            return renderer.render();
+
+        boolean cached;
+        synchronized (this) {
+            cached = index.get(path) != null;
+        }
+        if (!cached) {
+            misses.increment();
+            return cacheOnWrite(path, renderer.render());
+        }
+        hits.increment();
+        LOG.debug("Return cached rendered image {}", path);
+        touch(path);
+        return out -> {
+            InputStream in;
+            try {
+                in = Files.newInputStream(path);
+            } catch (IOException e) {
+                LOG.info("Failed to open cached rendered image {} - render image again:\n", path, e);
+                synchronized (this) {
+                    remove(path);
+                }
+                cacheOnWrite(path, renderer.render()).write(out);
+                return;
+            }
+            try {
+                StreamUtils.copy(in, out);
+            } finally {
+                SafeClose.close(in);
+            }
+        };
+    }
+
+    private StreamingOutput cacheOnWrite(Path path, StreamingOutput output) {
+        return out -> {
+            Path tmp = null;
+            OutputStream fileOut = null;
+            try {
+                Files.createDirectories(path.getParent());
+                tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), TMP_SUFFIX);
+                fileOut = new BufferedOutputStream(Files.newOutputStream(tmp));
+            } catch (IOException e) {
+                LOG.info("Failed to create temporary file for {}:\n", path, e);
+                if (tmp != null)
+                    deleteQuietly(tmp);
+            }
+            if (fileOut == null) {
+                output.write(out);
+                return;
+            }
+            boolean success = false;
+            try (TeeOutputStream tee = new TeeOutputStream(out, fileOut)) {
+                output.write(tee);
+                success = true;
+            } finally {
+                if (success)
+                    commit(tmp, path);
+                else
+                    deleteQuietly(tmp);
+            }
+        };
+    }
+
+    public void onStore(@Observes StoreContext ctx) {
+        if (ctx.getLocations().isEmpty() || ctx.getException() != null || !isEnabled())
+            return;
+
+        Instance prevInstance = ctx.getPreviousInstance();
+        if (prevInstance != null)
+            invalidate(prevInstance.getSopInstanceUID());
+
+        if (ctx.getRejectionNote() != null) {
+            Sequence studyRefs = ctx.getAttributes().getSequence(Tag.CurrentRequestedProcedureEvidenceSequence);
+            if (studyRefs != null)
+                for (Attributes studyRef : studyRefs)
+                    for (Attributes seriesRef : studyRef.getSequence(Tag.ReferencedSeriesSequence))
+                        for (Attributes sopRef : seriesRef.getSequence(Tag.ReferencedSOPSequence))
+                            invalidate(sopRef.getString(Tag.ReferencedSOPInstanceUID));
+        }
+    }
+
+    public void invalidate(String iuid) {
+        Path dir = directory();
+        if (dir == null || iuid == null)
+            return;
+
+        Path instDir = dir.resolve(iuid);
+        synchronized (this) {
+            Set<Path> paths = indexByInstance.remove(instDir);
+            if (paths != null)
+                for (Path path : paths) {
+                    deleteQuietly(path);
+                    size -= index.remove(path);
+                }
+        }
+        deleteQuietly(instDir);
+        LOG.debug("Invalidated cached rendered images of Instance[uid={}]", iuid);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total > 0 ? (double) hits / total : 0.;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private Path pathOf(String iuid, String key) {
+        Path dir = directory();
+        return dir != null ? dir.resolve(iuid).resolve(digest(key)) : null;
+    }
+
+    private Path directory() {
+        String dirPath = device.getDeviceExtension(ArchiveDeviceExtension.class).getWadoRenderedCacheDirectory();
+        if (dirPath == null)
+            return null;
+
+        return dirPath.equals(directoryConfig) ? directory : directory(dirPath);
+    }
+
+    private synchronized Path directory(String dirPath) {
+        Path dir = Paths.get(StringUtils.replaceSystemProperties(dirPath));
+        if (!dir.equals(directory)) {
+            index.clear();
+            indexByInstance.clear();
+            size = 0L;
+            load(dir);
+            evict(maxSize());
+            directory = dir;
+        }
+        directoryConfig = dirPath;
+        return dir;
+    }
+
+    private void load(Path dir) {
+        if (!Files.isDirectory(dir))
+            return;
+
+        List<Object[]> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(dir, 2)) {
+            stream.forEach(path -> {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (!attrs.isRegularFile())
+                        return;
+
+                    if (path.getFileName().toString().endsWith(TMP_SUFFIX))
+                        deleteQuietly(path);
+                    else
+                        files.add(new Object[]{ path, attrs.size(), attrs.lastModifiedTime() });
+                } catch (IOException e) {
+                    LOG.info("Failed to read attributes of {}:\n", path, e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            LOG.warn("Failed to scan rendered image cache directory {}:\n", dir, e);
+        }
+        files.sort(Comparator.comparing(a -> (FileTime) a[2]));
+        for (Object[] a : files)
+            put((Path) a[0], (Long) a[1]);
+        LOG.info("Loaded {} cached rendered images with {} from {}",
+                files.size(), BinaryPrefix.formatDecimal(size), dir);
+    }
+
+    private void commit(Path tmp, Path path) {
+        long fileSize;
+        try {
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            fileSize = Files.size(path);
+        } catch (IOException e) {
+            LOG.info("Failed to move {} to {}:\n", tmp, path, e);
+            deleteQuietly(tmp);
+            return;
+        }
+        long maxSize = maxSize();
+        synchronized (this) {
+            put(path, fileSize);
+            evict(maxSize);
+        }
+        LOG.debug("Cached rendered image {}", path);
+    }
+
+    private void evict(long maxSize) {
+        Iterator<Map.Entry<Path, Long>> iter = index.entrySet().iterator();
+        while (size > maxSize && iter.hasNext()) {
+            Map.Entry<Path, Long> entry = iter.next();
+            deleteQuietly(entry.getKey());
+            size -= entry.getValue();
+            iter.remove();
+            removeFromInstance(entry.getKey());
+            evictions.increment();
+        }
+    }
+
+    private void put(Path path, long fileSize) {
+        Long prevSize = index.put(path, fileSize);
+        size += fileSize - (prevSize != null ? prevSize : 0L);
+        indexByInstance.computeIfAbsent(path.getParent(), instDir -> new HashSet<>()).add(path);
+    }
+
+    private void remove(Path path) {
+        Long fileSize = index.remove(path);
+        if (fileSize != null) {
+            size -= fileSize;
+            removeFromInstance(path);
+        }
+    }
+
+    private void removeFromInstance(Path path) {
+        Set<Path> paths = indexByInstance.get(path.getParent());
+        if (paths != null && paths.remove(path) && paths.isEmpty())
+            indexByInstance.remove(path.getParent());
+    }
+
+    private long maxSize() {
+        String s = device.getDeviceExtension(ArchiveDeviceExtension.class).getWadoRenderedCacheSize();
+        return s != null ? BinaryPrefix.parse(s) : DEFAULT_MAX_SIZE;
+    }
+
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            LOG.debug("Failed to update last modified time of {}:\n", path, e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (DirectoryNotEmptyException e) {
+        } catch (IOException e) {
+            LOG.info("Failed to delete {}:\n", path, e);
+        }
+    }
+
+    private static String digest(String key) {
+        try {
+            return TagUtils.toHexString(MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final class TeeOutputStream extends FilterOutputStream {
+        private final OutputStream branch;
+
+        TeeOutputStream(OutputStream out, OutputStream branch) {
+            super(out);
+            this.branch = branch;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            branch.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            branch.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+            branch.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            branch.close();
+        }
+    }
+}
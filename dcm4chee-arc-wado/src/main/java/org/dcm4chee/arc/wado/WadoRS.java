@@ -59,6 +59,8 @@ import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.RequestScoped;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
@@ -108,6 +110,12 @@ public class WadoRS {
     @Inject
     private Device device;
 
+    @Inject
+    private FrameIndexCache frameIndexCache;
+
+    @Resource
+    private ManagedExecutorService executor;
+
     @Inject @RetrieveStart
     private Event<RetrieveContext> retrieveStart;
 
@@ -380,36 +388,47 @@ public class WadoRS {
 
     private void buildResponse(String method, int[] frameList, int[] attributePath, AsyncResponse ar, Output output,
                                final RetrieveContext ctx, Date lastModified) throws IOException {
-        service.calculateMatches(ctx);
-        LOG.info("{}: {} Matches", method, ctx.getNumberOfMatches());
-        if (ctx.getNumberOfMatches() == 0)
-            throw new WebApplicationException(errResponse("No matches found.", Response.Status.NOT_FOUND));
+        if (output.isStreaming())
+            service.calculateMatchesStreaming(ctx);
+        else
+            service.calculateMatches(ctx);
+        try {
+            LOG.info("{}: {} Matches", method, ctx.getNumberOfMatches());
+            if (ctx.getNumberOfMatches() == 0)
+                throw new WebApplicationException(errResponse("No matches found.", Response.Status.NOT_FOUND));
 //            Collection<InstanceLocations> notAccessable = service.removeNotAccessableMatches(ctx);
-        Collection<InstanceLocations> notAccepted = output.removeNotAcceptedMatches(this, ctx);
-        if (ctx.getMatches().isEmpty()) {
-            Response errResp = notAccepted.isEmpty()
-                    ? errResponse("No matches found.", Response.Status.NOT_FOUND)
-                    : errResponse("Not accepted instances present.", Response.Status.NOT_ACCEPTABLE);
-            throw new WebApplicationException(errResp);
-        }
+            Collection<InstanceLocations> notAccepted = output.removeNotAcceptedMatches(this, ctx);
+            if (ctx.getMatchIterator() == null && ctx.getMatches().isEmpty()) {
+                Response errResp = notAccepted.isEmpty()
+                        ? errResponse("No matches found.", Response.Status.NOT_FOUND)
+                        : errResponse("Not accepted instances present.", Response.Status.NOT_ACCEPTABLE);
+                throw new WebApplicationException(errResp);
+            }
 
-        if (lastModified == null)
-            lastModified = service.getLastModifiedFromMatches(ctx);
-
-        retrieveStart.fire(ctx);
-        ar.register((CompletionCallback) throwable -> {
-                SafeClose.close(compressedMFPixelDataOutput);
-                SafeClose.close(uncompressedFramesOutput);
-                SafeClose.close(compressedFramesOutput);
-                SafeClose.close(decompressFramesOutput);
-                purgeSpoolDirectory();
-                ctx.setException(throwable);
-                retrieveEnd.fire(ctx);
-        });
-        responseStatus = notAccepted.isEmpty() ? Response.Status.OK : Response.Status.PARTIAL_CONTENT;
-        Object entity = output.entity(this, ctx, frameList, attributePath);
-        ar.resume(Response.status(responseStatus).lastModified(lastModified)
-                .tag(String.valueOf(lastModified.hashCode())).entity(entity).build());
+            if (lastModified == null)
+                lastModified = ctx.getMatchIterator() != null
+                        ? service.getLastModified(ctx)
+                        : service.getLastModifiedFromMatches(ctx);
+
+            retrieveStart.fire(ctx);
+            ar.register((CompletionCallback) throwable -> {
+                    SafeClose.close(ctx.getMatchIterator());
+                    SafeClose.close(compressedMFPixelDataOutput);
+                    SafeClose.close(uncompressedFramesOutput);
+                    SafeClose.close(compressedFramesOutput);
+                    SafeClose.close(decompressFramesOutput);
+                    purgeSpoolDirectory();
+                    ctx.setException(throwable);
+                    retrieveEnd.fire(ctx);
+            });
+            responseStatus = notAccepted.isEmpty() ? Response.Status.OK : Response.Status.PARTIAL_CONTENT;
+            Object entity = output.entity(this, ctx, frameList, attributePath);
+            ar.resume(Response.status(responseStatus).lastModified(lastModified)
+                    .tag(String.valueOf(lastModified.hashCode())).entity(entity).build());
+        } catch (Exception e) {
+            SafeClose.close(ctx.getMatchIterator());
+            throw e;
+        }
     }
 
     private Response.ResponseBuilder evaluatePreConditions(Date lastModified) {
@@ -507,6 +526,10 @@ public class WadoRS {
             public boolean isMetadata() {
                 return true;
             }
+            @Override
+            public boolean isStreaming() {
+                return true;
+            }
         };
 
         public Object entity(WadoRS wadoRS, RetrieveContext ctx, int[] frameList, int[] attributePath)
@@ -559,6 +582,10 @@ public class WadoRS {
         public boolean isMetadata() {
             return false;
         }
+
+        public boolean isStreaming() {
+            return false;
+        }
     }
 
     private void writeBulkdata(MultipartRelatedOutput output, RetrieveContext ctx, InstanceLocations inst) {
@@ -653,9 +680,12 @@ public class WadoRS {
                                          int[] frameList, StringBuffer bulkdataURL) throws IOException {
         bulkdataURL.append("/frames/");
         int length = bulkdataURL.length();
-        uncompressedFramesOutput = new UncompressedFramesOutput(ctx, inst, frameList, spoolDirectory(frameList));
+        StreamingOutput entity = frameIndexCache.newIndexedFramesOutput(ctx, inst, frameList);
+        if (entity == null)
+            entity = uncompressedFramesOutput =
+                    new UncompressedFramesOutput(ctx, inst, frameList, spoolDirectory(frameList));
         for (int frame : frameList) {
-            OutputPart outputPart = output.addPart(uncompressedFramesOutput, MediaType.APPLICATION_OCTET_STREAM_TYPE);
+            OutputPart outputPart = output.addPart(entity, MediaType.APPLICATION_OCTET_STREAM_TYPE);
             bulkdataURL.setLength(length);
             bulkdataURL.append(frame);
             outputPart.getHeaders().putSingle("Content-Location", bulkdataURL.toString());
@@ -667,9 +697,12 @@ public class WadoRS {
             throws IOException {
         bulkdataURL.append("/frames/");
         int length = bulkdataURL.length();
-        compressedFramesOutput = new CompressedFramesOutput(ctx, inst, frameList, spoolDirectory(frameList));
+        StreamingOutput entity = frameIndexCache.newIndexedFramesOutput(ctx, inst, frameList);
+        if (entity == null)
+            entity = compressedFramesOutput =
+                    new CompressedFramesOutput(ctx, inst, frameList, spoolDirectory(frameList));
         for (int frame : frameList) {
-            OutputPart outputPart = output.addPart(compressedFramesOutput, mediaType);
+            OutputPart outputPart = output.addPart(entity, mediaType);
             bulkdataURL.setLength(length);
             bulkdataURL.append(frame);
             outputPart.getHeaders().putSingle("Content-Location", bulkdataURL.toString());
@@ -764,24 +797,43 @@ public class WadoRS {
     }
 
     private Object writeMetadataJSON(final RetrieveContext ctx) {
-        final Collection<InstanceLocations> insts = ctx.getMatches();
         return (StreamingOutput) out -> {
                 try {
                     JsonGenerator gen = Json.createGenerator(out);
                     JSONWriter writer = new JSONWriter(gen);
                     gen.writeStartArray();
-                    for (InstanceLocations inst : insts)
-                        writer.write(loadMetadata(ctx, inst));
+                    Iterator<InstanceLocations> insts = ctx.matches();
+                    int prefetchWindow = device.getDeviceExtension(ArchiveDeviceExtension.class)
+                            .getWadoMetadataPrefetchWindow();
+                    if (prefetchWindow > 0) {
+                        MetadataPrefetcher prefetcher = new MetadataPrefetcher(service, ctx, insts, executor,
+                                prefetchWindow, (inst, metadata) -> postProcessMetadata(ctx, inst, metadata));
+                        try {
+                            while (prefetcher.hasNext())
+                                writer.write(prefetcher.next());
+                        } finally {
+                            prefetcher.cancel();
+                        }
+                    } else {
+                        while (insts.hasNext())
+                            writer.write(loadMetadata(ctx, insts.next()));
+                    }
                     gen.writeEnd();
                     gen.flush();
                 } catch (Exception e) {
                     throw new WebApplicationException(errResponseAsTextPlain(e));
+                } finally {
+                    SafeClose.close(ctx.getMatchIterator());
                 }
         };
     }
 
     private Attributes loadMetadata(RetrieveContext ctx, InstanceLocations inst) throws IOException {
-        Attributes metadata = inst.isContainsMetadata() ? inst.getAttributes() : service.loadMetadata(ctx, inst);
+        return postProcessMetadata(ctx, inst,
+                inst.isContainsMetadata() ? inst.getAttributes() : service.loadMetadata(ctx, inst));
+    }
+
+    private Attributes postProcessMetadata(RetrieveContext ctx, InstanceLocations inst, Attributes metadata) {
         StringBuffer sb = device.getDeviceExtension(ArchiveDeviceExtension.class).remapRetrieveURL(request);
         sb.setLength(sb.lastIndexOf("/metadata"));
         mkInstanceURL(sb, inst);
@@ -108,6 +108,9 @@ public class WadoURI {
     @Inject
     private Device device;
 
+    @Inject
+    private RenderedImageCache renderedImageCache;
+
     @Inject @RetrieveWADO
     private Event<RetrieveContext> retrieveWado;
 
@@ -287,8 +290,35 @@ public class WadoURI {
         throw new AssertionError("objectType: " + objectType);
     }
 
-    private RenderedImageOutput renderImage(RetrieveContext ctx, InstanceLocations inst,
-                                            MediaType mimeType, int imageIndex) throws IOException {
+    private StreamingOutput renderImage(RetrieveContext ctx, InstanceLocations inst,
+                                        MediaType mimeType, int imageIndex) throws IOException {
+        if (!renderedImageCache.isEnabled())
+            return newRenderedImageOutput(ctx, inst, mimeType, imageIndex);
+
+        return renderedImageCache.get(inst.getSopInstanceUID(), renderedImageCacheKey(inst, mimeType, imageIndex),
+                () -> newRenderedImageOutput(ctx, inst, mimeType, imageIndex));
+    }
+
+    private String renderedImageCacheKey(InstanceLocations inst, MediaType mimeType, int imageIndex) {
+        Date updatedTime = inst.getUpdatedTime();
+        return String.join("|",
+                aet,
+                inst.getSopInstanceUID(),
+                updatedTime != null ? Long.toString(updatedTime.getTime()) : "",
+                Integer.toString(imageIndex),
+                Objects.toString(rows, ""),
+                Objects.toString(columns, ""),
+                Objects.toString(region, ""),
+                Objects.toString(windowCenter, ""),
+                Objects.toString(windowWidth, ""),
+                Objects.toString(presentationUID, ""),
+                Objects.toString(presentationSeriesUID, ""),
+                mimeType.getType() + '/' + mimeType.getSubtype(),
+                Objects.toString(imageQuality, ""));
+    }
+
+    private RenderedImageOutput newRenderedImageOutput(RetrieveContext ctx, InstanceLocations inst,
+                                                     MediaType mimeType, int imageIndex) throws IOException {
         Attributes attrs = inst.getAttributes();
         DicomImageReadParam readParam = new DicomImageReadParam();
         if (windowCenter != null && windowWidth != null) {
@@ -0,0 +1,159 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.wado;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class FrameIndexTest {
+
+    private static final byte[][] FRAMES = {
+            { 1, 2, 3, 4 },
+            { 5, 6, 7, 8 },
+            { 9, 10, 11, 12 }
+    };
+
+    @Test
+    public void testScanNative() throws IOException {
+        Attributes attrs = imageAttributes();
+        byte[] pixelData = new byte[FRAMES.length * 4];
+        for (int i = 0; i < FRAMES.length; i++)
+            System.arraycopy(FRAMES[i], 0, pixelData, i * 4, 4);
+        attrs.setBytes(Tag.PixelData, VR.OW, pixelData);
+        assertFrames(encode(attrs, UID.ExplicitVRLittleEndian), UID.ExplicitVRLittleEndian);
+    }
+
+    @Test
+    public void testScanEncapsulated() throws IOException {
+        Attributes attrs = imageAttributes();
+        Fragments fragments = attrs.newFragments(Tag.PixelData, VR.OB, FRAMES.length + 1);
+        fragments.add(new byte[0]);
+        for (byte[] frame : FRAMES)
+            fragments.add(frame);
+        assertFrames(encode(attrs, UID.JPEGLossless), UID.JPEGLossless);
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        Attributes attrs = imageAttributes();
+        attrs.setBytes(Tag.PixelData, VR.OW, new byte[FRAMES.length * 4]);
+        byte[] object = encode(attrs, UID.ExplicitVRLittleEndian);
+        FrameIndex frameIndex = scan(object, UID.ExplicitVRLittleEndian);
+        Path path = Files.createTempFile("frame-index", null);
+        try {
+            frameIndex.write(path);
+            FrameIndex read = FrameIndex.read(path);
+            assertEquals(object.length, read.getObjectSize());
+            assertEquals(FRAMES.length, read.getNumberOfFrames());
+            for (int frame = 1; frame <= FRAMES.length; frame++) {
+                assertEquals(frameIndex.offsetOf(frame), read.offsetOf(frame));
+                assertEquals(frameIndex.lengthOf(frame), read.lengthOf(frame));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testIsIndexable() {
+        assertTrue(FrameIndex.isIndexable(UID.ExplicitVRLittleEndian));
+        assertTrue(FrameIndex.isIndexable(UID.JPEGLossless));
+        assertFalse(FrameIndex.isIndexable(UID.DeflatedExplicitVRLittleEndian));
+    }
+
+    private static void assertFrames(byte[] object, String tsuid) throws IOException {
+        FrameIndex frameIndex = scan(object, tsuid);
+        assertEquals(object.length, frameIndex.getObjectSize());
+        assertEquals(FRAMES.length, frameIndex.getNumberOfFrames());
+        for (int frame = 1; frame <= FRAMES.length; frame++) {
+            int offset = (int) frameIndex.offsetOf(frame);
+            assertArrayEquals(FRAMES[frame - 1],
+                    Arrays.copyOfRange(object, offset, offset + frameIndex.lengthOf(frame)));
+        }
+    }
+
+    private static FrameIndex scan(byte[] object, String tsuid) throws IOException {
+        try (DicomInputStream dis = new DicomInputStream(new ByteArrayInputStream(object), tsuid)) {
+            return FrameIndex.scan(dis, object.length, FRAMES.length);
+        }
+    }
+
+    private static Attributes imageAttributes() {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3");
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        attrs.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        attrs.setString(Tag.NumberOfFrames, VR.IS, Integer.toString(FRAMES.length));
+        attrs.setInt(Tag.Rows, VR.US, 2);
+        attrs.setInt(Tag.Columns, VR.US, 2);
+        attrs.setInt(Tag.BitsAllocated, VR.US, 8);
+        attrs.setInt(Tag.BitsStored, VR.US, 8);
+        attrs.setInt(Tag.HighBit, VR.US, 7);
+        attrs.setInt(Tag.PixelRepresentation, VR.US, 0);
+        return attrs;
+    }
+
+    private static byte[] encode(Attributes attrs, String tsuid) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DicomOutputStream dos = new DicomOutputStream(out, tsuid)) {
+            dos.writeDataset(null, attrs);
+        }
+        return out.toByteArray();
+    }
+}
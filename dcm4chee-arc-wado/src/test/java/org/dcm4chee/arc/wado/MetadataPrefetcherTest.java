@@ -0,0 +1,267 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.wado;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.AttributesCoercion;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.arc.retrieve.InstanceLocations;
+import org.dcm4chee.arc.retrieve.RetrieveService;
+import org.dcm4chee.arc.retrieve.SeriesMetadataReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class MetadataPrefetcherTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private static final AttributesCoercion NO_COERCION = new AttributesCoercion() {
+        @Override
+        public void coerce(Attributes attrs, Attributes modified) {
+        }
+
+        @Override
+        public String remapUID(String uid) {
+            return uid;
+        }
+    };
+
+    private final Map<String, List<String>> zips = new HashMap<>();
+    private final Map<String, FakeReader> readers = new ConcurrentHashMap<>();
+    private final Set<String> failOnRead = new HashSet<>();
+    private final List<String> loaded = Collections.synchronizedList(new ArrayList<>());
+    private final RetrieveService service = (RetrieveService) Proxy.newProxyInstance(
+            RetrieveService.class.getClassLoader(),
+            new Class<?>[]{ RetrieveService.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "openSeriesMetadata":
+                        return openSeriesMetadata((InstanceLocations) args[1]);
+                    case "loadMetadata":
+                        InstanceLocations inst = (InstanceLocations) args[1];
+                        loaded.add(inst.getSopInstanceUID());
+                        return metadata(inst.getSopInstanceUID(), "load");
+                    case "getAttributesCoercion":
+                        return NO_COERCION;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    @Test
+    public void testMatchOrder() throws IOException {
+        zips.put("A", Arrays.asList("a3", "a2", "a1"));
+        assertEquals(Arrays.asList("a1:zip", "a2:zip", "a3:zip", "b1:load", "b2:load"),
+                prefetch(DIRECT, 3, inst("A", "a1"), inst("A", "a2"), inst("A", "a3"),
+                        inst("B", "b1"), inst("B", "b2")));
+        assertTrue(readers.get("A").closed);
+        assertEquals(3, readers.get("A").reads);
+    }
+
+    @Test
+    public void testWindowBoundsBufferedMetadata() throws IOException {
+        zips.put("A", Arrays.asList("a4", "a3", "a2", "a1", "a5"));
+        assertEquals(Arrays.asList("a1:load", "a2:load", "a3:zip", "a4:zip", "a5:zip"),
+                prefetch(DIRECT, 2, inst("A", "a1"), inst("A", "a2"), inst("A", "a3"),
+                        inst("A", "a4"), inst("A", "a5")));
+        assertEquals(Arrays.asList("a1", "a2"), loaded);
+        assertEquals(3, readers.get("A").reads);
+    }
+
+    @Test
+    public void testFallbackOnReadFailure() throws IOException {
+        zips.put("A", Arrays.asList("a1", "a2", "a3"));
+        failOnRead.add("a2");
+        assertEquals(Arrays.asList("a1:zip", "a2:load", "a3:load"),
+                prefetch(DIRECT, 3, inst("A", "a1"), inst("A", "a2"), inst("A", "a3")));
+        assertTrue(readers.get("A").closed);
+    }
+
+    @Test
+    public void testNotContiguousSeries() throws IOException {
+        zips.put("A", Arrays.asList("a1", "a2"));
+        assertEquals(Arrays.asList("a1:zip", "b1:load", "a2:load"),
+                prefetch(DIRECT, 1, inst("A", "a1"), inst("B", "b1"), inst("A", "a2")));
+        assertTrue(readers.get("A").closed);
+        assertEquals(1, readers.get("A").opened);
+    }
+
+    @Test
+    public void testCancel() {
+        zips.put("A", Arrays.asList("a1", "a2", "a3"));
+        ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        MetadataPrefetcher prefetcher = new MetadataPrefetcher(service, null,
+                Arrays.asList(inst("A", "a1"), inst("A", "a2"), inst("A", "a3")).iterator(),
+                tasks::add, 2, (inst, metadata) -> metadata);
+        prefetcher.cancel();
+        assertFalse(prefetcher.hasNext());
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            task.run();
+        assertTrue(readers.get("A").closed);
+        assertEquals(0, readers.get("A").reads);
+        assertTrue(loaded.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentLoads() throws IOException {
+        List<String> zip = new ArrayList<>();
+        List<InstanceLocations> insts = new ArrayList<>();
+        List<String> iuids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            zip.add(0, "a" + i);
+            insts.add(inst("A", "a" + i));
+            iuids.add("a" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            insts.add(inst("B", "b" + i));
+            iuids.add("b" + i);
+        }
+        zips.put("A", zip);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<String> result = prefetch(executor, 4, insts.toArray(new InstanceLocations[0]));
+            List<String> order = new ArrayList<>();
+            for (String s : result)
+                order.add(s.substring(0, s.indexOf(':')));
+            assertEquals(iuids, order);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<String> prefetch(Executor executor, int window, InstanceLocations... insts) throws IOException {
+        MetadataPrefetcher prefetcher = new MetadataPrefetcher(service, null, Arrays.asList(insts).iterator(),
+                executor, window, (inst, metadata) -> metadata);
+        List<String> result = new ArrayList<>();
+        try {
+            while (prefetcher.hasNext()) {
+                Attributes metadata = prefetcher.next();
+                result.add(metadata.getString(Tag.SOPInstanceUID) + ':' + metadata.getString(Tag.StationName));
+            }
+        } finally {
+            prefetcher.cancel();
+        }
+        return result;
+    }
+
+    private SeriesMetadataReader openSeriesMetadata(InstanceLocations inst) {
+        String seriesIUID = inst.getAttributes().getString(Tag.SeriesInstanceUID);
+        List<String> entries = zips.get(seriesIUID);
+        if (entries == null)
+            return null;
+
+        FakeReader reader = readers.computeIfAbsent(seriesIUID, uid -> new FakeReader(entries));
+        reader.opened++;
+        return reader;
+    }
+
+    private static InstanceLocations inst(String seriesIUID, String iuid) {
+        Attributes attrs = new Attributes(2);
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, seriesIUID);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, iuid);
+        return (InstanceLocations) Proxy.newProxyInstance(InstanceLocations.class.getClassLoader(),
+                new Class<?>[]{ InstanceLocations.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getSopInstanceUID":
+                            return iuid;
+                        case "getAttributes":
+                            return attrs;
+                        case "isContainsMetadata":
+                            return false;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static Attributes metadata(String iuid, String source) {
+        Attributes metadata = new Attributes(2);
+        metadata.setString(Tag.SOPInstanceUID, VR.UI, iuid);
+        metadata.setString(Tag.StationName, VR.SH, source);
+        return metadata;
+    }
+
+    private class FakeReader implements SeriesMetadataReader {
+        final List<String> entries;
+        int index = -1;
+        int opened;
+        int reads;
+        volatile boolean closed;
+
+        FakeReader(List<String> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public String nextSOPInstanceUID() {
+            assertFalse(closed);
+            return ++index < entries.size() ? entries.get(index) : null;
+        }
+
+        @Override
+        public Attributes readMetadata() throws IOException {
+            assertFalse(closed);
+            reads++;
+            String iuid = entries.get(index);
+            if (failOnRead.contains(iuid))
+                throw new IOException("Failed to read " + iuid);
+            return metadata(iuid, "zip");
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
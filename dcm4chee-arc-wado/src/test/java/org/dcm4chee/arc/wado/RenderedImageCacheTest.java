@@ -0,0 +1,192 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * J4Care.
+ * Portions created by the Initial Developer are Copyright (C) 2018
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * *** END LICENSE BLOCK *****
+ */
+
+package org.dcm4chee.arc.wado;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.arc.conf.ArchiveDeviceExtension;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since Apr 2018
+ */
+public class RenderedImageCacheTest {
+
+    private Path dir;
+    private ArchiveDeviceExtension arcDev;
+    private RenderedImageCache cache;
+    private int renders;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("wado-rendered");
+        arcDev = new ArchiveDeviceExtension();
+        arcDev.setWadoRenderedCacheDirectory(dir.toString());
+        Device device = new Device("test");
+        device.addDeviceExtension(arcDev);
+        cache = new RenderedImageCache(device);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCacheOnWrite() throws IOException {
+        assertEquals("image", write(cache.get("1.2.3", "a", render("image"))));
+        assertEquals("image", write(cache.get("1.2.3", "a", render("other"))));
+        assertEquals(1, renders);
+        assertEquals(5L, cache.getSize());
+        assertEquals(1L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+        assertEquals(0.5, cache.getHitRatio(), 0.);
+    }
+
+    @Test
+    public void testConcurrentCacheOnWriteOfSameImage() throws IOException {
+        StreamingOutput first = cache.get("1.2.3", "a", render("first"));
+        StreamingOutput second = cache.get("1.2.3", "a", render("second"));
+        ByteArrayOutputStream firstOut = new ByteArrayOutputStream();
+        first.write(new ByteArrayOutputStream() {
+            @Override
+            public void write(byte[] b, int off, int len) {
+                try {
+                    assertEquals("second", write(second));
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                firstOut.write(b, off, len);
+            }
+        });
+        assertEquals("first", new String(firstOut.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("first", write(cache.get("1.2.3", "a", render("third"))));
+        assertEquals(5L, cache.getSize());
+    }
+
+    @Test
+    public void testRenderAgainIfInvalidatedAfterGet() throws IOException {
+        write(cache.get("1.2.3", "a", render("image")));
+        StreamingOutput cached = cache.get("1.2.3", "a", render("again"));
+        cache.invalidate("1.2.3");
+        assertEquals("again", write(cached));
+        assertEquals(2, renders);
+        assertEquals("again", write(cache.get("1.2.3", "a", render("other"))));
+        assertEquals(2, renders);
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        write(cache.get("1.2.3", "a", render("image")));
+        write(cache.get("1.2.3", "b", render("image")));
+        write(cache.get("1.2.4", "a", render("image")));
+        cache.invalidate("1.2.3");
+        assertFalse(Files.exists(dir.resolve("1.2.3")));
+        assertEquals(5L, cache.getSize());
+        assertEquals("image", write(cache.get("1.2.4", "a", render("other"))));
+        assertEquals("new", write(cache.get("1.2.3", "a", render("new"))));
+        assertEquals("new", write(cache.get("1.2.3", "b", render("new"))));
+    }
+
+    @Test
+    public void testEvict() throws IOException {
+        arcDev.setWadoRenderedCacheSize("10");
+        write(cache.get("1.2.3", "a", render("image")));
+        write(cache.get("1.2.3", "b", render("image")));
+        write(cache.get("1.2.3", "a", render("other")));
+        write(cache.get("1.2.4", "a", render("image")));
+        assertEquals(10L, cache.getSize());
+        assertEquals(1L, cache.getEvictions());
+        assertEquals("image", write(cache.get("1.2.3", "a", render("other"))));
+        assertEquals("image", write(cache.get("1.2.4", "a", render("other"))));
+        cache.invalidate("1.2.3");
+        assertEquals(5L, cache.getSize());
+        assertEquals("other", write(cache.get("1.2.3", "b", render("other"))));
+    }
+
+    @Test
+    public void testDirectoryChange() throws IOException {
+        write(cache.get("1.2.3", "a", render("image")));
+        Path dir2 = Files.createTempDirectory("wado-rendered");
+        try {
+            arcDev.setWadoRenderedCacheDirectory(dir2.toString());
+            assertEquals("other", write(cache.get("1.2.3", "a", render("other"))));
+            assertTrue(Files.exists(dir2.resolve("1.2.3")));
+            arcDev.setWadoRenderedCacheDirectory(dir.toString());
+            assertEquals("image", write(cache.get("1.2.3", "a", render("new"))));
+        } finally {
+            try (Stream<Path> stream = Files.walk(dir2)) {
+                stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private RenderedImageCache.Renderer render(String s) {
+        return () -> {
+            renders++;
+            return output(s);
+        };
+    }
+
+    private static StreamingOutput output(String s) {
+        return out -> out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String write(StreamingOutput output) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        output.write(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}